@@ -0,0 +1,68 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.protimer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a session of Pro timer lines with the table parser versus a String/split of each line
+ * the way TimingInterface used to
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProTimerParserBenchmark
+{
+    byte[][] lines;
+    ProTimerParser parser;
+    Blackhole bh;
+
+    @Setup
+    public void setup(Blackhole bh)
+    {
+        String[] session = { "TREE", "RT L 0.512", "RT R 0.498 REDLIGHT", "SIXTY L 2.013", "SIXTY R 2.101",
+                             "FIN L 12.345 12.100", "FIN R 12.876 12.500", "WIN L", "DIAL L 12.100 R 12.500", "NIP 1 2" };
+        lines = new byte[session.length][];
+        for (int ii = 0; ii < session.length; ii++)
+            lines[ii] = session[ii].getBytes(StandardCharsets.US_ASCII);
+        this.bh = bh;
+        parser = new ProTimerParser((type, o) -> this.bh.consume(o));
+    }
+
+    @Benchmark
+    public void splitLines()
+    {
+        for (byte[] line : lines) {
+            String args[] = new String(line).split("[ \r\n]+");
+            if (args[0].equalsIgnoreCase("rt") || args[0].equalsIgnoreCase("sixty"))
+                bh.consume(new ColorTime(Double.parseDouble(args[2]), ColorTime.NORMAL));
+            else if (args[0].equalsIgnoreCase("fin"))
+                bh.consume(new Object[] { new ColorTime(Double.parseDouble(args[2]), ColorTime.NORMAL), Double.parseDouble(args[3]) });
+            else
+                bh.consume(args);
+        }
+    }
+
+    @Benchmark
+    public void tableParser()
+    {
+        for (byte[] line : lines)
+            parser.parse(line, 0, line.length);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.wwscc.util.EventInfo;
+
+/**
+ * Generates the synthetic data for the benchmarks.  Everything is seeded so each run, and each version
+ * of the code, sees the same data.
+ */
+public class BenchmarkData
+{
+    static final String[] ATTRS  = { "{}", "{}", "{}",
+                                     "{\"reaction\": 0.512, \"sixty\": 2.103}",
+                                     "{\"reaction\": 0.498, \"sixty\": 2.087, \"seg1\": 12.345, \"seg2\": 25.678, \"seg3\": 38.901}" };
+    static final String[] STATUS = { "OK", "OK", "OK", "OK", "OK", "OK", "OK", "DNF", "RL", "DNS" };
+
+    final Random r;
+    final UUID eventid;
+
+    public BenchmarkData(long seed)
+    {
+        r = new Random(seed);
+        eventid = new UUID(seed, seed);
+    }
+
+    /**
+     * @return a runs table result set with columns as Run.COLUMNS
+     */
+    public ResultSet runRows(int cars, int runspercar)
+    {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (Run run : runs(cars, runspercar))
+            rows.add(new Object[] { ATTRS[r.nextInt(ATTRS.length)], run.eventid, run.carid, run.course, run.rungroup, run.run, run.cones, run.gates, run.status, run.raw });
+        return SyntheticResultSet.create(Run.COLUMNS, rows);
+    }
+
+    /**
+     * @return shuffled runs for the given number of cars, two courses, mostly clean
+     */
+    public List<Run> runs(int cars, int runspercar)
+    {
+        List<Run> ret = new ArrayList<Run>();
+        for (int ii = 0; ii < cars; ii++)
+        {
+            UUID carid = new UUID(r.nextLong(), r.nextLong());
+            for (int course = 1; course <= 2; course++)
+            {
+                for (int jj = 1; jj <= runspercar; jj++)
+                {
+                    Run run = new Run(40 + r.nextDouble()*10, (r.nextInt(5) == 0) ? r.nextInt(3) : 0, (r.nextInt(20) == 0) ? 1 : 0, STATUS[r.nextInt(STATUS.length)]);
+                    run.eventid  = eventid;
+                    run.carid    = carid;
+                    run.course   = course;
+                    run.rungroup = 1;
+                    run.run      = jj;
+                    ret.add(run);
+                }
+            }
+        }
+        Collections.shuffle(ret, r);
+        return ret;
+    }
+
+    /**
+     * @return attr JSON strings in the same mix as the runs table
+     */
+    public String[] attrs(int count)
+    {
+        String[] ret = new String[count];
+        for (int ii = 0; ii < count; ii++)
+            ret[ii] = ATTRS[r.nextInt(ATTRS.length)];
+        return ret;
+    }
+
+    public List<Entrant> entrants(List<Run> runs, int classes)
+    {
+        List<Entrant> ret = new ArrayList<Entrant>();
+        runs.stream().map(Run::getCarId).distinct().forEach(carid -> ret.add(Entrant.testEntrant(carid, "C" + r.nextInt(classes))));
+        return ret;
+    }
+
+    /**
+     * @return a PAX style setup, an indexed open class with restricted multipliers and plain classes with their own index
+     */
+    public ClassData classData(int indexes)
+    {
+        List<ClassData.Index> idx = new ArrayList<ClassData.Index>();
+        for (int ii = 0; ii < indexes; ii++) {
+            ClassData.Index i = new ClassData.Index();
+            i.indexcode = ((ii % 2 == 0) ? "A" : "B") + ii;
+            i.value = 0.75 + r.nextDouble() * 0.2;
+            idx.add(i);
+        }
+
+        List<ClassData.Class> cls = new ArrayList<ClassData.Class>();
+        ClassData.Class open = new ClassData.Class("OPEN", false);
+        open.indexcode = "";
+        open.carindexed = true;
+        open.classmultiplier = 0.9;
+        open.caridxrestrict = "+[A*]";
+        open.usecarflag = true;
+        cls.add(open);
+        for (int ii = 0; ii < 20; ii++) {
+            ClassData.Class c = new ClassData.Class("C" + ii, false);
+            c.indexcode = idx.get(ii % indexes).indexcode;
+            c.caridxrestrict = "";
+            c.classmultiplier = 1.0;
+            cls.add(c);
+        }
+        return new ClassData(cls, idx);
+    }
+
+    public static EventInfo event()
+    {
+        return new EventInfo() {{ conePenalty = 2.0; gatePenalty = 10.0; }};
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares matching runs to entrants with the old nested loop and with attachRuns for a synthetic
+ * large run group.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EntrantLoadBenchmark
+{
+    @Param({"150"})
+    int cars;
+
+    @Param({"6"})
+    int runspercar;
+
+    List<Entrant> entrants;
+    List<Run> runs;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkData data = new BenchmarkData(1);
+        runs     = data.runs(cars, runspercar);
+        entrants = data.entrants(runs, 20);
+    }
+
+    @Benchmark
+    public List<Entrant> nestedLoop()
+    {
+        for (Entrant e : entrants)
+            for (Run rx : runs)
+                if (rx.getCarId().equals(e.getCarId()))
+                    e.runs.put(rx.run, rx);
+        return entrants;
+    }
+
+    @Benchmark
+    public List<Entrant> grouped()
+    {
+        SQLDataInterface.attachRuns(entrants, runs);
+        return entrants;
+    }
+}
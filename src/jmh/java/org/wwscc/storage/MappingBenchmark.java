@@ -0,0 +1,77 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Creating objects from result set rows, the 20k run case is a large event's worth of runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MappingBenchmark
+{
+    @Param({"20000"})
+    int runs;
+
+    ResultSet rows;
+    String[] attrs;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkData data = new BenchmarkData(1);
+        rows  = data.runRows(runs / 12, 6);
+        attrs = data.attrs(1000);
+    }
+
+    @Benchmark
+    public List<Run> runMapper() throws SQLException
+    {
+        rows.beforeFirst();
+        List<Run> ret = new ArrayList<Run>();
+        RowMapper.Row<Run> row = Run.MAPPER.bind(rows);
+        while (rows.next())
+            ret.add(row.map(rows));
+        return ret;
+    }
+
+    @Benchmark
+    public List<Run> runByName() throws SQLException
+    {
+        rows.beforeFirst();
+        List<Run> ret = new ArrayList<Run>();
+        while (rows.next())
+            ret.add(new Run(rows));
+        return ret;
+    }
+
+    @Benchmark
+    public List<AttrBase> attrParse()
+    {
+        List<AttrBase> ret = new ArrayList<AttrBase>(attrs.length);
+        for (String s : attrs)
+            ret.add(new AttrBase(s));
+        return ret;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sorting runs, calculating dialins and looking up effective indexes, the work done for each
+ * results or announcer refresh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrderingBenchmark
+{
+    @Param({"150"})
+    int cars;
+
+    List<Run> runs;
+    Run.NetOrder netorder;
+    ClassData classdata;
+    String[] indexcodes;
+    List<Entrant> entrants;
+    double[] nets;
+    Dialins dialins;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkData data = new BenchmarkData(2);
+        runs      = data.runs(cars, 6);
+        netorder  = new Run.NetOrder(BenchmarkData.event());
+        classdata = data.classData(40);
+        indexcodes = classdata.getIndexCodes().toArray(new String[0]);
+        entrants  = data.entrants(runs, 20);
+        nets      = new double[entrants.size()];
+        for (int ii = 0; ii < nets.length; ii++)
+            nets[ii] = 40 + data.r.nextDouble()*10;
+        dialins = buildDialins();
+    }
+
+    @Benchmark
+    public List<Run> netOrderSort()
+    {
+        List<Run> sorted = new ArrayList<Run>(runs);
+        sorted.sort(netorder);
+        return sorted;
+    }
+
+    private Dialins buildDialins()
+    {
+        Dialins d = new Dialins();
+        for (int ii = 0; ii < nets.length; ii++)
+            d.setEntrant(entrants.get(ii).getCarId(), entrants.get(ii).getClassCode(), nets[ii] / 0.9, nets[ii], 0.9);
+        return d;
+    }
+
+    /** the full calculation that finalizedialins used to do for each event change */
+    @Benchmark
+    public void dialinsBuild(Blackhole bh)
+    {
+        Dialins d = buildDialins();
+        for (UUID carid : d.getNetOrder())
+            bh.consume(d.getDial(carid, false));
+    }
+
+    /** the incremental update for a single new run */
+    @Benchmark
+    public void dialinsUpdate(Blackhole bh)
+    {
+        Entrant e = entrants.get(entrants.size() / 2);
+        double net = nets[entrants.size() / 2] - 1.0;
+        dialins.setEntrant(e.getCarId(), e.getClassCode(), net / 0.9, net, 0.9);
+        bh.consume(dialins.getDial(e.getCarId(), false));
+        dialins.setEntrant(e.getCarId(), e.getClassCode(), (net + 1.0) / 0.9, net + 1.0, 0.9);
+    }
+
+    @Benchmark
+    public void effectiveIndex(Blackhole bh)
+    {
+        for (String code : indexcodes) {
+            bh.consume(classdata.getEffectiveIndex("OPEN", code, true));
+            bh.consume(classdata.getEffectiveIndex("C3", code, false));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read only, in memory ResultSet over a list of rows so the mapping code can be measured without a
+ * database.  Only the getters used by the storage classes are implemented.  It is a dynamic proxy, which
+ * adds a small constant cost per call, the same for every version being compared.
+ */
+public class SyntheticResultSet implements InvocationHandler
+{
+    private final List<String> columns;
+    private final List<Object[]> rows;
+    private int current;
+    private boolean wasnull;
+
+    private SyntheticResultSet(String[] columns, List<Object[]> rows)
+    {
+        this.columns = Arrays.asList(columns);
+        this.rows    = rows;
+        this.current = -1;
+    }
+
+    /**
+     * @param columns the column names, in order
+     * @param rows the values for each row, using the types the JDBC driver would return
+     * @return a ResultSet positioned before the first row, call beforeFirst to read it again
+     */
+    public static ResultSet create(String[] columns, List<Object[]> rows)
+    {
+        return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new SyntheticResultSet(columns, rows));
+    }
+
+    private int findColumn(String name) throws SQLException
+    {
+        int idx = columns.indexOf(name);
+        if (idx < 0)
+            throw new SQLException("no column " + name);
+        return idx + 1;
+    }
+
+    private Object value(Object column) throws SQLException
+    {
+        int idx = (column instanceof String) ? findColumn((String)column) : (Integer)column;
+        Object ret = rows.get(current)[idx - 1];
+        wasnull = (ret == null);
+        return ret;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        switch (method.getName())
+        {
+            case "next":        return ++current < rows.size();
+            case "beforeFirst": current = -1; return null;
+            case "findColumn":  return findColumn((String)args[0]);
+            case "wasNull":     return wasnull;
+            case "close":       return null;
+            case "getObject":   return value(args[0]);
+            case "getString":   { Object v = value(args[0]); return (v == null) ? null : v.toString(); }
+            case "getInt":      { Object v = value(args[0]); return (v == null) ? 0 : ((Number)v).intValue(); }
+            case "getDouble":   { Object v = value(args[0]); return (v == null) ? 0.0 : ((Number)v).doubleValue(); }
+            case "getBoolean":  { Object v = value(args[0]); return (v != null) && (Boolean)v; }
+            case "hashCode":    return System.identityHashCode(proxy);
+            case "equals":      return proxy == args[0];
+            case "toString":    return "SyntheticResultSet" + columns;
+        }
+        throw new SQLException(method.getName() + " is not supported by SyntheticResultSet");
+    }
+}
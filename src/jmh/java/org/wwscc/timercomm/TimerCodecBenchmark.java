@@ -0,0 +1,92 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.timercomm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.wwscc.storage.Run;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Timer messages per second through the streaming codec versus the tree based encoding it replaced.
+ * Bytes allocated per message are the gc.alloc.rate.norm result from the gc profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TimerCodecBenchmark
+{
+    ObjectMapper objectMapper;
+    TimerCodec codec;
+    OutputStream sink;
+    Run.WithRowId run;
+    byte[] line;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        objectMapper = new ObjectMapper();
+        codec = new TimerCodec();
+        sink  = OutputStream.nullOutputStream();
+
+        run = new Run.WithRowId();
+        run.setCourse(1);
+        run.setRaw(45.678);
+        run.setStatus("OK");
+        run.setCones(1);
+        run.setReaction(0.512);
+        run.setSixty(2.013);
+        run.setRowId(UUID.randomUUID());
+
+        codec.encode(TimerCodec.RUN_MESSAGE, run, UUID.randomUUID().toString(), 1234);
+        line = codec.toByteArray();
+    }
+
+    @Benchmark
+    public void treeEncode() throws IOException
+    {
+        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
+        data.put("type", TimerCodec.RUN_MESSAGE);
+        data.set("data", objectMapper.valueToTree(run));
+        sink.write((objectMapper.writeValueAsString(data)+"\n").getBytes());
+    }
+
+    @Benchmark
+    public void codecEncode() throws IOException
+    {
+        codec.encode(TimerCodec.RUN_MESSAGE, run, null, -1);
+        codec.writeTo(sink);
+    }
+
+    @Benchmark
+    public Run treeDecode() throws IOException
+    {
+        ObjectNode msg = (ObjectNode) objectMapper.readTree(new String(line));
+        return objectMapper.treeToValue(msg.get("data"), Run.WithRowId.class);
+    }
+
+    @Benchmark
+    public Run codecDecode() throws IOException
+    {
+        return codec.decode(line, 0, line.length).run;
+    }
+}
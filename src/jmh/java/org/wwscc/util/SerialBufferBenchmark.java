@@ -0,0 +1,75 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splitting timer serial data into lines as it arrives in small chunks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerialBufferBenchmark
+{
+    @Param({"8", "64"})
+    int chunksize;
+
+    byte[][] chunks;
+
+    @Setup
+    public void setup()
+    {
+        StringBuilder data = new StringBuilder();
+        for (int ii = 0; ii < 200; ii++)
+            data.append(String.format("%s %d %02.3f\r\n", (ii % 2 == 0) ? "L" : "R", ii, 40 + ii*0.01));
+        byte[] all = data.toString().getBytes(StandardCharsets.US_ASCII);
+
+        chunks = new byte[(all.length + chunksize - 1) / chunksize][];
+        for (int ii = 0; ii < chunks.length; ii++) {
+            int start = ii * chunksize;
+            chunks[ii] = Arrays.copyOfRange(all, start, Math.min(all.length, start + chunksize));
+        }
+    }
+
+    @Benchmark
+    public void appendAndSplit(Blackhole bh)
+    {
+        SerialPortUtil.LineBasedSerialBuffer buffer = new SerialPortUtil.LineBasedSerialBuffer();
+        for (byte[] chunk : chunks) {
+            buffer.appendData(chunk);
+            byte[] line;
+            while ((line = buffer.getNextLine()) != null)
+                bh.consume(line);
+        }
+    }
+
+    @Benchmark
+    public void appendAndFrame(Blackhole bh)
+    {
+        SerialPortUtil.LineBasedSerialBuffer buffer = new SerialPortUtil.LineBasedSerialBuffer();
+        SerialPortUtil.SerialFrameListener listener = (buf, off, len) -> bh.consume(len);
+        for (byte[] chunk : chunks) {
+            buffer.appendData(chunk);
+            while (buffer.nextLine(listener));
+        }
+    }
+}
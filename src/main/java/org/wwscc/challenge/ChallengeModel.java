@@ -18,10 +18,12 @@ import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.wwscc.dialogs.SimpleFinderDialog;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.Challenge;
 import org.wwscc.storage.ChallengeRound;
 import org.wwscc.storage.ChallengeRound.RoundEntrant;
 import org.wwscc.storage.ChallengeRun;
+import org.wwscc.storage.DataInterface;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.Entrant;
 import org.wwscc.storage.LeftRightDialin;
@@ -176,7 +178,7 @@ public class ChallengeModel implements MessageListener
         if (r != null)
         {
             r.setRaw(time);
-            Database.d.setChallengeRun(r);
+            saveRun(r);
         }
         else
         {
@@ -189,7 +191,7 @@ public class ChallengeModel implements MessageListener
             RoundEntrant re = (rid.isUpper()) ? round.getTopCar() : round.getBottomCar();
             r.setCarId(re.getCarId());
             round.applyRun(r);
-            Database.d.setChallengeRun(r);
+            saveRun(r);
         }
 
         checkForWinner(rid);
@@ -208,7 +210,7 @@ public class ChallengeModel implements MessageListener
         if (r != null)
         {
             r.setCones(cones);
-            Database.d.setChallengeRun(r);
+            saveRun(r);
         }
         checkForWinner(rid);
         Messenger.sendEvent(MT.RUN_CHANGED, r);
@@ -225,7 +227,7 @@ public class ChallengeModel implements MessageListener
         if (r != null)
         {
             r.setGates(gates);
-            Database.d.setChallengeRun(r);
+            saveRun(r);
         }
         checkForWinner(rid);
         Messenger.sendEvent(MT.RUN_CHANGED, r);
@@ -243,7 +245,7 @@ public class ChallengeModel implements MessageListener
         if (r != null)
         {
             r.setStatus(status);
-            Database.d.setChallengeRun(r);
+            saveRun(r);
         }
         checkForWinner(rid);
         Messenger.sendEvent(MT.RUN_CHANGED, r);
@@ -270,7 +272,7 @@ public class ChallengeModel implements MessageListener
             re.setDial(0.0);
         }
 
-        Database.d.updateChallengeRound(r);
+        saveRound(r);
     }
 
 
@@ -300,7 +302,7 @@ public class ChallengeModel implements MessageListener
             updates.add(r);
         }
 
-        Database.d.updateChallengeRounds(updates);
+        AsyncDataInterface.update(d -> d.updateChallengeRounds(updates)).exceptionally(AsyncDataInterface.logFailure("Failed to save challenge rounds"));
     }
 
     /**
@@ -348,7 +350,7 @@ public class ChallengeModel implements MessageListener
         ChallengeRound r = getRound(eid);
         RoundEntrant re = (eid.isUpper()) ? r.getTopCar() : r.getBottomCar();
         re.setDial(newDial);
-        Database.d.updateChallengeRound(r);
+        saveRound(r);
     }
 
     /**
@@ -377,19 +379,19 @@ public class ChallengeModel implements MessageListener
 
         if (top != null)
         {
-            Database.d.deleteChallengeRun(top.getLeft());
-            Database.d.deleteChallengeRun(top.getRight());
+            deleteRun(top.getLeft());
+            deleteRun(top.getRight());
             top.reset();
         }
 
         if (bottom != null)
         {
-            Database.d.deleteChallengeRun(bottom.getLeft());
-            Database.d.deleteChallengeRun(bottom.getRight());
+            deleteRun(bottom.getLeft());
+            deleteRun(bottom.getRight());
             bottom.reset();
         }
 
-        Database.d.updateChallengeRound(r);
+        saveRound(r);
     }
 
     /**
@@ -411,7 +413,7 @@ public class ChallengeModel implements MessageListener
             cr.setChallengeRound(rid);
             cr.setCarId(re.getCarId());
             getRound(rid).applyRun(cr);
-            Database.d.setChallengeRun(cr);
+            saveRun(cr);
         }
         else
         {
@@ -420,7 +422,7 @@ public class ChallengeModel implements MessageListener
             cr.setSixty(run.getSixty());
             cr.setRaw(run.getRaw());
             cr.setStatus(run.getStatus());
-            Database.d.setChallengeRun(cr);
+            saveRun(cr);
         }
 
         Double raw = cr.getRaw();
@@ -542,7 +544,7 @@ public class ChallengeModel implements MessageListener
                 break;
         }
 
-        Database.d.updateChallengeRound(round);
+        saveRound(round);
         if (winner == null)
             return;
 
@@ -553,7 +555,7 @@ public class ChallengeModel implements MessageListener
             next.getTopCar().setTo(winner.getCarId(), getNewDial(winner));
         else
             next.getBottomCar().setTo(winner.getCarId(), getNewDial(winner));
-        Database.d.updateChallengeRound(next);
+        saveRound(next);
         Messenger.sendEvent(MT.ENTRANT_CHANGED, eid);
 
         /* Special advance to third place bracket for losers in semifinal */
@@ -567,41 +569,80 @@ public class ChallengeModel implements MessageListener
                 third.getTopCar().setTo(loser.getCarId(), getNewDial(loser));
             else
                 third.getBottomCar().setTo(loser.getCarId(), getNewDial(loser));
-            Database.d.updateChallengeRound(third);
+            saveRound(third);
             Messenger.sendEvent(MT.ENTRANT_CHANGED, thirdid);
         }
     }
 
     /**
-     * Called to (re)load the data from the database into our local storage.
-     * @param e  the event to load challenge data for
+     * The challenge data for an event, loaded on the database thread
      */
-    private void loadEventData()
+    static class EventData
     {
-        challenges.clear();
-        rounds.clear();
-        entrantcache.clear();
+        Map<UUID, Challenge> challenges = new HashMap<UUID, Challenge>();
+        Map<UUID, Map<Integer, ChallengeRound>> rounds = new HashMap<UUID, Map<Integer,ChallengeRound>>();
+        Map<UUID, Entrant> entrants = new HashMap<UUID,Entrant>();
 
-        for (Challenge c : Database.d.getChallengesForEvent(ChallengeGUI.state.getCurrentEventId()))
+        EventData(DataInterface d, UUID eventid)
         {
-            challenges.put(c.getChallengeId(), c);
+            for (Challenge c : d.getChallengesForEvent(eventid))
+            {
+                challenges.put(c.getChallengeId(), c);
 
-            HashMap <Integer, ChallengeRound> map = new HashMap <Integer, ChallengeRound>();
-            rounds.put(c.getChallengeId(), map);
+                HashMap <Integer, ChallengeRound> map = new HashMap <Integer, ChallengeRound>();
+                rounds.put(c.getChallengeId(), map);
 
-            for (ChallengeRound r : Database.d.getRoundsForChallenge(c.getChallengeId()))
-                map.put(r.getRound(), r);
+                for (ChallengeRound r : d.getRoundsForChallenge(c.getChallengeId()))
+                {
+                    map.put(r.getRound(), r);
+                    // preload the entrants so the bracket doesn't load them one by one while painting
+                    for (RoundEntrant re : new RoundEntrant[] { r.getTopCar(), r.getBottomCar() })
+                    {
+                        if ((re.getCarId() != null) && !entrants.containsKey(re.getCarId()))
+                            entrants.put(re.getCarId(), d.loadEntrant(eventid, re.getCarId(), 0, 0, false));
+                    }
+                }
 
-            /* Load all the runs and link them in the appropriate rounds. */
-            for (ChallengeRun run : Database.d.getRunsForChallenge(c.getChallengeId()))
-            {
-                Id.Round rid = new Id.Round(run.getChallengeId(), run.getRound());
-                ChallengeRound round = getRound(rid);
-                round.applyRun(run);
+                /* Load all the runs and link them in the appropriate rounds. */
+                for (ChallengeRun run : d.getRunsForChallenge(c.getChallengeId()))
+                {
+                    ChallengeRound round = map.get(run.getRound());
+                    if (round != null)
+                        round.applyRun(run);
+                }
             }
         }
+    }
 
-        Messenger.sendEvent(MT.MODEL_CHANGED, this);
+    /**
+     * Called to (re)load the data from the database into our local storage.
+     */
+    private void loadEventData()
+    {
+        final UUID eventid = ChallengeGUI.state.getCurrentEventId();
+        AsyncDataInterface.call(d -> new EventData(d, eventid)).thenAccept(data -> {
+            if (!eventid.equals(ChallengeGUI.state.getCurrentEventId()))
+                return; // event changed again while loading
+            challenges   = data.challenges;
+            rounds       = data.rounds;
+            entrantcache = data.entrants;
+            Messenger.sendEvent(MT.MODEL_CHANGED, this);
+        }).exceptionally(AsyncDataInterface.logFailure("Failed to load challenge data"));
+    }
+
+    private void saveRun(ChallengeRun r)
+    {
+        AsyncDataInterface.update(d -> d.setChallengeRun(r)).exceptionally(AsyncDataInterface.logFailure("Failed to save challenge run"));
+    }
+
+    private void deleteRun(ChallengeRun r)
+    {
+        AsyncDataInterface.update(d -> d.deleteChallengeRun(r)).exceptionally(AsyncDataInterface.logFailure("Failed to delete challenge run"));
+    }
+
+    private void saveRound(ChallengeRound r)
+    {
+        AsyncDataInterface.update(d -> d.updateChallengeRound(r)).exceptionally(AsyncDataInterface.logFailure("Failed to save challenge round"));
     }
 
 
@@ -662,7 +703,7 @@ public class ChallengeModel implements MessageListener
                     next.getTopCar().setTo(re.getCarId(), getNewDial(re));
                 else
                     next.getBottomCar().setTo(re.getCarId(), getNewDial(re));
-                Database.d.updateChallengeRound(next);
+                saveRound(next);
                 Messenger.sendEvent(MT.ENTRANT_CHANGED, nextid);
         }
     }
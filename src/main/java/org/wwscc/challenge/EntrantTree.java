@@ -12,6 +12,7 @@ import java.awt.datatransfer.Transferable;
 import java.util.Collection;
 import java.util.UUID;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JComponent;
@@ -19,7 +20,7 @@ import javax.swing.TransferHandler;
 import javax.swing.tree.DefaultMutableTreeNode;
 import org.wwscc.components.CarTree;
 import org.wwscc.components.CarTreeRenderer;
-import org.wwscc.storage.Database;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.Dialins;
 import org.wwscc.storage.Entrant;
 import org.wwscc.util.MT;
@@ -57,22 +58,15 @@ public class EntrantTree extends CarTree implements MessageListener
         {
             case CHALLENGE_CHANGED:
             case ENTRANT_CHANGED:
-                dialins = Database.d.loadDialins(ChallengeGUI.state.getCurrentEventId());
-                UUID challengeid = ChallengeGUI.state.getCurrentChallengeId();
-                Collection<UUID> exclude;
-                Collection<Entrant> reg;
-                if (challengeid != null)
-                {
-                    reg = Database.d.getEntrantsByEvent(ChallengeGUI.state.getCurrentEventId());
-                    exclude = Database.d.getCarIdsByChallenge(challengeid);
-                }
-                else
-                {
-                    reg = new Vector<Entrant>();
-                    exclude = new Vector<UUID>();
-                }
-
-                makeTree(reg, exclude);
+                final UUID eventid = ChallengeGUI.state.getCurrentEventId();
+                final UUID challengeid = ChallengeGUI.state.getCurrentChallengeId();
+                CompletableFuture<Dialins> dials = AsyncDataInterface.call(d -> d.loadDialins(eventid));
+                CompletableFuture<Collection<Entrant>> reg = AsyncDataInterface.call(d -> (challengeid != null) ? d.getEntrantsByEvent(eventid) : new Vector<Entrant>());
+                CompletableFuture<Collection<UUID>> exclude = AsyncDataInterface.call(d -> (challengeid != null) ? d.getCarIdsByChallenge(challengeid) : new Vector<UUID>());
+                CompletableFuture.allOf(dials, reg, exclude).thenRun(() -> {
+                    dialins = dials.join();
+                    makeTree(reg.join(), exclude.join());
+                }).exceptionally(AsyncDataInterface.logFailure("Failed to load challenge entrants"));
                 break;
         }
     }
@@ -19,7 +19,6 @@ import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -38,6 +37,7 @@ import javax.swing.event.ListSelectionListener;
 import org.wwscc.dialogs.BaseDialog.DialogFinisher;
 import org.wwscc.dialogs.CarDialog;
 import org.wwscc.dialogs.DriverDialog;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.Car;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.DecoratedCar;
@@ -74,6 +74,9 @@ public abstract class DriverCarPanelBase extends JPanel implements ListSelection
     protected Driver selectedDriver;
     protected DecoratedCar selectedCar;
 
+    private int carLoads = 0;        // reloadCars calls that haven't completed yet
+    private UUID carToFocus = null;  // focusOnCar request made while a reload was still running
+
     protected SearchDrivers searchDrivers = new SearchDrivers();
     protected ApplicationState state;
 
@@ -213,6 +216,8 @@ public abstract class DriverCarPanelBase extends JPanel implements ListSelection
      */
     public void focusOnCar(UUID carid)
     {
+        if (carLoads > 0)
+            carToFocus = carid; // the list is about to be replaced, apply again once it is
         ListModel<DecoratedCar> lm = cars.getModel();
         for (int ii = 0; ii < lm.getSize(); ii++)
         {
@@ -239,16 +244,36 @@ public abstract class DriverCarPanelBase extends JPanel implements ListSelection
         if (d == null) // nothing to do
             return;
 
-        Stream<Car> newcars = Database.d.getCarsForDriver(d.getDriverId()).stream();
-        carVector.clear();
-        carVector.addAll(newcars.map(c -> Database.d.decorateCar(c, state)).collect(Collectors.toList()));
-        cars.setListData(carVector);
-        if (select != null)
-            focusOnCar(select.getCarId());
-        else
-            cars.setSelectedIndex(0);
+        carLoads++;
+        final ApplicationState snapshot = new ApplicationState(state);
+        AsyncDataInterface.call(db -> db.decorateCars(db.getCarsForDriver(d.getDriverId()), snapshot)).whenComplete((newcars, error) -> {
+            carLoads--;
+            UUID focus = (carToFocus != null) ? carToFocus : (select != null) ? select.getCarId() : null;
+            if (carLoads == 0)
+                carToFocus = null;
+            if (error != null) {
+                AsyncDataInterface.logFailure("Failed to load cars").apply(error);
+                return;
+            }
+            if (!d.equals(drivers.getSelectedValue()))
+                return; // selection moved on while we were loading
+
+            carVector.clear();
+            carVector.addAll(newcars);
+            cars.setListData(carVector);
+            if (focus != null)
+                focusOnCar(focus);
+            else
+                cars.setSelectedIndex(0);
+            carsReloaded();
+        });
     }
 
+    /**
+     * Called once reloadCars has put the new car list in place
+     */
+    protected void carsReloaded() {}
+
 
     protected class NewDriverAction extends AbstractAction
     {
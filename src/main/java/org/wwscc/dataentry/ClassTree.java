@@ -15,12 +15,14 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import javax.swing.JComponent;
 import javax.swing.KeyStroke;
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.TreePath;
 import org.wwscc.components.CarTree;
-import org.wwscc.storage.Database;
+import org.wwscc.storage.AsyncDataInterface;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Entrant;
 import org.wwscc.util.MT;
 import org.wwscc.util.MessageListener;
@@ -77,16 +79,19 @@ public class ClassTree extends CarTree implements MessageListener, ActionListene
     {
         switch (type)
         {
+            case ENTRANTS_CHANGED:
+                if ((o instanceof ChangeEvent) && ((ChangeEvent)o).isTable("runs"))
+                    break; // the tree shows registered entrants minus the run order, runs don't change it
+                // fall through
             case COURSE_CHANGED:
             case RUNGROUP_CHANGED:
-            case ENTRANTS_CHANGED:
-                List<Entrant> reg = Database.d.getRegisteredEntrants(DataEntry.state.getCurrentEventId());
-                List<UUID> exclude;
-                if (DataEntry.state.usingSessions())
-                    exclude = Database.d.getCarIdsForRunGroup(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
-                else
-                    exclude = Database.d.getCarIdsForCourse(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse());
-                makeTree(reg, exclude);
+                final UUID eventid = DataEntry.state.getCurrentEventId();
+                final int course   = DataEntry.state.getCurrentCourse();
+                final int rungroup = DataEntry.state.getCurrentRunGroup();
+                final boolean sessions = DataEntry.state.usingSessions();
+                CompletableFuture<List<Entrant>> reg = AsyncDataInterface.call(d -> d.getRegisteredEntrants(eventid));
+                CompletableFuture<List<UUID>> exclude = AsyncDataInterface.call(d -> sessions ? d.getCarIdsForRunGroup(eventid, course, rungroup) : d.getCarIdsForCourse(eventid, course));
+                reg.thenAcceptBoth(exclude, this::makeTree).exceptionally(AsyncDataInterface.logFailure("Failed to load class tree"));
                 break;
         }
     }
@@ -159,7 +159,7 @@ public class DataEntry extends JFrame implements MessageListener
                 break;
             case DATABASE_NOTIFICATION:
                 log.fine("directing db notification into entrants changed");
-                Messenger.sendEventNow(MT.ENTRANTS_CHANGED, null);
+                Messenger.sendEventNow(MT.ENTRANTS_CHANGED, o);
                 break;
         }
     }
@@ -36,6 +36,7 @@ import javax.swing.table.TableColumnModel;
 import javax.swing.table.TableRowSorter;
 import javax.swing.text.AbstractDocument;
 
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.Entrant;
 import org.wwscc.util.EasyNumFilter;
@@ -195,6 +196,8 @@ public class QuickEntrySearch extends JPanel implements MessageListener, Documen
                 entry.requestFocus();
             case EVENT_CHANGED:
             case ENTRANTS_CHANGED:
+                if ((type == MT.ENTRANTS_CHANGED) && (data instanceof ChangeEvent) && ((ChangeEvent)data).isTable("runorder", "runs"))
+                    break; // the list shows registered entrants, run order and runs don't change it
                 cars.setRowSorter(null); // clear sorter so its listener based on old model size goes away
                 cars.setModel(new EntryModel());
                 TableColumnModel tcm = cars.getColumnModel();
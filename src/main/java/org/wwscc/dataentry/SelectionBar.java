@@ -15,6 +15,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
@@ -26,6 +27,8 @@ import net.miginfocom.swing.MigLayout;
 
 import org.wwscc.components.CurrentSeriesLabel;
 import org.wwscc.dialogs.PlaceOrphansDialog;
+import org.wwscc.storage.AsyncDataInterface;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.Driver;
 import org.wwscc.storage.Entrant;
@@ -157,6 +160,24 @@ class SelectionBar extends JPanel implements ActionListener, MessageListener
     }
 
 
+    /**
+     * Load the run order and orphaned car counts in the background and update the labels once they return
+     */
+    private void updateCounts()
+    {
+        final UUID eventid = DataEntry.state.getCurrentEventId();
+        final int course   = DataEntry.state.getCurrentCourse();
+        final int rungroup = DataEntry.state.getCurrentRunGroup();
+
+        AsyncDataInterface.call(d -> new int[] { d.getCarIdsForRunGroup(eventid, course, rungroup).size(), d.getOrphanedCars(eventid, course).size() }).thenAccept(counts -> {
+            if (!Objects.equals(eventid, DataEntry.state.getCurrentEventId()) || (course != DataEntry.state.getCurrentCourse()) || (rungroup != DataEntry.state.getCurrentRunGroup()))
+                return; // moved on while loading, the newer request will update the labels
+            entrantCountLabel.setText(""+counts[0]);
+            placeOrphanedButton.setText("orphaned cars for this course: " + counts[1]);
+            placeOrphanedButton.setVisible(counts[1] > 0);
+        }).exceptionally(AsyncDataInterface.logFailure("Failed to load run group counts"));
+    }
+
     @Override
     public void event(MT type, Object o)
     {
@@ -172,14 +193,12 @@ class SelectionBar extends JPanel implements ActionListener, MessageListener
                     eventSelect.setSelectedIndex(0);
                 break;
 
-            case RUNGROUP_CHANGED:
             case ENTRANTS_CHANGED:
-                List<UUID> runorder = Database.d.getCarIdsForRunGroup(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
-                entrantCountLabel.setText(""+runorder.size());
-
-                List<UUID> orphaned = Database.d.getOrphanedCars(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse());
-                placeOrphanedButton.setText("orphaned cars for this course: " + orphaned.size());
-                placeOrphanedButton.setVisible(orphaned.size() > 0);
+                if ((o instanceof ChangeEvent) && !((ChangeEvent)o).isTable("runorder", "runs"))
+                    break; // counts only depend on the run order and runs
+                // fall through
+            case RUNGROUP_CHANGED:
+                updateCounts();
                 break;
 
             case DRIVER_SCAN_REJECTED:
@@ -11,11 +11,12 @@ package org.wwscc.dataentry;
 import java.util.Vector;
 import javax.swing.AbstractListModel;
 
-import org.wwscc.storage.Database;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.Run;
 import org.wwscc.util.MT;
 import org.wwscc.util.Messenger;
 import org.wwscc.util.TimeStorage;
+import org.wwscc.util.TimingTrace;
 
 /**
  *
@@ -56,15 +57,14 @@ public class SimpleTimeListModel extends AbstractListModel<Run> implements TimeS
         switch (type)
         {
             case SERIAL_TIMER_DATA:
-                data.add(r);
-                Database.d.addTimerTime(r);
-                fireIntervalAdded(this, data.size()-1, data.size()-1);
-                break;
-
             case TIMER_SERVICE_RUN:
+                long start = System.nanoTime();
+                if (r.getOrigin() == 0)
+                    r.setOrigin(TimingTrace.origin());  // kept with the time while it waits for the operator
                 data.add(r);
-                Database.d.addTimerTime(r);
+                AsyncDataInterface.update(d -> d.addTimerTime(r));
                 fireIntervalAdded(this, data.size()-1, data.size()-1);
+                TimingTrace.record(TimingTrace.Hop.ENTRY, start);
                 break;
 
             case TIMER_SERVICE_DELETE:
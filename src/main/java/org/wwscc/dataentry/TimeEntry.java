@@ -461,6 +461,11 @@ public class TimeEntry extends JPanel implements ListSelectionListener, ListData
                 }
             }
 
+            /* Carry the arrival time of a timer value along for the latency trace */
+            Object selected = timeList.getSelectedValue();
+            if ((selected instanceof Run) && (((Run)selected).getRaw() == dTime))
+                val.setOrigin(((Run)selected).getOrigin());
+
             Messenger.sendEventNow(MT.TIME_ENTERED, val);
 
             /* If everything progressed okay remove any times from the serial port
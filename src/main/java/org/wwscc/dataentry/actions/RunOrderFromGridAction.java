@@ -15,7 +15,7 @@ import javax.swing.KeyStroke;
 import org.wwscc.dataentry.DataEntry;
 import org.wwscc.dialogs.GridImportDialog;
 import org.wwscc.storage.Database;
-import org.wwscc.storage.BackendDataLoader;
+import org.wwscc.storage.EventResults;
 
 public class RunOrderFromGridAction extends AbstractAction
 {
@@ -32,7 +32,10 @@ public class RunOrderFromGridAction extends AbstractAction
     {
         try {
             Map<Integer, Set<UUID>> order = Database.d.activeRunOrderForEvent(DataEntry.state.getCurrentEventId());
-            GridImportDialog gi = new GridImportDialog(BackendDataLoader.fetchGrid(), order, DataEntry.state.getCurrentCourse());
+            EventResults results = Database.d.getEventResults(DataEntry.state.getCurrentEventId());
+            if (results == null)
+                return; // error already logged
+            GridImportDialog gi = new GridImportDialog(results.getGrid(), order, DataEntry.state.getCurrentCourse());
             if (gi.doDialog("Grid Import", null)) {
                 Map<Integer, List<UUID>> toadd = gi.getResult();
                 for (int course : toadd.keySet()) {
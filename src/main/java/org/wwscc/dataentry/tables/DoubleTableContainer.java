@@ -22,6 +22,7 @@ import java.util.ListIterator;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,13 +34,14 @@ import javax.swing.JViewport;
 import javax.swing.SwingConstants;
 import javax.swing.UIManager;
 import javax.swing.border.Border;
-import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableRowSorter;
 
 import org.wwscc.dataentry.DataEntry;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.Car;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.ClassData;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.DecoratedCar;
@@ -81,7 +83,7 @@ public class DoubleTableContainer extends JScrollPane implements MessageListener
         setCorner(UPPER_LEFT_CORNER, driverTable.getTableHeader());
         getRowHeader().addChangeListener(new ChangeListener() {
             @Override
-            public void stateChanged(ChangeEvent e) {
+            public void stateChanged(javax.swing.event.ChangeEvent e) {
                 JViewport _viewport = (JViewport) e.getSource();
                 getVerticalScrollBar().setValue(_viewport.getViewPosition().y);
             }
@@ -314,38 +316,44 @@ public class DoubleTableContainer extends JScrollPane implements MessageListener
         switch (type)
         {
             case DATABASE_NOTIFICATION:
-                if (watchlist.contains(o)) {
-                    List<Entrant> dbData = Database.d.getEntrantsByRunOrder(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
-                    List<Entrant> tblData = dataModel.tableData;
-                    if (!fullCompare(dbData, tblData)) {
+                ChangeEvent ce = (ChangeEvent)o;
+                if (!watchlist.contains(ce.getTable()))
+                    break;
+                final UUID eventid = DataEntry.state.getCurrentEventId();
+                final int course   = DataEntry.state.getCurrentCourse();
+                final int rungroup = DataEntry.state.getCurrentRunGroup();
+                CompletableFuture<List<Entrant>> entrants = AsyncDataInterface.call(d -> d.getEntrantsByRunOrder(eventid, course, rungroup));
+                CompletableFuture<List<Integer>> progroups = AsyncDataInterface.call(d -> d.getProGroupings(eventid, course, rungroup));
+                entrants.thenAcceptBoth(progroups, (dbData, groupings) -> {
+                    if (!eventid.equals(DataEntry.state.getCurrentEventId()) || (course != DataEntry.state.getCurrentCourse()) || (rungroup != DataEntry.state.getCurrentRunGroup()))
+                        return;
+                    if (!fullCompare(dbData, dataModel.tableData)) {
                         log.fine("table data changed notification, refreshing from database");
-                        SavedSelection saved = new SavedSelection();
                         // figure out selection and restore after change
+                        SavedSelection saved = new SavedSelection();
                         dataModel.tableData = dbData;
-                        dataModel.groupings = Database.d.getProGroupings(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
+                        dataModel.groupings = groupings;
                         dataModel.fireTableDataChanged();
                         saved.restore();
-                    } else if (o.equals("runorder") && DataEntry.state.isPro()) {
-                        List<Integer> groupings = Database.d.getProGroupings(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
-                        if (!groupings.equals(dataModel.groupings)) {
-                            dataModel.groupings = groupings;
-                            driverTable.repaint();
-                            runsTable.repaint();
-                        }
+                    } else if (ce.isTable("runorder") && DataEntry.state.isPro() && !groupings.equals(dataModel.groupings)) {
+                        dataModel.groupings = groupings;
+                        driverTable.repaint();
+                        runsTable.repaint();
                     }
-                }
+                }).exceptionally(AsyncDataInterface.logFailure("Failed to reload run order"));
                 break;
 
             case CAR_ADD:
                 SavedSelection saved = new SavedSelection();
-                dataModel.addCar((UUID)o);
-                saved.restore();
-                if (!saved.runsrestored)
-                {   // only scroll to bottom if nothing was previously selected
-                    driverTable.scrollTable(dataModel.getRowCount(), 0);
-                }
-                driverTable.repaint();
-                runsTable.repaint();
+                dataModel.addCar((UUID)o).thenRun(() -> {
+                    saved.restore();
+                    if (!saved.runsrestored)
+                    {   // only scroll to bottom if nothing was previously selected
+                        driverTable.scrollTable(dataModel.getRowCount(), 0);
+                    }
+                    driverTable.repaint();
+                    runsTable.repaint();
+                });
                 break;
 
             case OBJECT_SCANNED:
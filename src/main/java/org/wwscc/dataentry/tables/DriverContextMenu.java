@@ -80,9 +80,9 @@ class DriverContextMenu extends MouseAdapter
 
         Entrant selectedE = (Entrant)target.getValueAt(row, col);
         List<DecoratedCar> registered =
-                Database.d.getRegisteredCars(selectedE.getDriverId(), DataEntry.state.getCurrentEventId()).stream().map(c -> Database.d.decorateCar(c, DataEntry.state)).collect(Collectors.toList());
+                Database.d.decorateCars(Database.d.getRegisteredCars(selectedE.getDriverId(), DataEntry.state.getCurrentEventId()), DataEntry.state);
         List<DecoratedCar> allcars =
-                Database.d.getCarsForDriver(selectedE.getDriverId()).stream().filter(c -> !registered.contains(c)).map(c -> Database.d.decorateCar(c, DataEntry.state)).collect(Collectors.toList());
+                Database.d.decorateCars(Database.d.getCarsForDriver(selectedE.getDriverId()).stream().filter(c -> !registered.contains(c)).collect(Collectors.toList()), DataEntry.state);
 
         menu = new JPopupMenu("");
         addTitle("Swap to Registered Car");
@@ -8,11 +8,11 @@
 
 package org.wwscc.dataentry.tables;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -22,11 +22,14 @@ import javax.swing.JOptionPane;
 import javax.swing.table.AbstractTableModel;
 
 import org.wwscc.dataentry.DataEntry;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.ClassData;
+import org.wwscc.storage.DataInterface;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.Driver;
 import org.wwscc.storage.Entrant;
 import org.wwscc.storage.Run;
+import org.wwscc.util.ApplicationState;
 import org.wwscc.util.MT;
 import org.wwscc.util.MessageListener;
 import org.wwscc.util.Messenger;
@@ -57,59 +60,89 @@ public class EntryModel extends AbstractTableModel implements MessageListener
     }
 
 
-    public void addCar(UUID carid)
+    /**
+     * Add a car to the end of the run order.  The database work is done in the background and the table
+     * is updated once it completes.
+     * @param carid the id of the car to add
+     * @return a future that completes on the event thread once the table has been updated
+     */
+    public CompletableFuture<Void> addCar(UUID carid)
     {
-        if (tableData == null) return;
+        if (tableData == null) return CompletableFuture.completedFuture(null);
 
-        Entrant e = Database.d.loadEntrant(DataEntry.state.getCurrentEventId(), carid, DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup(), true);
-        if (e == null)
+        final UUID eventid = DataEntry.state.getCurrentEventId();
+        final int course   = DataEntry.state.getCurrentCourse();
+        final int rungroup = DataEntry.state.getCurrentRunGroup();
+        final String session = DataEntry.state.usingSessions() ? "DE" : "";
+        final boolean intable = getRowForCarId(carid) >= 0;
+        final ApplicationState state = new ApplicationState(DataEntry.state);
+
+        if (intable && !Prefs.useReorderingTable())
         {
-            log.warning("\bFailed to fetch entrant data from database");
-            return;
+            log.log(Level.WARNING, "\bCarid {0} already in table, perhaps you want to enable constant staging mode under Event Options", carid);
+            return CompletableFuture.completedFuture(null);
         }
 
-        if (tableData.contains(e))
-        {
-            if (!Prefs.useReorderingTable())
+        return AsyncDataInterface.call(d -> loadForAdd(d, state, eventid, carid, course, rungroup, session, intable)).thenAccept(e -> {
+            if (e == null)
+                return;
+            if ((tableData == null) || !eventid.equals(DataEntry.state.getCurrentEventId()) || (course != DataEntry.state.getCurrentCourse()) || (rungroup != DataEntry.state.getCurrentRunGroup()))
             {
-                log.log(Level.WARNING, "\bCarid {0} already in table, perhaps you want to enable constant staging mode under Event Options", carid);
+                log.log(Level.INFO, "Run group changed while adding {0}, ignoring", carid);
                 return;
             }
-            tableData.remove(e); // remove it from position and following will readd at the end
+
+            tableData.remove(e); // if already present, remove from position and following will readd at the end
+            tableData.add(e);
+
+            /* Two reasons for the using fireTableDataChanged vs inserted/updated
+             *  1: having a single sorter on top of two tables with the same model means that inserted events
+             *     get fired twice and cause indexing errors in the sorter/filterer
+             *  2: for simplicity, do the same for updates
+             */
+            fireTableDataChanged();
+            writeNewRunOrder();
+        }).exceptionally(AsyncDataInterface.logFailure("Failed to add car"));
+    }
+
+    /**
+     * The database portion of addCar, runs on the database thread.  state is a copy taken on the event
+     * thread as DataEntry.state may change while this runs.
+     * @return the entrant to add or null if it can't be added
+     */
+    private static Entrant loadForAdd(DataInterface d, ApplicationState state, UUID eventid, UUID carid, int course, int rungroup, String session, boolean intable) throws Exception
+    {
+        Entrant e = d.loadEntrant(eventid, carid, course, rungroup, true);
+        if (e == null)
+        {
+            log.warning("\bFailed to fetch entrant data from database");
+            return null;
         }
-        else if (!Database.d.decorateCar(Database.d.getCar(carid), DataEntry.state).canAdd())
+
+        if (!intable && !d.decorateCar(d.getCar(carid), state).canAdd())
         {
             log.log(Level.SEVERE, "\bCarid {0} already in use in another rungroup in this event/session", carid);
-            return;
+            return null;
         }
 
-        Entrant eall = Database.d.loadEntrant(DataEntry.state.getCurrentEventId(), carid, DataEntry.state.getCurrentCourse(), -1, true);
+        Entrant eall = d.loadEntrant(eventid, carid, course, -1, true);
         if (e.getRuns().size() == 0 && eall.getRuns().size() > 0) {
             // orphaned runs in another run group, need to move and reload entrant
-            log.log(Level.INFO, "moving orphaned runs to rungroup {0}", DataEntry.state.getCurrentRunGroup());
+            log.log(Level.INFO, "moving orphaned runs to rungroup {0}", rungroup);
             try {
-                Database.d.moveRuns(eall.getRuns(), DataEntry.state.getCurrentRunGroup());
+                d.moveRuns(eall.getRuns(), rungroup);
             } catch (Exception e1) {
                 log.log(Level.WARNING, "\bError moving orphaned runs: {0}" + e1.getMessage(), e1);
             }
-            e = Database.d.loadEntrant(DataEntry.state.getCurrentEventId(), carid, DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup(), true);
+            e = d.loadEntrant(eventid, carid, course, rungroup, true);
         }
 
-        tableData.add(e);
-
         try {
-            Database.d.ensureRegistration(DataEntry.state.getCurrentEventId(), e.getCarId(), DataEntry.state.usingSessions() ? "DE" : "");
+            d.ensureRegistration(eventid, e.getCarId(), session);
         } catch (Exception ioe) {
             log.log(Level.WARNING, "\bRegistration during car add failed: {0}" + ioe.getMessage(), ioe);
         }
-
-        /* Two reasons for the using fireTableDataChanged vs inserted/updated
-         *  1: having a single sorter on top of two tables with the same model means that inserted events
-         *     get fired twice and cause indexing errors in the sorter/filterer
-         *  2: for simplicity, do the same for updates
-         */
-        fireTableDataChanged();
-        writeNewRunOrder();
+        return e;
     }
 
     public void replaceCar(UUID carid, int row)
@@ -149,6 +182,7 @@ public class EntryModel extends AbstractTableModel implements MessageListener
 
     public int getRowForCarId(UUID find)
     {
+        if (tableData == null) return -1;
         for (int ii = 0; ii < tableData.size(); ii++)
         {
             if (tableData.get(ii).getCarId().equals(find))
@@ -439,9 +473,18 @@ public class EntryModel extends AbstractTableModel implements MessageListener
                 break;
 
             case RUNGROUP_CHANGED:
-                tableData = Database.d.getEntrantsByRunOrder(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
-                groupings = Database.d.getProGroupings(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup());
-                fireTableDataChanged();
+                final UUID eventid = DataEntry.state.getCurrentEventId();
+                final int course   = DataEntry.state.getCurrentCourse();
+                final int rungroup = DataEntry.state.getCurrentRunGroup();
+                CompletableFuture<List<Entrant>> entrants = AsyncDataInterface.call(d -> d.getEntrantsByRunOrder(eventid, course, rungroup));
+                CompletableFuture<List<Integer>> progroups = AsyncDataInterface.call(d -> d.getProGroupings(eventid, course, rungroup));
+                entrants.thenAcceptBoth(progroups, (e, g) -> {
+                    if (!eventid.equals(DataEntry.state.getCurrentEventId()) || (course != DataEntry.state.getCurrentCourse()) || (rungroup != DataEntry.state.getCurrentRunGroup()))
+                        return; // another change is already on its way
+                    tableData = e;
+                    groupings = g;
+                    fireTableDataChanged();
+                }).exceptionally(AsyncDataInterface.logFailure("Failed to load run order"));
                 break;
         }
     }
@@ -453,13 +496,13 @@ public class EntryModel extends AbstractTableModel implements MessageListener
 
     public void writeNewRunOrder()
     {
-        try {
-            Database.d.setRunOrder(DataEntry.state.getCurrentEventId(), DataEntry.state.getCurrentCourse(), DataEntry.state.getCurrentRunGroup(),
-                                    tableData.stream().map(e -> e.getCarId()).collect(Collectors.toList()), false);
-            // don't need to send ENTRANTS_CHANGED as the database notification will push that for us
-        } catch (SQLException e) {
-            log.log(Level.SEVERE, "\bwriteNewRunOrder failed: " + e.getMessage(), e);
-        }
+        final UUID eventid = DataEntry.state.getCurrentEventId();
+        final int course   = DataEntry.state.getCurrentCourse();
+        final int rungroup = DataEntry.state.getCurrentRunGroup();
+        final List<UUID> order = tableData.stream().map(e -> e.getCarId()).collect(Collectors.toList());
+        // don't need to send ENTRANTS_CHANGED as the database notification will push that for us
+        AsyncDataInterface.update(d -> d.setRunOrder(eventid, course, rungroup, order, false))
+                          .exceptionally(AsyncDataInterface.logFailure("writeNewRunOrder failed"));
     }
 
     /**
@@ -28,7 +28,7 @@ import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 import javax.swing.table.TableColumnModel;
 
-import org.wwscc.storage.BackendDataLoader.GridEntry;
+import org.wwscc.storage.EventResults.GridEntry;
 import org.wwscc.util.NF;
 
 import net.miginfocom.swing.MigLayout;
@@ -71,6 +71,9 @@ public class GridImportDialog extends BaseDialog<Map<Integer, List<UUID>>>
                 outer.put(100+ii, new EntrantRowModel());
             }
             for (GridEntry ge : entries.get(key)) {
+                int group = ge.group % 100;  // first and second driver tables always come in pairs
+                outer.computeIfAbsent(group,     g -> new EntrantRowModel());
+                outer.computeIfAbsent(group+100, g -> new EntrantRowModel());
                 outer.get(ge.group).setEntry(ge);
             }
         }
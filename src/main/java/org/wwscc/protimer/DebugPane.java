@@ -12,6 +12,7 @@ package org.wwscc.protimer;
 import java.awt.BorderLayout;
 import java.awt.CardLayout;
 import java.awt.Color;
+import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.FileNotFoundException;
@@ -22,9 +23,11 @@ import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.JTextPane;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
@@ -33,6 +36,7 @@ import javax.swing.text.StyleContext;
 import org.wwscc.util.MT;
 import org.wwscc.util.MessageListener;
 import org.wwscc.util.Messenger;
+import org.wwscc.util.TimingTrace;
 
 
 public class DebugPane extends JPanel implements ActionListener, MessageListener
@@ -44,6 +48,7 @@ public class DebugPane extends JPanel implements ActionListener, MessageListener
     JTextField input;
     JButton enter;
     JPanel items;
+    JTextArea latency;
 
     static class SerialLevel extends Level { protected SerialLevel() { super("", 799); }}
     static SerialLevel slevel = new SerialLevel();
@@ -72,10 +77,17 @@ public class DebugPane extends JPanel implements ActionListener, MessageListener
         p.add(input);
         p.add(enter);
 
+        latency = new JTextArea(TimingTrace.Hop.values().length + 1, 80);
+        latency.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        latency.setEditable(false);
+        new Timer(2000, e -> latency.setText(TimingTrace.report())).start();
+
         add(p, BorderLayout.NORTH);
         add(sp, BorderLayout.CENTER);
+        add(latency, BorderLayout.SOUTH);
 
         Messenger.register(MT.SERIAL_GENERIC_DATA, this);
+        Messenger.register(MT.SERIAL_GENERIC_PARSED, this);
         Messenger.register(MT.SENDING_SERIAL, this);
         Messenger.register(MT.SERIAL_PORT_OPEN, this);
         Messenger.register(MT.SERIAL_PORT_CLOSED, this);
@@ -110,6 +122,7 @@ public class DebugPane extends JPanel implements ActionListener, MessageListener
         switch (type)
         {
             case SERIAL_GENERIC_DATA:
+            case SERIAL_GENERIC_PARSED:
                 seriallog.logp(slevel, null, null, "=> \"{0}\"", o);
                 newText((String)o, true);
                 break;
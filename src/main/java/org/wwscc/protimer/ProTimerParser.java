@@ -0,0 +1,332 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.protimer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.wwscc.util.MT;
+import org.wwscc.util.MessageListener;
+
+/**
+ * Parses lines from the Pro timer in place.  Tokens are found as offsets into the line, the command
+ * is looked up in a table built once, and numbers are parsed from the bytes, so a line costs no
+ * regex, String or array allocations beyond the event data itself.
+ */
+public class ProTimerParser
+{
+    private static final Logger log = Logger.getLogger(ProTimerParser.class.getCanonicalName());
+
+    static final int MAX_TOKENS = 16;
+
+    interface Handler
+    {
+        void handle(ProTimerParser p);
+    }
+
+    static class Command
+    {
+        final byte[] name;
+        final int minTokens;
+        final Handler handler;
+        Command(String name, int minTokens, Handler handler)
+        {
+            this.name      = name.getBytes(StandardCharsets.US_ASCII);
+            this.minTokens = minTokens;
+            this.handler   = handler;
+        }
+    }
+
+    /** commands indexed by their first letter, lower case */
+    private static final Command[][] TABLE = buildTable(
+        new Command("rt",        1, p -> p.send(MT.REACTION_LEFT, MT.REACTION_RIGHT, 1, new ColorTime(p.value(2), p.color(3)))),
+        new Command("sixty",     1, p -> p.send(MT.SIXTY_LEFT, MT.SIXTY_RIGHT, 1, new ColorTime(p.value(2), p.color(3)))),
+        new Command("fin",       1, p -> p.send(MT.FINISH_LEFT, MT.FINISH_RIGHT, 1, new Object[] { new ColorTime(p.value(2), p.color(4)), p.value(3) })),
+        new Command("win",       1, p -> p.send(MT.WIN_LEFT, MT.WIN_RIGHT, 1, null)),
+        new Command("lead",      1, p -> p.send(MT.LEAD_LEFT, MT.LEAD_RIGHT, 1, p.value(2))),
+        new Command("challenge", 2, ProTimerParser::challenge),
+        new Command("dial",      1, ProTimerParser::dial),
+        new Command("open",      3, p -> p.sink.event(MT.OPEN_SENSOR, new Object[] { p.isLeft(1), p.text(2) })),
+        new Command("tree",      1, p -> p.sink.event(MT.TREE, null)),
+        new Command("ds",        1, p -> p.send(MT.DELETE_START_LEFT, MT.DELETE_START_RIGHT, 1, null)),
+        new Command("df",        1, p -> p.send(MT.DELETE_FINISH_LEFT, MT.DELETE_FINISH_RIGHT, 1, null)),
+        new Command("run",       1, p -> p.sink.event(MT.RUN_MODE, null)),
+        new Command("align",     1, p -> p.sink.event(MT.ALIGN_MODE, null)),
+        new Command("nip",       2, ProTimerParser::nip)
+    );
+
+    private static final byte[] RESET     = "reset".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REDLIGHT  = "redlight".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOTSTAGED = "not_staged".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] OVERDIAL  = "overdial".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BREAKOUT  = "breakout".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WIN       = "win".getBytes(StandardCharsets.US_ASCII);
+    private static final double[] POW10   = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                                              1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private static Command[][] buildTable(Command... commands)
+    {
+        Command[][] table = new Command[26][];
+        for (Command c : commands) {
+            int idx = c.name[0] - 'a';
+            Command[] old = (table[idx] == null) ? new Command[0] : table[idx];
+            Command[] add = Arrays.copyOf(old, old.length + 1);
+            add[old.length] = c;
+            table[idx] = add;
+        }
+        return table;
+    }
+
+    private final MessageListener sink;
+    private final int[] start, end;
+    private byte[] buf;
+    private int off, len, ntokens;
+    private long parsed, unknown;
+
+    /**
+     * @param sink receives the events, normally Messenger::sendEvent
+     */
+    public ProTimerParser(MessageListener sink)
+    {
+        this.sink  = sink;
+        this.start = new int[MAX_TOKENS];
+        this.end   = new int[MAX_TOKENS];
+    }
+
+    public void parse(String line)
+    {
+        byte[] b = line.getBytes();
+        parse(b, 0, b.length);
+    }
+
+    /**
+     * Parse one line and send out the matching event, the bytes aren't kept after this returns
+     */
+    public synchronized void parse(byte[] b, int o, int l)
+    {
+        buf = b;
+        off = o;
+        len = l;
+        tokenize();
+        parsed++;
+
+        Command c = lookup();
+        if ((c != null) && (ntokens >= c.minTokens)) {
+            c.handler.handle(this);
+        } else if (c == null && contains(RESET)) {
+            log.warning("Reset notice from Pro Hardware");
+            sink.event(MT.PRO_RESET, null);
+        } else {
+            unknown++;
+            if (log.isLoggable(Level.FINE))
+                log.fine("Ignoring timer line: " + text());
+        }
+        buf = null;
+    }
+
+    /**
+     * @return the number of lines parsed and the number that weren't understood
+     */
+    public synchronized long getParsedCount()  { return parsed; }
+    public synchronized long getUnknownCount() { return unknown; }
+
+    /**
+     * Split on space, CR and LF.  A leading separator makes an empty first token like String.split would.
+     */
+    private void tokenize()
+    {
+        ntokens = 0;
+        int ii = off, stop = off + len;
+        if ((ii < stop) && isSeparator(buf[ii])) {
+            start[0] = end[0] = ii;
+            ntokens = 1;
+        }
+        while (ii < stop && ntokens < MAX_TOKENS)
+        {
+            while (ii < stop && isSeparator(buf[ii])) ii++;
+            if (ii == stop) break;
+            start[ntokens] = ii;
+            while (ii < stop && !isSeparator(buf[ii])) ii++;
+            end[ntokens++] = ii;
+        }
+        if (ntokens == 0) {  // empty line is one empty token
+            start[0] = end[0] = off;
+            ntokens = 1;
+        }
+    }
+
+    private static boolean isSeparator(byte b)
+    {
+        return (b == ' ') || (b == '\r') || (b == '\n');
+    }
+
+    private Command lookup()
+    {
+        if (end[0] == start[0])
+            return null;
+        int idx = (buf[start[0]] | 0x20) - 'a';
+        if ((idx < 0) || (idx >= TABLE.length) || (TABLE[idx] == null))
+            return null;
+        for (Command c : TABLE[idx])
+            if (tokenEquals(0, c.name))
+                return c;
+        return null;
+    }
+
+    /**
+     * Case insensitive compare of a token to lower case ASCII
+     */
+    private boolean tokenEquals(int n, byte[] lower)
+    {
+        if ((n >= ntokens) || (end[n] - start[n] != lower.length))
+            return false;
+        for (int ii = 0; ii < lower.length; ii++)
+            if (Character.toLowerCase((char)(buf[start[n] + ii] & 0xFF)) != lower[ii])
+                return false;
+        return true;
+    }
+
+    private boolean contains(byte[] lower)
+    {
+        for (int ii = off; ii <= off + len - lower.length; ii++) {
+            int jj = 0;
+            while ((jj < lower.length) && (Character.toLowerCase((char)(buf[ii + jj] & 0xFF)) == lower[jj]))
+                jj++;
+            if (jj == lower.length)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isLeft(int n)
+    {
+        return (n < ntokens) && (end[n] - start[n] == 1) && ((buf[start[n]] | 0x20) == 'l');
+    }
+
+    private int color(int n)
+    {
+        if (tokenEquals(n, REDLIGHT))
+            return ColorTime.REDLIGHT;
+        if (tokenEquals(n, NOTSTAGED))
+            return ColorTime.NOTSTAGED;
+        return ColorTime.NORMAL;
+    }
+
+    /**
+     * Parse a decimal number from the token, values with 15 or fewer digits are exact in a double so
+     * mantissa / 10^n rounds the same as Double.parseDouble.  Anything else falls back to it.
+     * @return the value or 0.0 if it isn't a number
+     */
+    double value(int n)
+    {
+        if (n >= ntokens)
+            return 0.0;
+        int ii = start[n], stop = end[n];
+        boolean neg = false;
+        if ((ii < stop) && (buf[ii] == '-')) {
+            neg = true;
+            ii++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, fraction = -1;
+        for ( ; ii < stop; ii++)
+        {
+            byte b = buf[ii];
+            if ((b >= '0') && (b <= '9')) {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (fraction >= 0)
+                    fraction++;
+            } else if ((b == '.') && (fraction < 0)) {
+                fraction = 0;
+            } else {
+                return slowValue(n);
+            }
+        }
+        if ((digits == 0) || (digits > 15))
+            return slowValue(n);
+        double v = (fraction > 0) ? mantissa / POW10[fraction] : mantissa;
+        return neg ? -v : v;
+    }
+
+    private double slowValue(int n)
+    {
+        try {
+            return Double.parseDouble(text(n));
+        } catch (NumberFormatException nfe) {
+            return 0.0;
+        }
+    }
+
+    private int intValue(int n)
+    {
+        if ((n >= ntokens) || (end[n] == start[n]))
+            throw new NumberFormatException("missing value");
+        int ii = start[n], stop = end[n], ret = 0;
+        boolean neg = (buf[ii] == '-');
+        if (neg || (buf[ii] == '+'))
+            ii++;
+        if (ii == stop)
+            throw new NumberFormatException(text(n));
+        for ( ; ii < stop; ii++) {
+            int d = buf[ii] - '0';
+            if ((d < 0) || (d > 9) || (ret > (Integer.MAX_VALUE - d) / 10))
+                return Integer.parseInt(text(n));  // not a plain int, let it throw or handle the edge
+            ret = ret * 10 + d;
+        }
+        return neg ? -ret : ret;
+    }
+
+    private String text(int n)
+    {
+        return new String(buf, start[n], end[n] - start[n]);
+    }
+
+    private String text()
+    {
+        return new String(buf, off, len);
+    }
+
+    private void send(MT left, MT right, int side, Object data)
+    {
+        sink.event(isLeft(side) ? left : right, data);
+    }
+
+    private static void challenge(ProTimerParser p)
+    {
+        boolean left = p.isLeft(2);
+        double time  = p.value(3);
+        double dial  = p.value(4);
+        if (p.tokenEquals(1, OVERDIAL))
+            p.sink.event(left ? MT.CHALDIAL_LEFT : MT.CHALDIAL_RIGHT, new Double[] { time, dial });
+        else if (p.tokenEquals(1, BREAKOUT))
+            p.sink.event(left ? MT.CHALDIAL_LEFT : MT.CHALDIAL_RIGHT, new Double[] { -time, dial });
+        else if (p.tokenEquals(1, WIN))
+            p.sink.event(left ? MT.CHALWIN_LEFT : MT.CHALWIN_RIGHT, time);
+    }
+
+    private static void dial(ProTimerParser p)
+    {
+        p.send(MT.DIALIN_LEFT, MT.DIALIN_RIGHT, 1, p.value(2));
+        if (p.ntokens >= 5)
+            p.send(MT.DIALIN_LEFT, MT.DIALIN_RIGHT, 3, p.value(4));
+    }
+
+    private static void nip(ProTimerParser p)
+    {
+        try {
+            p.sink.event(MT.RUNS_IN_PROGRESS, new int[] { p.intValue(1), p.intValue(2) });
+        } catch (NumberFormatException e) {
+            log.log(Level.WARNING, "invalid nip data: \"{0}\"", p.text());
+        }
+    }
+}
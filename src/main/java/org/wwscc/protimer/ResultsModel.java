@@ -21,6 +21,7 @@ import org.wwscc.timercomm.RunServiceInterface;
 import org.wwscc.util.MT;
 import org.wwscc.util.MessageListener;
 import org.wwscc.util.Messenger;
+import org.wwscc.util.TimingTrace;
 
 
 public class ResultsModel extends AbstractTableModel implements MessageListener
@@ -225,12 +226,11 @@ public class ResultsModel extends AbstractTableModel implements MessageListener
                     break;
 
                 case FINISH_LEFT:
-                    result = (Object[])o;
-                    addFinish(true, (ColorTime)result[0], (Double)result[1]);
-                    break;
                 case FINISH_RIGHT:
+                    long start = System.nanoTime();
                     result = (Object[])o;
-                    addFinish(false, (ColorTime)result[0], (Double)result[1]);
+                    addFinish(type == MT.FINISH_LEFT, (ColorTime)result[0], (Double)result[1]);
+                    TimingTrace.record(TimingTrace.Hop.RESULTS, start);
                     break;
 
                 case WIN_LEFT:			getLastFinishLine().setLeftWin(); break;
@@ -21,9 +21,11 @@ public class TimingInterface implements MessageListener
 {
     private static Logger log = Logger.getLogger(TimingInterface.class.getCanonicalName());
     LineBasedSerialPort serial;
+    ProTimerParser parser;
 
     public TimingInterface()
     {
+        parser = new ProTimerParser(Messenger::sendEvent);
         Messenger.register(MT.SERIAL_GENERIC_DATA, this);
         Messenger.register(MT.CONTROL_DATA, this);
 
@@ -62,7 +64,10 @@ public class TimingInterface implements MessageListener
             serial.close();
         }
         try {
-            serial = new LineBasedSerialPort(port, buf -> Messenger.sendEvent(MT.SERIAL_GENERIC_DATA, new String(buf)));
+            serial = new LineBasedSerialPort(port, (buf, off, len) -> {
+                parser.parse(buf, off, len);  // in place on the serial thread, the text is only for display
+                Messenger.sendEvent(MT.SERIAL_GENERIC_PARSED, new String(buf, off, len));
+            });
         } catch (Exception e) {
             log.log(Level.WARNING, "\bUnable to open " + port + ": " + e, e);
         }
@@ -75,7 +80,7 @@ public class TimingInterface implements MessageListener
         {
             case SERIAL_GENERIC_DATA:
                 try {
-                    processData((String)o);
+                    parser.parse((String)o);
                 } catch (Exception pse) {
                     log.log(Level.WARNING, "Error processing data: {0}", pse); // don't dialog
                 }
@@ -140,160 +145,4 @@ public class TimingInterface implements MessageListener
             log.log(Level.FINE, "Dropping command, no serial port: {0}", command);
         }
     }
-
-
-    private boolean get_side(String s[], int n)
-    {
-        if ((s.length > n) && (s[n].equalsIgnoreCase("L")))
-            return true;
-        else
-            return false;
-    }
-
-
-    private double get_value(String s[], int n)
-    {
-        if (s.length > n)
-        {
-            try { return Double.parseDouble(s[n]); }
-            catch (NumberFormatException nfe) {}
-        }
-        return 0.0;
-    }
-
-
-    private int get_color(String s[], int n)
-    {
-        if (s.length > n)
-        {
-            if (s[n].equalsIgnoreCase("redlight"))
-                return ColorTime.REDLIGHT;
-            else if (s[n].equalsIgnoreCase("not_staged"))
-                return ColorTime.NOTSTAGED;
-        }
-        return ColorTime.NORMAL;
-    }
-
-
-    public void processData(String input)
-    {
-        log.log(Level.FINEST, "\"{0}\"", input);
-        String args[] = input.split("[ \r\n]+");
-
-        boolean left;
-        double  time;
-        double  dial;
-
-        /* Process comand */
-        if (args[0].equalsIgnoreCase("rt"))
-        {
-            left = get_side(args, 1);
-            ColorTime c = new ColorTime(get_value(args, 2), get_color(args, 3));
-            Messenger.sendEvent(left?MT.REACTION_LEFT:MT.REACTION_RIGHT, c);
-        }
-
-        else if (args[0].equalsIgnoreCase("sixty"))
-        {
-            left = get_side(args, 1);
-            ColorTime c = new ColorTime(get_value(args, 2), get_color(args, 3));
-            Messenger.sendEvent(left?MT.SIXTY_LEFT:MT.SIXTY_RIGHT, c);
-        }
-
-        else if (args[0].equalsIgnoreCase("fin"))
-        {
-            left = get_side(args, 1);
-            ColorTime c = new ColorTime(get_value(args, 2), get_color(args, 4));
-            Double d = get_value(args, 3);
-            Object [] result = { c, d };
-
-            Messenger.sendEvent(left?MT.FINISH_LEFT:MT.FINISH_RIGHT, result);
-        }
-
-        else if (args[0].equalsIgnoreCase("win"))
-        {
-            left = get_side(args, 1);
-            Messenger.sendEvent(left?MT.WIN_LEFT:MT.WIN_RIGHT, null);
-        }
-
-        else if (args[0].equalsIgnoreCase("lead"))
-        {
-            left = get_side(args, 1);
-            time = get_value(args, 2);
-            Messenger.sendEvent(left?MT.LEAD_LEFT:MT.LEAD_RIGHT, time);
-        }
-
-        else if (args[0].equalsIgnoreCase("challenge"))
-        {
-            left  = get_side(args, 2);
-            time   = get_value(args, 3);
-            dial   = get_value(args, 4);
-
-            if (args[1].equalsIgnoreCase("overdial"))
-            {
-                Messenger.sendEvent(left?MT.CHALDIAL_LEFT:MT.CHALDIAL_RIGHT, new Double[] { time, dial } );
-            }
-            else if (args[1].equalsIgnoreCase("breakout"))
-            {
-                Messenger.sendEvent(left?MT.CHALDIAL_LEFT:MT.CHALDIAL_RIGHT, new Double[] {-time, dial } );
-            }
-            else if (args[1].equalsIgnoreCase("win"))
-            {
-                Messenger.sendEvent(left?MT.CHALWIN_LEFT:MT.CHALWIN_RIGHT, time);
-            }
-        }
-        else if (args[0].equalsIgnoreCase("dial"))
-        {
-            left = get_side(args, 1);
-            time = get_value(args, 2);
-            Messenger.sendEvent((left)?MT.DIALIN_LEFT:MT.DIALIN_RIGHT, time);
-
-            if (args.length >= 5)
-            {
-                left = get_side(args, 3);
-                time = get_value(args, 4);
-                Messenger.sendEvent((left)?MT.DIALIN_LEFT:MT.DIALIN_RIGHT, time);
-            }
-        }
-        else if (args[0].equalsIgnoreCase("open"))
-        {
-            left = get_side(args, 1);
-            Messenger.sendEvent(MT.OPEN_SENSOR, new Object[] { left, args[2] });
-        }
-        else if (args[0].equalsIgnoreCase("tree"))
-        {
-            Messenger.sendEvent(MT.TREE, null);
-        }
-        else if (args[0].equalsIgnoreCase("ds"))
-        {
-            left = get_side(args, 1);
-            Messenger.sendEvent((left)?MT.DELETE_START_LEFT:MT.DELETE_START_RIGHT, null);
-        }
-        else if (args[0].equalsIgnoreCase("df"))
-        {
-            left = get_side(args, 1);
-            Messenger.sendEvent((left)?MT.DELETE_FINISH_LEFT:MT.DELETE_FINISH_RIGHT, null);
-        }
-        else if (args[0].equalsIgnoreCase("run"))
-        {
-            Messenger.sendEvent(MT.RUN_MODE, null);
-        }
-        else if (args[0].equalsIgnoreCase("align"))
-        {
-            Messenger.sendEvent(MT.ALIGN_MODE, null);
-        }
-        else if (args[0].equalsIgnoreCase("nip") && args.length > 1)
-        {
-            try {
-                Messenger.sendEvent(MT.RUNS_IN_PROGRESS, new int[] { Integer.parseInt(args[1]), Integer.parseInt(args[2]) });
-            } catch (NumberFormatException|ArrayIndexOutOfBoundsException e) {
-                log.log(Level.WARNING, "invalid nip data: \"{0}\"", input);
-            }
-        }
-        else if (input.toLowerCase().contains("reset"))
-        {
-            log.warning("Reset notice from Pro Hardware");
-            Messenger.sendEvent(MT.PRO_RESET, null);
-        }
-    }
 }
-
@@ -14,8 +14,10 @@ import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -55,7 +57,10 @@ import org.wwscc.dialogs.CarDialog;
 import org.wwscc.dialogs.NotesDialog;
 import org.wwscc.dialogs.WeekendMemberDialog;
 import org.wwscc.dialogs.BaseDialog.DialogFinisher;
+import org.wwscc.storage.AsyncDataInterface;
 import org.wwscc.storage.Car;
+import org.wwscc.storage.ChangeEvent;
+import org.wwscc.storage.DataInterface;
 import org.wwscc.storage.Driver;
 import org.wwscc.storage.Payment;
 import org.wwscc.storage.PaymentItem;
@@ -651,9 +656,9 @@ public class EntryPanel extends DriverCarPanelBase implements MessageListener
         return b;
     }
 
-    public void reloadCars(Car select)
+    @Override
+    protected void carsReloaded()
     {
-        super.reloadCars(select);
         updateCarActions();
         setPaidDriverInfo();
     }
@@ -694,6 +699,36 @@ public class EntryPanel extends DriverCarPanelBase implements MessageListener
         paidwarning.setOpaque(true);
     }
 
+    /**
+     * The extra driver information that is loaded when a driver is selected
+     */
+    static class DriverExtras
+    {
+        List<Driver> dups;
+        boolean requestbarcode;
+        boolean weekendmember;
+        List<Payment> other;
+
+        DriverExtras(DataInterface d, Driver driver, UUID eventid)
+        {
+            dups = new ArrayList<Driver>();
+            requestbarcode = false;
+            if (!driver.getBarcode().trim().equals(""))
+            {
+                dups = d.findDriverByBarcode(driver.getBarcode());
+                dups.remove(driver);
+            }
+            else
+            {
+                try {
+                    requestbarcode = d.getSetting("requestbarcodes", Boolean.class);
+                } catch (NumberFormatException nfe) {}
+            }
+            weekendmember = d.getActiveWeekendMembership(driver.getDriverId()) != null;
+            other = d.getNonEntryPayments(driver.getDriverId(), eventid);
+        }
+    }
+
     @Override
     protected void driverSelectionChanged()
     {
@@ -717,42 +752,40 @@ public class EntryPanel extends DriverCarPanelBase implements MessageListener
             barcode.repaint();
 
 
-            boolean emptybarcode = selectedDriver.getBarcode().trim().equals("");
-            if (!emptybarcode)
-            {
-                List<Driver> dups = Database.d.findDriverByBarcode(selectedDriver.getBarcode());
-                dups.remove(selectedDriver);
-                if (dups.size() > 0)
+            String notes = selectedDriver.getAttrS("notes");
+            if (!notes.trim().equals(""))
+                editnotes.setIcon(noteicon);
+
+            final Driver driver = selectedDriver;
+            final UUID eventid = Registration.state.getCurrentEventId();
+            AsyncDataInterface.call(d -> new DriverExtras(d, driver, eventid)).thenAccept(x -> {
+                if (!driver.equals(selectedDriver))
+                    return; // selection moved on while we were loading
+
+                if (x.dups.size() > 0)
                 {
-                    StringBuffer buf = new StringBuffer(dups.get(0).getFullName());
-                    for (int ii = 1; ii < dups.size(); ii++)
-                        buf.append(", ").append(dups.get(ii).getFullName());
+                    StringBuffer buf = new StringBuffer(x.dups.get(0).getFullName());
+                    for (int ii = 1; ii < x.dups.size(); ii++)
+                        buf.append(", ").append(x.dups.get(ii).getFullName());
                     barcode.setWarning("Duplicate Barcode - " + buf);
                 }
-            }
-            else
-            {
-                try {
-                    if (Database.d.getSetting("requestbarcodes", Boolean.class)) {
-                        barcode.setWarning("No Barcode");
-                    }
-                } catch (NumberFormatException nfe) {}
-            }
+                else if (x.requestbarcode)
+                {
+                    barcode.setWarning("No Barcode");
+                }
+                barcode.repaint();
 
-            weekmember.setIcon((Database.d.getActiveWeekendMembership(selectedDriver.getDriverId()) != null) ? cardicon : null);
+                weekmember.setIcon(x.weekendmember ? cardicon : null);
 
-            String notes = selectedDriver.getAttrS("notes");
-            if (!notes.trim().equals(""))
-                editnotes.setIcon(noteicon);
-
-            List<Payment> other = Database.d.getNonEntryPayments(selectedDriver.getDriverId(), Registration.state.getCurrentEventId());
-            otherpayments.removeAll();
-            otherpayments.add(createTitle("Other Payments"), "spanx 3, growx, wrap");
-            for (Payment p : other) {
-                otherpayments.add(new JLabel(p.getItemName()));
-                otherpayments.add(new JLabel(String.format("$%.2f", p.getAmount())), "grow, wrap");
-            }
-            otherpayments.setVisible(true);
+                otherpayments.removeAll();
+                otherpayments.add(createTitle("Other Payments"), "spanx 3, growx, wrap");
+                for (Payment p : x.other) {
+                    otherpayments.add(new JLabel(p.getItemName()));
+                    otherpayments.add(new JLabel(String.format("$%.2f", p.getAmount())), "grow, wrap");
+                }
+                otherpayments.setVisible(true);
+                otherpayments.revalidate();
+            }).exceptionally(AsyncDataInterface.logFailure("Failed to load driver information"));
         }
         else
         {
@@ -855,7 +888,7 @@ public class EntryPanel extends DriverCarPanelBase implements MessageListener
                 break;
 
             case DATABASE_NOTIFICATION:
-                if (o.equals("drivers")) {
+                if (((ChangeEvent)o).isTable("drivers")) {
                     reloadDrivers();
                 } else {
                     if (!dbtickled)
@@ -22,6 +22,7 @@ import javax.swing.border.BevelBorder;
 import net.miginfocom.swing.MigLayout;
 
 import org.wwscc.components.CurrentSeriesLabel;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.Entrant;
 import org.wwscc.storage.Event;
@@ -113,7 +114,7 @@ class SelectionBar extends JPanel implements ActionListener, MessageListener
                 break;
 
             case DATABASE_NOTIFICATION:
-                 if (o.equals("registered") || o.equals("payments")) {
+                 if (((ChangeEvent)o).isTable("registered", "payments")) {
                      updateCounts();
                  }
                  break;
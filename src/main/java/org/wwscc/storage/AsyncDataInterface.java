@@ -0,0 +1,185 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.wwscc.util.Messenger;
+import org.wwscc.util.TimingTrace;
+
+/**
+ * Runs calls against Database.d on a background database thread so the GUI event thread never waits on
+ * Postgres.  The returned futures complete on the event thread (EDT or FX depending on Messenger mode) so
+ * callers can update their models directly in thenAccept.  Calls are run in the order they are submitted,
+ * so a write followed by a read sees the write.  If the queue is full the database is not keeping up and the
+ * call is failed with a RejectedExecutionException rather than run on the event thread.
+ *
+ * When called from any thread other than the event thread (tests, timer threads, etc), there is nothing
+ * to protect so the call is run immediately on the calling thread and the future is already complete.
+ */
+public class AsyncDataInterface
+{
+    private static final Logger log = Logger.getLogger(AsyncDataInterface.class.getCanonicalName());
+
+    public static final int  QUEUE_SIZE   = 256;
+    public static final long SLOW_CALL_MS = 250;
+
+    @FunctionalInterface
+    public interface Call<T>
+    {
+        public T call(DataInterface d) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Update
+    {
+        public void run(DataInterface d) throws Exception;
+    }
+
+    /**
+     * Snapshot of the counters for reporting
+     */
+    public static class Stats
+    {
+        public long submitted, inline, rejected, failed;
+        public int queued;
+        public double avgqueuems, maxqueuems, avgrunms, maxrunms;
+
+        @Override
+        public String toString()
+        {
+            return String.format("async db submitted=%d inline=%d rejected=%d failed=%d queued=%d queue(avg %.2fms, max %.2fms) run(avg %.2fms, max %.2fms)",
+                        submitted, inline, rejected, failed, queued, avgqueuems, maxqueuems, avgrunms, maxrunms);
+        }
+    }
+
+    private static long submitted, inline, rejected, failed, totalqueuens, maxqueuens, totalrunns, maxrunns;
+
+    // a single thread keeps calls in submission order, the queue is bounded so a stuck database applies back pressure
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+            r -> { Thread t = new Thread(r, "AsyncDataInterface"); t.setDaemon(true); return t; },
+            new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * Run a database call in the background
+     * @param call the function to run with the current DataInterface
+     * @return a future that completes on the event thread with the result or the exception thrown
+     */
+    public static <T> CompletableFuture<T> call(Call<T> call)
+    {
+        CompletableFuture<T> ret = new CompletableFuture<T>();
+        if (!Messenger.isEventThread())
+        {
+            synchronized (AsyncDataInterface.class) { inline++; }
+            try {
+                ret.complete(call.call(Database.d));
+            } catch (Throwable t) {
+                synchronized (AsyncDataInterface.class) { failed++; }
+                ret.completeExceptionally(t);
+            }
+            return ret;
+        }
+
+        final long queuedat = System.nanoTime();
+        final long origin = TimingTrace.origin();
+        Runnable task = () -> {
+            long start = System.nanoTime();
+            long prev = TimingTrace.begin(origin);
+            T result = null;
+            Throwable error = null;
+            try {
+                result = call.call(Database.d);
+            } catch (Throwable t) {
+                error = t;
+            } finally {
+                TimingTrace.end(prev);
+            }
+            record(start - queuedat, System.nanoTime() - start, error != null);
+
+            final T r = result;
+            final Throwable e = error;
+            Messenger.runOnEventThread(() -> {
+                if (e != null)
+                    ret.completeExceptionally(e);
+                else
+                    ret.complete(r);
+            });
+        };
+
+        synchronized (AsyncDataInterface.class) { submitted++; }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ree) {
+            synchronized (AsyncDataInterface.class) { submitted--; rejected++; }
+            log.log(Level.WARNING, "Background database queue is full, rejecting call");
+            ret.completeExceptionally(ree);
+        }
+        return ret;
+    }
+
+    /**
+     * Run a database update in the background
+     * @param update the function to run with the current DataInterface
+     * @return a future that completes on the event thread when the update is done
+     */
+    public static CompletableFuture<Void> update(Update update)
+    {
+        return call(d -> { update.run(d); return null; });
+    }
+
+    /**
+     * For use with CompletableFuture.exceptionally, logs the failure as an error dialog and returns null
+     * @param msg the message to prefix the error with
+     * @return a function to pass to exceptionally
+     */
+    public static <T> Function<Throwable, T> logFailure(String msg)
+    {
+        return t -> {
+            Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+            log.log(Level.SEVERE, "\b" + msg + ": " + cause, cause);
+            return null;
+        };
+    }
+
+    private static synchronized void record(long queuens, long runns, boolean error)
+    {
+        totalqueuens += queuens;
+        maxqueuens = Math.max(maxqueuens, queuens);
+        totalrunns += runns;
+        maxrunns = Math.max(maxrunns, runns);
+        if (error)
+            failed++;
+        if (runns > TimeUnit.MILLISECONDS.toNanos(SLOW_CALL_MS))
+            log.log(Level.FINE, "Slow background database call: {0}ms", runns/1000000);
+    }
+
+    public static synchronized Stats getStats()
+    {
+        Stats s = new Stats();
+        s.submitted  = submitted;
+        s.inline     = inline;
+        s.rejected   = rejected;
+        s.failed     = failed;
+        s.queued     = executor.getQueue().size();
+        s.avgqueuems = (submitted > 0) ? totalqueuens / (submitted * 1e6) : 0;
+        s.maxqueuems = maxqueuens / 1e6;
+        s.avgrunms   = (submitted > 0) ? totalrunns / (submitted * 1e6) : 0;
+        s.maxrunms   = maxrunns / 1e6;
+        return s;
+    }
+}
@@ -17,8 +17,13 @@ import java.util.logging.Logger;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -26,6 +31,7 @@ public class AttrBase
 {
     private static Logger log = Logger.getLogger(AttrBase.class.getCanonicalName());
     private static ObjectMapper objectMapper = new ObjectMapper().setSerializationInclusion(Include.NON_NULL);
+    private static ObjectReader attrReader = objectMapper.readerFor(ObjectNode.class);
 
     @JsonProperty
     protected ObjectNode attr;
@@ -42,8 +48,21 @@ public class AttrBase
 
     public AttrBase(ResultSet rs) throws SQLException
     {
+        this(rs.getString("attr"));
+    }
+
+    /**
+     * Create from the attr JSON text from the database.  Many rows have an empty attr so we skip the parser for those.
+     * @param json the JSON object text
+     */
+    protected AttrBase(String json)
+    {
+        if ((json == null) || json.equals("{}")) {
+            attr = new ObjectNode(JsonNodeFactory.instance);
+            return;
+        }
         try {
-            attr = (ObjectNode) objectMapper.readTree(rs.getString("attr"));
+            attr = attrReader.readValue(json);
         } catch (IOException e) {
             log.warning("Failed to parse attr JSON: " + e);
             attr = new ObjectNode(JsonNodeFactory.instance);
@@ -103,6 +122,63 @@ public class AttrBase
         return -1.0;
     }
 
+    /**
+     * Write the attr object to a streaming generator, the generator must have a codec
+     */
+    public void writeAttr(JsonGenerator gen) throws IOException
+    {
+        gen.writeTree(attr);
+    }
+
+    /**
+     * Replace attr with the object at the parser's current token.  The tree is built here from the
+     * tokens as ObjectMapper won't read from non-blocking parsers.
+     */
+    public void readAttr(JsonParser p) throws IOException
+    {
+        JsonNode n = readNode(p);
+        attr = (n instanceof ObjectNode) ? (ObjectNode)n : new ObjectNode(JsonNodeFactory.instance);
+    }
+
+    private static JsonNode readNode(JsonParser p) throws IOException
+    {
+        JsonNodeFactory f = JsonNodeFactory.instance;
+        JsonToken t = p.currentToken();
+        if (t == null)
+            throw new IOException("unexpected end of attr");
+        switch (t)
+        {
+            case START_OBJECT:
+                ObjectNode o = f.objectNode();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.getCurrentName();
+                    p.nextToken();
+                    o.set(name, readNode(p));
+                }
+                if (p.currentToken() != JsonToken.END_OBJECT)
+                    throw new IOException("unexpected " + p.currentToken() + " in attr");
+                return o;
+            case START_ARRAY:
+                ArrayNode a = f.arrayNode();
+                while (p.nextToken() != JsonToken.END_ARRAY)
+                    a.add(readNode(p));
+                return a;
+            case VALUE_STRING:       return f.textNode(p.getText());
+            case VALUE_NUMBER_FLOAT: return f.numberNode(p.getDoubleValue());
+            case VALUE_NUMBER_INT:
+                switch (p.getNumberType()) {
+                    case INT:  return f.numberNode(p.getIntValue());
+                    case LONG: return f.numberNode(p.getLongValue());
+                    default:   return f.numberNode(p.getBigIntegerValue());
+                }
+            case VALUE_TRUE:         return f.booleanNode(true);
+            case VALUE_FALSE:        return f.booleanNode(false);
+            case VALUE_NULL:         return f.nullNode();
+            default:
+                throw new IOException("unexpected " + t + " in attr");
+        }
+    }
+
     public Set<String> getAttrKeys()
     {
         Set<String> ret = new HashSet<String>();
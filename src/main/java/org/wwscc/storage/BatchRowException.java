@@ -0,0 +1,76 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Thrown from executeGroupUpdate when a batch fails, reporting which row caused the failure.  When
+ * the driver rewrote the rows into multi-row inserts it can only tell us the chunk that failed.
+ */
+@SuppressWarnings("serial")
+public class BatchRowException extends SQLException
+{
+    private final int row;
+    private final int chunkstart;
+    private final int chunkend;
+    private final List<Object> rowargs;
+
+    BatchRowException(String msg, String state, SQLException cause, int row, int chunkstart, int chunkend, List<Object> rowargs)
+    {
+        super(msg, state, cause);
+        this.row        = row;
+        this.chunkstart = chunkstart;
+        this.chunkend   = chunkend;
+        this.rowargs    = rowargs;
+    }
+
+    /**
+     * Build from the driver exception for a chunk of rows starting at chunkstart
+     * @param bue the exception from executeBatch
+     * @param args all of the rows passed to executeGroupUpdate
+     * @param chunkstart the index of the first row in the chunk that was executing
+     * @param chunkend the index after the last row in the chunk
+     * @return a new exception with the failed row information
+     */
+    static BatchRowException from(BatchUpdateException bue, List<List<Object>> args, int chunkstart, int chunkend)
+    {
+        SQLException cause = (bue.getNextException() != null) ? bue.getNextException() : bue;
+        int row = -1;
+        int[] counts = bue.getUpdateCounts();
+        if (counts != null)
+        {
+            for (int ii = 0; ii < counts.length; ii++) {
+                if (counts[ii] == Statement.EXECUTE_FAILED) {
+                    row = chunkstart + ii;
+                    break;
+                }
+            }
+            // counts stop at the failure point unless the driver gave no information at all
+            if ((row < 0) && (counts.length < chunkend - chunkstart) && (counts.length == 0 || counts[0] != Statement.SUCCESS_NO_INFO))
+                row = chunkstart + counts.length;
+        }
+
+        List<Object> rowargs = (row >= 0) ? args.get(row) : null;
+        String msg = (row >= 0) ? String.format("batch row %d failed (%s): %s", row, rowargs, cause.getMessage())
+                                : String.format("batch rows %d-%d failed: %s", chunkstart, chunkend-1, cause.getMessage());
+        return new BatchRowException(msg, cause.getSQLState(), cause, row, chunkstart, chunkend, rowargs);
+    }
+
+    /**
+     * @return the index of the row that failed or -1 if only the chunk is known
+     */
+    public int getRow() { return row; }
+    public int getChunkStart() { return chunkstart; }
+    public int getChunkEnd() { return chunkend; }
+    public List<Object> getRowArgs() { return rowargs; }
+}
@@ -0,0 +1,482 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read only copy of a ResultSet so the statement and connection can go back to the pool before the
+ * caller looks at the rows.  Each value is read with getObject and getString while copying so the typed
+ * getters return what the driver would have.  Arrays are read into memory as well.
+ */
+class BufferedResultSet implements ResultSet
+{
+    private final ResultSetMetaData meta;
+    private final String[] labels;
+    private final int[] types;
+    private final String[] typenames;
+    private final List<Object[]> values;
+    private final List<String[]> strings;
+    private int row;
+    private boolean lastnull, closed;
+
+    BufferedResultSet(ResultSet rs) throws SQLException
+    {
+        meta      = rs.getMetaData();
+        int n     = meta.getColumnCount();
+        labels    = new String[n];
+        types     = new int[n];
+        typenames = new String[n];
+        values    = new ArrayList<Object[]>();
+        strings   = new ArrayList<String[]>();
+        row       = -1;
+
+        for (int ii = 0; ii < n; ii++) {
+            labels[ii]    = meta.getColumnLabel(ii+1);
+            types[ii]     = meta.getColumnType(ii+1);
+            typenames[ii] = meta.getColumnTypeName(ii+1);
+        }
+
+        while (rs.next()) {
+            Object[] v = new Object[n];
+            String[] s = new String[n];
+            for (int ii = 0; ii < n; ii++) {
+                if (types[ii] == Types.ARRAY) {
+                    Array a = rs.getArray(ii+1);
+                    v[ii] = (a != null) ? new BufferedArray(a) : null;
+                } else {
+                    v[ii] = rs.getObject(ii+1);
+                }
+                s[ii] = rs.getString(ii+1);
+            }
+            values.add(v);
+            strings.add(s);
+        }
+    }
+
+    private static SQLFeatureNotSupportedException unsupported()
+    {
+        return new SQLFeatureNotSupportedException("buffered result sets are read only");
+    }
+
+    private Object value(int columnIndex) throws SQLException
+    {
+        if (closed)
+            throw new SQLException("result set is closed");
+        if ((row < 0) || (row >= values.size()))
+            throw new SQLException("no current row");
+        if ((columnIndex < 1) || (columnIndex > labels.length))
+            throw new SQLException("column index " + columnIndex + " out of range");
+        Object ret = values.get(row)[columnIndex-1];
+        lastnull = (ret == null);
+        return ret;
+    }
+
+    private Number number(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if (v == null)
+            return 0;
+        if (v instanceof Number)
+            return (Number)v;
+        if (v instanceof Boolean)
+            return ((Boolean)v) ? 1 : 0;
+        try {
+            return new BigDecimal(v.toString().trim());
+        } catch (NumberFormatException nfe) {
+            throw new SQLException("bad value for a number: " + v);
+        }
+    }
+
+    @Override
+    public boolean next() throws SQLException
+    {
+        row = Math.min(row + 1, values.size());
+        return row < values.size();
+    }
+
+    @Override
+    public boolean previous() throws SQLException
+    {
+        row = Math.max(row - 1, -1);
+        return row >= 0;
+    }
+
+    @Override public void beforeFirst() throws SQLException { row = -1; }
+    @Override public void afterLast() throws SQLException { row = values.size(); }
+    @Override public boolean first() throws SQLException { return absolute(1); }
+    @Override public boolean last() throws SQLException { return absolute(-1); }
+    @Override public boolean relative(int rows) throws SQLException { return absolute(row + 1 + rows); }
+    @Override public boolean absolute(int r) throws SQLException
+    {
+        row = (r >= 0) ? r - 1 : values.size() + r;
+        row = Math.max(-1, Math.min(values.size(), row));
+        return (row >= 0) && (row < values.size());
+    }
+    @Override public int getRow() throws SQLException { return ((row >= 0) && (row < values.size())) ? row + 1 : 0; }
+    @Override public boolean isBeforeFirst() throws SQLException { return (row < 0) && !values.isEmpty(); }
+    @Override public boolean isAfterLast() throws SQLException { return (row >= values.size()) && !values.isEmpty(); }
+    @Override public boolean isFirst() throws SQLException { return (row == 0) && !values.isEmpty(); }
+    @Override public boolean isLast() throws SQLException { return (row == values.size() - 1) && !values.isEmpty(); }
+    @Override public void close() throws SQLException { closed = true; }
+    @Override public boolean isClosed() throws SQLException { return closed; }
+    @Override public boolean wasNull() throws SQLException { return lastnull; }
+    @Override public ResultSetMetaData getMetaData() throws SQLException { return meta; }
+    @Override public int getType() throws SQLException { return TYPE_SCROLL_INSENSITIVE; }
+    @Override public int getConcurrency() throws SQLException { return CONCUR_READ_ONLY; }
+    @Override public int getHoldability() throws SQLException { return HOLD_CURSORS_OVER_COMMIT; }
+    @Override public int getFetchDirection() throws SQLException { return FETCH_FORWARD; }
+    @Override public void setFetchDirection(int direction) throws SQLException {}
+    @Override public int getFetchSize() throws SQLException { return 0; }
+    @Override public void setFetchSize(int rows) throws SQLException {}
+    @Override public SQLWarning getWarnings() throws SQLException { return null; }
+    @Override public void clearWarnings() throws SQLException {}
+    @Override public Statement getStatement() throws SQLException { return null; }
+    @Override public <T> T unwrap(Class<T> iface) throws SQLException { if (iface.isInstance(this)) return iface.cast(this); throw unsupported(); }
+    @Override public boolean isWrapperFor(Class<?> iface) throws SQLException { return iface.isInstance(this); }
+
+    @Override
+    public int findColumn(String columnLabel) throws SQLException
+    {
+        for (int ii = 0; ii < labels.length; ii++)
+            if (labels[ii].equalsIgnoreCase(columnLabel))
+                return ii + 1;
+        throw new SQLException("The column name " + columnLabel + " was not found in this ResultSet.");
+    }
+
+    @Override
+    public String getString(int columnIndex) throws SQLException
+    {
+        value(columnIndex);
+        return strings.get(row)[columnIndex-1];
+    }
+
+    @Override
+    public boolean getBoolean(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if (v == null)
+            return false;
+        if (v instanceof Boolean)
+            return (Boolean)v;
+        if (v instanceof Number)
+            return ((Number)v).intValue() != 0;
+        String s = v.toString().trim().toLowerCase();
+        return s.equals("t") || s.equals("true") || s.equals("1") || s.equals("y") || s.equals("yes") || s.equals("on");
+    }
+
+    @Override public byte getByte(int columnIndex) throws SQLException { return number(columnIndex).byteValue(); }
+    @Override public short getShort(int columnIndex) throws SQLException { return number(columnIndex).shortValue(); }
+    @Override public int getInt(int columnIndex) throws SQLException { return number(columnIndex).intValue(); }
+    @Override public long getLong(int columnIndex) throws SQLException { return number(columnIndex).longValue(); }
+    @Override public float getFloat(int columnIndex) throws SQLException { return number(columnIndex).floatValue(); }
+    @Override public double getDouble(int columnIndex) throws SQLException { return number(columnIndex).doubleValue(); }
+
+    @Override
+    public BigDecimal getBigDecimal(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        return (v == null) ? null : (v instanceof BigDecimal) ? (BigDecimal)v : new BigDecimal(number(columnIndex).toString());
+    }
+
+    @Override
+    @Deprecated
+    public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException
+    {
+        BigDecimal v = getBigDecimal(columnIndex);
+        return (v == null) ? null : v.setScale(scale, BigDecimal.ROUND_HALF_UP);
+    }
+
+    @Override
+    public byte[] getBytes(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        return (v instanceof byte[]) ? ((byte[])v).clone() : (v == null) ? null : getString(columnIndex).getBytes();
+    }
+
+    @Override public Object getObject(int columnIndex) throws SQLException { return value(columnIndex); }
+    @Override public Object getObject(int columnIndex, Map<String, Class<?>> map) throws SQLException { return value(columnIndex); }
+
+    @Override
+    public <T> T getObject(int columnIndex, Class<T> type) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if ((v == null) || type.isInstance(v))
+            return type.cast(v);
+        if ((type == LocalDate.class) && (v instanceof Date))
+            return type.cast(((Date)v).toLocalDate());
+        if ((type == LocalDateTime.class) && (v instanceof Timestamp))
+            return type.cast(((Timestamp)v).toLocalDateTime());
+        if (type == String.class)
+            return type.cast(getString(columnIndex));
+        throw new SQLException("can't convert " + v.getClass().getName() + " to " + type.getName());
+    }
+
+    @Override
+    public Array getArray(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if ((v == null) || (v instanceof Array))
+            return (Array)v;
+        throw new SQLException("column " + columnIndex + " is not an array");
+    }
+
+    @Override
+    public Date getDate(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if (v instanceof Timestamp)
+            return Date.valueOf(((Timestamp)v).toLocalDateTime().toLocalDate());
+        return (Date)v;
+    }
+
+    @Override
+    public Time getTime(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if (v instanceof Timestamp)
+            return Time.valueOf(((Timestamp)v).toLocalDateTime().toLocalTime());
+        return (Time)v;
+    }
+
+    @Override
+    public Timestamp getTimestamp(int columnIndex) throws SQLException
+    {
+        Object v = value(columnIndex);
+        if (v instanceof Date)
+            return new Timestamp(((Date)v).getTime());
+        return (Timestamp)v;
+    }
+
+    @Override public Date getDate(int columnIndex, Calendar cal) throws SQLException { Timestamp t = getTimestamp(columnIndex, cal); return (t == null) ? null : new Date(t.getTime()); }
+    @Override public Time getTime(int columnIndex, Calendar cal) throws SQLException { Timestamp t = getTimestamp(columnIndex, cal); return (t == null) ? null : new Time(t.getTime()); }
+
+    /**
+     * Values without a time zone were read in the local zone, move the wall clock time into cal's zone like the driver does
+     */
+    @Override
+    public Timestamp getTimestamp(int columnIndex, Calendar cal) throws SQLException
+    {
+        Timestamp t = getTimestamp(columnIndex);
+        if ((t == null) || (cal == null) || typenames[columnIndex-1].equalsIgnoreCase("timestamptz"))
+            return t;
+        LocalDateTime ldt = t.toLocalDateTime();
+        Timestamp ret = new Timestamp(ldt.atZone(cal.getTimeZone().toZoneId()).toInstant().toEpochMilli());
+        ret.setNanos(ldt.getNano());
+        return ret;
+    }
+
+    @Override public String getString(String columnLabel) throws SQLException { return getString(findColumn(columnLabel)); }
+    @Override public boolean getBoolean(String columnLabel) throws SQLException { return getBoolean(findColumn(columnLabel)); }
+    @Override public byte getByte(String columnLabel) throws SQLException { return getByte(findColumn(columnLabel)); }
+    @Override public short getShort(String columnLabel) throws SQLException { return getShort(findColumn(columnLabel)); }
+    @Override public int getInt(String columnLabel) throws SQLException { return getInt(findColumn(columnLabel)); }
+    @Override public long getLong(String columnLabel) throws SQLException { return getLong(findColumn(columnLabel)); }
+    @Override public float getFloat(String columnLabel) throws SQLException { return getFloat(findColumn(columnLabel)); }
+    @Override public double getDouble(String columnLabel) throws SQLException { return getDouble(findColumn(columnLabel)); }
+    @Override public BigDecimal getBigDecimal(String columnLabel, int scale) throws SQLException { return getBigDecimal(findColumn(columnLabel), scale); }
+    @Override public byte[] getBytes(String columnLabel) throws SQLException { return getBytes(findColumn(columnLabel)); }
+    @Override public Date getDate(String columnLabel) throws SQLException { return getDate(findColumn(columnLabel)); }
+    @Override public Time getTime(String columnLabel) throws SQLException { return getTime(findColumn(columnLabel)); }
+    @Override public Timestamp getTimestamp(String columnLabel) throws SQLException { return getTimestamp(findColumn(columnLabel)); }
+    @Override public Object getObject(String columnLabel) throws SQLException { return getObject(findColumn(columnLabel)); }
+    @Override public BigDecimal getBigDecimal(String columnLabel) throws SQLException { return getBigDecimal(findColumn(columnLabel)); }
+    @Override public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException { return getObject(findColumn(columnLabel), map); }
+    @Override public Array getArray(String columnLabel) throws SQLException { return getArray(findColumn(columnLabel)); }
+    @Override public Date getDate(String columnLabel, Calendar cal) throws SQLException { return getDate(findColumn(columnLabel), cal); }
+    @Override public Time getTime(String columnLabel, Calendar cal) throws SQLException { return getTime(findColumn(columnLabel), cal); }
+    @Override public Timestamp getTimestamp(String columnLabel, Calendar cal) throws SQLException { return getTimestamp(findColumn(columnLabel), cal); }
+    @Override public <T> T getObject(String columnLabel, Class<T> type) throws SQLException { return getObject(findColumn(columnLabel), type); }
+
+    @Override public InputStream getAsciiStream(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public InputStream getUnicodeStream(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public InputStream getBinaryStream(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public InputStream getAsciiStream(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public InputStream getUnicodeStream(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public InputStream getBinaryStream(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public String getCursorName() throws SQLException { throw unsupported(); }
+    @Override public Reader getCharacterStream(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public Reader getCharacterStream(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public boolean rowUpdated() throws SQLException { throw unsupported(); }
+    @Override public boolean rowInserted() throws SQLException { throw unsupported(); }
+    @Override public boolean rowDeleted() throws SQLException { throw unsupported(); }
+    @Override public void updateNull(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public void updateBoolean(int columnIndex, boolean x) throws SQLException { throw unsupported(); }
+    @Override public void updateByte(int columnIndex, byte x) throws SQLException { throw unsupported(); }
+    @Override public void updateShort(int columnIndex, short x) throws SQLException { throw unsupported(); }
+    @Override public void updateInt(int columnIndex, int x) throws SQLException { throw unsupported(); }
+    @Override public void updateLong(int columnIndex, long x) throws SQLException { throw unsupported(); }
+    @Override public void updateFloat(int columnIndex, float x) throws SQLException { throw unsupported(); }
+    @Override public void updateDouble(int columnIndex, double x) throws SQLException { throw unsupported(); }
+    @Override public void updateBigDecimal(int columnIndex, BigDecimal x) throws SQLException { throw unsupported(); }
+    @Override public void updateString(int columnIndex, String x) throws SQLException { throw unsupported(); }
+    @Override public void updateBytes(int columnIndex, byte[] x) throws SQLException { throw unsupported(); }
+    @Override public void updateDate(int columnIndex, Date x) throws SQLException { throw unsupported(); }
+    @Override public void updateTime(int columnIndex, Time x) throws SQLException { throw unsupported(); }
+    @Override public void updateTimestamp(int columnIndex, Timestamp x) throws SQLException { throw unsupported(); }
+    @Override public void updateAsciiStream(int columnIndex, InputStream x, int length) throws SQLException { throw unsupported(); }
+    @Override public void updateBinaryStream(int columnIndex, InputStream x, int length) throws SQLException { throw unsupported(); }
+    @Override public void updateCharacterStream(int columnIndex, Reader x, int length) throws SQLException { throw unsupported(); }
+    @Override public void updateObject(int columnIndex, Object x, int scaleOrLength) throws SQLException { throw unsupported(); }
+    @Override public void updateObject(int columnIndex, Object x) throws SQLException { throw unsupported(); }
+    @Override public void updateNull(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public void updateBoolean(String columnLabel, boolean x) throws SQLException { throw unsupported(); }
+    @Override public void updateByte(String columnLabel, byte x) throws SQLException { throw unsupported(); }
+    @Override public void updateShort(String columnLabel, short x) throws SQLException { throw unsupported(); }
+    @Override public void updateInt(String columnLabel, int x) throws SQLException { throw unsupported(); }
+    @Override public void updateLong(String columnLabel, long x) throws SQLException { throw unsupported(); }
+    @Override public void updateFloat(String columnLabel, float x) throws SQLException { throw unsupported(); }
+    @Override public void updateDouble(String columnLabel, double x) throws SQLException { throw unsupported(); }
+    @Override public void updateBigDecimal(String columnLabel, BigDecimal x) throws SQLException { throw unsupported(); }
+    @Override public void updateString(String columnLabel, String x) throws SQLException { throw unsupported(); }
+    @Override public void updateBytes(String columnLabel, byte[] x) throws SQLException { throw unsupported(); }
+    @Override public void updateDate(String columnLabel, Date x) throws SQLException { throw unsupported(); }
+    @Override public void updateTime(String columnLabel, Time x) throws SQLException { throw unsupported(); }
+    @Override public void updateTimestamp(String columnLabel, Timestamp x) throws SQLException { throw unsupported(); }
+    @Override public void updateAsciiStream(String columnLabel, InputStream x, int length) throws SQLException { throw unsupported(); }
+    @Override public void updateBinaryStream(String columnLabel, InputStream x, int length) throws SQLException { throw unsupported(); }
+    @Override public void updateCharacterStream(String columnLabel, Reader reader, int length) throws SQLException { throw unsupported(); }
+    @Override public void updateObject(String columnLabel, Object x, int scaleOrLength) throws SQLException { throw unsupported(); }
+    @Override public void updateObject(String columnLabel, Object x) throws SQLException { throw unsupported(); }
+    @Override public void insertRow() throws SQLException { throw unsupported(); }
+    @Override public void updateRow() throws SQLException { throw unsupported(); }
+    @Override public void deleteRow() throws SQLException { throw unsupported(); }
+    @Override public void refreshRow() throws SQLException { throw unsupported(); }
+    @Override public void cancelRowUpdates() throws SQLException { throw unsupported(); }
+    @Override public void moveToInsertRow() throws SQLException { throw unsupported(); }
+    @Override public void moveToCurrentRow() throws SQLException { throw unsupported(); }
+    @Override public Ref getRef(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public Blob getBlob(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public Clob getClob(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public Ref getRef(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public Blob getBlob(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public Clob getClob(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public URL getURL(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public URL getURL(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public void updateRef(int columnIndex, Ref x) throws SQLException { throw unsupported(); }
+    @Override public void updateRef(String columnLabel, Ref x) throws SQLException { throw unsupported(); }
+    @Override public void updateBlob(int columnIndex, Blob x) throws SQLException { throw unsupported(); }
+    @Override public void updateBlob(String columnLabel, Blob x) throws SQLException { throw unsupported(); }
+    @Override public void updateClob(int columnIndex, Clob x) throws SQLException { throw unsupported(); }
+    @Override public void updateClob(String columnLabel, Clob x) throws SQLException { throw unsupported(); }
+    @Override public void updateArray(int columnIndex, Array x) throws SQLException { throw unsupported(); }
+    @Override public void updateArray(String columnLabel, Array x) throws SQLException { throw unsupported(); }
+    @Override public RowId getRowId(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public RowId getRowId(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public void updateRowId(int columnIndex, RowId x) throws SQLException { throw unsupported(); }
+    @Override public void updateRowId(String columnLabel, RowId x) throws SQLException { throw unsupported(); }
+    @Override public void updateNString(int columnIndex, String nString) throws SQLException { throw unsupported(); }
+    @Override public void updateNString(String columnLabel, String nString) throws SQLException { throw unsupported(); }
+    @Override public void updateNClob(int columnIndex, NClob nClob) throws SQLException { throw unsupported(); }
+    @Override public void updateNClob(String columnLabel, NClob nClob) throws SQLException { throw unsupported(); }
+    @Override public NClob getNClob(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public NClob getNClob(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public SQLXML getSQLXML(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public SQLXML getSQLXML(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public void updateSQLXML(int columnIndex, SQLXML xmlObject) throws SQLException { throw unsupported(); }
+    @Override public void updateSQLXML(String columnLabel, SQLXML xmlObject) throws SQLException { throw unsupported(); }
+    @Override public String getNString(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public String getNString(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public Reader getNCharacterStream(int columnIndex) throws SQLException { throw unsupported(); }
+    @Override public Reader getNCharacterStream(String columnLabel) throws SQLException { throw unsupported(); }
+    @Override public void updateNCharacterStream(int columnIndex, Reader x, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateNCharacterStream(String columnLabel, Reader reader, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateAsciiStream(int columnIndex, InputStream x, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateBinaryStream(int columnIndex, InputStream x, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateCharacterStream(int columnIndex, Reader x, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateAsciiStream(String columnLabel, InputStream x, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateBinaryStream(String columnLabel, InputStream x, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateCharacterStream(String columnLabel, Reader reader, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateBlob(int columnIndex, InputStream inputStream, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateBlob(String columnLabel, InputStream inputStream, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateClob(int columnIndex, Reader reader, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateClob(String columnLabel, Reader reader, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateNClob(int columnIndex, Reader reader, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateNClob(String columnLabel, Reader reader, long length) throws SQLException { throw unsupported(); }
+    @Override public void updateNCharacterStream(int columnIndex, Reader x) throws SQLException { throw unsupported(); }
+    @Override public void updateNCharacterStream(String columnLabel, Reader reader) throws SQLException { throw unsupported(); }
+    @Override public void updateAsciiStream(int columnIndex, InputStream x) throws SQLException { throw unsupported(); }
+    @Override public void updateBinaryStream(int columnIndex, InputStream x) throws SQLException { throw unsupported(); }
+    @Override public void updateCharacterStream(int columnIndex, Reader x) throws SQLException { throw unsupported(); }
+    @Override public void updateAsciiStream(String columnLabel, InputStream x) throws SQLException { throw unsupported(); }
+    @Override public void updateBinaryStream(String columnLabel, InputStream x) throws SQLException { throw unsupported(); }
+    @Override public void updateCharacterStream(String columnLabel, Reader reader) throws SQLException { throw unsupported(); }
+    @Override public void updateBlob(int columnIndex, InputStream inputStream) throws SQLException { throw unsupported(); }
+    @Override public void updateBlob(String columnLabel, InputStream inputStream) throws SQLException { throw unsupported(); }
+    @Override public void updateClob(int columnIndex, Reader reader) throws SQLException { throw unsupported(); }
+    @Override public void updateClob(String columnLabel, Reader reader) throws SQLException { throw unsupported(); }
+    @Override public void updateNClob(int columnIndex, Reader reader) throws SQLException { throw unsupported(); }
+    @Override public void updateNClob(String columnLabel, Reader reader) throws SQLException { throw unsupported(); }
+
+    /**
+     * An array that has already been read from the driver
+     */
+    static class BufferedArray implements Array
+    {
+        private final String basetypename;
+        private final int basetype;
+        private final Object array;
+
+        BufferedArray(Array a) throws SQLException
+        {
+            basetypename = a.getBaseTypeName();
+            basetype     = a.getBaseType();
+            array        = a.getArray();
+            a.free();
+        }
+
+        @Override public String getBaseTypeName() throws SQLException { return basetypename; }
+        @Override public int getBaseType() throws SQLException { return basetype; }
+        @Override public Object getArray() throws SQLException { return copy(array, 1, java.lang.reflect.Array.getLength(array)); }
+        @Override public Object getArray(Map<String, Class<?>> map) throws SQLException { return getArray(); }
+        @Override public Object getArray(long index, int count) throws SQLException { return copy(array, index, count); }
+        @Override public Object getArray(long index, int count, Map<String, Class<?>> map) throws SQLException { return getArray(index, count); }
+        @Override public ResultSet getResultSet() throws SQLException { throw unsupported(); }
+        @Override public ResultSet getResultSet(Map<String, Class<?>> map) throws SQLException { throw unsupported(); }
+        @Override public ResultSet getResultSet(long index, int count) throws SQLException { throw unsupported(); }
+        @Override public ResultSet getResultSet(long index, int count, Map<String, Class<?>> map) throws SQLException { throw unsupported(); }
+        @Override public void free() throws SQLException {}
+
+        private static Object copy(Object src, long index, int count)
+        {
+            if (src instanceof Object[])
+                return Arrays.copyOfRange((Object[])src, (int)index - 1, (int)index - 1 + count);
+            Object ret = java.lang.reflect.Array.newInstance(src.getClass().getComponentType(), count);
+            System.arraycopy(src, (int)index - 1, ret, 0, count);
+            return ret;
+        }
+    }
+}
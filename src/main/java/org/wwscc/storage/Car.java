@@ -49,18 +49,29 @@ public class Car extends AttrBase
         indexcode  = other.indexcode;
         number     = other.number;
         useclsmult = other.useclsmult;
-        effectiveIndexString = Database.d.getEffectiveIndexStr(this);
+        effectiveIndexString = other.effectiveIndexString;  // same class and index, no need to ask the database
     }
 
     public Car(ResultSet rs) throws SQLException
     {
-        super(rs);
-        carid      = (UUID)rs.getObject("carid");
-        driverid   = (UUID)rs.getObject("driverid");
-        classcode  = rs.getString("classcode");
-        indexcode  = rs.getString("indexcode");
-        number     = rs.getInt("number");
-        useclsmult = rs.getBoolean("useclsmult");
+        this(rs, RowMapper.columns(rs, COLUMNS));
+    }
+
+    static final String[] COLUMNS = { "attr", "carid", "driverid", "classcode", "indexcode", "number", "useclsmult" };
+    static final RowMapper<Car> MAPPER = rs -> {
+        int[] c = RowMapper.columns(rs, COLUMNS);
+        return r -> new Car(r, c);
+    };
+
+    Car(ResultSet rs, int[] c) throws SQLException
+    {
+        super(rs.getString(c[0]));
+        carid      = (UUID)rs.getObject(c[1]);
+        driverid   = (UUID)rs.getObject(c[2]);
+        classcode  = rs.getString(c[3]);
+        indexcode  = rs.getString(c[4]);
+        number     = rs.getInt(c[5]);
+        useclsmult = rs.getBoolean(c[6]);
         effectiveIndexString = Database.d.getEffectiveIndexStr(this);
     }
 
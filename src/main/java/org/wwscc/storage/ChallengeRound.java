@@ -29,14 +29,25 @@ public class ChallengeRound
 
     public ChallengeRound(ResultSet rs) throws SQLException
     {
-        challengeid  = (UUID)rs.getObject("challengeid");
-        round        = rs.getInt("round");
+        this(rs, RowMapper.columns(rs, COLUMNS));
+    }
+
+    static final String[] COLUMNS = { "challengeid", "round", "car1id", "car1dial", "car2id", "car2dial" };
+    static final RowMapper<ChallengeRound> MAPPER = rs -> {
+        int[] c = RowMapper.columns(rs, COLUMNS);
+        return r -> new ChallengeRound(r, c);
+    };
+
+    ChallengeRound(ResultSet rs, int[] c) throws SQLException
+    {
+        challengeid  = (UUID)rs.getObject(c[0]);
+        round        = rs.getInt(c[1]);
         car1         = new ChallengeRound.RoundEntrant();
-        car1.carid   = (UUID)rs.getObject("car1id");
-        car1.dial    = rs.getDouble("car1dial");
+        car1.carid   = (UUID)rs.getObject(c[2]);
+        car1.dial    = rs.getDouble(c[3]);
         car2         = new ChallengeRound.RoundEntrant();
-        car2.carid   = (UUID)rs.getObject("car2id");
-        car2.dial    = rs.getDouble("car2dial");
+        car2.carid   = (UUID)rs.getObject(c[4]);
+        car2.dial    = rs.getDouble(c[5]);
     }
 
     public UUID getChallengeId() { return challengeid; }
@@ -0,0 +1,191 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The data sent with DATABASE_NOTIFICATION.  The table name is always present.  If the notify payload
+ * carries row information, i.e. {"op":"UPDATE","keys":{"carid":"...","eventid":"..."}}, the operation and
+ * key values are available so listeners can update only the affected rows.  Without a payload (or one we
+ * can't parse) the event is not detailed and listeners should reload whatever depends on the table.
+ * <p>
+ * The backend triggers don't send a payload, so every event from them is table-only.  The GUI listeners
+ * only look at the table name, row level handling there should wait until the triggers provide keys.
+ */
+public class ChangeEvent
+{
+    private static final Logger log = Logger.getLogger(ChangeEvent.class.getCanonicalName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public enum Op { INSERT, UPDATE, DELETE, TRUNCATE, UNKNOWN };
+
+    private final String table;
+    private final Op op;
+    private final Map<String, String> keys;
+
+    /**
+     * A change with only the table name known
+     * @param table the table name
+     */
+    public ChangeEvent(String table)
+    {
+        this(table, Op.UNKNOWN, null);
+    }
+
+    public ChangeEvent(String table, Op op, Map<String, String> keys)
+    {
+        this.table = table;
+        this.op    = op;
+        this.keys  = (keys != null) ? Collections.unmodifiableMap(keys) : Collections.emptyMap();
+    }
+
+    /**
+     * Create from a notification.  The payload is JSON with an op field, a keys (or pk) object and possibly
+     * other top level values which are treated as keys as well.
+     * @param channel the notification channel, which is the table name
+     * @param payload the notification payload, may be null or empty
+     * @return a new ChangeEvent, never null
+     */
+    public static ChangeEvent parse(String channel, String payload)
+    {
+        if ((payload == null) || payload.trim().isEmpty())
+            return new ChangeEvent(channel);
+
+        try {
+            JsonNode root = objectMapper.readTree(payload);
+            if ((root == null) || !root.isObject())
+                return new ChangeEvent(channel);
+
+            Op op = Op.UNKNOWN;
+            Map<String, String> keys = new HashMap<String, String>();
+            Iterator<Map.Entry<String, JsonNode>> iter = root.fields();
+            while (iter.hasNext())
+            {
+                Map.Entry<String, JsonNode> f = iter.next();
+                String name = f.getKey();
+                JsonNode v  = f.getValue();
+                if (name.equals("op") || name.equals("operation")) {
+                    op = parseOp(v.asText());
+                } else if (v.isObject()) {
+                    Iterator<Map.Entry<String, JsonNode>> kiter = v.fields();
+                    while (kiter.hasNext()) {
+                        Map.Entry<String, JsonNode> k = kiter.next();
+                        if (k.getValue().isValueNode() && !k.getValue().isNull())
+                            keys.put(k.getKey(), k.getValue().asText());
+                    }
+                } else if (v.isValueNode() && !v.isNull()) {
+                    keys.put(name, v.asText());
+                }
+            }
+            return new ChangeEvent(channel, op, keys);
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Unable to parse notification payload for {0}: {1}", new Object[] { channel, payload });
+            return new ChangeEvent(channel);
+        }
+    }
+
+    private static Op parseOp(String s)
+    {
+        switch (s.toUpperCase())
+        {
+            case "I": case "INSERT":   return Op.INSERT;
+            case "U": case "UPDATE":   return Op.UPDATE;
+            case "D": case "DELETE":   return Op.DELETE;
+            case "T": case "TRUNCATE": return Op.TRUNCATE;
+            default:                   return Op.UNKNOWN;
+        }
+    }
+
+    public String getTable() { return table; }
+    public Op getOp() { return op; }
+    public Map<String, String> getKeys() { return keys; }
+
+    /**
+     * @return true if we know the operation and at least one key, false means reload anything using the table
+     */
+    public boolean isDetailed()
+    {
+        return (op != Op.UNKNOWN) && (op != Op.TRUNCATE) && !keys.isEmpty();
+    }
+
+    /**
+     * @param tables the table names to check
+     * @return true if this change is for one of the tables
+     */
+    public boolean isTable(String ... tables)
+    {
+        for (String t : tables)
+            if (t.equals(table))
+                return true;
+        return false;
+    }
+
+    /**
+     * @param name the key column name
+     * @return the UUID value of the key or null if not present or not a UUID
+     */
+    public UUID getUUID(String name)
+    {
+        String v = keys.get(name);
+        if (v == null)
+            return null;
+        try {
+            return UUID.fromString(v);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * @param name the key column name
+     * @return the integer value of the key or null if not present or not an integer
+     */
+    public Integer getInt(String name)
+    {
+        String v = keys.get(name);
+        if (v == null)
+            return null;
+        try {
+            return Integer.valueOf(v);
+        } catch (NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+    public UUID getEventId()  { return getUUID("eventid"); }
+    public UUID getCarId()    { return getUUID("carid"); }
+    public UUID getDriverId() { return getUUID("driverid"); }
+
+    /**
+     * @param eventid the event being displayed
+     * @return false only if the change is known to be for a different event
+     */
+    public boolean mayAffectEvent(UUID eventid)
+    {
+        UUID mine = getEventId();
+        return (mine == null) || (eventid == null) || mine.equals(eventid);
+    }
+
+    @Override
+    public String toString()
+    {
+        return table + ((op != Op.UNKNOWN) ? " " + op + " " + keys : "");
+    }
+}
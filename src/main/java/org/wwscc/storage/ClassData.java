@@ -29,21 +29,75 @@ public class ClassData
 
     HashMap <String, ClassData.Class> classes;
     HashMap <String, ClassData.Index> indexes;
+    HashMap <String, EffectiveIndex[]> effective; // precomputed results, null until build is called
 
     public ClassData()
     {
         classes = new HashMap<String, ClassData.Class>();
         indexes = new HashMap<String, ClassData.Index>();
+        effective = null;
+    }
+
+    /**
+     * Create a complete snapshot of the class and index lists with the effective index for every combination
+     * precomputed.  The snapshot is not modified after this so it can be shared between threads.
+     */
+    ClassData(Collection<ClassData.Class> classlist, Collection<ClassData.Index> indexlist)
+    {
+        this();
+        for (ClassData.Class c : classlist)
+            add(c);
+        for (ClassData.Index i : indexlist)
+            add(i);
+        build();
     }
 
     public void add(ClassData.Class c)
     {
         classes.put(c.getCode(), c);
+        effective = null;
     }
 
     protected void add(ClassData.Index i)
     {
         indexes.put(i.getCode(), i);
+        effective = null;
+    }
+
+    private static String key(String classcode, String indexcode)
+    {
+        return classcode + "\0" + indexcode;
+    }
+
+    /**
+     * Precompute the effective index for each class, and for each class/index pair where the car index
+     * is used, with and without the car flag.
+     */
+    void build()
+    {
+        HashMap<String, EffectiveIndex[]> table = new HashMap<String, EffectiveIndex[]>();
+        for (ClassData.Class c : classes.values())
+        {
+            if (!c.carindexed) {
+                EffectiveIndex ei = calculateEffectiveIndex(c.classcode, "", false, null);
+                table.put(key(c.classcode, ""), new EffectiveIndex[] { ei, ei });
+                continue;
+            }
+
+            // the restriction list is the same for every index so only parse it once per class
+            Set<String> restrict = null;
+            if (c.classmultiplier < 1.0) {
+                try {
+                    restrict = c.restrictedClassMultiplierIndexes(indexes.values()).stream().map(i -> i.getCode()).collect(Collectors.toSet());
+                } catch (Exception e) {
+                    restrict = null; // calculate will report the error
+                }
+            }
+            for (String indexcode : indexes.keySet())
+                table.put(key(c.classcode, indexcode), new EffectiveIndex[] { calculateEffectiveIndex(c.classcode, indexcode, false, restrict),
+                                                                             calculateEffectiveIndex(c.classcode, indexcode, true, restrict) });
+        }
+        effective = table;
     }
 
     public ClassData.Class getClass(String code)
@@ -88,11 +142,35 @@ public class ClassData
 
     public static class EffectiveIndex
     {
-        public double val;
-        public String str;
+        public final double val;
+        public final String str;
+        public EffectiveIndex(double val, String str)
+        {
+            this.val = val;
+            this.str = str;
+        }
     }
 
+    /**
+     * @return the index value and display string for a car in the class with the given index and flag
+     */
     public EffectiveIndex getEffectiveIndex(String classcode, String indexcode, boolean carflagset)
+    {
+        HashMap<String, EffectiveIndex[]> table = effective;
+        if (table != null)
+        {
+            ClassData.Class c = classes.get(classcode);
+            EffectiveIndex[] found = table.get(key(classcode, ((c != null) && c.carindexed) ? indexcode : ""));
+            if (found != null)
+                return found[carflagset ? 1 : 0];
+        }
+        return calculateEffectiveIndex(classcode, indexcode, carflagset, null);
+    }
+
+    /**
+     * @param restrict the codes from restrictedClassMultiplierIndexes for the class if already known, otherwise null
+     */
+    private EffectiveIndex calculateEffectiveIndex(String classcode, String indexcode, boolean carflagset, Set<String> restrict)
     {
         double indexVal = 1.0;
         String indexStr = "";
@@ -122,7 +200,8 @@ public class ClassData
 
             /* Apply special class multiplier if < 1.000 */
             if (classData.classmultiplier < 1.0) {
-                Set<String> restrict = classData.restrictedClassMultiplierIndexes(indexes.values()).stream().map(i -> i.getCode()).collect(Collectors.toSet());
+                if (restrict == null)
+                    restrict = classData.restrictedClassMultiplierIndexes(indexes.values()).stream().map(i -> i.getCode()).collect(Collectors.toSet());
                 if (!classData.carindexed || (restrict.contains(indexcode) && (!classData.usecarflag || carflagset))) {
                     indexVal *= classData.classmultiplier;
                     indexStr  = indexStr + "*";
@@ -134,10 +213,7 @@ public class ClassData
             log.log(Level.WARNING, "getEffectiveIndex failed: " + ioe, ioe);
         }
 
-        EffectiveIndex ret = new EffectiveIndex();
-        ret.val = indexVal;
-        ret.str = !indexStr.isEmpty() ? '('+indexStr+')' : "";
-        return ret;
+        return new EffectiveIndex(indexVal, !indexStr.isEmpty() ? '('+indexStr+')' : "");
     }
 
 
@@ -172,17 +248,29 @@ public class ClassData
 
         public Class(ResultSet rs) throws SQLException
         {
-            classcode       = rs.getString("classcode");
-            descrip         = rs.getString("descrip");
-            indexcode       = rs.getString("indexcode");
-            caridxrestrict  = rs.getString("caridxrestrict");
-            classmultiplier = rs.getDouble("classmultiplier");
-            carindexed      = rs.getBoolean("carindexed");
-            usecarflag      = rs.getBoolean("usecarflag");
-            eventtrophy     = rs.getBoolean("eventtrophy");
-            champtrophy     = rs.getBoolean("champtrophy");
-            secondruns      = rs.getBoolean("secondruns");
-            countedruns     = rs.getInt("countedruns");
+            this(rs, RowMapper.columns(rs, COLUMNS));
+        }
+
+        static final String[] COLUMNS = { "classcode", "descrip", "indexcode", "caridxrestrict", "classmultiplier", "carindexed",
+                                          "usecarflag", "eventtrophy", "champtrophy", "secondruns", "countedruns" };
+        static final RowMapper<Class> MAPPER = rs -> {
+            int[] c = RowMapper.columns(rs, COLUMNS);
+            return r -> new Class(r, c);
+        };
+
+        Class(ResultSet rs, int[] c) throws SQLException
+        {
+            classcode       = rs.getString(c[0]);
+            descrip         = rs.getString(c[1]);
+            indexcode       = rs.getString(c[2]);
+            caridxrestrict  = rs.getString(c[3]);
+            classmultiplier = rs.getDouble(c[4]);
+            carindexed      = rs.getBoolean(c[5]);
+            usecarflag      = rs.getBoolean(c[6]);
+            eventtrophy     = rs.getBoolean(c[7]);
+            champtrophy     = rs.getBoolean(c[8]);
+            secondruns      = rs.getBoolean(c[9]);
+            countedruns     = rs.getInt(c[10]);
         }
 
         public String toString() {
@@ -304,6 +392,8 @@ public class ClassData
             value     = rs.getDouble("value");
         }
 
+        static final RowMapper<Index> MAPPER = RowMapper.byName(Index::new);
+
         public String toString() {
             return indexcode;
         }
@@ -0,0 +1,275 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of database connections.  Threads check out a connection for the length of a single
+ * statement or an entire transaction and then return it.  Idle connections are validated by a background
+ * thread rather than calling isValid on every statement.
+ */
+class ConnectionPool
+{
+    private static final Logger log = Logger.getLogger(ConnectionPool.class.getCanonicalName());
+
+    public static final int  DEFAULT_SIZE     = 4;
+    public static final long DEFAULT_WAIT_MS  = 10000;
+    public static final long VALIDATE_MS      = 5000;
+    public static final long SLOW_WAIT_MS     = 250;
+
+    interface Connector
+    {
+        public Connection connect() throws SQLException;
+    }
+
+    /**
+     * Wrapper for a connection in the pool and the session state that was applied to it
+     */
+    static class PooledConnection
+    {
+        final Connection conn;
+        StatementCache statements;
+        String series;
+        boolean broken;
+        long lastused;
+
+        PooledConnection(Connection c)
+        {
+            conn = c;
+            series = null;
+            broken = false;
+            lastused = System.currentTimeMillis();
+        }
+
+        void close()
+        {
+            if (statements != null)
+                statements.close();
+            try {
+                conn.close();
+            } catch (SQLException sqle) {
+                log.log(Level.FINE, "pooled connection close: " + sqle, sqle);
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the pool counters for reporting
+     */
+    public static class Stats
+    {
+        public int size, idle, max;
+        public long checkouts, waits, timeouts, discarded;
+        public double avgwaitms, maxwaitms;
+
+        @Override
+        public String toString()
+        {
+            return String.format("pool size=%d/%d idle=%d checkouts=%d waits=%d (avg %.2fms, max %.2fms) timeouts=%d discarded=%d",
+                        size, max, idle, checkouts, waits, avgwaitms, maxwaitms, timeouts, discarded);
+        }
+    }
+
+    private final Connector connector;
+    private final int maxsize;
+    private final long waitms;
+    private final LinkedBlockingDeque<PooledConnection> idle;
+    private final AtomicInteger size;
+    private final Thread validator;
+    private volatile boolean closed;
+
+    private long checkouts, waits, timeouts, discarded, totalwaitns, maxwaitns;
+
+    /**
+     * Create the pool and its first connection so that connection errors are reported immediately
+     * @param connector the function to create and initialize a new connection
+     * @param maxsize the maximum number of connections to open
+     * @param waitms how long a thread will wait for a free connection before failing
+     * @throws SQLException if the first connection fails
+     */
+    public ConnectionPool(Connector connector, int maxsize, long waitms) throws SQLException
+    {
+        this.connector = connector;
+        this.maxsize   = Math.max(1, maxsize);
+        this.waitms    = waitms;
+        this.idle      = new LinkedBlockingDeque<PooledConnection>();
+        this.size      = new AtomicInteger(0);
+        this.closed    = false;
+
+        idle.offerFirst(tryCreate());
+
+        validator = new Thread(this::validateLoop, "ConnectionPoolValidator");
+        validator.setDaemon(true);
+        validator.start();
+    }
+
+    /**
+     * Open a new connection if we are still below the max pool size
+     * @return the new connection or null if the pool is already full
+     */
+    private PooledConnection tryCreate() throws SQLException
+    {
+        int current;
+        do {
+            current = size.get();
+            if (current >= maxsize)
+                return null;
+        } while (!size.compareAndSet(current, current+1));
+        try {
+            return new PooledConnection(connector.connect());
+        } catch (SQLException sqle) {
+            size.decrementAndGet();
+            throw sqle;
+        }
+    }
+
+    /**
+     * Get a connection for the calling thread, opening a new one if below max size or waiting for one
+     * to be returned otherwise.
+     * @return a connection that must be returned with checkin
+     * @throws SQLException if the pool is closed or the wait timed out
+     */
+    public PooledConnection checkout() throws SQLException
+    {
+        if (closed)
+            throw new SQLException("Connection pool is closed");
+
+        PooledConnection pc = idle.pollFirst();
+        if (pc == null)
+        {
+            pc = tryCreate();
+            if (pc == null) {
+                long start = System.nanoTime();
+                long deadline = start + TimeUnit.MILLISECONDS.toNanos(waitms);
+                try {
+                    // wait in slices so we notice if a broken connection was dropped and we can open a replacement
+                    while ((pc == null) && (System.nanoTime() < deadline)) {
+                        pc = idle.pollFirst(100, TimeUnit.MILLISECONDS);
+                        if (pc == null)
+                            pc = tryCreate();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                long waited = System.nanoTime() - start;
+                synchronized (this) {
+                    waits++;
+                    totalwaitns += waited;
+                    maxwaitns = Math.max(maxwaitns, waited);
+                    if (pc == null)
+                        timeouts++;
+                }
+                if (pc == null)
+                    throw new SQLException("Timed out waiting for a database connection after " + waitms + "ms");
+                if (waited > TimeUnit.MILLISECONDS.toNanos(SLOW_WAIT_MS))
+                    log.log(Level.INFO, "Waited {0}ms for a database connection, {1}", new Object[] { waited/1000000, getStats() });
+            }
+        }
+
+        synchronized (this) {
+            checkouts++;
+        }
+        return pc;
+    }
+
+    /**
+     * Return a connection to the pool.  Broken connections are closed and dropped so the next checkout
+     * will open a replacement.
+     * @param pc the connection returned from checkout
+     */
+    public void checkin(PooledConnection pc)
+    {
+        if (pc == null)
+            return;
+        if (closed || pc.broken) {
+            discard(pc);
+            return;
+        }
+        pc.lastused = System.currentTimeMillis();
+        idle.offerFirst(pc);
+    }
+
+    private void discard(PooledConnection pc)
+    {
+        size.decrementAndGet();
+        synchronized (this) {
+            discarded++;
+        }
+        pc.close();
+    }
+
+    /**
+     * Background thread that checks connections that are sitting idle
+     */
+    private void validateLoop()
+    {
+        while (!closed)
+        {
+            try {
+                Thread.sleep(VALIDATE_MS);
+            } catch (InterruptedException ie) {
+                continue;
+            }
+
+            for (PooledConnection pc : new ArrayList<PooledConnection>(idle))
+            {
+                if (closed || !idle.remove(pc))
+                    continue;  // someone else grabbed it, it will be checked next time around
+                boolean valid = false;
+                try {
+                    valid = pc.conn.isValid(2);
+                } catch (SQLException sqle) {
+                    log.log(Level.FINE, "validate failed: " + sqle, sqle);
+                }
+                if (valid) {
+                    idle.offerLast(pc);
+                } else {
+                    log.info("Dropping invalid pooled database connection");
+                    discard(pc);
+                }
+            }
+        }
+    }
+
+    public synchronized Stats getStats()
+    {
+        Stats s     = new Stats();
+        s.size      = size.get();
+        s.idle      = idle.size();
+        s.max       = maxsize;
+        s.checkouts = checkouts;
+        s.waits     = waits;
+        s.timeouts  = timeouts;
+        s.discarded = discarded;
+        s.avgwaitms = (waits > 0) ? totalwaitns / (waits * 1e6) : 0;
+        s.maxwaitms = maxwaitns / 1e6;
+        return s;
+    }
+
+    /**
+     * Close all idle connections now, connections still checked out are closed when they are returned
+     */
+    public void close()
+    {
+        closed = true;
+        validator.interrupt();
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null)
+            discard(pc);
+        log.info("Closed connection pool: " + getStats());
+    }
+}
@@ -17,7 +17,7 @@ import java.util.UUID;
 
 import org.wwscc.util.ApplicationState;
 
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.JsonNode;
 
 /** */
 public interface DataInterface
@@ -137,6 +137,7 @@ public interface DataInterface
     public void deleteCars(Collection<Car> d) throws Exception;
     public void mergeCar(Car from, Car into) throws Exception;
     public DecoratedCar decorateCar(Car c, ApplicationState state);
+    public List<DecoratedCar> decorateCars(Collection<Car> cars, ApplicationState state); // decorate a group of cars in a couple of queries, same order as given
 
     public void setRun(Run r, String quicksync) throws Exception;
     public void swapRuns(Collection<Run> runs, UUID newcarid) throws Exception;
@@ -155,6 +156,7 @@ public interface DataInterface
     public ChallengeRun getRunForChallengeEntry(UUID challengeid, int round, UUID carid, int course);
     public ChallengeStaging getStagingForChallenge(UUID challengeid);
     public Dialins loadDialins(UUID eventid);
+    public EventResults getEventResults(UUID eventid); // class standings, index order and grid calculated locally
     public void updateChallenge(Challenge c);
     public void updateChallengeRound(ChallengeRound r);
     public void updateChallengeRound(UUID challengeid, int round, int entry, UUID carid, double dialin) throws SQLException;
@@ -186,7 +188,7 @@ public interface DataInterface
     public List<MergeServer> getMergeServers();
 
     /* Local event stream */
-    public void recordEvent(String type, ObjectNode attr);
+    public void recordEvent(String type, JsonNode attr);
     public void recordCache(String name, String data);
 
     /* things requiring superuser privileges, only obtained by merge tool */
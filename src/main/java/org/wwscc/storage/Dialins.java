@@ -9,15 +9,17 @@
 package org.wwscc.storage;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
+ * Dialins for an event.  Each class keeps its entrants sorted by net time so updating a single car is
+ * O(log n) and the class leaders (which the dial and class diff are based on) are always at hand.
  */
 public class Dialins 
 {
@@ -28,103 +30,116 @@ public class Dialins
 		Double index;
 		Double net;
 		Double bonus;
-		Double dial;
-		Double classdiff;
 	}
 
-	private class CarInfoNet implements Comparator<CarInfo> {
-		@Override
-		public int compare(CarInfo o1, CarInfo o2) {
-			return o1.net.compareTo(o2.net);
-		}		
-	}
-
-	private class CarInfoDiff implements Comparator<CarInfo> {
-		@Override
-		public int compare(CarInfo o1, CarInfo o2) {
-			return o1.classdiff.compareTo(o2.classdiff);
-		}		
-	}
+	/* sort by net, carid breaks ties so different cars with the same net are still distinct in the sets */
+	private static final Comparator<CarInfo> NETORDER = Comparator.comparing((CarInfo c) -> c.net).thenComparing(c -> c.carid);
 
-	private Map <String, List<CarInfo>> classmap;   // used to determine class dialin basis
+	private Map <String, TreeSet<CarInfo>> classmap;   // used to determine class dialin basis
 	private Map <UUID, CarInfo> carmap;     // map from carid to details for the Car
+	private TreeSet<CarInfo> netorder;      // all cars by net
 	
 	public Dialins()
 	{
 		classmap = new HashMap<>();
 		carmap   = new HashMap<>();
+		netorder = new TreeSet<>(NETORDER);
 	}
 	
-	public void setEntrant(UUID carid, String classcode, double raw, double net, double index)
+	/**
+	 * Copy so the caller has a snapshot that isn't changed by later updates
+	 */
+	Dialins(Dialins other)
+	{
+		this();
+		synchronized (other) {
+			for (CarInfo c : other.netorder)
+				setEntrant(c.carid, c.classcode, c.bonus*2.0, c.net, c.index);
+		}
+	}
+
+	/**
+	 * Add or update the values for a car
+	 */
+	public synchronized void setEntrant(UUID carid, String classcode, double raw, double net, double index)
 	{
+		removeEntrant(carid);
+
 		CarInfo c = new CarInfo();
-		carmap.put(carid, c);
 		c.carid     = carid;
 		c.classcode = classcode;
 		c.index     = index;
 		c.net       = net;
 		c.bonus     = raw/2.0;
-		c.dial      = 999.999;
-		c.classdiff = 666.666;
 		
-		if (!classmap.containsKey(c.classcode))
-			classmap.put(c.classcode, new ArrayList<>());
-		classmap.get(c.classcode).add(c);
+		carmap.put(carid, c);
+		netorder.add(c);
+		classmap.computeIfAbsent(c.classcode, k -> new TreeSet<>(NETORDER)).add(c);
 	}
-	
-	public void finalizedialins()
+
+	/**
+	 * Remove a car, i.e. all of its runs were deleted
+	 */
+	public synchronized void removeEntrant(UUID carid)
 	{
-		for (List<CarInfo> l : classmap.values()) {
-			if (l.size() == 0) continue;
-			l.sort(new CarInfoNet());
+		CarInfo old = carmap.remove(carid);
+		if (old == null)
+			return;
+		netorder.remove(old);
+		TreeSet<CarInfo> cls = classmap.get(old.classcode);
+		cls.remove(old);
+		if (cls.isEmpty())
+			classmap.remove(old.classcode);
+	}
 
-			CarInfo lead = l.get(0);
-			lead.dial = lead.bonus;
-			lead.classdiff = 0.0;
-			if (l.size() == 1) continue;
-			
-			double basis = lead.bonus * lead.index;
-			lead.classdiff = lead.net - l.get(1).net;
+	public synchronized boolean contains(UUID carid)
+	{
+		return carmap.containsKey(carid);
+	}
 
-			for (CarInfo info : l.subList(1, l.size())) {
-				info.dial      = basis / info.index;
-				info.classdiff = info.net - lead.net;
-			}
-		}
+	private double dial(CarInfo c)
+	{
+		CarInfo lead = classmap.get(c.classcode).first();
+		if (lead == c)
+			return lead.bonus;
+		return lead.bonus * lead.index / c.index;
+	}
+
+	private double classdiff(CarInfo c)
+	{
+		TreeSet<CarInfo> cls = classmap.get(c.classcode);
+		CarInfo lead = cls.first();
+		if (lead != c)
+			return c.net - lead.net;
+		CarInfo second = cls.higher(lead);
+		return (second != null) ? lead.net - second.net : 0.0;
 	}
 	
-	public double getNet(UUID carid)  { return carmap.get(carid).net; }
-	public double getDiff(UUID carid) { return carmap.get(carid).classdiff; }
- 	public double getDial(UUID carid, boolean bonus)
+	public synchronized double getNet(UUID carid)  { return carmap.get(carid).net; }
+	public synchronized double getDiff(UUID carid) { return classdiff(carmap.get(carid)); }
+ 	public synchronized double getDial(UUID carid, boolean bonus)
 	{
 		double ret;
 		if (bonus)
 			ret = carmap.get(carid).bonus;
 		else
-			ret = carmap.get(carid).dial;
+			ret = dial(carmap.get(carid));
 		
 		return (Math.round(ret * 1000.0))/1000.0;
 	}
 
-	public List<UUID> getNetOrder()
-	{
-		return mapSort(new CarInfoNet());
-	}
-
-	public List<UUID> getDiffOrder()
+	public synchronized List<UUID> getNetOrder()
 	{
-		return mapSort(new CarInfoDiff());
+		return netorder.stream().map(c -> c.carid).collect(Collectors.toList());
 	}
 
-	private List<UUID> mapSort(Comparator<CarInfo> compare)
+	public synchronized List<UUID> getDiffOrder()
 	{
-		List<CarInfo> torder = new LinkedList<CarInfo>(carmap.values());
-		Collections.sort(torder, compare);
-
-		List<UUID> ids = new ArrayList<UUID>();
-		for (CarInfo i : torder)
-			ids.add(i.carid);
-		
-		return ids;
+		List<CarInfo> torder = new ArrayList<CarInfo>(netorder);
+		Map<CarInfo, Double> diffs = new HashMap<CarInfo, Double>();
+		for (CarInfo c : torder)
+			diffs.put(c, classdiff(c));
+		torder.sort(Comparator.comparing(c -> diffs.get(c)));
+		return torder.stream().map(c -> c.carid).collect(Collectors.toList());
 	}
 }
@@ -57,17 +57,41 @@ public class Driver extends AttrBase
         driverid = id;
     }
 
+    public Driver(Driver other)
+    {
+        super(other.attr);
+        driverid   = other.driverid;
+        firstname  = other.firstname;
+        lastname   = other.lastname;
+        email      = other.email;
+        username   = other.username;
+        password   = other.password;
+        barcode    = other.barcode;
+        optoutmail = other.optoutmail;
+    }
+
     public Driver(ResultSet rs) throws SQLException
     {
-        super(rs);
-        driverid   = (UUID)rs.getObject("driverid");
-        firstname  = rs.getString("firstname");
-        lastname   = rs.getString("lastname");
-        email      = rs.getString("email");
-        username   = rs.getString("username");
-        password   = rs.getString("password");
-        barcode    = rs.getString("barcode");
-        optoutmail = rs.getBoolean("optoutmail");
+        this(rs, RowMapper.columns(rs, COLUMNS));
+    }
+
+    static final String[] COLUMNS = { "attr", "driverid", "firstname", "lastname", "email", "username", "password", "barcode", "optoutmail" };
+    static final RowMapper<Driver> MAPPER = rs -> {
+        int[] c = RowMapper.columns(rs, COLUMNS);
+        return r -> new Driver(r, c);
+    };
+
+    Driver(ResultSet rs, int[] c) throws SQLException
+    {
+        super(rs.getString(c[0]));
+        driverid   = (UUID)rs.getObject(c[1]);
+        firstname  = rs.getString(c[2]);
+        lastname   = rs.getString(c[3]);
+        email      = rs.getString(c[4]);
+        username   = rs.getString(c[5]);
+        password   = rs.getString(c[6]);
+        barcode    = rs.getString(c[7]);
+        optoutmail = rs.getBoolean(c[8]);
     }
 
     public LinkedList<Object> getValues()
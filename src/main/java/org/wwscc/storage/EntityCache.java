@@ -0,0 +1,248 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Read-through cache of drivers, cars and entrants (without runs) for the current series.  Entries are
+ * dropped when a notification arrives for their table, or when we write to the table ourselves, so a lookup
+ * is a memory read until the row actually changes.  Callers always get their own copy of the object since
+ * the GUI code is free to modify what it is given.  A load that was running while something was invalidated
+ * isn't stored as it may have read the old row.
+ */
+class EntityCache
+{
+    public static final int MAX_ENTRIES = 4000;
+
+    /** The tables that have to be listened to in order to keep the cache valid */
+    public static final List<String> TABLES = Arrays.asList("drivers", "cars", "registered", "payments");
+
+    private static final Pattern WRITES = Pattern.compile("(?i)\\b(?:insert\\s+into|update|delete\\s+from)\\s+(\\w+)");
+
+    /**
+     * Snapshot of the counters for reporting
+     */
+    public static class Stats
+    {
+        public long hits, misses, invalidations, evictions;
+        public int size;
+
+        @Override
+        public String toString()
+        {
+            return String.format("entities hits=%d misses=%d (%.1f%% hit) invalidations=%d evictions=%d size=%d",
+                        hits, misses, (hits+misses > 0) ? 100.0*hits/(hits+misses) : 0.0, invalidations, evictions, size);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    class Lru<K, V> extends LinkedHashMap<K, V>
+    {
+        Lru() { super(64, 0.75f, true); }
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+        {
+            if (size() <= MAX_ENTRIES)
+                return false;
+            evictions++;
+            return true;
+        }
+    }
+
+    private final Lru<UUID, Driver> drivers;        // by driverid
+    private final Lru<UUID, Driver> carDrivers;     // by carid
+    private final Lru<UUID, Car> cars;              // by carid
+    private final Lru<UUID, List<Car>> driverCars;  // by driverid
+    private final Lru<List<UUID>, Entrant> entrants; // by eventid, carid
+
+    private long version;
+    private long hits, misses, invalidations, evictions;
+
+    public EntityCache()
+    {
+        drivers    = new Lru<UUID, Driver>();
+        carDrivers = new Lru<UUID, Driver>();
+        cars       = new Lru<UUID, Car>();
+        driverCars = new Lru<UUID, List<Car>>();
+        entrants   = new Lru<List<UUID>, Entrant>();
+    }
+
+    private static List<Car> copyCars(List<Car> l)
+    {
+        return l.stream().map(Car::new).collect(Collectors.toList());
+    }
+
+    public Driver getDriver(UUID driverid, Function<UUID, Driver> loader)
+    {
+        return get(drivers, driverid, loader, Driver::new);
+    }
+
+    public Driver getDriverForCarId(UUID carid, Function<UUID, Driver> loader)
+    {
+        return get(carDrivers, carid, loader, Driver::new);
+    }
+
+    public Car getCar(UUID carid, Function<UUID, Car> loader)
+    {
+        return get(cars, carid, loader, Car::new);
+    }
+
+    public List<Car> getCarsForDriver(UUID driverid, Function<UUID, List<Car>> loader)
+    {
+        return get(driverCars, driverid, loader, EntityCache::copyCars);
+    }
+
+    public Entrant getEntrant(UUID eventid, UUID carid, Function<List<UUID>, Entrant> loader)
+    {
+        return get(entrants, Arrays.asList(eventid, carid), loader, Entrant::new);
+    }
+
+    private <K, V> V get(Lru<K, V> map, K key, Function<K, V> loader, UnaryOperator<V> copy)
+    {
+        V cached;
+        long start;
+        synchronized (this) {
+            cached = map.get(key);
+            if (cached != null)
+                hits++;
+            else
+                misses++;
+            start = version;
+        }
+        if (cached != null)
+            return copy.apply(cached); // stored objects are never modified so the copy can be made outside the lock
+
+        V loaded = loader.apply(key);
+        if (loaded == null)
+            return null;
+        V store = copy.apply(loaded);
+        synchronized (this) {
+            if (start == version)
+                map.put(key, store);
+        }
+        return loaded;
+    }
+
+    /**
+     * Drop anything the change could have altered.  Changes without keys drop everything using the table.
+     * @param ce the change notification
+     */
+    public synchronized void invalidate(ChangeEvent ce)
+    {
+        if (!TABLES.contains(ce.getTable()))
+            return;
+
+        version++;
+        invalidations++;
+        UUID carid    = ce.isDetailed() ? ce.getCarId() : null;
+        UUID driverid = ce.isDetailed() ? ce.getDriverId() : null;
+        switch (ce.getTable())
+        {
+            case "drivers":
+                if (driverid != null) {
+                    drivers.remove(driverid);
+                    carDrivers.values().removeIf(d -> driverid.equals(d.getDriverId()));
+                    entrants.values().removeIf(e -> driverid.equals(e.getDriverId()));
+                } else {
+                    drivers.clear();
+                    carDrivers.clear();
+                    entrants.clear();
+                }
+                break;
+
+            case "cars":
+                if (carid != null) {
+                    cars.remove(carid);
+                    carDrivers.remove(carid);
+                    entrants.values().removeIf(e -> carid.equals(e.getCarId()));
+                } else {
+                    cars.clear();
+                    carDrivers.clear();
+                    entrants.clear();
+                }
+                driverCars.clear(); // a car can move between drivers, the old driverid isn't in the change
+                break;
+
+            case "registered":
+                if (carid != null)
+                    entrants.values().removeIf(e -> carid.equals(e.getCarId()));
+                else
+                    entrants.clear();
+                break;
+
+            case "payments": // paid is summed over the driver
+                if (driverid != null)
+                    entrants.values().removeIf(e -> driverid.equals(e.getDriverId()));
+                else
+                    entrants.clear();
+                break;
+        }
+    }
+
+    /**
+     * Drop anything using the tables modified by one of our own statements, the notification for it will
+     * arrive later but we may read the row again before then.
+     * @param sql the SQL for the insert/update/delete
+     */
+    public void invalidateWrites(String sql)
+    {
+        for (String table : writtenTables(sql))
+            if (TABLES.contains(table))
+                invalidate(new ChangeEvent(table));
+    }
+
+    /**
+     * @param sql the SQL for an insert/update/delete
+     * @return the lowercase names of the tables it writes to
+     */
+    static Set<String> writtenTables(String sql)
+    {
+        Set<String> ret = new HashSet<String>();
+        Matcher m = WRITES.matcher(sql);
+        while (m.find())
+            ret.add(m.group(1).toLowerCase());
+        return ret;
+    }
+
+    /**
+     * Drop everything, i.e. when changing series
+     */
+    public synchronized void clear()
+    {
+        version++;
+        drivers.clear();
+        carDrivers.clear();
+        cars.clear();
+        driverCars.clear();
+        entrants.clear();
+    }
+
+    public synchronized Stats getStats()
+    {
+        Stats s = new Stats();
+        s.hits          = hits;
+        s.misses        = misses;
+        s.invalidations = invalidations;
+        s.evictions     = evictions;
+        s.size          = drivers.size() + carDrivers.size() + cars.size() + driverCars.size() + entrants.size();
+        return s;
+    }
+}
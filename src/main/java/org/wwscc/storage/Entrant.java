@@ -31,19 +31,42 @@ public class Entrant
         runs = new HashMap<Integer,Run>();
     }
 
+    public Entrant(Entrant other)
+    {
+        driverid  = other.driverid;
+        firstname = other.firstname;
+        lastname  = other.lastname;
+        car       = new Car(other.car);
+        runs      = new HashMap<Integer,Run>(other.runs);
+        paid      = other.paid;
+        session   = other.session;
+    }
+
     public Entrant(ResultSet rs) throws SQLException
+    {
+        this(rs, RowMapper.columns(rs, COLUMNS), RowMapper.optionalColumns(rs, OPTIONAL), RowMapper.columns(rs, Car.COLUMNS));
+    }
+
+    static final String[] COLUMNS  = { "driverid", "firstname", "lastname" };
+    static final String[] OPTIONAL = { "paid", "session" };  // only present in some queries
+    static final RowMapper<Entrant> MAPPER = rs -> {
+        int[] c  = RowMapper.columns(rs, COLUMNS);
+        int[] o  = RowMapper.optionalColumns(rs, OPTIONAL);
+        int[] cc = RowMapper.columns(rs, Car.COLUMNS);
+        return r -> new Entrant(r, c, o, cc);
+    };
+
+    Entrant(ResultSet rs, int[] c, int[] o, int[] carcolumns) throws SQLException
     {
         this();
-        car       = new Car(rs);
-        driverid  = (UUID)rs.getObject("driverid");
-        firstname = rs.getString("firstname");
-        lastname  = rs.getString("lastname");
-        try {
-            paid  = rs.getDouble("paid");
-        } catch (SQLException pse) {}
-        try {
-            session = rs.getString("session");
-        } catch (SQLException sse) {}
+        car       = new Car(rs, carcolumns);
+        driverid  = (UUID)rs.getObject(c[0]);
+        firstname = rs.getString(c[1]);
+        lastname  = rs.getString(c[2]);
+        if (o[0] > 0)
+            paid  = rs.getDouble(o[0]);
+        if (o[1] > 0)
+            session = rs.getString(o[1]);
     }
 
     static public Entrant testEntrant(UUID carid, String classcode)
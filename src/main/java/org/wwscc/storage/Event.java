@@ -53,23 +53,35 @@ public class Event extends AttrBase implements Serializable
 
     public Event(ResultSet rs) throws SQLException
     {
-        super(rs);
-        eventid     = (UUID)rs.getObject("eventid");
-        name        = rs.getString("name");
-        date        = rs.getObject("date", LocalDate.class);
-        regtype     = rs.getInt("regtype");
-        regopened   = rs.getTimestamp("regopened", Database.utc);
-        regclosed   = rs.getTimestamp("regclosed", Database.utc);
-        courses     = rs.getInt("courses");
-        runs		= rs.getInt("runs");
-        countedruns = rs.getInt("countedruns");
-        segments    = rs.getInt("segments");
-        perlimit 	= rs.getInt("perlimit");
-        totlimit 	= rs.getInt("totlimit");
-        conepen     = rs.getDouble("conepen");
-        gatepen 	= rs.getDouble("gatepen");
-        ispro       = rs.getBoolean("ispro");
-        ispractice  = rs.getBoolean("ispractice");
+        this(rs, RowMapper.columns(rs, COLUMNS));
+    }
+
+    static final String[] COLUMNS = { "attr", "eventid", "name", "date", "regtype", "regopened", "regclosed", "courses", "runs",
+                                      "countedruns", "segments", "perlimit", "totlimit", "conepen", "gatepen", "ispro", "ispractice" };
+    static final RowMapper<Event> MAPPER = rs -> {
+        int[] c = RowMapper.columns(rs, COLUMNS);
+        return r -> new Event(r, c);
+    };
+
+    Event(ResultSet rs, int[] c) throws SQLException
+    {
+        super(rs.getString(c[0]));
+        eventid     = (UUID)rs.getObject(c[1]);
+        name        = rs.getString(c[2]);
+        date        = rs.getObject(c[3], LocalDate.class);
+        regtype     = rs.getInt(c[4]);
+        regopened   = rs.getTimestamp(c[5], Database.utc);
+        regclosed   = rs.getTimestamp(c[6], Database.utc);
+        courses     = rs.getInt(c[7]);
+        runs        = rs.getInt(c[8]);
+        countedruns = rs.getInt(c[9]);
+        segments    = rs.getInt(c[10]);
+        perlimit    = rs.getInt(c[11]);
+        totlimit    = rs.getInt(c[12]);
+        conepen     = rs.getDouble(c[13]);
+        gatepen     = rs.getDouble(c[14]);
+        ispro       = rs.getBoolean(c[15]);
+        ispractice  = rs.getBoolean(c[16]);
     }
 
     public UUID getEventId() { return eventid; }
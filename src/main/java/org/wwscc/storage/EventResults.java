@@ -0,0 +1,247 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A snapshot of the results for an event, calculated from runs, cars and ClassData rather than asking the
+ * web backend.  Entrants are ordered by net time within their class, the index applied net time is also
+ * available across all classes.  Also provides the grid positions used for building run orders.
+ */
+public class EventResults
+{
+    public static final String GRID_NUMBER   = "Number";
+    public static final String GRID_POSITION = "Position";
+
+    /** Grid groups for second drivers of a shared car are offset by this value */
+    public static final int SECOND_GROUP = 100;
+
+    /**
+     * The best times for one car, the values are not modified once created
+     */
+    public static class Entry
+    {
+        UUID carid;
+        UUID driverid;
+        String firstname;
+        String lastname;
+        String classcode;
+        String indexcode;
+        int number;
+        double index;
+        double[] bestraw;   // per course
+        double[] bestnet;   // per course, penalties and index applied
+        double raw;
+        double net;
+
+        public UUID getCarId()         { return carid; }
+        public UUID getDriverId()      { return driverid; }
+        public String getName()        { return firstname + " " + lastname; }
+        public String getClassCode()   { return classcode; }
+        public String getIndexCode()   { return indexcode; }
+        public int getNumber()         { return number; }
+        public double getIndex()       { return index; }
+        public int getCourses()        { return bestnet.length; }
+        public double getBestRaw(int course) { return bestraw[course-1]; }
+        public double getBestNet(int course) { return bestnet[course-1]; }
+        public double getRaw()         { return raw; }
+        public double getNet()         { return net; }
+
+        @Override
+        public String toString()
+        {
+            return "<" + classcode + " #" + number + " " + getName() + " " + net + ">";
+        }
+    }
+
+    /**
+     * One spot in the grid
+     */
+    public static class GridEntry
+    {
+        public int group;
+        public int grid;
+        public UUID carid;
+        public String classcode;
+        public String name;
+        public double net;
+        public int number;
+    }
+
+    static final Comparator<Entry> NETORDER = Comparator.comparingDouble((Entry e) -> e.net).thenComparing(e -> e.carid);
+
+    private final UUID eventid;
+    private final Map<UUID, Entry> bycar;
+    private final Map<String, List<Entry>> classes;
+    private final List<Entry> indexorder;
+    private final Map<String, int[]> rungroups;
+
+    /**
+     * @param eventid the event
+     * @param entries the entry for each car with runs
+     * @param rungroups map from classcode to [rungroup, order within the group], classes not present are in group 0
+     */
+    EventResults(UUID eventid, Collection<Entry> entries, Map<String, int[]> rungroups)
+    {
+        this.eventid    = eventid;
+        this.bycar      = new HashMap<UUID, Entry>();
+        this.classes    = new TreeMap<String, List<Entry>>();
+        this.indexorder = new ArrayList<Entry>(entries);
+        this.rungroups  = rungroups;
+
+        indexorder.sort(NETORDER);
+        for (Entry e : indexorder) {
+            bycar.put(e.carid, e);
+            classes.computeIfAbsent(e.classcode, k -> new ArrayList<Entry>()).add(e);
+        }
+    }
+
+    public UUID getEventId() { return eventid; }
+
+    /**
+     * @return the class codes that have at least one entrant
+     */
+    public Set<String> getClassCodes()
+    {
+        return Collections.unmodifiableSet(classes.keySet());
+    }
+
+    /**
+     * @param classcode the class
+     * @return the entrants in the class ordered by net time
+     */
+    public List<Entry> getClass(String classcode)
+    {
+        return Collections.unmodifiableList(classes.getOrDefault(classcode, Collections.emptyList()));
+    }
+
+    /**
+     * @return the class standings as carids, ordered by net time
+     */
+    public Map<String, List<UUID>> getClassOrder()
+    {
+        Map<String, List<UUID>> ret = new HashMap<String, List<UUID>>();
+        for (String code : classes.keySet()) {
+            List<UUID> ids = new ArrayList<UUID>();
+            for (Entry e : classes.get(code))
+                ids.add(e.carid);
+            ret.put(code, ids);
+        }
+        return ret;
+    }
+
+    /**
+     * @return all entrants ordered by their index applied net time
+     */
+    public List<Entry> getIndexOrder()
+    {
+        return Collections.unmodifiableList(indexorder);
+    }
+
+    /**
+     * @param carid the car
+     * @return the entry or null if the car has no runs in the event
+     */
+    public Entry getEntry(UUID carid)
+    {
+        return bycar.get(carid);
+    }
+
+    /**
+     * @param carid the car
+     * @return the 1 based position in class or 0 if the car has no runs in the event
+     */
+    public int getPosition(UUID carid)
+    {
+        Entry e = bycar.get(carid);
+        return (e != null) ? classes.get(e.classcode).indexOf(e) + 1 : 0;
+    }
+
+    /**
+     * Build both grid orders, keyed by GRID_NUMBER and GRID_POSITION
+     * @return a map from order to the list of grid entries in all groups
+     */
+    public Map<String, List<GridEntry>> getGrid()
+    {
+        Map<String, List<GridEntry>> ret = new HashMap<String, List<GridEntry>>();
+        ret.put(GRID_NUMBER, getGrid(false));
+        ret.put(GRID_POSITION, getGrid(true));
+        return ret;
+    }
+
+    /**
+     * Classes are laid out in rungroup order, each class starting on an odd grid spot so that the pairs
+     * are never split between classes.  If two drivers share a car (same number, one with 100 added),
+     * the second driver goes into the matching second group.
+     * @param byposition true to order each class by position, false by car number
+     * @return the grid entries in all groups
+     */
+    public List<GridEntry> getGrid(boolean byposition)
+    {
+        List<String> codes = new ArrayList<String>(classes.keySet());
+        codes.sort(Comparator.comparingInt((String c) -> group(c)[0]).thenComparingInt(c -> group(c)[1]).thenComparing(c -> c));
+
+        Map<Integer, Integer> next = new HashMap<Integer, Integer>();
+        List<GridEntry> ret = new ArrayList<GridEntry>();
+        for (String code : codes)
+        {
+            List<Entry> cls = new ArrayList<Entry>(classes.get(code));
+            if (!byposition)
+                cls.sort(Comparator.comparingInt((Entry e) -> e.number).thenComparing(NETORDER));
+
+            Set<Integer> numbers = new HashSet<Integer>();
+            for (Entry e : cls)
+                numbers.add(e.number);
+
+            int group = group(code)[0];
+            Set<Integer> used = new HashSet<Integer>();
+            for (Entry e : cls)
+            {
+                boolean second = (e.number >= SECOND_GROUP) && numbers.contains(e.number - SECOND_GROUP);
+                int g = second ? group + SECOND_GROUP : group;
+                int spot = next.getOrDefault(g, 1);
+                used.add(g);
+
+                GridEntry ge = new GridEntry();
+                ge.group     = g;
+                ge.grid      = spot;
+                ge.carid     = e.carid;
+                ge.classcode = e.classcode;
+                ge.name      = e.getName();
+                ge.net       = e.net;
+                ge.number    = e.number;
+                ret.add(ge);
+                next.put(g, spot + 1);
+            }
+
+            for (int g : used) { // next class starts on an odd spot
+                int spot = next.get(g);
+                if (spot % 2 == 0)
+                    next.put(g, spot + 1);
+            }
+        }
+        return ret;
+    }
+
+    private int[] group(String classcode)
+    {
+        return rungroups.getOrDefault(classcode, new int[] { 0, 0 });
+    }
+}
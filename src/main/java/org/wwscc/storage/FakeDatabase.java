@@ -8,7 +8,6 @@
 package org.wwscc.storage;
 import java.io.InputStream;
 import java.io.Reader;
-import java.lang.reflect.Constructor;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
@@ -44,10 +43,10 @@ public class FakeDatabase extends SQLDataInterface
     public void commit() throws SQLException {}
     public void rollback() {}
     public void executeUpdate(String sql, List<Object> args) throws SQLException { throw new SQLException("Writing to FakeDatabase"); }
-    public void executeGroupUpdate(String sql, List<List<Object>> args) throws SQLException { throw new SQLException("Writing to FakeDatabase"); }
+    public void executeGroupUpdate(String sql, List<List<Object>> args, int chunksize) throws SQLException { throw new SQLException("Writing to FakeDatabase"); }
     public ResultSet executeSelect(String sql, List<Object> args) throws SQLException { return new EmptySet(); }
     public void closeLeftOvers() {}
-    public <T> List<T> executeSelect(String key, List<Object> args, Constructor<T> objc) throws SQLException { return new ArrayList<T>(); }
+    public <T> List<T> executeSelect(String key, List<Object> args, RowMapper<T> mapper) throws SQLException { return new ArrayList<T>(); }
 
     class EmptySet implements ResultSet
     {
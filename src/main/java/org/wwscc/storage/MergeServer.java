@@ -73,15 +73,26 @@ public class MergeServer
 
     public MergeServer(ResultSet rs) throws SQLException
     {
-        serverid    = (UUID)rs.getObject("serverid");
-        hostname    = rs.getString("hostname");
-        address     = rs.getString("address");
-        lastcheck   = rs.getTimestamp("lastcheck", Database.utc);
-        nextcheck   = rs.getTimestamp("nextcheck", Database.utc);
-        waittime    = rs.getInt("waittime");
-        ctimeout    = rs.getInt("ctimeout");
-        cfailures   = rs.getInt("cfailures");
-        String hs   = rs.getString("hoststate");
+        this(rs, RowMapper.columns(rs, COLUMNS));
+    }
+
+    static final String[] COLUMNS = { "serverid", "hostname", "address", "lastcheck", "nextcheck", "waittime", "ctimeout", "cfailures", "hoststate", "mergestate" };
+    static final RowMapper<MergeServer> MAPPER = rs -> {
+        int[] c = RowMapper.columns(rs, COLUMNS);
+        return r -> new MergeServer(r, c);
+    };
+
+    MergeServer(ResultSet rs, int[] c) throws SQLException
+    {
+        serverid    = (UUID)rs.getObject(c[0]);
+        hostname    = rs.getString(c[1]);
+        address     = rs.getString(c[2]);
+        lastcheck   = rs.getTimestamp(c[3], Database.utc);
+        nextcheck   = rs.getTimestamp(c[4], Database.utc);
+        waittime    = rs.getInt(c[5]);
+        ctimeout    = rs.getInt(c[6]);
+        cfailures   = rs.getInt(c[7]);
+        String hs   = rs.getString(c[8]);
         switch (hs) {
             case "A": hoststate = HostState.ACTIVE; break;
             case "1": hoststate = HostState.ONESHOT; break;
@@ -90,7 +101,7 @@ public class MergeServer
         }
         seriesstate = new HashMap<String, ObjectNode>();
         try {
-            ObjectNode mergestate = (ObjectNode) objectMapper.readTree(rs.getString("mergestate"));
+            ObjectNode mergestate = (ObjectNode) objectMapper.readTree(rs.getString(c[9]));
             mergestate.fields().forEachRemaining(field ->  {
                 seriesstate.put(field.getKey(), (ObjectNode)field.getValue());
             });
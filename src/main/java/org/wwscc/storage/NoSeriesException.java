@@ -4,8 +4,8 @@ import java.sql.SQLException;
 
 public class NoSeriesException extends SQLException
 {
-    public NoSeriesException(String origmessage)
+    public NoSeriesException(String origmessage, String sqlstate)
     {
-        super(origmessage);
+        super(origmessage, sqlstate);
     }
 }
\ No newline at end of file
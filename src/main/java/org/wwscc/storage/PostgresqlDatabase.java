@@ -8,8 +8,7 @@
 
 package org.wwscc.storage;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
@@ -22,13 +21,14 @@ import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,8 +36,11 @@ import org.postgresql.PGConnection;
 import org.postgresql.PGNotification;
 import org.postgresql.util.PGobject;
 import org.postgresql.util.PSQLException;
+import org.wwscc.storage.ConnectionPool.PooledConnection;
 import org.wwscc.util.MT;
 import org.wwscc.util.Messenger;
+import org.wwscc.util.Prefs;
+import org.wwscc.util.TimingTrace;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -49,11 +52,34 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
     private static final List<String> ignore = Arrays.asList(new String[] {"information_schema", "pg_catalog", "public", "template"});
     private static ObjectMapper objectMapper = new ObjectMapper();
 
-    private volatile Connection conn;
     private volatile ConnectParam connectParam;
-    private volatile boolean inTransaction;
-    private Map<ResultSet, PreparedStatement> leftovers;
+    private ConnectionPool pool;
+    private ThreadLocal<Lease> leases;
+    private StatementCache.Counters statementCounters;
+    private StatementTimings timings;
     private PostgresConnectionWatcher watcher;
+    private WriteBehindQueue writebehind;
+    private EntityCache cache;
+    private volatile ResultsEngine results;
+    private final Map<Integer, Connection> sessions = new ConcurrentHashMap<Integer, Connection>(); // backend pid of each pooled connection
+
+    /**
+     * The connection a thread is currently using.  Nested calls on the same thread (a transaction, or a row
+     * constructor that runs its own query) reuse it rather than checking out a second connection.  Cache
+     * invalidation for writes made in a transaction waits in oncommit until the transaction commits.
+     */
+    static class Lease {
+        final PooledConnection pc;
+        final List<Runnable> oncommit;
+        int depth;
+        boolean transaction;
+        Lease(PooledConnection pc) {
+            this.pc = pc;
+            this.oncommit = new ArrayList<Runnable>();
+            this.depth = 0;
+            this.transaction = false;
+        }
+    }
 
     class ConnectParam {
         String user, series;
@@ -65,7 +91,7 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
         if (sqle instanceof PSQLException) {
             if (((PSQLException)sqle).getSQLState().equals("42P01")) {
                 log.warning("Table does not exist error, most likely trying to open an old non-existent series");
-                throw new NoSeriesException(sqle.getMessage());
+                throw new NoSeriesException(sqle.getMessage(), sqle.getSQLState());
             }
         }
     }
@@ -88,7 +114,8 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
      */
     public PostgresqlDatabase(String user, int statementtimeout, Collection<String> watch) throws SQLException
     {
-        leftovers = new HashMap<ResultSet, PreparedStatement>();
+        statementCounters = new StatementCache.Counters();
+        timings = StatementTimings.forProcess();
         connectParam = new ConnectParam();
         connectParam.user = user;
         connectParam.statementtimeout = statementtimeout;
@@ -96,7 +123,9 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
         connectParam.watchtables = new HashSet<String>();
         if (watch != null)
             connectParam.watchtables.addAll(watch);
-        conn = internalConnect();
+        leases = new ThreadLocal<Lease>();
+        cache = Prefs.useEntityCache(System.getProperty("program.name", "Java")) ? new EntityCache() : null;
+        pool = new ConnectionPool(this::poolConnect, ConnectionPool.DEFAULT_SIZE, ConnectionPool.DEFAULT_WAIT_MS);
 
         watcher = new PostgresConnectionWatcher();
         watcher.setName("PostgresConnectionWatcher-"+watcher.getId());
@@ -105,7 +134,7 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
     }
 
     /**
-     * Wrap the connect in a state based call so we can reconnect internally as well
+     * Wrap the connect in a state based call so the pool can create new connections with the same session state
      * @throws SQLException
      */
     private Connection internalConnect() throws SQLException
@@ -116,6 +145,8 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
         props.setProperty("ApplicationName", System.getProperty("program.name", "Java"));
         props.setProperty("user", connectParam.user);
         props.setProperty("loginTimeout", "5");
+        props.setProperty("prepareThreshold", "1"); // our statements are cached, use server side prepare from the first execute
+        props.setProperty("reWriteBatchedInserts", "true"); // batched INSERTs are sent as multi-row inserts
         host = "127.0.0.1";
         port = 6432;
 
@@ -127,8 +158,6 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
 
         Statement s = c.createStatement();
         s.execute("set time zone 'UTC'");
-        for (String table : connectParam.watchtables)
-            s.execute("LISTEN " + table);
         if (connectParam.statementtimeout > 0)
             s.execute("SET statement_timeout='"+connectParam.statementtimeout+"'");
         if (connectParam.series != null)
@@ -138,75 +167,478 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
         return c;
     }
 
+    /**
+     * Connect for the pool, noting the backend pid so notifications caused by our own writes can be recognized
+     * @throws SQLException
+     */
+    private Connection poolConnect() throws SQLException
+    {
+        Connection c = internalConnect();
+        sessions.values().removeIf(old -> {
+            try { return old.isClosed(); } catch (SQLException sqle) { return true; }
+        });
+        sessions.put(c.unwrap(PGConnection.class).getBackendPID(), c);
+        return c;
+    }
+
+    /**
+     * @return true if the backend pid belongs to one of our pooled connections
+     */
+    private boolean ownSession(int pid)
+    {
+        Connection c = sessions.get(pid);
+        try {
+            return (c != null) && !c.isClosed();
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    /**
+     * The notification listener gets its own connection outside of the pool so that it
+     * never waits behind other queries and its LISTEN state stays with a single session.
+     * @throws SQLException
+     */
+    private Connection listenConnect() throws SQLException
+    {
+        Connection c = internalConnect();
+        Statement s = c.createStatement();
+        Set<String> tables = new HashSet<String>(connectParam.watchtables);
+        tables.addAll(CLASS_TABLES);
+        tables.addAll(ResultsEngine.TABLES);
+        if (cache != null)
+            tables.addAll(EntityCache.TABLES);
+        for (String table : tables)
+            s.execute("LISTEN " + table);
+        s.execute("LISTEN " + PROBE_CHANNEL);
+        s.execute("LISTEN " + TRACE_CHANNEL);
+        s.close();
+        return c;
+    }
+
 
     @Override
     public void close()
     {
-        try
+        if (watcher != null) {
+            log.info(watcher.getStats().toString());
+            watcher.shutdown();
+        }
+        synchronized (this) {
+            if (writebehind != null)
+                writebehind.close();
+            writebehind = null;
+        }
+        if (pool != null)
+            pool.close();
+        if (!timings.snapshot().isEmpty())
+            log.info("Statement timings:\n" + timings.report());
+        log.info("Closed database: " + statementCounters + ", " + AsyncDataInterface.getStats() + ((cache != null) ? ", " + cache.getStats() : ""));
+    }
+
+
+    /**
+     * The write behind queue is only created once something is written so short lived objects (i.e. testUp) don't start a thread
+     */
+    @Override
+    synchronized WriteBehindQueue writeBehind()
+    {
+        if (writebehind == null)
         {
-            if ((conn != null) && (!conn.isClosed()))
-            {
-                conn.close();
-                if (watcher != null)
-                    watcher.done = true;
-                conn = null;
-            }
+            String name = System.getProperty("program.name", "Java").replaceAll("\\W", "");
+            writebehind = new WriteBehindQueue(this, () -> connectParam.series, Prefs.getSpoolDirectory().resolve(name + "-writebehind.jsonl"));
         }
-        catch (SQLException sqle)
+        return writebehind;
+    }
+
+    /**
+     * @return the current counters for the write behind queue or null if it hasn't been used
+     */
+    public synchronized WriteBehindQueue.Stats getWriteBehindStats()
+    {
+        return (writebehind != null) ? writebehind.getStats() : null;
+    }
+
+    /**
+     * Forget the class data and any cached entities
+     */
+    private void dropCached()
+    {
+        invalidateClassData();
+        if (cache != null)
+            cache.clear();
+        ResultsEngine re = results;
+        if (re != null)
+            re.invalidate();
+    }
+
+    /**
+     * Drop anything using the tables modified by one of our own statements
+     * @param results false if the caller updates the results engine itself
+     */
+    private void wrote(String sql, boolean results)
+    {
+        if (cache != null)
+            cache.invalidateWrites(sql);
+        ResultsEngine re = this.results;
+        if ((re != null) && results)
+            re.invalidateWrites(sql);
+    }
+
+    /**
+     * Run something once the current write is visible to other connections.  Outside of a transaction that
+     * is now, inside one it is queued until commit and dropped on rollback.  Otherwise another thread could
+     * reload before our commit, cache the old data and our own notification (which is skipped) would never
+     * correct it.
+     * @param r the invalidation to run
+     */
+    private void afterCommit(Runnable r)
+    {
+        Lease l = leases.get();
+        if ((l != null) && l.transaction)
+            l.oncommit.add(r);
+        else
+            r.run();
+    }
+
+    /**
+     * Sent after the commit (or with it in a transaction) so it arrives right behind the table notification
+     */
+    @Override
+    void traceNotify(long id)
+    {
+        try {
+            executeSelect("SELECT pg_notify(?, ?)", newList(TRACE_CHANNEL, watcher.probeid + " " + id)).close();
+        } catch (SQLException sqle) {
+            log.log(Level.FINE, "Unable to send trace notification: " + sqle, sqle);
+        }
+    }
+
+    @Override
+    EntityCache cache()
+    {
+        return cache;
+    }
+
+    @Override
+    synchronized ResultsEngine resultsEngine(UUID eventid)
+    {
+        if ((results == null) || !results.getEventId().equals(eventid))
+            results = new ResultsEngine(eventid);
+        return results;
+    }
+
+    /**
+     * @return the load counters for the current results engine or null if results haven't been loaded
+     */
+    public ResultsEngine.Stats getResultsStats()
+    {
+        ResultsEngine re = results;
+        return (re != null) ? re.getStats() : null;
+    }
+
+    /**
+     * @return the hit/miss counters for the driver/car/entrant cache or null if it is turned off for this application
+     */
+    public EntityCache.Stats getEntityCacheStats()
+    {
+        return (cache != null) ? cache.getStats() : null;
+    }
+
+    /**
+     * @return the current counters for notification delivery
+     */
+    public NotifyStats getNotifyStats()
+    {
+        return watcher.getStats();
+    }
+
+    /**
+     * @return the current counters for the connection pool
+     */
+    public ConnectionPool.Stats getPoolStats()
+    {
+        return pool.getStats();
+    }
+
+
+    /**
+     * @return the latency histograms and slow queries for the statements run so far by this process
+     */
+    public StatementTimings getStatementTimings()
+    {
+        return timings;
+    }
+
+    /**
+     * @return the hit/miss counters for the prepared statement caches
+     */
+    public StatementCache.Counters getStatementCounters()
+    {
+        return statementCounters;
+    }
+
+
+    /**
+     * Get a connection for the current thread.  If the thread is already using one (i.e. in a transaction),
+     * it gets the same connection again, otherwise it checks one out from the pool.  The session state
+     * (search_path) is brought up to date if the series changed since last use.
+     * @return the connection to use, must be returned using release
+     * @throws SQLException if no connection could be obtained
+     */
+    private PooledConnection acquire() throws SQLException
+    {
+        Lease l = leases.get();
+        if (l != null) {
+            l.depth++;
+            return l.pc;
+        }
+
+        PooledConnection pc = pool.checkout();
+        if (pc.statements == null)
+            pc.statements = new StatementCache(pc.conn, StatementCache.DEFAULT_SIZE, statementCounters);
+        String series = connectParam.series;
+        if ((series != null) && !series.equals(pc.series))
         {
-            log.warning("\bPostgresql error closing series: " + sqle);
+            try {
+                pc.statements.clear(); // plans were made against the old search_path
+                Statement s = pc.conn.createStatement();
+                s.execute("SET search_path='"+series+"','public'");
+                s.close();
+                pc.series = series;
+            } catch (SQLException sqle) {
+                markBroken(pc, sqle);
+                pool.checkin(pc);
+                throw sqle;
+            }
         }
+
+        l = new Lease(pc);
+        l.depth = 1;
+        leases.set(l);
+        return pc;
     }
 
+    /**
+     * Return a connection after use, it goes back to the pool once the outermost user on this thread is done
+     * @param pc the connection from acquire
+     * @param error the exception that occured while using the connection or null
+     */
+    private void release(PooledConnection pc, SQLException error)
+    {
+        markBroken(pc, error);
+        Lease l = leases.get();
+        if ((l != null) && (l.pc == pc)) {
+            if (--l.depth > 0)
+                return;
+            leases.remove();
+        }
+        pool.checkin(pc);
+    }
 
     /**
-     * Interface for use of connection to check if its up and available, synchronized as callers can
-     * come from multiple threads and we don't want to call internalConnect more than once
-     * @return the connection for this object
-     * @throws SQLException
+     * Check for the connection exception class, those connections don't go back into the pool
      */
-    private synchronized Connection getConnection() throws SQLException
+    private void markBroken(PooledConnection pc, SQLException error)
     {
-        if (conn == null)
-            return null;
-        if (!conn.isValid(0))
+        if ((error != null) && (error.getSQLState() != null) && error.getSQLState().startsWith("08"))
         {
-            if (inTransaction)
+            pc.broken = true;
+            Lease l = leases.get();
+            if ((l != null) && l.transaction)
                 log.severe("\bThere was a database connection problem in a transaction, you should restart the application");
-            conn = internalConnect();
         }
-        return conn;
     }
 
 
     /**
-     * Thread to do connection and notification checks in the background
+     * Counters for notification delivery.  Probes are notifications we send ourselves so we can measure the
+     * time from sending a notify until it is delivered back to us.  Only our own probes are timed as the
+     * clocks of other stations can't be compared with ours.  Dispatch is the time from the notification
+     * arriving until the GUI thread gets to it.
+     */
+    public static class NotifyStats
+    {
+        public long received, probes, reconnects;
+        public double avgprobems, maxprobems, avgdispatchms, maxdispatchms;
+
+        @Override
+        public String toString()
+        {
+            return String.format("notify received=%d reconnects=%d probes=%d (avg %.2fms, max %.2fms) dispatch(avg %.2fms, max %.2fms)",
+                        received, reconnects, probes, avgprobems, maxprobems, avgdispatchms, maxdispatchms);
+        }
+    }
+
+    static final String PROBE_CHANNEL = "scorekeeperprobe";
+    static final String TRACE_CHANNEL = "scorekeepertrace";
+    static final List<String> CLASS_TABLES = Arrays.asList("classlist", "indexlist");
+    static final long PROBE_MS = 60000;
+    static final int MAX_PROBES = 8;
+
+    /**
+     * Thread to deliver notifications from the database.  It blocks on its own connection waiting for
+     * notifications rather than polling so updates from other stations are delivered as soon as they arrive.
      */
     private class PostgresConnectionWatcher extends Thread
     {
-        boolean done = false;
+        volatile boolean done = false;
+        volatile Connection listen = null;
+        final String probeid = UUID.randomUUID().toString();
+        final Map<Long, Long> pending = new LinkedHashMap<Long, Long>() {  // probe sequence to the nanoTime it was sent
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+                return size() > MAX_PROBES;
+            }
+        };
+        long probeseq = 0;
+        long lastcheck = 0;
+        long lastprobe = 0;
+        long received, probes, reconnects, totalprobens, maxprobens, dispatches, totaldispatchns, maxdispatchns;
+
         public void run()
         {
             trysleep(2000);
             while (!done) {
                 try {
-                    PGConnection pg = (PGConnection)getConnection();
-                    if (pg == null) {
-                        log.info("watcher: connection was null");
-                        trysleep(5000);
-                        continue;
+                    if (listen == null) {
+                        listen = listenConnect();
+                        synchronized (this) { reconnects++; }
+                        dropCached(); // anything could have changed while we weren't listening
+                        lastcheck = System.currentTimeMillis();
+                    } else if (System.currentTimeMillis() - lastcheck > ConnectionPool.VALIDATE_MS) {
+                        // a silently dropped socket won't wake up the blocking read, check it on the same schedule as the pool
+                        if (!listen.isValid(2))
+                            throw new SQLException("listen connection is no longer valid");
+                        lastcheck = System.currentTimeMillis();
                     }
-                    PGNotification notifications[] = pg.getNotifications();
+
+                    if (System.currentTimeMillis() - lastprobe > PROBE_MS) {
+                        lastprobe = System.currentTimeMillis();
+                        sendProbe();
+                    }
+
+                    // blocks until something arrives or the timeout, at which point we validate and come back
+                    PGNotification notifications[] = listen.unwrap(PGConnection.class).getNotifications((int)ConnectionPool.VALIDATE_MS);
                     if (notifications != null) {
+                        final long arrived = System.nanoTime();
                         for (PGNotification n : notifications) {
-                            Messenger.sendEvent(MT.DATABASE_NOTIFICATION, n.getName());
+                            if (n.getName().equals(PROBE_CHANNEL)) {
+                                probeReceived(n.getParameter());
+                                continue;
+                            }
+                            if (n.getName().equals(TRACE_CHANNEL)) {
+                                traceReceived(n.getParameter());
+                                continue;
+                            }
+                            synchronized (this) { received++; }
+                            boolean own = ownSession(n.getPID());
+                            ChangeEvent ce = ChangeEvent.parse(n.getName(), n.getParameter());
+                            if (CLASS_TABLES.contains(ce.getTable()))
+                                dropCached(); // cars carry their effective index string
+                            else if (cache != null) // drop stale entries before anyone reacts to the change
+                                cache.invalidate(ce);
+                            ResultsEngine re = results;
+                            if ((re != null) && !own) // our own writes were noted as they were made
+                                re.changed(ce);
+                            if (connectParam.watchtables.contains(ce.getTable()))
+                                Messenger.sendEvent(MT.DATABASE_NOTIFICATION, ce);
                         }
+                        Messenger.runOnEventThread(() -> dispatched(System.nanoTime() - arrived));
+                        lastcheck = System.currentTimeMillis(); // the connection is obviously still good
                     }
                 } catch (Throwable e) {
+                    if (done)
+                        break;
                     log.log(Level.WARNING, "ConnectionWatcher exception: " + e, e);
+                    closeListen();
+                    trysleep(5000);
+                }
+            }
+            closeListen();
+        }
+
+        /**
+         * Stop the thread and close the connection so a blocked read returns right away
+         */
+        void shutdown()
+        {
+            done = true;
+            closeListen();
+        }
+
+        private void sendProbe() throws SQLException
+        {
+            try (PreparedStatement p = listen.prepareStatement("SELECT pg_notify(?, ?)")) {
+                p.setString(1, PROBE_CHANNEL);
+                p.setString(2, probeid + " " + (++probeseq));
+                pending.put(probeseq, System.nanoTime());
+                p.execute();
+            }
+        }
+
+        private void probeReceived(String payload)
+        {
+            // payload is "<senderid> <sequence>", probes from other stations are ignored
+            try {
+                int space = payload.indexOf(' ');
+                if (!payload.substring(0, space).equals(probeid))
+                    return;
+                Long sent = pending.remove(Long.parseLong(payload.substring(space+1)));
+                if (sent == null)
+                    return;
+                long ns = System.nanoTime() - sent;
+                synchronized (this) {
+                    probes++;
+                    totalprobens += ns;
+                    maxprobens = Math.max(maxprobens, ns);
                 }
+                log.log(Level.FINEST, "notify probe took {0}ms", ns/1000000);
+            } catch (RuntimeException re) {
+                log.log(Level.FINE, "bad probe payload {0}", payload);
+            }
+        }
 
-                trysleep(500);
+        private void traceReceived(String payload)
+        {
+            // payload is "<senderid> <commit id>", the same as probes
+            try {
+                int space = payload.indexOf(' ');
+                if (payload.substring(0, space).equals(probeid))
+                    TimingTrace.notified(Long.parseLong(payload.substring(space+1)));
+            } catch (RuntimeException re) {
+                log.log(Level.FINE, "bad trace payload {0}", payload);
+            }
+        }
+
+        private synchronized void dispatched(long ns)
+        {
+            dispatches++;
+            totaldispatchns += ns;
+            maxdispatchns = Math.max(maxdispatchns, ns);
+        }
+
+        synchronized NotifyStats getStats()
+        {
+            NotifyStats s    = new NotifyStats();
+            s.received      = received;
+            s.probes        = probes;
+            s.reconnects    = Math.max(0, reconnects - 1);
+            s.avgprobems    = (probes > 0) ? totalprobens / (probes * 1e6) : 0;
+            s.maxprobems    = maxprobens / 1e6;
+            s.avgdispatchms = (dispatches > 0) ? totaldispatchns / (dispatches * 1e6) : 0;
+            s.maxdispatchms = maxdispatchns / 1e6;
+            return s;
+        }
+
+        private void closeListen()
+        {
+            Connection c = listen;
+            listen = null;
+            try {
+                if (c != null)
+                    c.close();
+            } catch (SQLException sqle) {
             }
         }
 
@@ -224,9 +656,11 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
     public List<String> getSeriesList()
     {
         List<String> ret = new ArrayList<String>();
+        PooledConnection pc = null;
         try
         {
-            DatabaseMetaData meta = getConnection().getMetaData();
+            pc = acquire();
+            DatabaseMetaData meta = pc.conn.getMetaData();
             ResultSet rs = meta.getSchemas();
             while (rs.next()) {
                 String s = rs.getString("TABLE_SCHEM");
@@ -234,9 +668,12 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
                     ret.add(s);
             }
             rs.close();
+            release(pc, null);
         }
         catch (SQLException sqle)
         {
+            if (pc != null)
+                release(pc, sqle);
             logError("getSeriesList", sqle);
         }
 
@@ -244,45 +681,90 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
     }
 
 
+    /**
+     * Set the search path on one connection now to report any errors, the other pooled
+     * connections are updated as they are checked out.
+     */
     @Override
     public void useSeries(String series)
     {
+        synchronized (this) {
+            if (writebehind != null) // queued rows belong to the series they were added under
+                writebehind.flush();
+        }
+        dropCached();
+        PooledConnection pc = null;
         try {
-            Statement s = getConnection().createStatement();
+            pc = acquire();
+            pc.statements.clear();
+            Statement s = pc.conn.createStatement();
             s.execute("SET search_path='"+series+"','public'");
             s.close();
+            pc.series = series;
             connectParam.series = series;
+            release(pc, null);
         } catch (SQLException sqle) {
+            if (pc != null)
+                release(pc, sqle);
             log.log(Level.SEVERE, "\bUnable to set series: " + sqle, sqle);
         }
     }
 
 
+    /**
+     * Start a transaction, the calling thread keeps its connection until commit or rollback
+     */
     @Override
     public void start() throws SQLException
     {
-        getConnection().setAutoCommit(false);
-        inTransaction = true;
+        Lease l = leases.get();
+        if ((l != null) && l.transaction)
+            return;
+        PooledConnection pc = acquire();
+        try {
+            pc.conn.setAutoCommit(false);
+            leases.get().transaction = true;
+        } catch (SQLException sqle) {
+            release(pc, sqle);
+            throw sqle;
+        }
     }
 
     @Override
     public void commit() throws SQLException
     {
-        inTransaction = false;
-        getConnection().setAutoCommit(true);
+        Lease l = leases.get();
+        if ((l == null) || !l.transaction)
+            return;
+        try {
+            l.pc.conn.setAutoCommit(true);
+        } catch (SQLException sqle) {
+            markBroken(l.pc, sqle);
+            throw sqle;  // leave the connection with the thread so the caller can rollback
+        }
+        l.transaction = false;
+        release(l.pc, null);
+        for (Runnable r : l.oncommit)
+            r.run();
+        l.oncommit.clear();
     }
 
 
     @Override
     public void rollback() {
+        Lease l = leases.get();
+        if ((l == null) || !l.transaction)
+            return;
         try {
-            Connection c = getConnection();
-            inTransaction = false;
-            c.rollback();
-            c.setAutoCommit(true);
+            l.pc.conn.rollback();
+            l.pc.conn.setAutoCommit(true);
         } catch (SQLException sqle) {
+            l.pc.broken = true;
             log.log(Level.WARNING, "\bDatabase rollback failed.  You should probably restart the application.", sqle);
         }
+        l.oncommit.clear();
+        l.transaction = false;
+        release(l.pc, null);
     }
 
     void bindParam(PreparedStatement p, List<Object> args) throws SQLException
@@ -325,7 +807,7 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
                 switch (v.getClass().getComponentType().getName()) {
                     case "java.util.UUID": t = "uuid"; break;
                 }
-                p.setArray(ii+1, getConnection().createArrayOf(t, (Object[])v));
+                p.setArray(ii+1, p.getConnection().createArrayOf(t, (Object[])v));
             } else {
                 throw new SQLException("unexpected param type: " + v.getClass());
             }
@@ -335,92 +817,179 @@ public class PostgresqlDatabase extends SQLDataInterface implements AutoCloseabl
     @Override
     public void executeUpdate(String sql, List<Object> args) throws SQLException
     {
-        PreparedStatement p = getConnection().prepareStatement(sql);
-        bindParam(p, args);
-        p.executeUpdate();
-        p.close();
+        update(sql, args, true);
     }
 
+    /**
+     * Only the results for the one car need to be reloaded, not the whole event
+     */
     @Override
-    public void executeGroupUpdate(String sql, List<List<Object>> args) throws SQLException
+    void executeCarUpdate(UUID eventid, UUID carid, String sql, List<Object> args) throws SQLException
+    {
+        update(sql, args, false);
+        afterCommit(() -> {
+            ResultsEngine re = results;
+            if ((re != null) && re.getEventId().equals(eventid))
+                re.changedCar(carid);
+        });
+    }
+
+    private void update(String sql, List<Object> args, boolean results) throws SQLException
     {
-        PreparedStatement p = getConnection().prepareStatement(sql);
-        for (List<Object> l : args) {
-            bindParam(p, l);
+        long start = System.nanoTime();
+        PooledConnection pc = acquire();
+        PreparedStatement p = null;
+        try {
+            p = pc.statements.take(sql);
+            bindParam(p, args);
             p.executeUpdate();
+            pc.statements.give(sql, p);
+            afterCommit(() -> wrote(sql, results));
+            release(pc, null);
+        } catch (SQLException sqle) {
+            if (p != null)
+                pc.statements.give(sql, p);
+            release(pc, sqle);
+            throw sqle;
+        } finally {
+            timings.record(sql, args, System.nanoTime() - start);
         }
-        p.close();
     }
 
+    /**
+     * Execute the same statement for each set of args using JDBC batches, each chunk of rows is sent
+     * to the database in one round trip.  Outside of a transaction, chunks that completed before a
+     * failure remain committed.
+     */
+    @Override
+    public void executeGroupUpdate(String sql, List<List<Object>> args, int chunksize) throws SQLException
+    {
+        if ((args == null) || args.isEmpty())
+            return;
+        if (chunksize <= 0)
+            chunksize = args.size();
 
+        long start = System.nanoTime();
+        PooledConnection pc = acquire();
+        PreparedStatement p = null;
+        try {
+            p = pc.statements.take(sql);
+            int chunkstart = 0;
+            for (int ii = 0; ii < args.size(); ii++)
+            {
+                bindParam(p, args.get(ii));
+                p.addBatch();
+                if ((ii + 1 - chunkstart >= chunksize) || (ii == args.size() - 1))
+                {
+                    try {
+                        p.executeBatch();
+                    } catch (BatchUpdateException bue) {
+                        throw BatchRowException.from(bue, args, chunkstart, ii + 1);
+                    }
+                    chunkstart = ii + 1;
+                }
+            }
+            pc.statements.give(sql, p);
+            afterCommit(() -> wrote(sql, true));
+            release(pc, null);
+        } catch (SQLException sqle) {
+            if (p != null) {
+                try {
+                    p.clearBatch();
+                } catch (SQLException ce) {
+                    log.log(Level.FINE, "clearBatch failed: " + ce, ce);
+                }
+                pc.statements.give(sql, p);
+            }
+            afterCommit(() -> wrote(sql, true)); // earlier chunks may have been committed
+            release(pc, sqle);
+            throw sqle;
+        } finally {
+            timings.record(sql, args.get(0), System.nanoTime() - start);
+        }
+    }
+
+
+    /**
+     * The rows are copied out before the statement and connection go back to the pool, so the caller
+     * can take as long as it likes with the result set.
+     */
     @Override
     public ResultSet executeSelect(String sql, List<Object> args) throws SQLException
     {
-        PreparedStatement p = getConnection().prepareStatement(sql);
-        if (args != null)
-            bindParam(p, args);
+        long start = System.nanoTime();
+        PooledConnection pc = acquire();
+        PreparedStatement p = null;
         try {
-            ResultSet s = p.executeQuery();
-            synchronized(leftovers) {
-                leftovers.put(s,  p);
+            p = pc.statements.take(sql);
+            if (args != null)
+                bindParam(p, args);
+            ResultSet ret;
+            try (ResultSet s = p.executeQuery()) {
+                ret = new BufferedResultSet(s);
             }
-            return s;
+            pc.statements.give(sql, p);
+            release(pc, null);
+            return ret;
         } catch (SQLException sqle) {
+            if (p != null)
+                pc.statements.give(sql, p);
+            release(pc, sqle);
             exceptionParser(sqle);
             throw sqle;
+        } finally {
+            timings.record(sql, args, System.nanoTime() - start);
         }
     }
 
 
     /**
-     * executeSelect(String,List<Object>) cannot close its result sets as they are returned to the caller.  The caller
-     * can call this method to close those 'leftover' cursors.
+     * Result sets from executeSelect(String,List<Object>) are already copied and closed, nothing is left over.
      */
     @Override
     public void closeLeftOvers()
     {
-        synchronized (leftovers)
-        {
-            for (ResultSet s : leftovers.keySet())
-            {
-                try {
-                    s.close();
-                    leftovers.get(s).close();
-                } catch (SQLException sqle) {
-                    log.info("Error closing leftover statements: " + sqle);
-                }
-            }
-
-            leftovers.clear();
-        }
     }
 
 
     /**
-     * Run a SELECT statement and create objects with the results using the given constructor that takes a
-     * ResultSet as an argument.
+     * Run a SELECT statement and create objects with the results using the given mapper, column lookups
+     * are done once for the result set rather than for each row.
      */
     @Override
-    public <T> List<T> executeSelect(String sql, List<Object> args, Constructor<T> objc) throws SQLException
+    public <T> List<T> executeSelect(String sql, List<Object> args, RowMapper<T> mapper) throws SQLException
     {
+        long start = System.nanoTime();
+        PooledConnection pc = acquire();
+        PreparedStatement p = null;
         try
         {
             List<T> result = new ArrayList<T>();
-            PreparedStatement p = getConnection().prepareStatement(sql);
+            p = pc.statements.take(sql);
             if (args != null)
                 bindParam(p, args);
-            ResultSet s = p.executeQuery();
-            while (s.next()) {
-                result.add(objc.newInstance(s));
+            try (ResultSet s = p.executeQuery()) {
+                RowMapper.Row<T> row = mapper.bind(s);
+                while (s.next()) {
+                    result.add(row.map(s));
+                }
             }
-            s.close();
-            p.close();
+            pc.statements.give(sql, p);
+            release(pc, null);
             return result;
         } catch (SQLException sqle) {
+            if (p != null)
+                pc.statements.give(sql, p);
+            release(pc, sqle);
             exceptionParser(sqle);
             throw sqle;
-        } catch (InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-            throw new SQLException(e);
+        } catch (RuntimeException re) {
+            if (p != null)
+                pc.statements.give(sql, p);
+            release(pc, null);
+            throw re;
+        } finally {
+            timings.record(sql, args, System.nanoTime() - start);
         }
     }
 }
@@ -0,0 +1,332 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the results and dialins for one event up to date between calls.  The first call loads every run
+ * for the event, after that only the cars named in runs/cars/drivers notifications are reloaded.  Changes
+ * that can't be narrowed to a car (penalties, class or index changes, notifications without keys) cause a
+ * full reload on the next call.
+ */
+class ResultsEngine
+{
+    private static final Logger log = Logger.getLogger(ResultsEngine.class.getCanonicalName());
+
+    /** The tables that have to be listened to in order to keep the results valid */
+    public static final List<String> TABLES = Arrays.asList("runs", "cars", "drivers", "events", "classlist", "indexlist", "rungroups");
+
+    /** SQLState for a missing table, older series don't have rungroups */
+    private static final String UNDEFINED_TABLE = "42P01";
+
+    private static final String RUNSQL = "SELECT c.classcode,c.indexcode,c.useclsmult,c.number,c.driverid,d.firstname,d.lastname,r.* "
+                + "FROM runs AS r JOIN cars AS c ON c.carid=r.carid JOIN drivers AS d ON d.driverid=c.driverid WHERE r.eventid=? ";
+
+    /**
+     * Snapshot of the counters for reporting
+     */
+    public static class Stats
+    {
+        public long fullloads, carloads;
+
+        @Override
+        public String toString()
+        {
+            return String.format("results fullloads=%d carloads=%d", fullloads, carloads);
+        }
+    }
+
+    private final UUID eventid;
+    private final Object loadlock;
+    // only modified while holding loadlock, entries are replaced rather than modified
+    private volatile Map<UUID, EventResults.Entry> entries;
+    private Dialins dialins;
+    private Map<String, int[]> rungroups;
+    private Set<UUID> pending;
+    private boolean stale;
+    private long fullloads, carloads;
+
+    public ResultsEngine(UUID eventid)
+    {
+        this.eventid  = eventid;
+        this.loadlock = new Object();
+        this.entries  = null;
+        this.pending  = new HashSet<UUID>();
+        this.stale    = true;
+    }
+
+    public UUID getEventId()
+    {
+        return eventid;
+    }
+
+    /**
+     * Bring the dialins up to date and return a copy for the caller
+     * @param db the database to load runs from
+     * @return a new Dialins object
+     * @throws Exception if the event doesn't exist or the queries fail
+     */
+    public Dialins getDialins(SQLDataInterface db) throws Exception
+    {
+        synchronized (loadlock)
+        {
+            update(db);
+            return new Dialins(dialins);
+        }
+    }
+
+    /**
+     * Bring the results up to date and return a snapshot for the caller
+     * @param db the database to load runs from
+     * @return a new EventResults object
+     * @throws Exception if the event doesn't exist or the queries fail
+     */
+    public EventResults getResults(SQLDataInterface db) throws Exception
+    {
+        synchronized (loadlock)
+        {
+            update(db);
+            return new EventResults(eventid, entries.values(), rungroups);
+        }
+    }
+
+    private void update(SQLDataInterface db) throws Exception
+    {
+        boolean full;
+        Set<UUID> todo;
+        synchronized (this) {
+            full    = stale || (entries == null);
+            todo    = pending;
+            stale   = false;
+            pending = new HashSet<UUID>();
+        }
+
+        try {
+            if (full)
+                loadAll(db);
+            else if (!todo.isEmpty())
+                loadCars(db, todo);
+        } catch (Exception e) {
+            invalidate();
+            throw e;
+        } finally {
+            db.closeLeftOvers();
+        }
+    }
+
+    private Event loadEvent(SQLDataInterface db) throws Exception
+    {
+        List<Event> el = db.executeSelect("select * from events where eventid=?", SQLDataInterface.newList(eventid), Event.MAPPER);
+        if (el.size() == 0)
+            throw new Exception("No event found for eventid " + eventid);
+        return el.get(0);
+    }
+
+    private Map<String, int[]> loadRunGroups(SQLDataInterface db) throws SQLException
+    {
+        Map<String, int[]> ret = new HashMap<String, int[]>();
+        try {
+            ResultSet rs = db.executeSelect("select classcode,rungroup,gorder from rungroups where eventid=?", SQLDataInterface.newList(eventid));
+            while (rs.next())
+                ret.put(rs.getString("classcode"), new int[] { rs.getInt("rungroup"), rs.getInt("gorder") });
+        } catch (SQLException sqle) {
+            if (!UNDEFINED_TABLE.equals(sqle.getSQLState()))
+                throw sqle;
+            // older schema without run groups, everyone is in group 0
+            log.log(Level.INFO, "No rungroups table, grid will use a single group: " + sqle);
+        }
+        return ret;
+    }
+
+    private void loadAll(SQLDataInterface db) throws Exception
+    {
+        Event e = loadEvent(db);
+        Map<UUID, EventResults.Entry> map = new HashMap<UUID, EventResults.Entry>();
+        Dialins d = new Dialins();
+        for (EventResults.Entry entry : calculate(e, db.getClassData(), db.executeSelect(RUNSQL + "ORDER BY r.carid,r.course", SQLDataInterface.newList(eventid))))
+            set(map, d, entry);
+
+        rungroups = loadRunGroups(db);
+        dialins   = d;
+        entries   = map;
+        synchronized (this) { fullloads++; }
+    }
+
+    private void loadCars(SQLDataInterface db, Set<UUID> carids) throws Exception
+    {
+        Event e = loadEvent(db);
+        ClassData cd = db.getClassData();
+        Map<UUID, EventResults.Entry> map = new HashMap<UUID, EventResults.Entry>(entries);
+        for (UUID carid : carids)
+        {
+            List<EventResults.Entry> l = calculate(e, cd, db.executeSelect(RUNSQL + "AND r.carid=? ORDER BY r.course", SQLDataInterface.newList(eventid, carid)));
+            if (l.isEmpty()) { // all runs were deleted
+                map.remove(carid);
+                dialins.removeEntrant(carid);
+            } else {
+                set(map, dialins, l.get(0));
+            }
+        }
+        entries = map;
+        synchronized (this) { carloads += carids.size(); }
+    }
+
+    private static void set(Map<UUID, EventResults.Entry> map, Dialins d, EventResults.Entry entry)
+    {
+        map.put(entry.carid, entry);
+        d.setEntrant(entry.carid, entry.classcode, entry.raw, entry.net, entry.index);
+    }
+
+    /**
+     * Calculate best raw and net per course for each car in the result set (ordered by carid)
+     * @return a list of entries, one for each car found
+     */
+    static List<EventResults.Entry> calculate(Event e, ClassData cd, ResultSet rs) throws Exception
+    {
+        List<EventResults.Entry> ret = new ArrayList<EventResults.Entry>();
+        EventResults.Entry current = null;
+        int courses = Math.max(e.getCourses(), 1);
+
+        RowMapper.Row<Run> rm = Run.MAPPER.bind(rs);
+        int[] cc = RowMapper.columns(rs, "classcode", "indexcode", "useclsmult", "number", "driverid", "firstname", "lastname");
+        while (rs.next())
+        {
+            Run r = rm.map(rs);
+
+            if ((current == null) || !r.getCarId().equals(current.carid))  // next car, process previous and reset values
+            {
+                current = new EventResults.Entry();
+                current.carid     = r.getCarId();
+                current.classcode = rs.getString(cc[0]);
+                current.indexcode = rs.getString(cc[1]);
+                current.index     = cd.getEffectiveIndex(current.classcode, current.indexcode, rs.getBoolean(cc[2])).val;
+                current.number    = rs.getInt(cc[3]);
+                current.driverid  = (UUID)rs.getObject(cc[4]);
+                current.firstname = rs.getString(cc[5]);
+                current.lastname  = rs.getString(cc[6]);
+                current.bestraw   = new double[courses];
+                current.bestnet   = new double[courses];
+                Arrays.fill(current.bestraw, 999.999);
+                Arrays.fill(current.bestnet, 999.999);
+                ret.add(current);
+            }
+
+            int idx = r.course() - 1;
+            if (r.isOK() && (idx >= 0) && (idx < courses)) // we ignore non-OK runs
+            {
+                if (r.raw < current.bestraw[idx])
+                    current.bestraw[idx] = r.raw;
+
+                double net = (r.getRaw() + (e.getConePenalty() * r.getCones()) + (e.getGatePenalty() * r.getGates())) * current.index;
+                if (net < current.bestnet[idx])
+                    current.bestnet[idx] = net;
+            }
+        }
+
+        for (EventResults.Entry entry : ret) {
+            entry.raw = entry.net = 0;
+            for (int ii = 0; ii < courses; ii++) {
+                entry.raw += entry.bestraw[ii];
+                entry.net += entry.bestnet[ii];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Note a change, a car we can reload by itself or a flag to reload everything on the next call
+     * @param ce the change notification
+     */
+    public synchronized void changed(ChangeEvent ce)
+    {
+        if (!TABLES.contains(ce.getTable()) || !ce.mayAffectEvent(eventid))
+            return;
+
+        Map<UUID, EventResults.Entry> current = entries;
+        UUID carid    = ce.isDetailed() ? ce.getCarId() : null;
+        UUID driverid = ce.isDetailed() ? ce.getDriverId() : null;
+        switch (ce.getTable())
+        {
+            case "runs":
+                if (carid != null)
+                    pending.add(carid);
+                else
+                    stale = true;
+                break;
+
+            case "cars": // class, index or number change, only matters if the car has runs here
+                if (carid == null)
+                    stale = true;
+                else if ((current != null) && current.containsKey(carid))
+                    pending.add(carid);
+                break;
+
+            case "drivers": // name change
+                if (driverid == null)
+                    stale = true;
+                else if (current != null)
+                    for (EventResults.Entry e : current.values())
+                        if (driverid.equals(e.driverid))
+                            pending.add(e.carid);
+                break;
+
+            default: // penalties, class, index or rungroup settings
+                stale = true;
+                break;
+        }
+    }
+
+    /**
+     * Note our own write to the runs of a single car, only that car is reloaded on the next call
+     * @param carid the car whose runs were changed
+     */
+    public synchronized void changedCar(UUID carid)
+    {
+        pending.add(carid);
+    }
+
+    /**
+     * Note our own bulk or unknown write, we don't know which rows so anything touching the tables means a full reload
+     * @param sql the SQL for the insert/update/delete
+     */
+    public void invalidateWrites(String sql)
+    {
+        for (String table : EntityCache.writtenTables(sql))
+            if (TABLES.contains(table))
+                changed(new ChangeEvent(table));
+    }
+
+    /**
+     * Reload everything on the next call
+     */
+    public synchronized void invalidate()
+    {
+        stale = true;
+    }
+
+    public synchronized Stats getStats()
+    {
+        Stats s = new Stats();
+        s.fullloads = fullloads;
+        s.carloads  = carloads;
+        return s;
+    }
+}
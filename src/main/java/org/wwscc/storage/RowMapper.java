@@ -0,0 +1,83 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Creates objects from the rows of a ResultSet.  The column positions are looked up once when the mapper
+ * is bound to a ResultSet and the returned Row function then reads each row by index.
+ */
+@FunctionalInterface
+public interface RowMapper<T>
+{
+    /**
+     * Function to create a single object from the current row
+     */
+    @FunctionalInterface
+    public interface Row<T>
+    {
+        public T map(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Resolve the column positions for this result set
+     * @param rs the result set that will be read
+     * @return the function to call for each row
+     * @throws SQLException if a required column is missing
+     */
+    public Row<T> bind(ResultSet rs) throws SQLException;
+
+    /**
+     * For types that are rarely loaded, just use their by-name ResultSet constructor for every row
+     * @param row the per row function, i.e. Payment::new
+     * @return a mapper that doesn't need any binding
+     */
+    public static <T> RowMapper<T> byName(Row<T> row)
+    {
+        return rs -> row;
+    }
+
+    /**
+     * Look up the 1-based column index for each name
+     * @param rs the result set to check
+     * @param names the column names in the order the caller wants them
+     * @return an array of indexes matching names
+     * @throws SQLException if any of the columns is missing
+     */
+    public static int[] columns(ResultSet rs, String ... names) throws SQLException
+    {
+        int[] ret = new int[names.length];
+        for (int ii = 0; ii < names.length; ii++)
+            ret[ii] = rs.findColumn(names[ii]);
+        return ret;
+    }
+
+    /**
+     * Look up the 1-based column index for each name, returning -1 for any that aren't present.  The
+     * caller should check for a negative index and skip reading that column.
+     * @param rs the result set to check
+     * @param names the column names in the order the caller wants them
+     * @return an array of indexes matching names, -1 where the column is missing
+     */
+    public static int[] optionalColumns(ResultSet rs, String ... names)
+    {
+        int[] ret = new int[names.length];
+        for (int ii = 0; ii < names.length; ii++)
+        {
+            try {
+                ret[ii] = rs.findColumn(names[ii]);
+            } catch (SQLException sqle) {
+                ret[ii] = -1;
+            }
+        }
+        return ret;
+    }
+}
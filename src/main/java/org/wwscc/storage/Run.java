@@ -20,6 +20,9 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 
 /**
@@ -52,6 +55,8 @@ public class Run extends AttrBase implements Cloneable
     @JsonProperty
     protected double raw;
 
+    protected long origin;  // nanoTime the timer data arrived at this station, 0 if not known, see TimingTrace
+
 
     public static class WithRowId extends Run
     {
@@ -130,16 +135,44 @@ public class Run extends AttrBase implements Cloneable
      */
     public Run(ResultSet rs) throws SQLException
     {
-        super(rs);
-        eventid = (UUID)rs.getObject("eventid");
-        carid   = (UUID)rs.getObject("carid");
-        course  = rs.getInt("course");
-        rungroup = rs.getInt("rungroup");
-        run     = rs.getInt("run");
-        cones   = rs.getInt("cones");
-        gates   = rs.getInt("gates");
-        status  = rs.getString("status");
-        raw     = rs.getDouble("raw");
+        this(rs, RowMapper.columns(rs, COLUMNS));
+    }
+
+    static final String[] COLUMNS = { "attr", "eventid", "carid", "course", "rungroup", "run", "cones", "gates", "status", "raw" };
+    static final RowMapper<Run> MAPPER = rs -> {
+        int[] c = RowMapper.columns(rs, COLUMNS);
+        return r -> new Run(r, c);
+    };
+
+    Run(ResultSet rs, int[] c) throws SQLException
+    {
+        super(rs.getString(c[0]));
+        eventid = (UUID)rs.getObject(c[1]);
+        carid   = (UUID)rs.getObject(c[2]);
+        course  = rs.getInt(c[3]);
+        rungroup = rs.getInt(c[4]);
+        run     = rs.getInt(c[5]);
+        cones   = rs.getInt(c[6]);
+        gates   = rs.getInt(c[7]);
+        status  = rs.getString(c[8]);
+        raw     = rs.getDouble(c[9]);
+    }
+
+    /**
+     * Extract run data from one entry of an aggregated run list, [run, cones, gates, status, raw, attr]
+     */
+    Run(UUID eventid, UUID carid, int course, int rungroup, JsonNode row)
+    {
+        super((row.get(5) instanceof ObjectNode) ? (ObjectNode)row.get(5) : JsonNodeFactory.instance.objectNode());
+        this.eventid  = eventid;
+        this.carid    = carid;
+        this.course   = course;
+        this.rungroup = rungroup;
+        this.run      = row.get(0).asInt();
+        this.cones    = row.get(1).asInt();
+        this.gates    = row.get(2).asInt();
+        this.status   = row.get(3).isNull() ? null : row.get(3).asText();
+        this.raw      = row.get(4).asDouble();
     }
 
     @Override
@@ -161,6 +194,7 @@ public class Run extends AttrBase implements Cloneable
     public double getSixty()        { return getAttrD("sixty"); }
     public double getSegment(int s) { return getAttrD("seg"+s); }
     public double getRaw()          { return raw; }
+    public long getOrigin()         { return origin; }
 
     public void setRunNumber(int r)         { run = r; }
     public void setCourse(int c)            { course = c; }
@@ -173,6 +207,7 @@ public class Run extends AttrBase implements Cloneable
     public void setGates(int g)             { gates = g; }
     public void setStatus(String s)         { status = s; }
     public void setCarId(UUID cid)          { carid = cid; }
+    public void setOrigin(long nanos)       { origin = nanos; }
 
     public void updateTo(UUID eventid, UUID carid, int course, int rungroup, int run)
     {
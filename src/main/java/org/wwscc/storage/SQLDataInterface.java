@@ -9,12 +9,15 @@ G * This software is licensed under the GPLv3 license, included as
 package org.wwscc.storage;
 
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.sql.Array;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -27,7 +30,9 @@ import java.util.logging.Logger;
 
 import org.wwscc.util.ApplicationState;
 import org.wwscc.util.IdGenerator;
+import org.wwscc.util.TimingTrace;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
@@ -37,17 +42,62 @@ public abstract class SQLDataInterface implements DataInterface
     private static Logger log = Logger.getLogger(SQLDataInterface.class.getCanonicalName());
     private static ObjectMapper objectMapper = new ObjectMapper();
 
-    ClassData classCache = null;
-    long classCacheTimestamp = 0;
+    public static final int DEFAULT_BATCH_SIZE = 200;
+
+    volatile ClassData classCache = null;
+    volatile long classVersion = 0;
 
     public abstract void start() throws SQLException;
     public abstract void commit() throws SQLException;
     public abstract void rollback();
     public abstract void executeUpdate(String sql, List<Object> args) throws SQLException;
-    public abstract void executeGroupUpdate(String sql, List<List<Object>> args) throws SQLException;
+    public abstract void executeGroupUpdate(String sql, List<List<Object>> args, int chunksize) throws SQLException;
     public abstract ResultSet executeSelect(String sql, List<Object> args) throws SQLException;
     public abstract void closeLeftOvers();
-    public abstract <T> List<T> executeSelect(String key, List<Object> args, Constructor<T> objc) throws SQLException;
+    public abstract <T> List<T> executeSelect(String key, List<Object> args, RowMapper<T> mapper) throws SQLException;
+
+    /**
+     * @return the queue to use for timer and event stream inserts, null to write them immediately
+     */
+    WriteBehindQueue writeBehind() { return null; }
+
+    /**
+     * @return the cache to use for driver, car and entrant lookups, null to always query
+     */
+    EntityCache cache() { return null; }
+
+    /**
+     * @param eventid the event the results are for
+     * @return an engine that is kept up to date between calls, null to load everything on each call
+     */
+    ResultsEngine resultsEngine(UUID eventid) { return null; }
+
+    /**
+     * Execute an update that only changes the runs of one car.  By default it is a plain update, an
+     * implementation with a results engine can reload just that car rather than the whole event.
+     */
+    void executeCarUpdate(UUID eventid, UUID carid, String sql, List<Object> args) throws SQLException
+    {
+        executeUpdate(sql, args);
+    }
+
+    /**
+     * Send a notification tagged with a TimingTrace commit id so the NOTIFY hop can be timed.  By default
+     * there are no notifications and nothing is sent.
+     * @param id the id from TimingTrace.committed
+     */
+    void traceNotify(long id) {}
+
+    /**
+     * Run the same statement for each list of args as a batch using the default chunk size
+     * @param sql the statement to execute
+     * @param args a list of args for each row
+     * @throws SQLException or BatchRowException if one of the rows fails
+     */
+    public void executeGroupUpdate(String sql, List<List<Object>> args) throws SQLException
+    {
+        executeGroupUpdate(sql, args, DEFAULT_BATCH_SIZE);
+    }
 
     /**
      * Utility function to create a list for passing args
@@ -112,7 +162,7 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
-            return executeSelect("SELECT * FROM events WHERE NOT isexternal ORDER BY date", null, Event.class.getConstructor(ResultSet.class));
+            return executeSelect("SELECT * FROM events WHERE NOT isexternal ORDER BY date", null, Event.MAPPER);
         }
         catch (NoSeriesException nse)
         {
@@ -153,31 +203,38 @@ public abstract class SQLDataInterface implements DataInterface
     List<Entrant> loadEntrants(ResultSet d, ResultSet r) throws Exception
     {
         List<Entrant> ret = new ArrayList<Entrant>();
-        List<Run> runs = null;
+        RowMapper.Row<Entrant> em = Entrant.MAPPER.bind(d);
+        while (d.next())
+            ret.add(em.map(d));
 
         if (r != null)
         {
-            runs = new ArrayList<Run>();
+            List<Run> runs = new ArrayList<Run>();
+            RowMapper.Row<Run> rm = Run.MAPPER.bind(r);
             while (r.next())
-                runs.add(new Run(r));
+                runs.add(rm.map(r));
+            attachRuns(ret, runs);
         }
 
-        while (d.next())
-        {
-            Entrant e = new Entrant(d);
-            if (runs != null)
-            {
-                for (Run rx : runs)
-                {
-                    if (rx.getCarId().equals(e.getCarId()))
-                        e.runs.put(rx.run, rx);
-                }
-            }
+        return ret;
+    }
 
-            ret.add(e);
+    /**
+     * Put each run into the entrant with the same carid.  Runs are grouped by carid first so this is
+     * linear in the number of entrants plus runs.
+     */
+    static void attachRuns(List<Entrant> entrants, Collection<Run> runs)
+    {
+        Map<UUID, List<Run>> bycar = new HashMap<UUID, List<Run>>();
+        for (Run rx : runs)
+            bycar.computeIfAbsent(rx.getCarId(), k -> new ArrayList<Run>()).add(rx);
+        for (Entrant e : entrants)
+        {
+            List<Run> mine = bycar.get(e.getCarId());
+            if (mine != null)
+                for (Run rx : mine)
+                    e.runs.put(rx.run, rx);
         }
-
-        return ret;
     }
 
 
@@ -224,7 +281,7 @@ public abstract class SQLDataInterface implements DataInterface
         {
             return executeSelect("select distinct c.* from registered as x, cars as c, drivers as d " +
                         "where x.carid=c.carid AND c.driverid=d.driverid and x.eventid=? and d.driverid=? order by c.classcode, c.indexcode, c.number",
-                        newList(eventid, driverid), Car.class.getConstructor(ResultSet.class));
+                        newList(eventid, driverid), Car.MAPPER);
         }
         catch (Exception ioe)
         {
@@ -245,18 +302,35 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
+            // runs come back aggregated per car as [[run, cones, gates, status, raw, attr], ...] so it is one round trip
             ResultSet d = executeSelect("WITH r AS (SELECT x.cid,x.row from runorder, unnest(runorder.cars) WITH ORDINALITY x(cid,row) WHERE eventid=? and course=? and rungroup=?) " +
-                        "SELECT d.firstname, d.lastname, c.*, MAX(reg.session) as session, SUM(p.amount) AS paid FROM drivers d " +
+                        "SELECT d.firstname, d.lastname, c.*, MAX(reg.session) as session, SUM(p.amount) AS paid, " +
+                        "(SELECT json_agg(json_build_array(x.run, x.cones, x.gates, x.status, x.raw, x.attr)) FROM runs x " +
+                        "  WHERE x.eventid=? AND x.course=? AND x.rungroup=? AND x.carid=c.carid) AS runlist FROM drivers d " +
                         "JOIN cars c ON c.driverid=d.driverid " +
                         "JOIN r ON c.carid=r.cid " +
                         "LEFT JOIN registered reg ON reg.carid=c.carid and reg.eventid=? " +
                         "LEFT JOIN payments p ON d.driverid=p.driverid AND reg.eventid=p.eventid  " +
-                        "GROUP BY d.firstname, d.lastname, c.carid, r.row ORDER BY r.row", newList(eventid, course, rungroup, eventid));
+                        "GROUP BY d.firstname, d.lastname, c.carid, r.row ORDER BY r.row", newList(eventid, course, rungroup, eventid, course, rungroup, eventid));
+            List<Entrant> ret = new ArrayList<Entrant>();
             if (d == null)
-                return new ArrayList<Entrant>();
-            ResultSet runs = executeSelect("SELECT * FROM runs WHERE eventid=? AND course=? AND rungroup=? AND carid in " +
-                        "(select unnest(cars) from runorder where eventid=? AND course=? AND rungroup=?)", newList(eventid, course, rungroup, eventid, course, rungroup));
-            List<Entrant> ret = loadEntrants(d, runs);
+                return ret;
+            RowMapper.Row<Entrant> em = Entrant.MAPPER.bind(d);
+            int runlist = d.findColumn("runlist");
+            while (d.next())
+            {
+                Entrant e = em.map(d);
+                String json = d.getString(runlist);
+                if (json != null)
+                {
+                    for (JsonNode row : objectMapper.readTree(json))
+                    {
+                        Run rx = new Run(eventid, e.getCarId(), course, rungroup, row);
+                        e.runs.put(rx.run, rx);
+                    }
+                }
+                ret.add(e);
+            }
             closeLeftOvers();
             return ret;
         }
@@ -270,6 +344,14 @@ public abstract class SQLDataInterface implements DataInterface
 
     @Override
     public Entrant loadEntrant(UUID eventid, UUID carid, int course, int rungroup, boolean loadruns)
+    {
+        EntityCache c = cache();
+        if ((c != null) && !loadruns) // runs change constantly, only the entrant info is cached
+            return c.getEntrant(eventid, carid, k -> queryEntrant(eventid, carid, course, rungroup, false));
+        return queryEntrant(eventid, carid, course, rungroup, loadruns);
+    }
+
+    private Entrant queryEntrant(UUID eventid, UUID carid, int course, int rungroup, boolean loadruns)
     {
         try
         {
@@ -452,50 +534,65 @@ public abstract class SQLDataInterface implements DataInterface
 
     @Override
     public DecoratedCar decorateCar(Car c, ApplicationState state)
+    {
+        List<DecoratedCar> ret = decorateCars(Collections.singletonList(c), state);
+        return ((ret != null) && (ret.size() > 0)) ? ret.get(0) : null;
+    }
+
+
+    @Override
+    public List<DecoratedCar> decorateCars(Collection<Car> cars, ApplicationState state)
     {
         try
         {
-            DecoratedCar dcar = new DecoratedCar(c);
+            List<DecoratedCar> ret = new ArrayList<DecoratedCar>();
+            if (cars.isEmpty())
+                return ret;
 
-            // check if registered for this event
-            ResultSet cr = executeSelect("select session from registered where carid=? and eventid=?", newList(c.getCarId(), state.getCurrentEventId()));
-            dcar.registered = false;
+            UUID eventid = state.getCurrentEventId();
+            int course   = state.getCurrentCourse();
+            int rungroup = state.getCurrentRunGroup();
+            boolean sessions = state.usingSessions();
+            Map<UUID, DecoratedCar> bycarid = new HashMap<UUID, DecoratedCar>();
+            for (Car c : cars)
+                ret.add(bycarid.computeIfAbsent(c.getCarId(), k -> new DecoratedCar(c)));
+            UUID[] ids = bycarid.keySet().toArray(new UUID[0]);
+
+            // registration, run order and activity outside this event for all cars at once
+            ResultSet cr = executeSelect("SELECT c.carid, " +
+                    "(SELECT array_agg(r.session) FROM registered r WHERE r.carid=c.carid AND r.eventid=?) AS sessions, " +
+                    "EXISTS (SELECT 1 FROM runorder o WHERE o.eventid=? AND o.course=? AND c.carid=ANY(o.cars)) AS inany, " +
+                    "EXISTS (SELECT 1 FROM runorder o WHERE o.eventid=? AND o.course=? AND o.rungroup=? AND c.carid=ANY(o.cars)) AS incurrent, " +
+                    "(EXISTS (SELECT 1 FROM registered r WHERE r.carid=c.carid AND r.eventid!=?) OR " +
+                    " EXISTS (SELECT 1 FROM runs r WHERE r.carid=c.carid AND r.eventid!=?) OR " +
+                    " EXISTS (SELECT 1 FROM runorder o WHERE c.carid=ANY(o.cars) AND o.eventid!=?)) AS other " +
+                    "FROM unnest(?) AS c(carid)",
+                    newList(eventid, eventid, course, eventid, course, rungroup, eventid, eventid, eventid, ids));
             while (cr.next()) {
-                dcar.registered = true;
-                dcar.sessions.add(cr.getString(1));
+                DecoratedCar dcar = bycarid.get((UUID)cr.getObject("carid"));
+                Array sa = cr.getArray("sessions");
+                if (sa != null) {
+                    dcar.registered = true;
+                    dcar.sessions.addAll(Arrays.asList((String[])sa.getArray()));
+                }
+                dcar.inAnyRunOrder    = cr.getBoolean("inany");
+                dcar.isInCurrentOrder = cr.getBoolean("incurrent");
+                dcar.canAdd           = (sessions && !dcar.isInCurrentOrder) || (!sessions && !dcar.inAnyRunOrder);
+                dcar.otherActivity    = cr.getBoolean("other");
             }
 
             // load any payments made
-            ResultSet cp = executeSelect("select * from payments where carid=? and eventid=?", newList(c.getCarId(), state.getCurrentEventId()));
+            ResultSet cp = executeSelect("select * from payments where eventid=? and carid=ANY(?)", newList(eventid, ids));
             while (cp.next()) {
-                dcar.addPayment(new Payment(cp));
-            }
-
-            boolean sessions = state.usingSessions();
-            dcar.inAnyRunOrder = isInAnyOrder(state.getCurrentEventId(), c.getCarId(), state.getCurrentCourse());
-            dcar.isInCurrentOrder = isInCurrentOrder(state.getCurrentEventId(), c.getCarId(), state.getCurrentCourse(), state.getCurrentRunGroup());
-            dcar.canAdd = (sessions && !dcar.isInCurrentOrder) || (!sessions && !dcar.inAnyRunOrder);
-
-            // check for activity outside this event
-            ResultSet c1 = executeSelect("select carid from registered where carid=? and eventid!=? limit 1", newList(c.getCarId(), state.getCurrentEventId()));
-            if (!c1.next()) {
-                ResultSet c2 = executeSelect("select carid from runs where carid=? and eventid!=? limit 1", newList(c.getCarId(), state.getCurrentEventId()));
-                if (!c2.next()) {
-                    ResultSet c3 = executeSelect("select 1 from runorder where ?=ANY(cars) and eventid!=? limit 1", newList(c.getCarId(), state.getCurrentEventId()));
-                    dcar.otherActivity = c3.next();
-                } else {
-                    dcar.otherActivity = true;
-                }
-            } else {
-                dcar.otherActivity = true;
+                bycarid.get((UUID)cp.getObject("carid")).addPayment(new Payment(cp));
             }
 
             closeLeftOvers();
-            return dcar;
+            return ret;
         }
         catch (Exception ioe)
         {
-            logError("decorateCar", ioe);
+            logError("decorateCars", ioe);
             return null;
         }
     }
@@ -547,10 +644,16 @@ public abstract class SQLDataInterface implements DataInterface
 
     @Override
     public Driver getDriver(UUID driverid)
+    {
+        EntityCache c = cache();
+        return (c != null) ? c.getDriver(driverid, this::queryDriver) : queryDriver(driverid);
+    }
+
+    private Driver queryDriver(UUID driverid)
     {
         try
         {
-            List<Driver> ret = executeSelect("select * from drivers where driverid=?", newList(driverid), Driver.class.getConstructor(ResultSet.class));
+            List<Driver> ret = executeSelect("select * from drivers where driverid=?", newList(driverid), Driver.MAPPER);
             if (ret.size() > 0)
                 return ret.get(0);
         }
@@ -564,10 +667,17 @@ public abstract class SQLDataInterface implements DataInterface
 
     @Override
     public Driver getDriverForCarId(UUID carid)
+    {
+        EntityCache c = cache();
+        Driver d = (c != null) ? c.getDriverForCarId(carid, this::queryDriverForCarId) : queryDriverForCarId(carid);
+        return (d != null) ? d : new Driver();
+    }
+
+    private Driver queryDriverForCarId(UUID carid)
     {
         try
         {
-            List<Driver> ret = executeSelect("SELECT d.* FROM drivers d JOIN cars c ON c.driverid=d.driverid WHERE carid=?", newList(carid), Driver.class.getConstructor(ResultSet.class));
+            List<Driver> ret = executeSelect("SELECT d.* FROM drivers d JOIN cars c ON c.driverid=d.driverid WHERE carid=?", newList(carid), Driver.MAPPER);
             if (ret.size() > 0)
                 return ret.get(0);
         }
@@ -575,7 +685,7 @@ public abstract class SQLDataInterface implements DataInterface
         {
             logError("getDriverForCarId", ioe);
         }
-        return new Driver();
+        return null;
     }
 
 
@@ -590,7 +700,7 @@ public abstract class SQLDataInterface implements DataInterface
                 return ret;
             }
             return executeSelect("select * from drivers where barcode like ? order by driverid", newList(barcode.trim()),
-                    Driver.class.getConstructor(ResultSet.class));
+                    Driver.MAPPER);
         }
         catch (Exception ioe)
         {
@@ -601,10 +711,16 @@ public abstract class SQLDataInterface implements DataInterface
 
     @Override
     public Car getCar(UUID carid)
+    {
+        EntityCache c = cache();
+        return (c != null) ? c.getCar(carid, this::queryCar) : queryCar(carid);
+    }
+
+    private Car queryCar(UUID carid)
     {
         try
         {
-            List<Car> ret = executeSelect("select * from cars where carid=?", newList(carid), Car.class.getConstructor(ResultSet.class));
+            List<Car> ret = executeSelect("select * from cars where carid=?", newList(carid), Car.MAPPER);
             if (ret.size() > 0)
                 return ret.get(0);
         }
@@ -617,11 +733,17 @@ public abstract class SQLDataInterface implements DataInterface
 
     @Override
     public List<Car> getCarsForDriver(UUID driverid)
+    {
+        EntityCache c = cache();
+        return (c != null) ? c.getCarsForDriver(driverid, this::queryCarsForDriver) : queryCarsForDriver(driverid);
+    }
+
+    private List<Car> queryCarsForDriver(UUID driverid)
     {
         try
         {
             return executeSelect("select * from cars where driverid = ? order by classcode, indexcode, number",
-                            newList(driverid), Car.class.getConstructor(ResultSet.class));
+                            newList(driverid), Car.MAPPER);
         }
         catch (Exception ioe)
         {
@@ -672,7 +794,7 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try {
             return executeSelect("SELECT i.* from paymentitems i JOIN itemeventmap m ON i.itemid=m.itemid WHERE m.eventid=?", newList(eventid),
-                                    PaymentItem.class.getConstructor(ResultSet.class));
+                                    RowMapper.byName(PaymentItem::new));
         } catch (Exception ioe) {
             logError("getPaymentItemsForEvent", ioe);
             return new ArrayList<PaymentItem>();
@@ -683,7 +805,7 @@ public abstract class SQLDataInterface implements DataInterface
     public List<PaymentItem> getPaymentItemsForMembership()
     {
         try {
-            return executeSelect("SELECT * from paymentitems WHERE itemtype=2", null, PaymentItem.class.getConstructor(ResultSet.class));
+            return executeSelect("SELECT * from paymentitems WHERE itemtype=2", null, RowMapper.byName(PaymentItem::new));
         } catch (Exception ioe) {
             logError("getPaymentItemsForMembership", ioe);
             return new ArrayList<PaymentItem>();
@@ -694,7 +816,7 @@ public abstract class SQLDataInterface implements DataInterface
     public List<Payment> getMembershipPayments(UUID driverid)
     {
         try {
-            return executeSelect("SELECT * from payments WHERE driverid=? AND eventid IS NULL", newList(driverid), Payment.class.getConstructor(ResultSet.class));
+            return executeSelect("SELECT * from payments WHERE driverid=? AND eventid IS NULL", newList(driverid), RowMapper.byName(Payment::new));
         } catch (Exception ioe) {
             logError("getMembershipPayments", ioe);
             return new ArrayList<Payment>();
@@ -705,7 +827,7 @@ public abstract class SQLDataInterface implements DataInterface
     public List<Payment> getNonEntryPayments(UUID driverid, UUID eventid)
     {
         try {
-            return executeSelect("SELECT * from payments WHERE driverid=? AND eventid=? AND carid IS NULL", newList(driverid, eventid), Payment.class.getConstructor(ResultSet.class));
+            return executeSelect("SELECT * from payments WHERE driverid=? AND eventid=? AND carid IS NULL", newList(driverid, eventid), RowMapper.byName(Payment::new));
         } catch (Exception ioe) {
             logError("getNonEntryPayments", ioe);
             return new ArrayList<Payment>();
@@ -813,9 +935,11 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
-            start();
+            List<List<Object>> rows = new ArrayList<List<Object>>();
             for (Car c : list)
-                executeUpdate("delete from cars where carid=?", newList(c.carid));
+                rows.add(newList(c.carid));
+            start();
+            executeGroupUpdate("delete from cars where carid=?", rows);
             commit();
         }
         catch (Exception ioe)
@@ -832,26 +956,28 @@ public abstract class SQLDataInterface implements DataInterface
         {
             start();
             List<Object> sa = newList(into.getCarId(), from.getCarId());
+            List<Object> ma = newList(from.getCarId(), into.getCarId());
             List<Object> da = newList(from.getCarId());
 
             // can't swap carids on some tables as they are part of the primary key and that messes with our syncing process
-            executeUpdate("INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr) " +
-                                    "(SELECT eventid,	 ?, course, rungroup, run, cones, gates, raw, status, attr FROM runs WHERE carid=?)", sa);
-            executeUpdate("DELETE FROM runs WHERE carid=?", da);
+            // so we delete and reinsert, each pair done in one statement to save round trips
+            executeUpdate("WITH moved AS (DELETE FROM runs WHERE carid=? RETURNING *) " +
+                          "INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr) " +
+                          "SELECT eventid, ?, course, rungroup, run, cones, gates, raw, status, attr FROM moved", ma);
 
-            executeUpdate("INSERT INTO registered (eventid, carid) " +
-                                    "(SELECT eventid,	 ? FROM registered WHERE carid=?) ON CONFLICT (eventid, carid) DO NOTHING", sa);
-            executeUpdate("DELETE FROM registered WHERE carid=?", da);
+            executeUpdate("WITH moved AS (DELETE FROM registered WHERE carid=? RETURNING *) " +
+                          "INSERT INTO registered (eventid, carid) " +
+                          "SELECT eventid, ? FROM moved ON CONFLICT (eventid, carid) DO NOTHING", ma);
 
-            executeUpdate("INSERT INTO challengeruns (challengeid, round, carid, course, reaction, sixty, raw, cones, gates, status) " +
-                                             "(SELECT challengeid, round,	 ?, course, reaction, sixty, raw, cones, gates, status FROM challengeruns WHERE carid=?)", sa);
-            executeUpdate("DELETE FROM challengeruns WHERE carid=?", da);
+            executeUpdate("WITH moved AS (DELETE FROM challengeruns WHERE carid=? RETURNING *) " +
+                          "INSERT INTO challengeruns (challengeid, round, carid, course, reaction, sixty, raw, cones, gates, status) " +
+                          "SELECT challengeid, round, ?, course, reaction, sixty, raw, cones, gates, status FROM moved", ma);
 
             // these we can just swap or delete
             executeUpdate("update payments set carid=?,modified=now() where carid=?", sa);
             executeUpdate("update runorder set cars=array_remove(cars, ?), modified=now()", newList(from.getCarId()));
-            executeUpdate("update challengerounds set car1id=?,modified=now() where car1id=?", sa);
-            executeUpdate("update challengerounds set car2id=?,modified=now() where car2id=?", sa);
+            executeUpdate("update challengerounds set car1id=(CASE car1id WHEN ? THEN ? ELSE car1id END), car2id=(CASE car2id WHEN ? THEN ? ELSE car2id END), modified=now() " +
+                          "where car1id=? or car2id=?", newList(from.getCarId(), into.getCarId(), from.getCarId(), into.getCarId(), from.getCarId(), from.getCarId()));
             executeUpdate("delete from cars where carid=?", da);
             commit();
         }
@@ -867,11 +993,15 @@ public abstract class SQLDataInterface implements DataInterface
     public void setRun(Run r, String quicksync) throws Exception
     {
         try {
-            executeUpdate("INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr, modified) " +
+            long start = System.nanoTime();
+            executeCarUpdate(r.eventid, r.carid, "INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr, modified) " +
                           "VALUES (?,?,?,?,?,?,?,?,?,?,now()) ON CONFLICT (eventid, carid, course, rungroup, run) DO UPDATE " +
                           "SET cones=?,gates=?,raw=?,status=?,attr=?,modified=now()",
                           newList(r.eventid, r.carid, r.course, r.rungroup, r.run, r.cones, r.gates, r.raw, r.status, r.attr,
                                                                             r.cones, r.gates, r.raw, r.status, r.attr));
+            long origin = (r.getOrigin() != 0) ? r.getOrigin() : TimingTrace.origin();
+            TimingTrace.record(TimingTrace.Hop.COMMIT, start, origin);
+            traceNotify(TimingTrace.committed(origin));
             if (quicksync != null)
                 mergeServerSetQuickRuns(quicksync);
         } catch (Exception sqle) {
@@ -880,18 +1010,24 @@ public abstract class SQLDataInterface implements DataInterface
         }
     }
 
+    static final String DELETE_RUN_SQL = "DELETE FROM runs WHERE eventid=? AND carid=? AND course=? AND rungroup=? AND run=?";
+    static final String INSERT_RUN_SQL = "INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr, modified) values (?,?,?,?,?,?,?,?,?,?,now())";
+
     @Override
     public void swapRuns(Collection<Run> runs, UUID newcarid) throws Exception
     {
         try {
             // do in a transaction so we can revert if things go south, we have to delete and reinsert to maintain primary key contract for syncing
-            start();
+            List<List<Object>> deletes = new ArrayList<List<Object>>();
+            List<List<Object>> inserts = new ArrayList<List<Object>>();
             for (Run r : runs) {
-                executeUpdate("DELETE FROM runs WHERE eventid=? AND carid=? AND course=? AND rungroup=? AND run=?", newList(r.eventid, r.carid, r.course, r.rungroup, r.run));
+                deletes.add(newList(r.eventid, r.carid, r.course, r.rungroup, r.run));
                 r.setCarId(newcarid);
-                executeUpdate("INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr, modified) values (?,?,?,?,?,?,?,?,?,?,now())",
-                                  newList(r.eventid, r.carid, r.course, r.rungroup, r.run, r.cones, r.gates, r.raw, r.status, r.attr));
+                inserts.add(newList(r.eventid, r.carid, r.course, r.rungroup, r.run, r.cones, r.gates, r.raw, r.status, r.attr));
             }
+            start();
+            executeGroupUpdate(DELETE_RUN_SQL, deletes);
+            executeGroupUpdate(INSERT_RUN_SQL, inserts);
             commit();
         } catch (Exception sqle) {
             rollback();
@@ -904,13 +1040,16 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try {
             // do in a transaction so we can revert if things go south, we have to delete and reinsert to maintain primary key contract for syncing
-            start();
+            List<List<Object>> deletes = new ArrayList<List<Object>>();
+            List<List<Object>> inserts = new ArrayList<List<Object>>();
             for (Run r : runs) {
-                executeUpdate("DELETE FROM runs WHERE eventid=? AND carid=? AND course=? AND rungroup=? AND run=?", newList(r.eventid, r.carid, r.course, r.rungroup, r.run));
+                deletes.add(newList(r.eventid, r.carid, r.course, r.rungroup, r.run));
                 r.setRunGroup(newrungroup);
-                executeUpdate("INSERT INTO runs (eventid, carid, course, rungroup, run, cones, gates, raw, status, attr, modified) values (?,?,?,?,?,?,?,?,?,?,now())",
-                                  newList(r.eventid, r.carid, r.course, r.rungroup, r.run, r.cones, r.gates, r.raw, r.status, r.attr));
+                inserts.add(newList(r.eventid, r.carid, r.course, r.rungroup, r.run, r.cones, r.gates, r.raw, r.status, r.attr));
             }
+            start();
+            executeGroupUpdate(DELETE_RUN_SQL, deletes);
+            executeGroupUpdate(INSERT_RUN_SQL, inserts);
             commit();
         } catch (Exception sqle) {
             rollback();
@@ -922,7 +1061,7 @@ public abstract class SQLDataInterface implements DataInterface
     public void deleteRun(UUID eventid, UUID carid, int course, int rungroup, int run, String quicksync) throws Exception
     {
         try {
-            executeUpdate("DELETE FROM runs WHERE eventid=? AND carid=? AND course=? AND rungroup=? AND run=?", newList(eventid, carid, course, rungroup, run));
+            executeCarUpdate(eventid, carid, DELETE_RUN_SQL, newList(eventid, carid, course, rungroup, run));
             if (quicksync != null)
                 mergeServerSetQuickRuns(quicksync);
         } catch (Exception sqle){
@@ -934,10 +1073,14 @@ public abstract class SQLDataInterface implements DataInterface
     @Override
     public void addTimerTime(Run r)
     {
+        List<Object> args = newList(IdGenerator.generateId(), r.course, r.raw, r.status, r.attr, new Timestamp(System.currentTimeMillis()));
+        WriteBehindQueue q = writeBehind();
+        if (q != null) {
+            q.add(WriteBehindQueue.Kind.TIMERTIME, args);
+            return;
+        }
         try {
-            UUID timeid = IdGenerator.generateId();
-            executeUpdate("INSERT INTO timertimes (timeid,   course,   raw,   status,   attr, modified) VALUES (?, ?, ?, ?, ?, now())",
-                                           newList(timeid, r.course, r.raw, r.status, r.attr));
+            executeUpdate(WriteBehindQueue.Kind.TIMERTIME.sql, args);
         } catch (Exception ioe){
             logError("addTimerTime", ioe);
         }
@@ -979,15 +1122,11 @@ public abstract class SQLDataInterface implements DataInterface
             executeUpdate("insert into challenges (challengeid, eventid, name, depth) values (?,?,?,?)",
                                         newList(challengeid, eventid, name, depth));
 
-            String sql = "insert into challengerounds (challengeid,round,swappedstart) values (?,?,?)";
-            List<Object> rargs = newList(challengeid, 0, false);
+            List<List<Object>> rargs = new ArrayList<List<Object>>();
             for (int ii = 0; ii <= rounds; ii++)
-            {
-                rargs.set(1, ii);
-                executeUpdate(sql, rargs);
-            }
-            rargs.set(1, 99);
-            executeUpdate(sql, rargs);
+                rargs.add(newList(challengeid, ii, false));
+            rargs.add(newList(challengeid, 99, false));
+            executeGroupUpdate("insert into challengerounds (challengeid,round,swappedstart) values (?,?,?)", rargs);
 
             commit();
             Challenge ret = new Challenge();
@@ -1024,7 +1163,7 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
-            return executeSelect("select * from challenges where eventid = ? order by name", newList(eventid), Challenge.class.getConstructor(ResultSet.class));
+            return executeSelect("select * from challenges where eventid = ? order by name", newList(eventid), RowMapper.byName(Challenge::new));
         }
         catch (Exception ioe)
         {
@@ -1039,7 +1178,7 @@ public abstract class SQLDataInterface implements DataInterface
         try
         {
             return executeSelect("select * from challengerounds where challengeid=?", newList(challengeid),
-                                ChallengeRound.class.getConstructor(ResultSet.class));
+                                ChallengeRound.MAPPER);
         }
         catch (Exception ioe)
         {
@@ -1053,7 +1192,7 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
-            return executeSelect("select * from challengeruns where challengeid=?", newList(challengeid), ChallengeRun.class.getConstructor(ResultSet.class));
+            return executeSelect("select * from challengeruns where challengeid=?", newList(challengeid), RowMapper.byName(ChallengeRun::new));
         }
         catch (Exception ioe)
         {
@@ -1067,7 +1206,7 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
-            List<ChallengeRun> ret = executeSelect("select * from challengeruns where challengeid=? and round=? and carid=? and course=?", newList(challengeid, round, carid, course), ChallengeRun.class.getConstructor(ResultSet.class));
+            List<ChallengeRun> ret = executeSelect("select * from challengeruns where challengeid=? and round=? and carid=? and course=?", newList(challengeid, round, carid, course), RowMapper.byName(ChallengeRun::new));
             if (ret.size() > 0)
                 return ret.get(0);
             return null;
@@ -1083,7 +1222,7 @@ public abstract class SQLDataInterface implements DataInterface
     public ChallengeStaging getStagingForChallenge(UUID challengeid)
     {
         try {
-            List<ChallengeStaging> ret = executeSelect("select * from challengestaging where challengeid=?", newList(challengeid), ChallengeStaging.class.getConstructor(ResultSet.class));
+            List<ChallengeStaging> ret = executeSelect("select * from challengestaging where challengeid=?", newList(challengeid), RowMapper.byName(ChallengeStaging::new));
             if (ret.size() > 0) {
                 return ret.get(0);
             }
@@ -1096,65 +1235,12 @@ public abstract class SQLDataInterface implements DataInterface
     @Override
     public Dialins loadDialins(UUID eventid)
     {
-        String sql = "SELECT c.classcode,c.indexcode,c.useclsmult,r.* "
-                + "FROM runs AS r JOIN cars AS c ON c.carid=r.carid WHERE r.eventid=? ORDER BY r.carid,r.course";
-
         try
         {
-            List<Event> el = executeSelect("select * from events where eventid=?", newList(eventid), Event.class.getConstructor(ResultSet.class));
-            if (el.size() == 0)
-                throw new Exception("No event found for eventid " + eventid);
-            Event e = el.get(0);
-            ResultSet rs = executeSelect(sql, newList(eventid));
-
-            Dialins ret         = new Dialins();
-            UUID currentid      = new UUID(0,0);
-            String classcode    = "";
-            String indexcode    = "";
-            boolean useclsmult  = false;
-            double index        = 1.0;
-            double bestraw[]    = new double[2];
-            double bestnet[]    = new double[2];
-
-            // 1. load all runs
-            // 2. calculate best raw/net/sum for each carid
-            // 3. set personal dialin
-            while (rs.next())
-            {
-                Run r = new Run(rs);
-                double net = 999.999;
-
-                if (!currentid.equals(r.getCarId()))  // next car, process previous and reset values
-                {
-                    ret.setEntrant(currentid, classcode, bestraw[0]+bestraw[1], bestnet[0]+bestnet[1], index);
-                    currentid = r.getCarId();
-                    bestraw[0] = bestraw[1] = bestnet[0] = bestnet[1] = 999.999;
-                }
-
-                classcode    = rs.getString("classcode");
-                indexcode    = rs.getString("indexcode");
-                useclsmult   = rs.getBoolean("useclsmult");
-                index        = getClassData().getEffectiveIndex(classcode, indexcode, useclsmult).val;
-
-                if (r.isOK()) // we ignore non-OK runs
-                {
-                    int idx = r.course() - 1;
-                    if (r.raw < bestraw[idx])
-                        bestraw[idx] = r.raw;
-
-                    net = (r.getRaw() + (e.getConePenalty() * r.getCones()) + (e.getGatePenalty() * r.getGates())) * index;
-                    if (net < bestnet[idx])
-                        bestnet[idx] = net;
-                }
-            }
-
-            // final entrant values processing
-            ret.setEntrant(currentid, classcode, bestraw[0]+bestraw[1], bestnet[0]+bestnet[1], index);
-
-            // 4. order and set class dialins
-            ret.finalizedialins();
-            closeLeftOvers();
-            return ret;
+            ResultsEngine engine = resultsEngine(eventid);
+            if (engine == null)
+                engine = new ResultsEngine(eventid);
+            return engine.getDialins(this);
         }
         catch (Exception ioe)
         {
@@ -1163,6 +1249,23 @@ public abstract class SQLDataInterface implements DataInterface
         }
     }
 
+    @Override
+    public EventResults getEventResults(UUID eventid)
+    {
+        try
+        {
+            ResultsEngine engine = resultsEngine(eventid);
+            if (engine == null)
+                engine = new ResultsEngine(eventid);
+            return engine.getResults(this);
+        }
+        catch (Exception ioe)
+        {
+            logError("getEventResults", ioe);
+            return null;
+        }
+    }
+
     @Override
     public void updateChallenge(Challenge c)
     {
@@ -1240,11 +1343,13 @@ public abstract class SQLDataInterface implements DataInterface
     public void setChallengeRun(ChallengeRun r)
     {
         try {
+            long start = System.nanoTime();
             executeUpdate("INSERT INTO challengeruns (challengeid, round, carid, course, reaction, sixty, raw, cones, gates, status, modified) " +
                         "values (?,?,?,?,?,?,?,?,?,?,now()) ON CONFLICT (challengeid, round, carid, course) DO UPDATE " +
                         "SET reaction=?,sixty=?,raw=?,cones=?,gates=?,status=?,modified=now()",
                         newList(r.challengeid, r.round, r.carid, r.course, r.reaction, r.sixty, r.raw, r.cones, r.gates, r.status,
                                 r.reaction, r.sixty, r.raw, r.cones, r.gates, r.status));
+            TimingTrace.record(TimingTrace.Hop.COMMIT, start);
         } catch (Exception ioe){
             logError("setChallengeRun", ioe);
         }
@@ -1278,7 +1383,7 @@ public abstract class SQLDataInterface implements DataInterface
             return new ArrayList<Driver>();
         try
         {
-            Constructor<Driver> cc = Driver.class.getConstructor(ResultSet.class);
+            RowMapper<Driver> cc = Driver.MAPPER;
             if (first == null)
                 return executeSelect("select * from drivers where lower(lastname) like ? order by firstname,lastname", newList(last.toLowerCase()+"%"), cc);
             else if (last == null)
@@ -1298,7 +1403,7 @@ public abstract class SQLDataInterface implements DataInterface
     public Driver getDriverByUsername(String username)
     {
         try {
-            List<Driver> ret = executeSelect("select * from drivers where username=?", newList(username), Driver.class.getConstructor(ResultSet.class));
+            List<Driver> ret = executeSelect("select * from drivers where username=?", newList(username), Driver.MAPPER);
             if (ret.size() > 0) return ret.get(0);
         } catch (Exception ioe) {
             logError("getDriverByUsername", ioe);
@@ -1392,17 +1497,18 @@ public abstract class SQLDataInterface implements DataInterface
     {
         try
         {
-            if ((classCache != null) && (classCacheTimestamp < System.currentTimeMillis() + 2000))
-                return classCache;
+            ClassData ret = classCache;
+            if (ret != null)
+                return ret;
 
-            ClassData ret = new ClassData();
-            for (ClassData.Class cls : executeSelect("select * from classlist", null, ClassData.Class.class.getConstructor(ResultSet.class)))
-                ret.add(cls);
-            for (ClassData.Index idx : executeSelect("select * from indexlist", null, ClassData.Index.class.getConstructor(ResultSet.class)))
-                ret.add(idx);
-            classCache = ret; // save for quick lookups when doing multiple calls within a couple seconds
-            classCacheTimestamp = System.currentTimeMillis();
-            return classCache;
+            long version = classVersion;
+            ret = new ClassData(executeSelect("select * from classlist", null, ClassData.Class.MAPPER),
+                                executeSelect("select * from indexlist", null, ClassData.Index.MAPPER));
+            synchronized (this) {
+                if (version == classVersion) // don't keep it if a change arrived while we were loading
+                    classCache = ret;
+            }
+            return ret;
         }
         catch (Exception ioe)
         {
@@ -1411,6 +1517,15 @@ public abstract class SQLDataInterface implements DataInterface
         }
     }
 
+    /**
+     * Drop the cached class data so the next getClassData loads the current classlist and indexlist
+     */
+    synchronized void invalidateClassData()
+    {
+        classVersion++;
+        classCache = null;
+    }
+
     @Override
     public String getEffectiveIndexStr(Car c)
     {
@@ -1529,7 +1644,7 @@ public abstract class SQLDataInterface implements DataInterface
         try
         {
             List<MergeServer> ret = new ArrayList<MergeServer>();
-            for (MergeServer cls : executeSelect("select * from mergeservers", null, MergeServer.class.getConstructor(ResultSet.class)))
+            for (MergeServer cls : executeSelect("select * from mergeservers", null, MergeServer.MAPPER))
                 ret.add(cls);
             return ret;
         }
@@ -1540,10 +1655,16 @@ public abstract class SQLDataInterface implements DataInterface
         }
     }
 
-    public void recordEvent(String type, ObjectNode attr)
+    public void recordEvent(String type, JsonNode attr)
     {
+        List<Object> args = newList(type, attr, new Timestamp(System.currentTimeMillis()));
+        WriteBehindQueue q = writeBehind();
+        if (q != null) {
+            q.add(WriteBehindQueue.Kind.EVENT, args);
+            return;
+        }
         try {
-            executeUpdate("INSERT INTO localeventstream (etype, event, time) VALUES (?, ?, now())", newList(type, attr));
+            executeUpdate(WriteBehindQueue.Kind.EVENT.sql, args);
         } catch (Exception ioe) {
             log.log(Level.WARNING, "recordEvent: " + ioe, ioe);
         }
@@ -0,0 +1,141 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * LRU cache of prepared statements for a single connection, keyed by the SQL text.  A statement is taken
+ * out of the cache while it is in use and given back afterwards, so the same SQL being run twice at once
+ * (i.e. an open ResultSet that hasn't been closed yet) just prepares a second statement.
+ */
+class StatementCache
+{
+    private static final Logger log = Logger.getLogger(StatementCache.class.getCanonicalName());
+
+    public static final int DEFAULT_SIZE = 64;
+
+    /**
+     * Counters shared by all of the caches for one database object
+     */
+    public static class Counters
+    {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+
+        @Override
+        public String toString()
+        {
+            long h = hits.get(), m = misses.get();
+            return String.format("statements hits=%d misses=%d evictions=%d (%.1f%% hit)", h, m, evictions.get(), (h+m > 0) ? 100.0*h/(h+m) : 0.0);
+        }
+    }
+
+    private final Connection conn;
+    private final Counters counters;
+    private final LinkedHashMap<String, PreparedStatement> cache;
+    private boolean closed;
+
+    @SuppressWarnings("serial")
+    public StatementCache(Connection conn, int capacity, Counters counters)
+    {
+        this.conn = conn;
+        this.counters = counters;
+        this.closed = false;
+        this.cache = new LinkedHashMap<String, PreparedStatement>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity)
+                    return false;
+                counters.evictions.incrementAndGet();
+                quietClose(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get a statement for this SQL, from the cache if available, otherwise newly prepared.
+     * @param sql the SQL text
+     * @return a prepared statement that should be returned with give
+     * @throws SQLException if the prepare fails
+     */
+    public PreparedStatement take(String sql) throws SQLException
+    {
+        synchronized (this)
+        {
+            PreparedStatement p = cache.remove(sql);
+            if ((p != null) && !p.isClosed()) {
+                counters.hits.incrementAndGet();
+                return p;
+            }
+        }
+        counters.misses.incrementAndGet();
+        return conn.prepareStatement(sql);
+    }
+
+    /**
+     * Return a statement after use.  If there is already a statement cached for the SQL or the
+     * cache has been closed, the statement is closed instead.
+     * @param sql the SQL text used with take
+     * @param p the statement from take
+     */
+    public void give(String sql, PreparedStatement p)
+    {
+        synchronized (this)
+        {
+            if (!closed && !cache.containsKey(sql)) {
+                try {
+                    p.clearParameters();
+                    cache.put(sql, p);
+                    return;
+                } catch (SQLException sqle) {
+                    log.log(Level.FINE, "clear parameters failed: " + sqle, sqle);
+                }
+            }
+        }
+        quietClose(p);
+    }
+
+    /**
+     * Close all cached statements, i.e. when the search_path changes and the server side plans are no longer valid
+     */
+    public synchronized void clear()
+    {
+        for (PreparedStatement p : cache.values())
+            quietClose(p);
+        cache.clear();
+    }
+
+    /**
+     * Close all cached statements and close any others as they are given back
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        clear();
+    }
+
+    private static void quietClose(PreparedStatement p)
+    {
+        try {
+            p.close();
+        } catch (SQLException sqle) {
+            log.log(Level.FINE, "statement close failed: " + sqle, sqle);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import org.wwscc.util.Prefs;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Latency histograms keyed by SQL text for the statements run through the database object.  Each
+ * histogram is a set of power of two microsecond buckets made of LongAdders so recording is cheap and
+ * doesn't block other threads.  Statements slower than the threshold are logged with their arguments
+ * and the first caller outside of the storage package.
+ * <p>
+ * Each application runs in its own JVM so the timings for the process are saved to the log directory
+ * periodically and at exit.  The status window in the tray process reads those files to show them all.
+ */
+public class StatementTimings
+{
+    private static final Logger log = Logger.getLogger(StatementTimings.class.getCanonicalName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    static final int BUCKETS        = 32;   // bucket n holds times < 2^n microseconds, the last catches the rest
+    static final int MAX_STATEMENTS = 500;  // SQL is normally constant text but don't grow forever if it isn't
+    static final int MAX_SLOW       = 50;
+    static final int MAX_ARG        = 100;
+    static final String OTHER       = "(other)";
+    static final long SAVE_MS       = 10000;
+    /** saved files older than this are from a process that has exited (or hung) */
+    public static final long STALE_MS = SAVE_MS * 6;
+    public static final String FILE_SUFFIX = "-timings.json";
+    public static final String RESET_FILE  = "timings.reset";
+
+    static class Histogram
+    {
+        final LongAdder[] buckets;
+        final LongAdder totalns;
+        final LongAccumulator maxns;
+
+        Histogram()
+        {
+            buckets = new LongAdder[BUCKETS];
+            for (int ii = 0; ii < BUCKETS; ii++)
+                buckets[ii] = new LongAdder();
+            totalns = new LongAdder();
+            maxns   = new LongAccumulator(Long::max, 0);
+        }
+
+        void record(long ns)
+        {
+            buckets[bucket(ns)].increment();
+            totalns.add(ns);
+            maxns.accumulate(ns);
+        }
+    }
+
+    /**
+     * Point in time copy of one statement's histogram, percentiles are the upper edge of the bucket they
+     * fall in (never more than the max), so they are accurate to within a factor of 2.
+     */
+    public static class Snapshot
+    {
+        public final String sql;
+        public final long count;
+        public final double totalms, meanms, p50ms, p95ms, p99ms, maxms;
+
+        Snapshot(String sql, Histogram h)
+        {
+            long[] b = new long[BUCKETS];
+            long n = 0;
+            for (int ii = 0; ii < BUCKETS; ii++)
+                n += (b[ii] = h.buckets[ii].sum());
+
+            this.sql     = sql;
+            this.count   = n;
+            this.maxms   = h.maxns.get() / 1e6;
+            this.totalms = h.totalns.sum() / 1e6;
+            this.meanms  = (n > 0) ? totalms / n : 0;
+            this.p50ms   = percentile(b, n, 0.50, maxms);
+            this.p95ms   = percentile(b, n, 0.95, maxms);
+            this.p99ms   = percentile(b, n, 0.99, maxms);
+        }
+
+        Snapshot(JsonNode n)
+        {
+            this.sql     = n.path("sql").asText();
+            this.count   = n.path("count").asLong();
+            this.totalms = n.path("totalms").asDouble();
+            this.meanms  = n.path("meanms").asDouble();
+            this.p50ms   = n.path("p50ms").asDouble();
+            this.p95ms   = n.path("p95ms").asDouble();
+            this.p99ms   = n.path("p99ms").asDouble();
+            this.maxms   = n.path("maxms").asDouble();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%8d %10.1f %8.2f %8.2f %8.2f %8.2f %8.2f  %s", count, totalms, meanms, p50ms, p95ms, p99ms, maxms, sql);
+        }
+    }
+
+    /**
+     * A statement that went over the threshold
+     */
+    public static class SlowQuery
+    {
+        public final long when;
+        public final double ms;
+        public final String sql, args, caller;
+
+        SlowQuery(double ms, String sql, String args, String caller)
+        {
+            this.when   = System.currentTimeMillis();
+            this.ms     = ms;
+            this.sql    = sql;
+            this.args   = args;
+            this.caller = caller;
+        }
+
+        SlowQuery(JsonNode n)
+        {
+            this.when   = n.path("when").asLong();
+            this.ms     = n.path("ms").asDouble();
+            this.sql    = n.path("sql").asText();
+            this.args   = n.path("args").asText();
+            this.caller = n.path("caller").asText();
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%.1fms from %s: %s %s", ms, caller, sql, args);
+        }
+    }
+
+    /**
+     * The timings another process (or this one) saved to the log directory
+     */
+    public static class Saved
+    {
+        public final String program;
+        public final long saved, slowcount;
+        public final List<Snapshot> statements;
+        public final List<SlowQuery> slow;
+
+        Saved(String program, JsonNode n)
+        {
+            this.program    = program;
+            this.saved      = n.path("saved").asLong();
+            this.slowcount  = n.path("slowcount").asLong();
+            this.statements = new ArrayList<Snapshot>();
+            this.slow       = new ArrayList<SlowQuery>();
+            for (JsonNode s : n.path("statements"))
+                statements.add(new Snapshot(s));
+            for (JsonNode q : n.path("slow"))
+                slow.add(new SlowQuery(q));
+        }
+
+        public String report()
+        {
+            return StatementTimings.report(statements, slowcount, slow);
+        }
+    }
+
+    private static StatementTimings process;
+
+    private final Map<String, Histogram> histograms;
+    private final ArrayDeque<SlowQuery> slow;
+    private final LongAdder slowcount;
+    private volatile long slowns;
+    private volatile long lastreset;
+
+    /**
+     * @param slowms statements taking at least this long are logged, 0 or less to turn off
+     */
+    public StatementTimings(int slowms)
+    {
+        histograms = new ConcurrentHashMap<String, Histogram>();
+        slow       = new ArrayDeque<SlowQuery>();
+        slowcount  = new LongAdder();
+        lastreset  = System.currentTimeMillis();
+        setSlowThreshold(slowms);
+    }
+
+    /**
+     * The timings shared by all database objects in this process.  The first call starts saving them to
+     * the log directory every SAVE_MS and at exit.
+     * @return the timings for this process
+     */
+    public static synchronized StatementTimings forProcess()
+    {
+        if (process == null)
+        {
+            final StatementTimings t = new StatementTimings(Prefs.getSlowQueryMs());
+            final Path dir  = Prefs.getLogDirectory();
+            final String name = System.getProperty("program.name", "Java").replaceAll("\\W", "");
+
+            Thread saver = new Thread(() -> {
+                while (true) {
+                    try {
+                        Thread.sleep(SAVE_MS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    t.saveQuietly(dir, name);
+                }
+            }, "StatementTimingsSaver");
+            saver.setDaemon(true);
+            saver.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> t.saveQuietly(dir, name)));
+            process = t;
+        }
+        return process;
+    }
+
+    public void setSlowThreshold(int slowms)
+    {
+        slowns = (slowms > 0) ? slowms * 1000000L : Long.MAX_VALUE;
+    }
+
+    static int bucket(long ns)
+    {
+        long us = ns / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us));
+    }
+
+    static double percentile(long[] buckets, long count, double p, double maxms)
+    {
+        if (count == 0)
+            return 0;
+        long target = (long)Math.ceil(count * p);
+        long seen = 0;
+        for (int ii = 0; ii < buckets.length; ii++) {
+            seen += buckets[ii];
+            if (seen >= target)
+                return (ii == buckets.length - 1) ? maxms : Math.min(maxms, (1L << ii) / 1000.0);
+        }
+        return maxms;
+    }
+
+    /**
+     * Record one execution
+     * @param sql the statement text, used as the key
+     * @param args the arguments, only looked at if the statement was slow
+     * @param ns the time taken in nanoseconds
+     */
+    public void record(String sql, List<?> args, long ns)
+    {
+        Histogram h = histograms.get(sql);
+        if (h == null)
+            h = histograms.computeIfAbsent((histograms.size() < MAX_STATEMENTS) ? sql : OTHER, k -> new Histogram());
+        h.record(ns);
+
+        if (ns >= slowns)
+            slowQuery(sql, args, ns);
+    }
+
+    private void slowQuery(String sql, List<?> args, long ns)
+    {
+        String caller = StackWalker.getInstance().walk(s -> s
+                .filter(f -> !f.getClassName().startsWith("org.wwscc.storage."))
+                .findFirst()
+                .map(f -> f.getClassName() + "." + f.getMethodName() + ":" + f.getLineNumber())
+                .orElse("unknown"));
+        String argtext = (args == null) ? "[]" : args.stream().map(a -> {
+                String s = String.valueOf(a);
+                return (s.length() > MAX_ARG) ? s.substring(0, MAX_ARG) + "..." : s;
+            }).collect(Collectors.joining(", ", "[", "]"));
+
+        SlowQuery q = new SlowQuery(ns / 1e6, sql, argtext, caller);
+        slowcount.increment();
+        synchronized (slow) {
+            slow.addLast(q);
+            if (slow.size() > MAX_SLOW)
+                slow.removeFirst();
+        }
+        log.info("Slow query " + q);
+    }
+
+    /**
+     * @return a copy of each statement's histogram, the most total time first
+     */
+    public List<Snapshot> snapshot()
+    {
+        List<Snapshot> ret = new ArrayList<Snapshot>();
+        for (Map.Entry<String, Histogram> e : histograms.entrySet())
+            ret.add(new Snapshot(e.getKey(), e.getValue()));
+        ret.sort(Comparator.comparingDouble((Snapshot s) -> s.totalms).reversed());
+        return ret;
+    }
+
+    /**
+     * @return the most recent slow queries, oldest first
+     */
+    public List<SlowQuery> getSlowQueries()
+    {
+        synchronized (slow) {
+            return new ArrayList<SlowQuery>(slow);
+        }
+    }
+
+    /**
+     * @return the number of slow queries seen, including those no longer in the recent list
+     */
+    public long getSlowCount()
+    {
+        return slowcount.sum();
+    }
+
+    public void reset()
+    {
+        lastreset = System.currentTimeMillis();
+        histograms.clear();
+        slowcount.reset();
+        synchronized (slow) {
+            slow.clear();
+        }
+    }
+
+    /**
+     * @return a text table of the histograms and recent slow queries
+     */
+    public String report()
+    {
+        return report(snapshot(), getSlowCount(), getSlowQueries());
+    }
+
+    static String report(List<Snapshot> statements, long slowcount, List<SlowQuery> slow)
+    {
+        StringBuilder ret = new StringBuilder();
+        ret.append(String.format("%8s %10s %8s %8s %8s %8s %8s  %s\n", "count", "total ms", "mean", "p50", "p95", "p99", "max", "statement"));
+        for (Snapshot s : statements)
+            ret.append(s).append("\n");
+        ret.append(String.format("\n%d slow queries\n", slowcount));
+        for (SlowQuery q : slow)
+            ret.append(String.format("%tT %s\n", q.when, q));
+        return ret.toString();
+    }
+
+    /**
+     * Write the current timings to dir/program-timings.json, replacing any previous file.  If a reset was
+     * requested since our last reset, the timings are reset first.
+     * @param dir the directory to write to, normally the log directory
+     * @param program the program name used for the file name
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path dir, String program) throws IOException
+    {
+        Path reset = dir.resolve(RESET_FILE);
+        if (Files.exists(reset) && (Files.getLastModifiedTime(reset).toMillis() > lastreset))
+            reset();
+
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("saved", System.currentTimeMillis());
+        root.put("slowcount", getSlowCount());
+        ArrayNode statements = root.putArray("statements");
+        for (Snapshot s : snapshot())
+            statements.add(objectMapper.valueToTree(s));
+        ArrayNode recent = root.putArray("slow");
+        for (SlowQuery q : getSlowQueries())
+            recent.add(objectMapper.valueToTree(q));
+
+        // write and rename so a reader never sees a partial file
+        Path file = dir.resolve(program + FILE_SUFFIX);
+        Path temp = dir.resolve(program + FILE_SUFFIX + ".tmp");
+        objectMapper.writeValue(temp.toFile(), root);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void saveQuietly(Path dir, String program)
+    {
+        try {
+            save(dir, program);
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Unable to save statement timings: " + ioe, ioe);
+        }
+    }
+
+    /**
+     * Load the timings saved by each process
+     * @param dir the directory to look in, normally the log directory
+     * @return the saved timings in program name order
+     */
+    public static List<Saved> loadAll(Path dir)
+    {
+        return loadAll(dir, 0);
+    }
+
+    /**
+     * Load the timings saved by each process that is still saving them
+     * @param dir the directory to look in, normally the log directory
+     * @param maxagems skip files saved longer ago than this, 0 or less to load everything
+     * @return the saved timings in program name order
+     */
+    public static List<Saved> loadAll(Path dir, long maxagems)
+    {
+        List<Saved> ret = new ArrayList<Saved>();
+        long oldest = (maxagems > 0) ? System.currentTimeMillis() - maxagems : Long.MIN_VALUE;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < oldest)
+                        continue; // don't bother parsing
+                    Saved s = new Saved(name.substring(0, name.length() - FILE_SUFFIX.length()), objectMapper.readTree(file.toFile()));
+                    if (s.saved >= oldest)
+                        ret.add(s);
+                } catch (IOException ioe) {
+                    log.log(Level.FINE, "Unable to read " + file + ": " + ioe);
+                }
+            }
+        } catch (IOException ioe) {
+            log.log(Level.FINE, "Unable to list statement timings: " + ioe);
+        }
+        ret.sort(Comparator.comparing((Saved s) -> s.program));
+        return ret;
+    }
+
+    /**
+     * Ask every process to reset its timings the next time it saves
+     * @param dir the directory the timings are saved in
+     * @throws IOException if the request file can't be written
+     */
+    public static void requestReset(Path dir) throws IOException
+    {
+        Files.write(dir.resolve(RESET_FILE), new byte[0]);
+    }
+}
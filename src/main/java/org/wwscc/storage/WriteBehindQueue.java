@@ -0,0 +1,458 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Write-behind queue for the high volume, insert only tables (localeventstream and timertimes).  Rows are
+ * queued by the caller and a background thread writes them in batches every few milliseconds or as soon as
+ * enough rows are waiting, in the order they were added.  If the database can't be reached, pending rows
+ * are appended to a spool file and replayed once the database is back.  Rows are always flushed for the
+ * series they were added under, the spool file records the series so rows for other series stay put.
+ */
+class WriteBehindQueue
+{
+    private static final Logger log = Logger.getLogger(WriteBehindQueue.class.getCanonicalName());
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    public static final long FLUSH_MS   = 10;
+    public static final int  BATCH_ROWS = 100;
+    public static final int  MAX_BATCH  = 1000;
+    public static final long RETRY_MS   = 5000;
+
+    /**
+     * The types of rows that can be queued, each knows its SQL and how to write its args to the spool file
+     */
+    enum Kind
+    {
+        EVENT("INSERT INTO localeventstream (etype, event, time) VALUES (?, ?, ?)") {
+            void encode(ArrayNode out, List<Object> args) {
+                out.add((String)args.get(0));
+                out.add((JsonNode)args.get(1));
+                out.add(((Timestamp)args.get(2)).getTime());
+            }
+            List<Object> decode(JsonNode in) {
+                return SQLDataInterface.newList(text(in.get(0)), object(in.get(1)), new Timestamp(in.get(2).asLong()));
+            }
+        },
+        TIMERTIME("INSERT INTO timertimes (timeid, course, raw, status, attr, modified) VALUES (?, ?, ?, ?, ?, ?)") {
+            void encode(ArrayNode out, List<Object> args) {
+                out.add(args.get(0).toString());
+                out.add((Integer)args.get(1));
+                out.add((Double)args.get(2));
+                out.add((String)args.get(3));
+                out.add((JsonNode)args.get(4));
+                out.add(((Timestamp)args.get(5)).getTime());
+            }
+            List<Object> decode(JsonNode in) {
+                return SQLDataInterface.newList(UUID.fromString(in.get(0).asText()), in.get(1).asInt(), in.get(2).asDouble(),
+                                                text(in.get(3)), object(in.get(4)), new Timestamp(in.get(5).asLong()));
+            }
+        };
+
+        static String text(JsonNode n)       { return n.isNull() ? null : n.asText(); }
+        static ObjectNode object(JsonNode n) { return n.isObject() ? (ObjectNode)n : null; }
+
+        final String sql;
+        Kind(String sql) { this.sql = sql; }
+        abstract void encode(ArrayNode out, List<Object> args);
+        abstract List<Object> decode(JsonNode in);
+    }
+
+    static class Row
+    {
+        final Kind kind;
+        final String series;
+        final List<Object> args;
+        Row(Kind kind, String series, List<Object> args)
+        {
+            this.kind   = kind;
+            this.series = series;
+            this.args   = args;
+        }
+    }
+
+    /**
+     * Snapshot of the queue counters for reporting
+     */
+    public static class Stats
+    {
+        public int depth;
+        public boolean spooling;
+        public long added, written, batches, spooled, replayed, dropped;
+        public double avgflushms, maxflushms;
+
+        @Override
+        public String toString()
+        {
+            return String.format("writebehind depth=%d spooling=%s added=%d written=%d batches=%d (avg %.2fms, max %.2fms) spooled=%d replayed=%d dropped=%d",
+                        depth, spooling, added, written, batches, avgflushms, maxflushms, spooled, replayed, dropped);
+        }
+    }
+
+    private final SQLDataInterface db;
+    private final Supplier<String> series;
+    private final Path spool;
+    private final ArrayDeque<Row> pending;
+    private final Thread flusher;
+    private volatile boolean done;
+    private boolean spooling;
+    private long lastretry;
+
+    private long added, written, batches, spooled, replayed, dropped, totalflushns, maxflushns;
+
+    /**
+     * @param db the database to write to
+     * @param series supplies the currently active series
+     * @param spool the file to use when the database is unavailable, replayed at startup if present
+     */
+    WriteBehindQueue(SQLDataInterface db, Supplier<String> series, Path spool)
+    {
+        this.db       = db;
+        this.series   = series;
+        this.spool    = spool;
+        this.pending  = new ArrayDeque<Row>();
+        this.done     = false;
+        this.spooling = Files.exists(spool);
+        this.lastretry = 0;
+
+        flusher = new Thread(this::loop, "WriteBehindQueue");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Queue a row to be written
+     * @param kind the type of row
+     * @param args the args for the kind's SQL
+     */
+    void add(Kind kind, List<Object> args)
+    {
+        synchronized (pending)
+        {
+            pending.addLast(new Row(kind, series.get(), args));
+            added++;
+            if (pending.size() >= BATCH_ROWS)
+                pending.notify();
+        }
+    }
+
+    /**
+     * Write everything currently queued before returning, i.e. before changing series
+     */
+    void flush()
+    {
+        synchronized (this)
+        {
+            flushPending();
+        }
+    }
+
+    /**
+     * Stop the background thread and write or spool anything still queued
+     */
+    void close()
+    {
+        done = true;
+        flusher.interrupt();
+        try {
+            flusher.join(2000);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this)
+        {
+            flushPending();
+            if (spooling) // don't leave anything in memory when the database object is gone
+                spoolRows(drain(Integer.MAX_VALUE));
+        }
+        log.info("Closed " + getStats());
+    }
+
+    public Stats getStats()
+    {
+        Stats s = new Stats();
+        synchronized (pending)
+        {
+            s.depth = pending.size();
+            s.added = added;
+        }
+        synchronized (this)
+        {
+            s.spooling   = spooling;
+            s.written    = written;
+            s.batches    = batches;
+            s.spooled    = spooled;
+            s.replayed   = replayed;
+            s.dropped    = dropped;
+            s.avgflushms = (batches > 0) ? totalflushns / (batches * 1e6) : 0;
+            s.maxflushms = maxflushns / 1e6;
+        }
+        return s;
+    }
+
+    private void loop()
+    {
+        while (!done)
+        {
+            synchronized (pending)
+            {
+                try {
+                    if (pending.size() < BATCH_ROWS)
+                        pending.wait(FLUSH_MS);
+                } catch (InterruptedException ie) {
+                    continue;
+                }
+            }
+
+            synchronized (this)
+            {
+                flushPending();
+            }
+        }
+    }
+
+    private List<Row> drain(int max)
+    {
+        List<Row> ret = new ArrayList<Row>();
+        synchronized (pending)
+        {
+            while ((ret.size() < max) && !pending.isEmpty())
+                ret.add(pending.pollFirst());
+        }
+        return ret;
+    }
+
+    /**
+     * Called with this locked, writes pending rows to the database or to the spool file if we are spooling
+     */
+    private void flushPending()
+    {
+        if (spooling && (System.currentTimeMillis() - lastretry > RETRY_MS))
+        {
+            lastretry = System.currentTimeMillis();
+            replay();
+        }
+
+        List<Row> batch;
+        while (!(batch = drain(MAX_BATCH)).isEmpty())
+        {
+            if (spooling) {
+                spoolRows(batch);
+                continue;
+            }
+
+            try {
+                write(batch);
+            } catch (SQLException sqle) {
+                if (isConnectionError(sqle)) {
+                    log.log(Level.WARNING, "Database unavailable, spooling rows to {0}: {1}", new Object[] { spool, sqle });
+                    spooling = true;
+                    lastretry = System.currentTimeMillis();
+                    spoolRows(batch);
+                } else {
+                    writeIndividually(batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a batch in a single transaction, consecutive rows of the same kind are grouped into one batch update
+     */
+    private void write(List<Row> batch) throws SQLException
+    {
+        long start = System.nanoTime();
+        String current = series.get();
+        int count = 0, skipped = 0;
+        try {
+            db.start();
+            int ii = 0;
+            while (ii < batch.size())
+            {
+                Kind kind = batch.get(ii).kind;
+                List<List<Object>> group = new ArrayList<List<Object>>();
+                for (; (ii < batch.size()) && (batch.get(ii).kind == kind); ii++)
+                {
+                    Row r = batch.get(ii);
+                    if ((r.series != null) && r.series.equals(current))
+                        group.add(r.args);
+                    else
+                        skipped++; // series changed without a flush, nowhere to put it
+                }
+                if (group.size() > 0)
+                    db.executeGroupUpdate(kind.sql, group, MAX_BATCH);
+                count += group.size();
+            }
+            db.commit();
+        } catch (SQLException sqle) {
+            db.rollback();
+            throw sqle;
+        }
+
+        long took = System.nanoTime() - start;
+        written += count;
+        dropped += skipped;
+        batches++;
+        totalflushns += took;
+        maxflushns = Math.max(maxflushns, took);
+    }
+
+    /**
+     * Something in the batch was bad, write the rows one at a time so the good ones make it in
+     */
+    private void writeIndividually(List<Row> batch)
+    {
+        String current = series.get();
+        for (Row r : batch)
+        {
+            if ((r.series == null) || !r.series.equals(current))
+            {
+                dropped++;
+                continue;
+            }
+            try {
+                db.executeUpdate(r.kind.sql, r.args);
+                written++;
+            } catch (SQLException sqle) {
+                log.log(Level.WARNING, "Dropping queued " + r.kind + " row: " + sqle, sqle);
+                dropped++;
+            }
+        }
+    }
+
+    private static boolean isConnectionError(SQLException sqle)
+    {
+        String state = sqle.getSQLState();
+        // pool timeouts have no state, 08 is connection exceptions, 57P is operator intervention (shutdown)
+        return (state == null) || state.startsWith("08") || state.startsWith("57P");
+    }
+
+    private void spoolRows(List<Row> rows)
+    {
+        if (rows.isEmpty())
+            return;
+        try (BufferedWriter w = Files.newBufferedWriter(spool, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND))
+        {
+            for (Row r : rows)
+            {
+                ObjectNode line = objectMapper.createObjectNode();
+                line.put("kind", r.kind.name());
+                line.put("series", r.series);
+                r.kind.encode(line.putArray("args"), r.args);
+                w.write(objectMapper.writeValueAsString(line));
+                w.newLine();
+            }
+            spooled += rows.size();
+        } catch (IOException ioe) {
+            log.log(Level.SEVERE, "\bUnable to spool " + rows.size() + " timer/event rows to " + spool + ": " + ioe, ioe);
+            dropped += rows.size();
+        }
+    }
+
+    /**
+     * Try to write everything from the spool file for the current series, rows for other series are kept
+     */
+    private void replay()
+    {
+        List<Row> mine = new ArrayList<Row>();
+        List<String> others = new ArrayList<String>();
+        String current = series.get();
+
+        if (Files.exists(spool))
+        {
+            try (BufferedReader r = Files.newBufferedReader(spool, StandardCharsets.UTF_8))
+            {
+                String line;
+                while ((line = r.readLine()) != null)
+                {
+                    if (line.trim().isEmpty())
+                        continue;
+                    JsonNode n = objectMapper.readTree(line);
+                    String s = n.path("series").asText(null);
+                    if ((s != null) && s.equals(current)) {
+                        Kind k = Kind.valueOf(n.get("kind").asText());
+                        mine.add(new Row(k, s, k.decode(n.get("args"))));
+                    } else
+                        others.add(line);
+                }
+            } catch (Exception e) {
+                quarantine("unreadable spool file: " + e);
+                return;
+            }
+        }
+
+        try {
+            // one transaction so a failure part way through doesn't leave rows that would be duplicated on the next try
+            if (mine.size() > 0)
+                write(mine);
+        } catch (SQLException sqle) {
+            if (isConnectionError(sqle)) {
+                log.log(Level.FINE, "Database still unavailable for spool replay: {0}", sqle.toString());
+                return;
+            }
+            quarantine("replay failed: " + sqle);
+            return;
+        }
+
+        replayed += mine.size();
+        try {
+            if (others.isEmpty()) {
+                Files.deleteIfExists(spool);
+            } else {
+                Path tmp = spool.resolveSibling(spool.getFileName() + ".tmp");
+                Files.write(tmp, others, StandardCharsets.UTF_8);
+                Files.move(tmp, spool, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "Unable to update spool file after replay: " + ioe, ioe);
+        }
+        if (mine.size() > 0)
+            log.info(String.format("Replayed %d spooled rows (%d kept for other series)", mine.size(), others.size()));
+        spooling = false;
+    }
+
+    /**
+     * Move a spool file we can't process out of the way so it doesn't block new rows, it can be inspected by hand
+     */
+    private void quarantine(String why)
+    {
+        Path bad = spool.resolveSibling(spool.getFileName() + "." + TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + ".failed");
+        log.log(Level.SEVERE, "\bUnable to replay spooled timer/event rows ({0}), moved to {1}", new Object[] { why, bad });
+        try {
+            Files.move(spool, bad);
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "Unable to move spool file: " + ioe, ioe);
+        }
+        spooling = false;
+    }
+}
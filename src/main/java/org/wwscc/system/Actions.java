@@ -32,6 +32,7 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.wwscc.dialogs.ListDialog;
 import org.wwscc.dialogs.MergeServerConfigDialog;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.MergeServer;
 import org.wwscc.util.EventSendAction;
@@ -50,7 +51,7 @@ public class Actions
     Action debugRequest, backupRequest, importRequest, loadCertsRequest, mergeAll, mergeWith, downloadSeries, clearOld, makeActive, makeInactive;
     Action openSystemLog;
     Action deleteServer, addServer, serverConfig, initServers, deleteSeries, changeSeriesPassword, discovery, resetHash, quit, openStatus;
-    Action skip53, skip80;
+    Action skip53, skip80, fastCompression, incrementalBackups, statementTimings;
 
     public Actions()
     {
@@ -87,6 +88,9 @@ public class Actions
         resetHash      = addAction(new ResetHashAction());
         skip53         = addAction(new Skip53Action());
         skip80         = addAction(new Skip80Action());
+        fastCompression = new FastCompressionAction();
+        incrementalBackups = new IncrementalBackupsAction();
+        statementTimings = new StatementTimingsAction();
 
         backendReady(false);
         Messenger.register(MT.BACKEND_CONTAINERS, (type, data) -> backendReady(((String)data).contains("db")));
@@ -227,6 +231,21 @@ public class Actions
         protected void onChange(boolean on) { Prefs.setSkip80(on); }
     }
 
+    static class FastCompressionAction extends BooleanPrefAction {
+        public FastCompressionAction() { super("Fast Backup Compression ", Prefs.useFastCompression()); }
+        protected void onChange(boolean on) { Prefs.setFastCompression(on); }
+    }
+
+    static class IncrementalBackupsAction extends BooleanPrefAction {
+        public IncrementalBackupsAction() { super("Incremental Backups ", Prefs.useIncrementalBackups()); }
+        protected void onChange(boolean on) { Prefs.setIncrementalBackups(on); }
+    }
+
+    static class StatementTimingsAction extends BooleanPrefAction {
+        public StatementTimingsAction() { super("Database Timings ", Prefs.showStatementTimings()); }
+        protected void onChange(boolean on) { Prefs.setStatementTimings(on); }
+    }
+
     static class ClearOldDiscoveredAction extends AbstractAction
     {
         public ClearOldDiscoveredAction() {
@@ -475,7 +494,7 @@ public class Actions
 
             // inactive all
             Database.d.mergeServerInactivateAll();
-            Messenger.sendEvent(MT.DATABASE_NOTIFICATION, "mergeservers");
+            Messenger.sendEvent(MT.DATABASE_NOTIFICATION, new ChangeEvent("mergeservers"));
         }
     }
 }
@@ -9,7 +9,6 @@
 package org.wwscc.system;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
@@ -19,6 +18,7 @@ import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import org.wwscc.dialogs.StatusDialog;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Database;
 import org.wwscc.system.docker.DockerAPI;
 import org.wwscc.system.docker.DockerAPI.DemuxedStreams;
@@ -37,6 +37,7 @@ public class ContainerMonitor extends MonitorBase
 {
     private static final Logger log = Logger.getLogger(ContainerMonitor.class.getName());
 
+    public static final long   INCREMENT_MS = 5*60*1000;
     public static final String NET_NAME  = volname("net1");
     public static final String CERTS_VOL = "certs";
     public static final String DB_IMAGE  = "drytoastman/scdb:"+Prefs.getFullVersion();
@@ -49,6 +50,8 @@ public class ContainerMonitor extends MonitorBase
     private BroadcastState<String> containers;
     private Path importRequestFile, newCertsFile;
     private BackupRequest backupRequest;
+    private IncrementalBackup incremental;
+    private long lastincrement;
     private boolean machineready; // , restartsync;
     private String lastcheck;
 
@@ -76,6 +79,11 @@ public class ContainerMonitor extends MonitorBase
         lastcheck    = "";
         backupRequest = null;
         importRequestFile = null;
+        incremental  = new IncrementalBackup((sql, out) -> {
+            if (docker.execStream(db.getName(), out, "psql", "-U", "postgres", "-d", "scorekeeper", "-X", "-q", "-c", sql) != 0)
+                throw new IOException("psql export failed");
+        });
+        lastincrement = System.currentTimeMillis();
 
         db = new DockerContainer(conname("db"), DB_IMAGE, NET_NAME);
         db.addVolume(volname("database"),  "/var/lib/postgresql/data");
@@ -239,7 +247,7 @@ public class ContainerMonitor extends MonitorBase
             if (done) return;
 
             Database.openPublic(true, 5000, Arrays.asList("mergeservers"));
-            Messenger.sendEvent(MT.DATABASE_NOTIFICATION, "mergeservers");
+            Messenger.sendEvent(MT.DATABASE_NOTIFICATION, new ChangeEvent("mergeservers"));
             Messenger.sendEvent(MT.CERT_FINGERPRINT, getFingerprint());
         }
 
@@ -250,6 +258,11 @@ public class ContainerMonitor extends MonitorBase
             status.set(down.stream().map(e -> e.shortName()).collect(Collectors.joining(",")));
 
         lastcheck = containers.get();
+
+        if (Prefs.useIncrementalBackups() && !external_backend && (down.size() == 0) && (System.currentTimeMillis() - lastincrement > INCREMENT_MS)) {
+            doIncrement();
+            lastincrement = System.currentTimeMillis();
+        }
     }
 
     public void mshutdown()
@@ -285,11 +298,20 @@ public class ContainerMonitor extends MonitorBase
         dialog.setStatus("Preparing to import ...", -1);
         status.set("Preparing to import");
 
-        try {
-            importfile = ImportExportFunctions.extractSql(importfile);
-            ImportExportFunctions.checkSchema(importfile);
+        // stream the sql straight into the container while checking the schema, the server is
+        // only stopped once we know the data is acceptable
+        String name = db.getName();
+        String sqlfile = null;
+        try (ImportExportFunctions.SqlSource sql = ImportExportFunctions.openImport(importfile)) {
+            sqlfile = "/tmp/" + sql.name;
+            dialog.setStatus("Uploading ...", -1);
+            log.info("uploading "  + importfile);
+            docker.uploadStream(name, "/tmp", sql.name, sql.size, sql.in);
         } catch (IOException ioe) {
-            dialog.setStatus("File Error: " + ioe, 100);
+            dialog.setStatus("File Error: " + ioe.getMessage(), 100);
+            log.log(Level.INFO, "Import upload failed: " + ioe, ioe);
+            if (sqlfile != null) // remove anything left by a partial upload
+                try { docker.exec(name, "rm", "-f", sqlfile); } catch (IOException e) {}
             return;
         }
 
@@ -300,13 +322,12 @@ public class ContainerMonitor extends MonitorBase
         status.set("Importing ...");
         log.info("importing "  + importfile);
 
-        String name = db.getName();
         boolean success = false;
         try {
-            docker.uploadFile(name, importfile, "/tmp");
-            if (docker.exec(name, "ash", "-c", "psql -U postgres -f /tmp/"+importfile.getFileName()+" &> /tmp/import.log") == 0) {
+            if (docker.exec(name, "ash", "-c", "psql -U postgres -f "+sqlfile+" &> /tmp/import.log") == 0) {
                 success = docker.exec(name, "ash", "-c", "/dbconversion-scripts/upgrade.sh /dbconversion-scripts >> /tmp/import.log 2>&1") == 0;
             }
+            docker.exec(name, "rm", "-f", sqlfile);
             docker.downloadTo(name, "/tmp/import.log", Prefs.getLogDirectory());
         } catch (Exception e) {
             log.log(Level.WARNING, "Failure in restoring from backup: " + e, e);
@@ -346,16 +367,27 @@ public class ContainerMonitor extends MonitorBase
         status.set("Backing up database");
         try {
             Path finalpath = ImportExportFunctions.backupName(request.directory);
-            if (docker.exec(db.getName(), "pg_dumpall", "-U", "postgres", "-c", "-f", "/tmp/dump") != 0)
-                throw new IOException("pg_dump failed");
-
-            Path dumpdir = Files.createTempDirectory("backupwork");
-            Path dumpfile = dumpdir.resolve("dump");
-            docker.downloadTo(db.getName(), "/tmp/dump", dumpdir);
+            String mark = null;
+            try {
+                mark = incremental.currentMark();
+            } catch (IOException ioe) {
+                log.log(Level.INFO, "Unable to get mark, increments won't be based on this backup: " + ioe);
+            }
 
-            ImportExportFunctions.processBackup(dumpfile, finalpath, request.compress);
-            Files.delete(dumpfile);
-            Files.delete(dumpdir);
+            final StatusDialog d = dialog;
+            long size = ImportExportFunctions.streamBackup(out -> {
+                    // pg_dumpall output goes straight into the backup file, no copies in the container or temp dirs
+                    if (docker.execStream(db.getName(), out, "pg_dumpall", "-U", "postgres", "-c") != 0)
+                        throw new IOException("pg_dump failed");
+                }, finalpath, request.compress, bytes -> {
+                    String msg = String.format("Backing up database ... %.1f MB", bytes/1048576.0);
+                    status.set(msg);
+                    if (d != null)
+                        d.setStatus(msg, -1);
+                });
+            log.info(String.format("Backup to %s complete, %.1f MB uncompressed", finalpath, size/1048576.0));
+            if (mark != null)
+                IncrementalBackup.fullBackupTaken(request.directory, request.compress ? finalpath.resolveSibling(finalpath.getFileName() + ".zip") : finalpath, mark);
 
             if (request.usedialog)
                 dialog.setStatus("Backup Complete", 100);
@@ -370,6 +402,31 @@ public class ContainerMonitor extends MonitorBase
         }
     }
 
+    /**
+     * Export the rows changed since the last backup, if there is no full backup to start from, take one
+     */
+    private void doIncrement()
+    {
+        Path dir = Prefs.getBackupDirectory();
+        try {
+            if (IncrementalBackup.readState(dir) == null) {
+                BackupRequest request = new BackupRequest();
+                request.directory = dir;
+                request.compress  = true;
+                request.usedialog = false;
+                doBackup(request);
+                return;
+            }
+
+            status.set("Incremental backup");
+            long start = System.currentTimeMillis();
+            Path p = incremental.takeIncrement(dir);
+            log.info(String.format("Incremental backup %s took %dms", p.getFileName(), System.currentTimeMillis() - start));
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Incremental backup failed: " + e, e);
+        }
+    }
+
     public boolean copyLogs(Path dir)
     {
         try {
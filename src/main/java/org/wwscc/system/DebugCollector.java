@@ -8,6 +8,7 @@
 
 package org.wwscc.system;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -24,15 +25,15 @@ import java.util.Date;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 import javax.swing.FocusManager;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.ProgressMonitor;
+import org.wwscc.storage.StatementTimings;
 import org.wwscc.system.docker.DockerMachine;
 import org.wwscc.util.Network;
+import org.wwscc.util.ParallelZipOutputStream;
 import org.wwscc.util.Prefs;
 
 public class DebugCollector extends Thread
@@ -108,6 +109,13 @@ public class DebugCollector extends Thread
                 out.write(String.format("%20s = %s\n", "Hostname", Network.getLocalHostName()));
                 cmonitor.getDockerAPI().dump(out);
             }
+            try (OutputStreamWriter out = new OutputStreamWriter(Files.newOutputStream(temp.resolve("statementtimings.txt")))) {
+                for (StatementTimings.Saved saved : StatementTimings.loadAll(Prefs.getLogDirectory())) {
+                    out.write(String.format("=== %s (saved %tc) ===\n", saved.program, saved.saved));
+                    out.write(saved.report());
+                    out.write("\n");
+                }
+            }
             monitor.setProgress(20);
 
             monitor.setNote("copying backend files");
@@ -153,25 +161,23 @@ public class DebugCollector extends Thread
      */
     private void zipfiles(Path relative, File dest) throws IOException
     {
-        FileOutputStream fos = new FileOutputStream(dest);
-        ZipOutputStream zos = new ZipOutputStream(fos);
-        for (Path p : files) {
-            try {
-                Path file = relative.relativize(p);
-                if (file.startsWith("..")) {
-                    file = p.getFileName();
-                }
-                if (file != null) {
-                    zos.putNextEntry(new ZipEntry(file.toString()));
-                    Files.copy(p, zos);
+        try (ParallelZipOutputStream zos = new ParallelZipOutputStream(new BufferedOutputStream(new FileOutputStream(dest), 65536), Prefs.useFastCompression())) {
+            for (Path p : files) {
+                try {
+                    Path file = relative.relativize(p);
+                    if (file.startsWith("..")) {
+                        file = p.getFileName();
+                    }
+                    if (file != null) {
+                        zos.putNextEntry(file.toString());
+                        Files.copy(p, zos);
+                    }
+                } catch (IOException ioe) {
+                    log.warning("\bUnable to archive " + p);
                 }
-            } catch (IOException ioe) {
-                log.warning("\bUnable to archive " + p);
+                zos.closeEntry();
             }
-            zos.closeEntry();
         }
-        zos.close();
-        fos.close();
     }
 
     /**
@@ -1,79 +1,193 @@
 package org.wwscc.system;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.Scanner;
+import java.util.function.LongConsumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import org.wwscc.storage.Database;
+import org.wwscc.util.ParallelZipOutputStream;
+import org.wwscc.util.Prefs;
 
 public class ImportExportFunctions
 {
+    /**
+     * An open .sql stream, the size is known ahead of time so it can be streamed into a tar upload
+     */
+    public static class SqlSource implements Closeable
+    {
+        public final String name;
+        public final long size;
+        public final InputStream in;
+        private final Closeable resource;
+
+        SqlSource(String name, long size, InputStream in, Closeable resource)
+        {
+            this.name     = name;
+            this.size     = size;
+            this.in       = in;
+            this.resource = resource;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                in.close();
+            } finally {
+                if (resource != null)
+                    resource.close();
+            }
+        }
+    }
+
     /*
-     *  If file is a zip, extract any enclosed .sql file.  Either way,
-     *  verify that the result is a .sql file.
+     *  If file is a zip, open the first enclosed .sql file without extracting it.  If it is an incremental
+     *  backup, render the base backup and increments into one temporary .sql file (the size isn't known
+     *  until it is rendered).  Either way, verify that the result is a .sql file.
      */
-    public static Path extractSql(Path importfile) throws IOException
+    static SqlSource openSql(Path importfile) throws IOException
     {
+        if (IncrementalBackup.readManifest(importfile) != null) {
+            Path sql = Files.createTempDirectory("scimport").resolve(importfile.getFileName() + ".sql");
+            IncrementalBackup.restore(importfile, sql);
+            return new SqlSource(sql.getFileName().toString(), Files.size(sql), Files.newInputStream(sql), () -> {
+                Files.deleteIfExists(sql);
+                Files.deleteIfExists(sql.getParent());
+            });
+        }
+
         if (importfile.toString().toLowerCase().endsWith(".zip")) {
-            Path tempdir = Files.createTempDirectory("scimport");
-            Path foundsql;
-    fileok: try (ZipFile zip = new ZipFile(importfile.toFile())) {
+            ZipFile zip = new ZipFile(importfile.toFile());
+            try {
                 Enumeration<? extends ZipEntry> entries = zip.entries();
                 while (entries.hasMoreElements()) {
                     ZipEntry entry = entries.nextElement();
-                    if (entry.getName().endsWith(".sql")) {
-                        foundsql = tempdir.resolve(entry.getName());
-                        Files.copy(zip.getInputStream(entry), foundsql);
-                        break fileok;
+                    if (entry.getName().endsWith(".sql") && (entry.getSize() >= 0)) {
+                        String name = Paths.get(entry.getName()).getFileName().toString();
+                        return new SqlSource(name, entry.getSize(), zip.getInputStream(entry), zip);
                     }
                 }
-                throw new IOException("No sql file found in zip file");
+            } catch (IOException ioe) {
+                zip.close();
+                throw ioe;
             }
-
-            importfile = foundsql;
+            zip.close();
+            throw new IOException("No sql file found in zip file");
         }
 
         if (!importfile.toString().toLowerCase().endsWith(".sql")) {
             throw new IOException("Data is not a sql file");
         }
 
-        return importfile;
+        return new SqlSource(importfile.getFileName().toString(), Files.size(importfile), Files.newInputStream(importfile), null);
     }
 
     /**
-     * Check the schema version:
+     * Open the .sql data for import, the stream checks the schema version as it is read and
+     * throws an IOException as soon as it sees an old schema or reaches the end without one.
+     */
+    public static SqlSource openImport(Path importfile) throws IOException
+    {
+        SqlSource src = openSql(importfile);
+        return new SqlSource(src.name, src.size, new SchemaCheckInputStream(src.in), src);
+    }
+
+    /**
+     * Check the schema version as the data passes through:
      * looking for lines like the following for the version table:
      * COPY version (id, version, modified) FROM stdin;
      * 1 20180106 2017-11-17 05:32:37.805896
-     * @throws IOException
      */
-    public static void checkSchema(Path importfile) throws IOException
+    static class SchemaCheckInputStream extends FilterInputStream
     {
-fileok: try (Scanner scan = new Scanner(importfile)) {
-            boolean mark = false;
-            while (scan.hasNextLine()) {
-                if (mark) {
-                    scan.next(); // id
-                    int schema = scan.nextInt();
-                    if (schema < 20191023)
-                        throw new IOException("Unable to import backups with schema earlier than 2018-10-23, selected file is " + schema);
-                    break fileok;
+        static final int MINSCHEMA = 20191023;
+        static final int MAXLINE   = 128;  // only the start of each line matters
+
+        StringBuilder line;
+        boolean mark, verified;
+        int schema;
+
+        SchemaCheckInputStream(InputStream in)
+        {
+            super(in);
+            line = new StringBuilder();
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b < 0)
+                atEnd();
+            else if (!verified)
+                scan((byte)b);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = in.read(b, off, len);
+            if (n < 0)
+                atEnd();
+            for (int ii = 0; (ii < n) && !verified; ii++)
+                scan(b[off+ii]);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            throw new IOException("skip would bypass the schema check");
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        private void scan(byte b) throws IOException
+        {
+            if (b != '\n') {
+                if (line.length() < MAXLINE)
+                    line.append((char)(b & 0xFF));
+                return;
+            }
+
+            if (mark) {
+                String[] fields = line.toString().trim().split("\\s+");
+                try {
+                    schema = Integer.parseInt(fields[1]);
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    throw new IOException("Unable to read schema version from: " + line);
                 }
-                String line = scan.nextLine();
-                if (line.startsWith("COPY public.version"))
-                    mark = true;
+                if (schema < MINSCHEMA)
+                    throw new IOException("Unable to import backups with schema earlier than 2019-10-23, selected file is " + schema);
+                verified = true;
             }
-            throw new IOException("No schema version found in file.");
+            mark = line.indexOf("COPY public.version") == 0;
+            line.setLength(0);
+        }
+
+        private void atEnd() throws IOException
+        {
+            if (!verified)
+                throw new IOException("No schema version found in file.");
         }
     }
 
@@ -86,24 +200,96 @@ fileok: try (Scanner scan = new Scanner(importfile)) {
     }
 
 
+    /**
+     * Something that writes the SQL dump, i.e. a pg_dumpall exec or an existing dump file
+     */
+    public interface DumpSource
+    {
+        public void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Counts the bytes written and reports them at most once every PROGRESS_BYTES
+     */
+    static class CountingOutputStream extends FilterOutputStream
+    {
+        static final long PROGRESS_BYTES = 4*1024*1024;
+        long count, reported;
+        LongConsumer progress;
+
+        CountingOutputStream(OutputStream out, LongConsumer progress)
+        {
+            super(out);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            counted(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            counted(len);
+        }
+
+        private void counted(int len)
+        {
+            count += len;
+            if ((progress != null) && (count - reported >= PROGRESS_BYTES)) {
+                reported = count;
+                progress.accept(count);
+            }
+        }
+    }
+
     public static void processBackup(Path dumpfile, Path destfile, boolean compress) throws IOException
     {
-        OutputStream out;
-        if (compress) {
-            File zipname = destfile.resolveSibling(destfile.getFileName() + ".zip").toFile();
-            out = new ZipOutputStream(new FileOutputStream(zipname));
-            ((ZipOutputStream)out).putNextEntry(new ZipEntry(destfile.getFileName().toString()));
-        } else {
-            out = new FileOutputStream(destfile.toFile());
-        }
-
-        out.write("UPDATE pg_database SET datallowconn = 'false' WHERE datname = 'scorekeeper';\n".getBytes());
-        out.write("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = 'scorekeeper';\n".getBytes());
-        Files.copy(dumpfile, out);
-        out.write("UPDATE pg_database SET datallowconn = 'true' WHERE datname = 'scorekeeper';\n".getBytes());
-
-        if (compress)
-            ((ZipOutputStream)out).closeEntry();
-        out.close();
+        streamBackup(out -> Files.copy(dumpfile, out), destfile, compress, null);
+    }
+
+    /**
+     * Write the dump wrapped with the connection blocking header/footer directly into the (possibly compressed)
+     * backup file.  The data goes to a partial file that is renamed when complete so a failed backup doesn't
+     * leave something that looks valid.
+     * @param source writes the dump data
+     * @param destfile the .sql file name, .zip is appended if compressing
+     * @param compress true to write a zip file
+     * @param progress called with the number of uncompressed bytes written so far, may be null
+     * @return the number of uncompressed bytes written
+     * @throws IOException
+     */
+    public static long streamBackup(DumpSource source, Path destfile, boolean compress, LongConsumer progress) throws IOException
+    {
+        Path finalpath = compress ? destfile.resolveSibling(destfile.getFileName() + ".zip") : destfile;
+        Path partial   = finalpath.resolveSibling(finalpath.getFileName() + ".partial");
+
+        CountingOutputStream counter;
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(partial), 65536)) {
+            OutputStream out = file;
+            if (compress) {
+                out = new ParallelZipOutputStream(file, Prefs.useFastCompression());
+                ((ParallelZipOutputStream)out).putNextEntry(destfile.getFileName().toString(), true);
+            }
+            counter = new CountingOutputStream(out, progress);
+
+            counter.write("UPDATE pg_database SET datallowconn = 'false' WHERE datname = 'scorekeeper';\n".getBytes());
+            counter.write("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = 'scorekeeper';\n".getBytes());
+            source.writeTo(counter);
+            counter.write("UPDATE pg_database SET datallowconn = 'true' WHERE datname = 'scorekeeper';\n".getBytes());
+
+            if (compress)
+                ((ParallelZipOutputStream)out).finish();
+        } catch (IOException ioe) {
+            Files.deleteIfExists(partial);
+            throw ioe;
+        }
+
+        Files.move(partial, finalpath, StandardCopyOption.REPLACE_EXISTING);
+        return counter.count;
     }
 }
@@ -0,0 +1,361 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.system;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.wwscc.util.ParallelZipOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Backups of only the rows changed since the last backup.  A full backup records a high-water mark (the
+ * database's localtimestamp when the dump started) in incremental.json in the backup directory.  Each increment
+ * exports the rows of every table with a modified column at or after that mark, and the rows deleted since then
+ * from the serieslog/publiclog tables.  Each table is written as a COPY file, along with a manifest, and then
+ * the mark is moved forward.  Restoring renders the base backup plus each increment in order into one SQL file
+ * for the regular import.
+ */
+public class IncrementalBackup
+{
+    private static final Logger log = Logger.getLogger(IncrementalBackup.class.getCanonicalName());
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static final String STATE_FILE = "incremental.json";
+    public static final String MANIFEST   = "manifest.json";
+    /** overlap with the previous increment to catch transactions that started before the mark but committed after */
+    public static final int OVERLAP_SECONDS = 60;
+
+    /**
+     * Runs COPY ... TO STDOUT as the database superuser, i.e. psql via docker exec
+     */
+    public interface Exporter
+    {
+        public void copyOut(String sql, OutputStream out) throws IOException;
+    }
+
+    /** The persisted high-water mark */
+    public static class State
+    {
+        public String base;
+        public String mark;
+        public int sequence;
+    }
+
+    public static class TableInfo
+    {
+        public String schema;
+        public String table;
+        public List<String> key;
+        public String file;
+        public long rows;
+        public String deletedfile;
+        public long deleted;
+    }
+
+    public static class Manifest
+    {
+        public int format = 1;
+        public String base;
+        public int sequence;
+        public String since;
+        public String mark;
+        public List<TableInfo> tables = new ArrayList<TableInfo>();
+    }
+
+    private final Exporter exporter;
+
+    public IncrementalBackup(Exporter exporter)
+    {
+        this.exporter = exporter;
+    }
+
+    private List<String[]> query(String select) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.copyOut("COPY (" + select + ") TO STDOUT", out);
+        List<String[]> ret = new ArrayList<String[]>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n"))
+            if (!line.isEmpty())
+                ret.add(line.split("\t", -1));
+        return ret;
+    }
+
+    /**
+     * @return the current database time to use as a mark
+     */
+    public String currentMark() throws IOException
+    {
+        List<String[]> r = query("SELECT localtimestamp");
+        if (r.isEmpty())
+            throw new IOException("Unable to read database time");
+        return r.get(0)[0];
+    }
+
+    /**
+     * Record that a full backup was taken, increments after this are based on it
+     * @param directory the backup directory
+     * @param base the file name of the full backup
+     * @param mark the mark taken before the dump started
+     */
+    public static void fullBackupTaken(Path directory, Path base, String mark) throws IOException
+    {
+        State s = new State();
+        s.base     = base.getFileName().toString();
+        s.mark     = mark;
+        s.sequence = 0;
+        mapper.writeValue(directory.resolve(STATE_FILE).toFile(), s);
+    }
+
+    public static State readState(Path directory) throws IOException
+    {
+        Path p = directory.resolve(STATE_FILE);
+        if (!Files.exists(p))
+            return null;
+        return mapper.readValue(p.toFile(), State.class);
+    }
+
+    static String stem(String base)
+    {
+        for (String ext : new String[] { ".sql.zip", ".sql" })
+            if (base.endsWith(ext))
+                return base.substring(0, base.length() - ext.length());
+        return base;
+    }
+
+    static String incrementName(String base, int sequence)
+    {
+        return String.format("%s.inc%03d.zip", stem(base), sequence);
+    }
+
+    /**
+     * Export the rows changed since the last full or incremental backup in the directory
+     * @param directory the backup directory containing incremental.json
+     * @return the path of the new increment
+     * @throws IOException if there is no full backup to base on or the export fails
+     */
+    public Path takeIncrement(Path directory) throws IOException
+    {
+        State state = readState(directory);
+        if ((state == null) || !Files.exists(directory.resolve(state.base)))
+            throw new IOException("No full backup in " + directory + " to base an increment on");
+
+        Manifest m = new Manifest();
+        m.base     = state.base;
+        m.sequence = state.sequence + 1;
+        m.since    = state.mark;
+        m.mark     = currentMark();
+
+        String since = String.format("'%s'::timestamp - interval '%d seconds'", state.mark.replace("'", ""), OVERLAP_SECONDS);
+        Set<String> logs = new HashSet<String>();
+        for (String[] r : query("SELECT table_schema FROM information_schema.tables WHERE table_name IN ('serieslog','publiclog')"))
+            logs.add(r[0]);
+
+        Path dest    = directory.resolve(incrementName(state.base, m.sequence));
+        Path partial = dest.resolveSibling(dest.getFileName() + ".partial");
+        try (ParallelZipOutputStream zip = new ParallelZipOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 65536), true))
+        {
+            for (String[] r : query("SELECT c.table_schema, c.table_name, (SELECT string_agg(k.column_name, ',' ORDER BY k.ordinal_position) " +
+                    "FROM information_schema.table_constraints t JOIN information_schema.key_column_usage k ON k.constraint_name=t.constraint_name " +
+                    "AND k.table_schema=t.table_schema AND k.table_name=t.table_name WHERE t.table_schema=c.table_schema AND t.table_name=c.table_name " +
+                    "AND t.constraint_type='PRIMARY KEY') FROM information_schema.columns c WHERE c.column_name='modified' " +
+                    "AND c.table_schema NOT IN ('pg_catalog','information_schema') ORDER BY 1,2"))
+            {
+                if (r.length < 3 || r[2].equals("\\N")) {
+                    log.fine("Skipping " + r[0] + "." + r[1] + ", no primary key");
+                    continue;
+                }
+
+                TableInfo t = new TableInfo();
+                t.schema = r[0];
+                t.table  = r[1];
+                t.key    = Arrays.asList(r[2].split(","));
+                String qualified = t.schema + "." + t.table;
+
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                exporter.copyOut(String.format("COPY (SELECT * FROM %s WHERE modified >= %s) TO STDOUT", qualified, since), data);
+                t.rows = lines(data);
+                if (t.rows > 0) {
+                    t.file = qualified + ".copy";
+                    zip.putNextEntry(t.file);
+                    data.writeTo(zip);
+                }
+
+                if (logs.contains(t.schema)) {
+                    String logtable = t.schema + (t.schema.equals("public") ? ".publiclog" : ".serieslog");
+                    data.reset();
+                    exporter.copyOut(String.format("COPY (SELECT (json_populate_record(NULL::%s, l.olddata::json)).* FROM %s l " +
+                            "WHERE l.tablen='%s' AND l.action='D' AND l.ltime >= %s) TO STDOUT", qualified, logtable, t.table, since), data);
+                    t.deleted = lines(data);
+                    if (t.deleted > 0) {
+                        t.deletedfile = qualified + ".deleted.copy";
+                        zip.putNextEntry(t.deletedfile);
+                        data.writeTo(zip);
+                    }
+                }
+
+                if ((t.rows > 0) || (t.deleted > 0))
+                    m.tables.add(t);
+            }
+
+            zip.putNextEntry(MANIFEST);
+            zip.write(mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(m));
+        }
+        catch (IOException ioe)
+        {
+            Files.deleteIfExists(partial);
+            throw ioe;
+        }
+
+        Files.move(partial, dest, StandardCopyOption.REPLACE_EXISTING);
+        state.mark     = m.mark;
+        state.sequence = m.sequence;
+        mapper.writeValue(directory.resolve(STATE_FILE).toFile(), state);
+        return dest;
+    }
+
+    private static long lines(ByteArrayOutputStream data)
+    {
+        long count = 0;
+        for (byte b : data.toByteArray())
+            if (b == '\n')
+                count++;
+        return count;
+    }
+
+    /**
+     * @param file a zip file
+     * @return the manifest if the file is an increment, null otherwise
+     */
+    public static Manifest readManifest(Path file) throws IOException
+    {
+        if (!file.toString().toLowerCase().endsWith(".zip"))
+            return null;
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            ZipEntry e = zip.getEntry(MANIFEST);
+            if (e == null)
+                return null;
+            return mapper.readValue(zip.getInputStream(e), Manifest.class);
+        }
+    }
+
+    /**
+     * Render the base backup and each increment up to and including the given one into a single SQL file
+     * @param increment the last increment to apply
+     * @param dest the SQL file to write
+     * @throws IOException if the base backup or any earlier increment is missing
+     */
+    public static void restore(Path increment, Path dest) throws IOException
+    {
+        Manifest last = readManifest(increment);
+        if (last == null)
+            throw new IOException(increment + " is not an incremental backup");
+        Path dir  = increment.toAbsolutePath().getParent();
+        Path base = dir.resolve(last.base);
+        if (!Files.exists(base))
+            throw new IOException("Base backup " + last.base + " not found next to " + increment.getFileName());
+
+        List<Path> chain = new ArrayList<Path>();
+        for (int ii = 1; ii <= last.sequence; ii++) {
+            Path p = dir.resolve(incrementName(last.base, ii));
+            if (!Files.exists(p))
+                throw new IOException("Missing increment " + p.getFileName() + ", can't restore past it");
+            chain.add(p);
+        }
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(dest), 65536))
+        {
+            if (base.toString().toLowerCase().endsWith(".zip")) {
+                try (ImportExportFunctions.SqlSource sql = ImportExportFunctions.openSql(base)) {
+                    sql.in.transferTo(out);
+                }
+            } else {
+                Files.copy(base, out);
+            }
+
+            for (Path p : chain)
+                writeIncrement(p, out);
+        }
+    }
+
+    /**
+     * Deletes are applied first, then changed rows replace any existing row with the same key.  Triggers and
+     * foreign key checks are off (replica role) as in a data only restore, so table order doesn't matter.
+     */
+    static void writeIncrement(Path increment, OutputStream out) throws IOException
+    {
+        try (ZipFile zip = new ZipFile(increment.toFile()))
+        {
+            Manifest m = mapper.readValue(zip.getInputStream(zip.getEntry(MANIFEST)), Manifest.class);
+            write(out, "\n-- increment " + m.sequence + " of " + m.base + ", changes since " + m.since + "\n");
+            write(out, "\\connect scorekeeper\n");
+            write(out, "SET session_replication_role = replica;\nBEGIN;\n");
+
+            int counter = 0;
+            for (TableInfo t : m.tables)
+            {
+                String qualified = t.schema + "." + t.table;
+                StringBuilder match = new StringBuilder();
+                for (String k : t.key)
+                    match.append(match.length() > 0 ? " AND " : "").append("t.").append(k).append("=i.").append(k);
+
+                for (String file : new String[] { t.deletedfile, t.file })
+                {
+                    if (file == null)
+                        continue;
+                    String temp = "sc_inc_" + (counter++);
+                    write(out, String.format("CREATE TEMP TABLE %s (LIKE %s) ON COMMIT DROP;\n", temp, qualified));
+                    write(out, String.format("COPY %s FROM stdin;\n", temp));
+                    try (InputStream in = zip.getInputStream(zip.getEntry(file))) {
+                        in.transferTo(out);
+                    }
+                    write(out, "\\.\n");
+                    write(out, String.format("DELETE FROM %s t USING %s i WHERE %s;\n", qualified, temp, match));
+                    if (file.equals(t.file))
+                        write(out, String.format("INSERT INTO %s SELECT * FROM %s;\n", qualified, temp));
+                }
+            }
+
+            write(out, "COMMIT;\nSET session_replication_role = origin;\n");
+        }
+    }
+
+    private static void write(OutputStream out, String s) throws IOException
+    {
+        out.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Command line restore: IncrementalBackup <increment.zip> <output.sql>
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 2) {
+            System.err.println("Usage: IncrementalBackup <incrementfile.zip> <output.sql>");
+            System.exit(1);
+        }
+        restore(Path.of(args[0]), Path.of(args[1]));
+    }
+}
@@ -60,6 +60,7 @@ public class ScorekeeperStatusWindow extends JFrame
     Map<String, JLabel> labels;
     Map<String, JButton> buttons;
     MiniMaxiAction minimaxi;
+    StatementTimingsPanel timings;
 
     public ScorekeeperStatusWindow(Actions actions, MergeServerModel serverModel)
     {
@@ -76,6 +77,7 @@ public class ScorekeeperStatusWindow extends JFrame
         labels   = new HashMap<String, JLabel>();
         buttons  = new HashMap<String, JButton>();
         minimaxi = new MiniMaxiAction();
+        timings  = new StatementTimingsPanel();
 
         labels.put("machinestatus", new StatusLabel(MT.MACHINE_STATUS));
         labels.put("backendstatus", new StatusLabel(MT.BACKEND_STATUS));
@@ -92,6 +94,8 @@ public class ScorekeeperStatusWindow extends JFrame
         file.add(actions.backupRequest);
         file.add(actions.importRequest);
         file.add(actions.loadCertsRequest);
+        file.add(new JCheckBoxMenuItem(actions.fastCompression));
+        file.add(new JCheckBoxMenuItem(actions.incrementalBackups));
         file.add(new JSeparator());
         file.add(actions.quit);
 
@@ -116,6 +120,7 @@ public class ScorekeeperStatusWindow extends JFrame
         JMenu debug = new JMenu("Debug");
         debug.add(actions.debugRequest);
         debug.add(actions.openSystemLog);
+        debug.add(new JCheckBoxMenuItem(actions.statementTimings));
         JMenu levels = new JMenu("Logging Level");
         debug.add(levels);
         debug.add(new JSeparator());
@@ -167,6 +172,11 @@ public class ScorekeeperStatusWindow extends JFrame
             }
         });
 
+        actions.statementTimings.addPropertyChangeListener(e -> {
+            if (Action.SELECTED_KEY.equals(e.getPropertyName()) && !minimaxi.isMini)
+                statusLayout(false);
+        });
+
         Messenger.register(MT.OPEN_STATUS_REQUEST, (t,o) -> { setVisible(true); toFront(); });
     }
 
@@ -236,6 +246,12 @@ public class ScorekeeperStatusWindow extends JFrame
             content.add(buttons.get("clearold"), "gapleft 10, wrap");
             content.add(scrollWrap(inactivetable), "grow");
 
+            if (Prefs.showStatementTimings()) {
+                content.add(new JSeparator(), "newline, growx, wrap");
+                content.add(header("Database Timings", 16), "wrap");
+                content.add(timings, "grow");
+            }
+
             setResizable(true);
             setBounds(Prefs.getWindowBounds("statuswindow"));
             validate();
@@ -25,6 +25,7 @@ import javax.swing.filechooser.FileFilter;
 
 import org.wwscc.dialogs.BaseDialog;
 import org.wwscc.dialogs.HoverMessage;
+import org.wwscc.storage.ChangeEvent;
 import org.wwscc.storage.Database;
 import org.wwscc.storage.MergeServer;
 import org.wwscc.system.SeriesSelectionDialog.HSResult;
@@ -69,7 +70,7 @@ public class ScorekeeperSystem
         Messenger.register(MT.SHUTDOWN_REQUEST,      (t,d) -> shutdownRequest());
         Messenger.register(MT.DOWNLOAD_NEW_REQUEST,  (t,d) -> downloadNewRequest((MergeServer)d));
         Messenger.register(MT.LOAD_CERTS_REQUEST,    (t,d) -> loadCerts());
-        Messenger.register(MT.DATABASE_NOTIFICATION, (t,d) -> dataUpdate((String)d));
+        Messenger.register(MT.DATABASE_NOTIFICATION, (t,d) -> dataUpdate(((ChangeEvent)d).getTable()));
         Messenger.register(MT.DOCKER_NOT_OK,         (t,d) -> mdiag.doDialog("Docker Check", e -> {}, window));
         Messenger.register(MT.DOCKER_OK,             (t,d) -> mdiag.close());
     }
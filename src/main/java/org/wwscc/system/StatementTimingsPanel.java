@@ -0,0 +1,193 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.system;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+import org.wwscc.storage.StatementTimings;
+import org.wwscc.util.Prefs;
+
+import net.miginfocom.swing.MigLayout;
+
+/**
+ * Shows the statement latency histograms that each application saves to the log directory.  Files from
+ * applications that stopped saving them are left out.
+ */
+public class StatementTimingsPanel extends JPanel
+{
+    private static final Logger log = Logger.getLogger(StatementTimingsPanel.class.getCanonicalName());
+
+    TimingsModel model;
+    JLabel slow;
+    boolean loading;
+
+    public StatementTimingsPanel()
+    {
+        super(new MigLayout("fill, ins 0, gap 5", "[grow,fill][]", "[grow 0][fill]"));
+        model = new TimingsModel();
+        slow  = new JLabel();
+
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.setFillsViewportHeight(true);
+        table.getColumnModel().getColumn(0).setPreferredWidth(100);
+        table.getColumnModel().getColumn(1).setPreferredWidth(600);
+        for (int ii = 2; ii < model.getColumnCount(); ii++)
+            table.getColumnModel().getColumn(ii).setPreferredWidth(60);
+
+        JButton reset = new JButton("Reset");
+        reset.setFont(reset.getFont().deriveFont(11.0f));
+        reset.addActionListener(e -> reset());
+
+        add(slow, "");
+        add(reset, "wrap");
+        add(new JScrollPane(table), "grow, span 2, hmin 100");
+
+        new Timer(2000, e -> { if (isShowing()) refresh(); }).start();
+    }
+
+    /**
+     * Each application resets the next time it saves, which will show up on a following refresh
+     */
+    private void reset()
+    {
+        try {
+            StatementTimings.requestReset(Prefs.getLogDirectory());
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "\bUnable to reset statement timings: " + ioe, ioe);
+        }
+    }
+
+    /**
+     * Start reading the files in the background, skipped if the last read hasn't finished yet
+     */
+    void refresh()
+    {
+        if (loading)
+            return;
+        loading = true;
+        new LoadTimings().execute();
+    }
+
+    class LoadTimings extends SwingWorker<List<StatementTimings.Saved>, Void>
+    {
+        @Override
+        protected List<StatementTimings.Saved> doInBackground() throws Exception
+        {
+            return StatementTimings.loadAll(Prefs.getLogDirectory(), StatementTimings.STALE_MS);
+        }
+
+        @Override
+        protected void done()
+        {
+            loading = false;
+            try {
+                setTimings(get());
+            } catch (Exception e) {
+                log.log(Level.INFO, "Unable to load statement timings: " + e, e);
+            }
+        }
+    }
+
+    void setTimings(List<StatementTimings.Saved> saved)
+    {
+        if (saved.isEmpty()) {
+            model.setData(saved);
+            slow.setText("No timings saved");
+            return;
+        }
+
+        long count = 0;
+        StatementTimings.SlowQuery last = null;
+        String lastprogram = null;
+        for (StatementTimings.Saved s : saved) {
+            count += s.slowcount;
+            if (!s.slow.isEmpty()) {
+                StatementTimings.SlowQuery q = s.slow.get(s.slow.size()-1);
+                if ((last == null) || (q.when > last.when)) {
+                    last = q;
+                    lastprogram = s.program;
+                }
+            }
+        }
+        model.setData(saved);
+        slow.setText(count + " slow queries" + ((last == null) ? "" : ", last: " + lastprogram + " " + last));
+    }
+
+    static class TimingsModel extends AbstractTableModel
+    {
+        static final String[] COLUMNS = { "Program", "Statement", "Count", "Total ms", "Mean", "p50", "p95", "p99", "Max" };
+        List<String> programs = new ArrayList<String>();
+        List<StatementTimings.Snapshot> data = new ArrayList<StatementTimings.Snapshot>();
+
+        void setData(List<StatementTimings.Saved> saved)
+        {
+            programs = new ArrayList<String>();
+            data = new ArrayList<StatementTimings.Snapshot>();
+            for (StatementTimings.Saved s : saved) {
+                for (StatementTimings.Snapshot snap : s.statements) {
+                    programs.add(s.program);
+                    data.add(snap);
+                }
+            }
+            fireTableDataChanged();
+        }
+
+        @Override public int getRowCount()    { return data.size(); }
+        @Override public int getColumnCount() { return COLUMNS.length; }
+        @Override public String getColumnName(int col) { return COLUMNS[col]; }
+
+        @Override
+        public Class<?> getColumnClass(int col)
+        {
+            switch (col) {
+                case 0:
+                case 1:  return String.class;
+                case 2:  return Long.class;
+                default: return Double.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int col)
+        {
+            StatementTimings.Snapshot s = data.get(row);
+            switch (col) {
+                case 0: return programs.get(row);
+                case 1: return s.sql.replaceAll("\\s+", " ");
+                case 2: return s.count;
+                case 3: return round(s.totalms);
+                case 4: return round(s.meanms);
+                case 5: return round(s.p50ms);
+                case 6: return round(s.p95ms);
+                case 7: return round(s.p99ms);
+                case 8: return round(s.maxms);
+            }
+            return null;
+        }
+
+        private static double round(double ms)
+        {
+            return Math.round(ms * 100) / 100.0;
+        }
+    }
+}
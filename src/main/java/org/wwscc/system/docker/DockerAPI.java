@@ -11,12 +11,15 @@ package org.wwscc.system.docker;
 import java.awt.GraphicsEnvironment;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.net.URI;
 import java.nio.file.Files;
@@ -447,6 +450,15 @@ public class DockerAPI
         temp.delete();
     }
 
+    /**
+     * Upload a stream as containerpath/filename without a temporary tar file.  The stream must provide
+     * exactly size bytes, an exception from the stream aborts the upload.
+     */
+    public void uploadStream(String name, String containerpath, String filename, long size, InputStream in) throws IOException
+    {
+        request(new Requests.UploadStream(name, containerpath, filename, size, in));
+    }
+
     public void loadVolume(String volname, Path tarfile, DockerStatusListener listener) throws IOException
     {
         String image = "alpine:latest";
@@ -508,6 +520,76 @@ public class DockerAPI
     }
 
 
+    /**
+     * Run a command and copy its stdout to the output stream as it arrives rather than buffering it in
+     * memory or in a file inside the container.  Stderr is logged if the command fails.
+     * @param name the container name
+     * @param stdout where to write the command output
+     * @param cmd the command and arguments
+     * @return the exit code of the command
+     * @throws IOException if the exec fails or writing to stdout fails
+     */
+    @SuppressWarnings("rawtypes")
+    public int execStream(String name, OutputStream stdout, String ... cmd) throws IOException
+    {
+        ExecConfig config = new ExecConfig().cmd(Arrays.asList(cmd)).attachStdin(false).attachStdout(true).attachStderr(true);
+        Map result = request(new Requests.CreateExec(name, config));
+        String id  = (String)result.get("Id");
+        if (id == null)
+            throw new IOException("CreateExec failed: " + result);
+
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        try (InputStream in = request(new Requests.StreamExec(id))) {
+            demux(in, stdout, stderr);
+        }
+
+        long deadline = System.currentTimeMillis() + 45000;
+        while (true)
+        {
+            @SuppressWarnings("unchecked")
+            Map<String,Object> status = request(new Requests.GetExecStatus(id));
+            if ((status != null) && (status.get("ExitCode") != null)) {
+                int code = (Integer)status.get("ExitCode");
+                if (code != 0)
+                    log.warning(String.join(" ", cmd) + " returned " + code + ": " + stderr.toString().strip());
+                return code;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {}
+            if (System.currentTimeMillis() > deadline)
+                throw new IOException("Unable to retrieve exec response");
+        }
+    }
+
+    /**
+     * Split the multiplexed exec stream (8 byte header of type and length before each frame) into
+     * stdout and stderr.  Stderr is capped so a chatty command can't use up memory.
+     */
+    static void demux(InputStream in, OutputStream stdout, ByteArrayOutputStream stderr) throws IOException
+    {
+        DataInputStream decoder = new DataInputStream(in);
+        byte[] buf = new byte[65536];
+        int type;
+        while ((type = decoder.read()) >= 0)
+        {
+            decoder.readFully(buf, 0, 3);
+            int size = decoder.readInt();
+            while (size > 0)
+            {
+                int len = decoder.read(buf, 0, Math.min(size, buf.length));
+                if (len < 0)
+                    throw new EOFException("exec stream ended in the middle of a frame");
+                if (type == 1)
+                    stdout.write(buf, 0, len);
+                else if ((type == 2) && (stderr.size() < 65536))
+                    stderr.write(buf, 0, len);
+                size -= len;
+            }
+        }
+    }
+
+
     private static final String OCIError = "OCI runtime exec failed:";
     @SuppressWarnings("rawtypes")
     public DemuxedStreams run(String name, String ... cmd) throws IOException
@@ -11,6 +11,7 @@ package org.wwscc.system.docker;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,9 +21,12 @@ import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.AbstractHttpEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarHeader;
 import org.wwscc.system.docker.models.ContainerSummary;
 import org.wwscc.system.docker.models.ExecConfig;
 import org.wwscc.system.docker.models.ImageSummary;
@@ -172,6 +176,61 @@ public class Requests
             ((HttpPut)request).setEntity(new FileEntity(content));
     }}
 
+    static class UploadStream extends Wrapper<Void> {
+        public UploadStream(String container, String path, String filename, long size, InputStream content) {
+            super(new HttpPut(String.format("%s/containers/%s/archive?path=%s", API_VER, container, path)));
+            ((HttpPut)request).setEntity(new TarStreamEntity(filename, size, content));
+    }}
+
+    /**
+     * Wraps a single stream in a tar archive as it is sent, in place of writing a temporary tar file
+     */
+    static class TarStreamEntity extends AbstractHttpEntity
+    {
+        static final int RECORD = 512;
+        final String filename;
+        final long size;
+        final InputStream content;
+
+        TarStreamEntity(String filename, long size, InputStream content)
+        {
+            this.filename = filename;
+            this.size     = size;
+            this.content  = content;
+        }
+
+        long padding() { return (RECORD - (size % RECORD)) % RECORD; }
+
+        @Override public boolean isRepeatable()  { return false; }
+        @Override public boolean isStreaming()   { return true; }
+        @Override public long getContentLength() { return RECORD + size + padding() + 2*RECORD; }
+        @Override public InputStream getContent() { throw new UnsupportedOperationException("write only entity"); }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException
+        {
+            byte[] header = new byte[RECORD];
+            new TarEntry(TarHeader.createHeader(filename, size, System.currentTimeMillis()/1000, false, 0644)).writeEntryHeader(header);
+            out.write(header);
+
+            byte[] buf = new byte[65536];
+            long remaining = size;
+            while (remaining > 0) {
+                int n = content.read(buf, 0, (int)Math.min(buf.length, remaining));
+                if (n < 0)
+                    throw new IOException(filename + " ended " + remaining + " bytes early");
+                out.write(buf, 0, n);
+                remaining -= n;
+            }
+            // let the source see its end of stream so it can verify anything it needs to
+            if (content.read() >= 0)
+                throw new IOException(filename + " is longer than " + size + " bytes");
+
+            out.write(new byte[(int)padding() + 2*RECORD]);
+            out.flush();
+        }
+    }
+
     @SuppressWarnings("rawtypes")
     static class CreateExec extends Wrapper<Map> {
         public CreateExec(String container, ExecConfig config) throws IOException {
@@ -192,6 +251,14 @@ public class Requests
             ((HttpPost)request).setEntity(new StringEntity(mapper.writeValueAsString(body), ContentType.APPLICATION_JSON));
     }}
 
+    static class StreamExec extends Wrapper<InputStream> {
+        public StreamExec(String id) throws IOException {
+            super(new HttpPost(API_VER+"/exec/"+id+"/start"), InputStream.class);
+            Map<String, Object> body = new HashMap<String, Object>();
+            body.put("Detach", false);
+            ((HttpPost)request).setEntity(new StringEntity(mapper.writeValueAsString(body), ContentType.APPLICATION_JSON));
+    }}
+
     @SuppressWarnings("rawtypes")
     static class GetExecStatus extends Wrapper<Map> {
         public GetExecStatus(String id) {
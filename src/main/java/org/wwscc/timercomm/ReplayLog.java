@@ -0,0 +1,193 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.timercomm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stamps outgoing timer messages with a session id and a monotonic sequence number and keeps the
+ * most recent run messages in memory and in a file so a client that reconnects can be sent what it
+ * missed.  Every stamped message is written to the file, but only runs are kept for replay, the others
+ * are there so the sequence can't go backwards.  The session id and sequence continue across restarts
+ * as long as the file is there.
+ */
+class ReplayLog
+{
+    private static final Logger log = Logger.getLogger(ReplayLog.class.getName());
+
+    static final int MAX_ENTRIES = 2000;
+
+    static class Entry
+    {
+        final long seq;
+        final byte[] data;
+        Entry(long seq, byte[] data)
+        {
+            this.seq  = seq;
+            this.data = data;
+        }
+    }
+
+    final String session;
+    private final Path file;
+    private final ArrayDeque<Entry> entries;
+    private final TimerCodec codec;
+    private Entry mark; // the last message written that isn't kept, may be past the last entry
+    private OutputStream out;
+    private long lastseq;
+    private int lines;
+
+    /**
+     * @param file where to keep the log, null to only keep it in memory
+     */
+    ReplayLog(Path file)
+    {
+        this.file    = file;
+        this.entries = new ArrayDeque<Entry>();
+        this.codec   = new TimerCodec();
+
+        String found = null;
+        if ((file != null) && Files.exists(file))
+        {
+            try (BufferedReader in = Files.newBufferedReader(file)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    byte[] data = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                    try {
+                        TimerCodec.Message msg = codec.decode(data, 0, data.length);
+                        if ((msg == null) || !msg.isStamped())
+                            continue;
+                        found   = msg.session;
+                        lastseq = msg.seq;
+                        if (TimerCodec.isReplayed(msg.type))
+                            add(new Entry(lastseq, data));
+                        else
+                            mark = new Entry(lastseq, data);
+                        lines++;
+                    } catch (IOException e) {
+                        log.fine("Skipping bad replay line: " + line);
+                    }
+                }
+            } catch (IOException ioe) {
+                log.log(Level.WARNING, "Unable to read timer replay log: " + ioe, ioe);
+            }
+            if (lines > entries.size() + 1)
+                lines = compact();
+        }
+
+        session = (found != null) ? found : UUID.randomUUID().toString();
+    }
+
+    private void add(Entry e)
+    {
+        entries.addLast(e);
+        if (entries.size() > MAX_ENTRIES)
+            entries.removeFirst();
+    }
+
+    /**
+     * Rewrite the file with just the entries we are keeping and the mark if it is newer than them
+     * @return the number of lines in the file
+     */
+    private int compact()
+    {
+        List<Entry> write = new ArrayList<Entry>(entries);
+        if ((mark != null) && (entries.isEmpty() || (mark.seq > entries.getLast().seq)))
+            write.add(mark);
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream o = Files.newOutputStream(temp)) {
+                for (Entry e : write)
+                    o.write(e.data);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "Unable to compact timer replay log: " + ioe, ioe);
+        }
+        return write.size();
+    }
+
+    /**
+     * Encode a message with our session and the next sequence
+     * @param type the message type
+     * @param data the message data as passed to TimerCodec.encode
+     * @param keep true to keep it for replaying to reconnecting clients, it is written to the file either way
+     */
+    synchronized Entry stamp(String type, Object data, boolean keep) throws IOException
+    {
+        codec.encode(type, data, session, ++lastseq);
+        Entry e = new Entry(lastseq, codec.toByteArray());
+        if (keep)
+            add(e);
+        else
+            mark = e;
+        persist(e);
+        return e;
+    }
+
+    private void persist(Entry e)
+    {
+        if (file == null)
+            return;
+        try {
+            if (lines >= MAX_ENTRIES * 2) {  // e is already in entries or the mark, start the file again with just what we keep
+                close();
+                lines = compact();
+                return;
+            }
+            if (out == null)
+                out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            out.write(e.data);
+            out.flush();
+            lines++;
+        } catch (IOException ioe) {
+            log.log(Level.WARNING, "Unable to write timer replay log: " + ioe, ioe);
+            close();
+        }
+    }
+
+    /**
+     * @return the kept entries with a sequence greater than after and less than before
+     */
+    synchronized List<Entry> between(long after, long before)
+    {
+        List<Entry> ret = new ArrayList<Entry>();
+        for (Entry e : entries)
+            if ((e.seq > after) && (e.seq < before))
+                ret.add(e);
+        return ret;
+    }
+
+    synchronized long getLastSeq()
+    {
+        return lastseq;
+    }
+
+    synchronized void close()
+    {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException ioe) {}
+        out = null;
+    }
+}
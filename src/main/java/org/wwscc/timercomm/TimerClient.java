@@ -8,13 +8,14 @@
 
 package org.wwscc.timercomm;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -23,42 +24,43 @@ import org.wwscc.storage.LeftRightDialin;
 import org.wwscc.storage.Run;
 import org.wwscc.util.MT;
 import org.wwscc.util.Messenger;
+import org.wwscc.util.TimingTrace;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.RawValue;
 
 public final class TimerClient implements RunServiceInterface
 {
     private static final Logger log = Logger.getLogger(TimerClient.class.getName());
-    private static ObjectMapper objectMapper = new ObjectMapper();
 
-    private static final String TREE_MESSAGE       = "TREE";
-    private static final String DIAL2_MESSAGE      = "DIAL";
-    private static final String DIALL_MESSAGE      = "DIALL";
-    private static final String DIALR_MESSAGE      = "DIALR";
-    private static final String RUN_MESSAGE        = "RUN";
-    private static final String RUN_DELETE_MESSAGE = "RDELETE";
+    /** the last sequence number received from each server session, shared as all clients feed the same Messenger */
+    private static final Map<String, Long> seen = new HashMap<String, Long>();
 
     Socket sock;
-    BufferedReader in;
+    TimerCodec.LineReader in;
     OutputStream out;
+    TimerCodec codec;    // for sending
+    TimerCodec decoder;  // for the receiver thread
     boolean done;
 
     public TimerClient(InetSocketAddress addr) throws IOException
     {
         sock = new Socket();
         sock.connect(addr);
-        in = new BufferedReader(new InputStreamReader(sock.getInputStream()));
+        in = new TimerCodec.LineReader(sock.getInputStream());
         out = sock.getOutputStream();
+        codec = new TimerCodec();
+        decoder = new TimerCodec();
         done = true;
     }
 
     public TimerClient(Socket s) throws IOException
     {
         sock = s;
-        in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+        in = new TimerCodec.LineReader(s.getInputStream());
         out = s.getOutputStream();
+        codec = new TimerCodec();
+        decoder = new TimerCodec();
         done = true;
     }
 
@@ -67,6 +69,8 @@ public final class TimerClient implements RunServiceInterface
         sock = null;
         in = null;
         out = test;
+        codec = new TimerCodec();
+        decoder = new TimerCodec();
         done = true;
     }
 
@@ -92,11 +96,14 @@ public final class TimerClient implements RunServiceInterface
         } catch (IOException se) {}
     }
 
-    public boolean send(ObjectNode o)
+    private boolean send(String type, Object data)
     {
         try {
-            log.log(Level.FINE, "Sending ''{0}'' to the timer", o);
-            out.write((objectMapper.writeValueAsString(o)+"\n").getBytes());
+            log.log(Level.FINE, "Sending {0} {1} to the timer", new Object[] { type, data });
+            synchronized (codec) {
+                codec.encode(type, data, null, -1);
+                codec.writeTo(out);
+            }
             return true;
         } catch (IOException ioe) {
             log.log(Level.INFO, "TimerClient send failed: " + ioe, ioe);
@@ -108,84 +115,108 @@ public final class TimerClient implements RunServiceInterface
     @Override
     public boolean sendTree()
     {
-        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-        data.put("type", TREE_MESSAGE);
-        return send(data);
+        return send(TimerCodec.TREE_MESSAGE, null);
     }
 
     @Override
     public boolean sendDial(LeftRightDialin d)
     {
-        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-        data.put("type", DIAL2_MESSAGE);
-        data.set("data", objectMapper.valueToTree(d));
-        return send(data);
+        return send(TimerCodec.DIAL2_MESSAGE, d);
     }
 
     @Override
     public boolean sendLDial(double left)
     {
-        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-        data.put("type", DIALL_MESSAGE);
-        data.put("data", left);
-        return send(data);
+        return send(TimerCodec.DIALL_MESSAGE, left);
     }
 
     @Override
     public boolean sendRDial(double right)
     {
-        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-        data.put("type", DIALR_MESSAGE);
-        data.put("data", right);
-        return send(data);
+        return send(TimerCodec.DIALR_MESSAGE, right);
     }
 
 
     @Override
     public boolean sendRun(Run.WithRowId r)
     {
-        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-        data.put("type", RUN_MESSAGE);
-        data.set("data", objectMapper.valueToTree(r));
-        return send(data);
+        return send(TimerCodec.RUN_MESSAGE, r);
     }
 
     @Override
     public boolean deleteRun(Run.WithRowId r)
     {
-        ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-        data.put("type", RUN_DELETE_MESSAGE);
-        data.set("data", objectMapper.valueToTree(r));
-        return send(data);
+        return send(TimerCodec.RUN_DELETE_MESSAGE, r);
+    }
+
+    /**
+     * Check the session and sequence stamped on by a server, older servers don't stamp their messages
+     * @return true if this message was already received, i.e. it was replayed after it got through anyhow
+     */
+    private static boolean alreadySeen(TimerCodec.Message msg)
+    {
+        if (!msg.isStamped())
+            return false;
+        synchronized (seen) {
+            Long last = seen.get(msg.session);
+            if ((last != null) && (msg.seq <= last))
+                return true;
+            seen.put(msg.session, msg.seq);
+            return false;
+        }
+    }
+
+    /**
+     * @return a copy of the last sequence seen from each server session
+     */
+    static Map<String, Long> getSeen()
+    {
+        synchronized (seen) {
+            return new HashMap<String, Long>(seen);
+        }
     }
 
     protected void processLine(String line) throws IOException
     {
-        ObjectNode msg = (ObjectNode) objectMapper.readTree(line);
-        String type = msg.get("type").asText();
-        Database.d.recordEvent(type, msg);
-        switch (type)
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        TimerCodec.Message msg = decoder.decode(b, 0, b.length);
+        if (msg != null)
+            dispatch(msg);
+    }
+
+    /**
+     * Send out a received message as the matching event, also used by TimerServer
+     */
+    static void dispatch(TimerCodec.Message msg)
+    {
+        if (alreadySeen(msg)) {
+            log.log(Level.FINE, "Skipping duplicate {0}", msg.line);
+            return;
+        }
+        // the event stream stores the line as is, there is no need to build a tree from it
+        Database.d.recordEvent(msg.type, JsonNodeFactory.instance.rawValueNode(new RawValue(msg.line)));
+        switch (msg.type)
         {
-            case TREE_MESSAGE:
+            case TimerCodec.TREE_MESSAGE:
                 Messenger.sendEvent(MT.TIMER_SERVICE_TREE, null);
                 break;
-            case DIAL2_MESSAGE:
-                Messenger.sendEvent(MT.TIMER_SERVICE_DIALIN, objectMapper.treeToValue(msg.get("data"), LeftRightDialin.class));
+            case TimerCodec.DIAL2_MESSAGE:
+                Messenger.sendEvent(MT.TIMER_SERVICE_DIALIN, msg.dial);
                 break;
-            case DIALL_MESSAGE:
-                Messenger.sendEvent(MT.TIMER_SERVICE_DIALIN_L, msg.get("data").asDouble());
+            case TimerCodec.DIALL_MESSAGE:
+                Messenger.sendEvent(MT.TIMER_SERVICE_DIALIN_L, msg.value);
                 break;
-            case DIALR_MESSAGE:
-                Messenger.sendEvent(MT.TIMER_SERVICE_DIALIN_R, msg.get("data").asDouble());
+            case TimerCodec.DIALR_MESSAGE:
+                Messenger.sendEvent(MT.TIMER_SERVICE_DIALIN_R, msg.value);
                 break;
-            case RUN_MESSAGE:
-                Messenger.sendEvent(MT.TIMER_SERVICE_RUN, objectMapper.treeToValue(msg.get("data"), Run.WithRowId.class));
+            case TimerCodec.RUN_MESSAGE:
+                Messenger.sendEvent(MT.TIMER_SERVICE_RUN, msg.run);
                 break;
-            case RUN_DELETE_MESSAGE:
-                Messenger.sendEvent(MT.TIMER_SERVICE_DELETE, objectMapper.treeToValue(msg.get("data"), Run.WithRowId.class));
+            case TimerCodec.RUN_DELETE_MESSAGE:
+                Messenger.sendEvent(MT.TIMER_SERVICE_DELETE, msg.run);
                 break;
             default:
-                log.warning("Unknown message type: " + type);
+                log.warning("Unknown message type: " + msg.type);
                 break;
         }
     }
@@ -199,21 +230,31 @@ public final class TimerClient implements RunServiceInterface
             {
                 log.log(Level.INFO, "Starting timer rx thread connected to {0}", sock.getRemoteSocketAddress());
                 Messenger.sendEvent(MT.TIMER_SERVICE_CONNECTION_OPEN, TimerClient.this);
+                send(TimerCodec.HELLO_MESSAGE, getSeen());  // so the server can replay anything we missed while disconnected
 
                 while (!done)
                 {
-                    String line = "";
+                    int len = 0;
                     try
                     {
-                        line = in.readLine();
-                        log.log(Level.INFO, "TimerClient reads: {0}", line);
-                        if (line == null)
+                        len = in.next();
+                        if (len < 0)
                         {
-                            log.info("readLine returns null, closing connection");
+                            log.info("end of stream, closing connection");
                             return;
                         }
 
-                        processLine(line);
+                        long arrived = System.nanoTime();
+                        TimerCodec.Message msg = decoder.decode(in.buffer(), in.offset(), len);
+                        if (msg == null)
+                            continue;
+                        log.log(Level.FINE, "TimerClient reads: {0}", msg.line);
+                        long prev = TimingTrace.begin(arrived);
+                        try {
+                            dispatch(msg);
+                        } finally {
+                            TimingTrace.end(prev);
+                        }
                     }
                     catch (SocketException se)
                     {
@@ -222,7 +263,7 @@ public final class TimerClient implements RunServiceInterface
                     }
                     catch (IOException ioe)
                     {
-                        log.warning(String.format("TimerClient processing error: %s (%s)", line, ioe));
+                        log.warning(String.format("TimerClient processing error: %s (%s)", (len > 0) ? new String(in.buffer(), in.offset(), len, StandardCharsets.UTF_8) : "", ioe));
                         try { Thread.sleep(1000); } catch (Exception e) {};
                     }
                 }
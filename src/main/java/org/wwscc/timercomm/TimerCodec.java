@@ -0,0 +1,407 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.timercomm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.wwscc.storage.LeftRightDialin;
+import org.wwscc.storage.Run;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+/**
+ * Reads and writes the JSON lines sent between TimerServer and TimerClient using the streaming
+ * generator and parser rather than building trees.  Each codec reuses one generator, output buffer
+ * and parser so it must only be used by one thread at a time.  The format is the same as the original
+ * tree based messages: {"type":..., "session":..., "seq":..., "data":...}
+ */
+final class TimerCodec
+{
+    static final String TREE_MESSAGE       = "TREE";
+    static final String DIAL2_MESSAGE      = "DIAL";
+    static final String DIALL_MESSAGE      = "DIALL";
+    static final String DIALR_MESSAGE      = "DIALR";
+    static final String RUN_MESSAGE        = "RUN";
+    static final String RUN_DELETE_MESSAGE = "RDELETE";
+    static final String HELLO_MESSAGE      = "HELLO";
+
+    static final int MAX_LINE = 64*1024;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();  // only to write attr
+    private static final JsonFactory factory = objectMapper.getFactory();
+
+    /**
+     * One decoded line, only the fields for its type are filled in
+     */
+    static class Message
+    {
+        String type;
+        String session;
+        long seq = -1;
+        Run.WithRowId run;
+        LeftRightDialin dial;
+        double value;
+        Map<String, Long> seen;
+        String line;
+
+        boolean isStamped()
+        {
+            return (session != null) && (seq >= 0);
+        }
+    }
+
+    private final ByteArrayOutputStream buf;
+    private final JsonGenerator gen;
+    private JsonParser reader;
+
+    TimerCodec()
+    {
+        try {
+            buf = new ByteArrayOutputStream(512);
+            gen = factory.createGenerator(buf);
+            gen.setRootValueSeparator(null);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);  // not possible with a memory buffer
+        }
+    }
+
+    /**
+     * @return true if the message type is one that a reconnecting client needs replayed
+     */
+    static boolean isReplayed(String type)
+    {
+        return type.equals(RUN_MESSAGE) || type.equals(RUN_DELETE_MESSAGE);
+    }
+
+    /**
+     * Encode a message into the internal buffer, replacing whatever was there
+     * @param type one of the message types
+     * @param data a Run.WithRowId, LeftRightDialin, Double, the seen map for a hello, or null
+     * @param session the server session to stamp on or null for none
+     * @param seq the sequence number to stamp on, ignored if session is null
+     * @return the number of bytes encoded
+     */
+    @SuppressWarnings("unchecked")
+    int encode(String type, Object data, String session, long seq) throws IOException
+    {
+        buf.reset();
+        gen.writeStartObject();
+        gen.writeStringField("type", type);
+        if (session != null) {
+            gen.writeStringField("session", session);
+            gen.writeNumberField("seq", seq);
+        }
+        if (data instanceof Run) {
+            gen.writeFieldName("data");
+            writeRun((Run)data);
+        } else if (data instanceof LeftRightDialin) {
+            LeftRightDialin d = (LeftRightDialin)data;
+            gen.writeObjectFieldStart("data");
+            gen.writeNumberField("left", d.left);
+            gen.writeNumberField("right", d.right);
+            gen.writeEndObject();
+        } else if (data instanceof Double) {
+            gen.writeNumberField("data", (Double)data);
+        } else if (data instanceof Map) {
+            gen.writeObjectFieldStart("seen");
+            for (Map.Entry<String, Long> e : ((Map<String, Long>)data).entrySet())
+                gen.writeNumberField(e.getKey(), e.getValue());
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+        gen.writeRaw('\n');
+        gen.flush();
+        return buf.size();
+    }
+
+    private void writeRun(Run r) throws IOException
+    {
+        gen.writeStartObject();
+        gen.writeNumberField("course", r.course());
+        gen.writeNumberField("rungroup", r.rungroup());
+        gen.writeNumberField("run", r.run());
+        gen.writeNumberField("cones", r.getCones());
+        gen.writeNumberField("gates", r.getGates());
+        gen.writeStringField("status", r.getStatus());
+        gen.writeNumberField("raw", r.getRaw());
+        gen.writeFieldName("attr");
+        r.writeAttr(gen);
+        if (r instanceof Run.WithRowId) {
+            UUID id = ((Run.WithRowId)r).getRowId();
+            gen.writeStringField("rowid", (id != null) ? id.toString() : null);
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * @return a copy of the last encoded message
+     */
+    byte[] toByteArray()
+    {
+        return buf.toByteArray();
+    }
+
+    /**
+     * Write the last encoded message without copying it
+     */
+    void writeTo(OutputStream out) throws IOException
+    {
+        buf.writeTo(out);
+    }
+
+    /**
+     * Decode one line of JSON.  The lines are fed to a single non-blocking parser so we don't create
+     * a new parser and symbol table for each one.
+     * @return the message or null if the line is blank
+     * @throws IOException if the line isn't valid or has no type
+     */
+    Message decode(byte[] b, int off, int len) throws IOException
+    {
+        try {
+            if (reader == null) {
+                reader = factory.createNonBlockingByteArrayParser();
+            }
+            ((ByteArrayFeeder)reader.getNonBlockingInputFeeder()).feedInput(b, off, off + len);
+            Message m = decode(reader);
+            if (reader.nextToken() != JsonToken.NOT_AVAILABLE)  // consumes trailing whitespace so we can feed the next line
+                throw new IOException("extra data after timer message");
+            if (m != null)
+                m.line = new String(b, off, len, StandardCharsets.UTF_8).trim();
+            return m;
+        } catch (IOException | RuntimeException e) {
+            reader.close();  // its state is unknown, start again with the next line
+            reader = null;
+            throw (e instanceof IOException) ? (IOException)e : new IOException(e);
+        }
+    }
+
+    private static Message decode(JsonParser p) throws IOException
+    {
+        JsonToken first = p.nextToken();
+        if (first == JsonToken.NOT_AVAILABLE)
+            return null;
+        if (first != JsonToken.START_OBJECT)
+            throw new IOException("timer message is not an object");
+
+        Message m = new Message();
+        TokenBuffer early = null;  // data that came before the type
+        JsonToken t;
+        while ((t = p.nextToken()) == JsonToken.FIELD_NAME)
+        {
+            String field = p.getCurrentName();
+            p.nextToken();
+            switch (field)
+            {
+                case "type":    m.type    = p.getValueAsString(); break;
+                case "session": m.session = p.getValueAsString(); break;
+                case "seq":     m.seq     = p.getValueAsLong(-1); break;
+                case "seen":    m.seen    = readSeen(p); break;
+                case "data":
+                    if (m.type == null) {
+                        early = new TokenBuffer(p, null);
+                        early.copyCurrentStructure(p);
+                    } else {
+                        readData(m, p);
+                    }
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+        if (t != JsonToken.END_OBJECT)
+            throw new IOException("incomplete timer message");
+
+        if (m.type == null)
+            throw new IOException("timer message has no type");
+        if (early != null) {
+            try (JsonParser tp = early.asParser()) {
+                tp.nextToken();
+                readData(m, tp);
+            }
+        }
+        return m;
+    }
+
+    private static void readData(Message m, JsonParser p) throws IOException
+    {
+        switch (m.type)
+        {
+            case RUN_MESSAGE:
+            case RUN_DELETE_MESSAGE:
+                m.run = readRun(p);
+                break;
+            case DIAL2_MESSAGE:
+                m.dial = readDial(p);
+                break;
+            case DIALL_MESSAGE:
+            case DIALR_MESSAGE:
+                m.value = p.getValueAsDouble();
+                break;
+            default:
+                p.skipChildren();
+                break;
+        }
+    }
+
+    private static Run.WithRowId readRun(JsonParser p) throws IOException
+    {
+        if (p.currentToken() != JsonToken.START_OBJECT)
+            throw new IOException("run data is not an object");
+        Run.WithRowId r = new Run.WithRowId();
+        while (p.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = p.getCurrentName();
+            p.nextToken();
+            switch (field)
+            {
+                case "course":   r.setCourse(p.getValueAsInt()); break;
+                case "rungroup": r.setRunGroup(p.getValueAsInt()); break;
+                case "run":      r.setRunNumber(p.getValueAsInt()); break;
+                case "cones":    r.setCones(p.getValueAsInt()); break;
+                case "gates":    r.setGates(p.getValueAsInt()); break;
+                case "status":   r.setStatus(p.getValueAsString()); break;
+                case "raw":      r.setRaw(p.getValueAsDouble()); break;
+                case "attr":     r.readAttr(p); break;
+                case "rowid":
+                    String id = p.getValueAsString();
+                    r.setRowId((id != null) ? UUID.fromString(id) : null);
+                    break;
+                default:
+                    p.skipChildren();
+                    break;
+            }
+        }
+        return r;
+    }
+
+    private static LeftRightDialin readDial(JsonParser p) throws IOException
+    {
+        if (p.currentToken() != JsonToken.START_OBJECT)
+            throw new IOException("dialin data is not an object");
+        LeftRightDialin d = new LeftRightDialin();
+        while (p.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = p.getCurrentName();
+            p.nextToken();
+            switch (field)
+            {
+                case "left":  d.left  = p.getValueAsDouble(); break;
+                case "right": d.right = p.getValueAsDouble(); break;
+                default:      p.skipChildren(); break;
+            }
+        }
+        return d;
+    }
+
+    private static Map<String, Long> readSeen(JsonParser p) throws IOException
+    {
+        Map<String, Long> ret = new HashMap<String, Long>();
+        if (p.currentToken() != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return ret;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String session = p.getCurrentName();
+            p.nextToken();
+            ret.put(session, p.getValueAsLong(-1));
+        }
+        return ret;
+    }
+
+    /**
+     * Splits a stream into lines in a reusable buffer rather than creating a String for each
+     */
+    static class LineReader
+    {
+        private final InputStream in;
+        private byte[] buf;
+        private int start, scan, end, linestart;
+        private boolean skipping;  // dropping the rest of a line that was too long
+
+        LineReader(InputStream in)
+        {
+            this.in  = in;
+            this.buf = new byte[8192];
+        }
+
+        /**
+         * @return the length of the next line, found at buffer()[offset()], or -1 at the end of the stream
+         * @throws IOException for read errors or once for a line over MAX_LINE, the rest of that line is
+         * skipped by the following call
+         */
+        int next() throws IOException
+        {
+            while (true)
+            {
+                for (; scan < end; scan++) {
+                    if (buf[scan] == '\n') {
+                        if (skipping) {  // end of the long line, carry on with the next
+                            skipping = false;
+                            start = scan + 1;
+                            continue;
+                        }
+                        linestart = start;
+                        int len = scan - start;
+                        start = ++scan;
+                        return len;
+                    }
+                }
+
+                if (start > 0) {  // move the partial line down to make room
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end  -= start;
+                    scan -= start;
+                    start = 0;
+                }
+                if (end == buf.length) {
+                    if (buf.length >= MAX_LINE) {
+                        boolean first = !skipping;
+                        skipping = true;
+                        start = scan = end = 0;
+                        if (first)
+                            throw new IOException("timer line too long, skipping it");
+                        continue;
+                    }
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, end);
+                    buf = bigger;
+                }
+
+                int n = in.read(buf, end, buf.length - end);
+                if (n < 0) {
+                    if ((end == start) || skipping)
+                        return -1;
+                    linestart = start;  // last line without a newline
+                    int len = end - start;
+                    start = scan = end;
+                    return len;
+                }
+                end += n;
+            }
+        }
+
+        byte[] buffer() { return buf; }
+        int offset()    { return linestart; }
+    }
+}
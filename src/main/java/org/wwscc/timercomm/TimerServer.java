@@ -8,11 +8,24 @@
 
 package org.wwscc.timercomm;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Vector;
-import java.util.function.Function;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.wwscc.storage.LeftRightDialin;
@@ -21,36 +34,171 @@ import org.wwscc.util.Discovery;
 import org.wwscc.util.MT;
 import org.wwscc.util.Messenger;
 import org.wwscc.util.Prefs;
+import org.wwscc.util.TimingTrace;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
- * A server that create TimerClients for each connection as well as running a
- * discovery service to advertise our location.
+ * A server that sends timer data to each connection as well as running a discovery service to
+ * advertise our location.  All of the sockets are serviced by a single selector thread.  Messages are
+ * encoded once and added to a bounded queue for each client so the sender never waits on the network.
+ * A client that stops reading and fills its queue, or makes no progress for stallms, is disconnected
+ * rather than being allowed to silently miss runs.
+ * <p>
+ * Each message is stamped with our session id and a sequence number and runs are kept in a replay log.
+ * A new connection is held until the client sends a HELLO with the last sequence it saw from each
+ * session, then anything it missed while disconnected is queued ahead of the live messages.  Clients
+ * that never send a HELLO are released after hellowait.
  */
 public class TimerServer implements RunServiceInterface
 {
     private static final Logger log = Logger.getLogger(TimerServer.class.getName());
     public static final int TIMER_DEFAULT_PORT = 54328;
 
+    static final int MAX_QUEUE_BYTES = 256*1024;  // thousands of runs, far more than a working client falls behind
+    static final long STALL_MS       = 15000;
+    static final int MAX_LINE        = 64*1024;
+    static final long HELLO_WAIT_MS  = 2000;
+
     String servicetype;
-    ServerSocket serversock;
-    Vector<TimerClient> clients;
-    boolean done;
+    ServerSocketChannel serverchannel;
+    Selector selector;
+    Set<Connection> clients;
+    ConcurrentLinkedQueue<Connection> pending;
+    ExecutorService receiver;
+    LongAdder dropped;
+    ReplayLog replay;
+    final Object sendlock = new Object(); // held from stamping to queueing so each client's queue is in sequence order
+    int maxqueue;
+    long stallms;
+    long hellowait;
+    volatile boolean done;
+
+    /**
+     * One connected client, the queue is filled by the sending threads and drained by the selector thread
+     */
+    class Connection
+    {
+        final SocketChannel channel;
+        final SocketAddress remote;
+        final ArrayDeque<ByteBuffer> outq;
+        final ByteArrayOutputStream line;
+        SelectionKey key;
+        int queued;
+        long lastprogress;
+        long connected;
+        long firstqueued;  // sequence of the first message queued before the client said hello
+        boolean synced;
+        boolean closing;
+
+        Connection(SocketChannel channel) throws IOException
+        {
+            this.channel = channel;
+            this.remote  = channel.getRemoteAddress();
+            this.outq    = new ArrayDeque<ByteBuffer>();
+            this.line    = new ByteArrayOutputStream();
+            this.connected = System.currentTimeMillis();
+            this.firstqueued = Long.MAX_VALUE;
+            this.synced  = (hellowait <= 0);
+        }
+
+        /**
+         * @return false if the client's queue is full and it should be dropped
+         */
+        synchronized boolean offer(ReplayLog.Entry msg)
+        {
+            if (closing)
+                return false;
+            if (queued + msg.data.length > maxqueue) {
+                closing = true;
+                return false;
+            }
+            if (outq.isEmpty())
+                lastprogress = System.currentTimeMillis();
+            if (!synced && (firstqueued == Long.MAX_VALUE))
+                firstqueued = msg.seq;
+            outq.add(ByteBuffer.wrap(msg.data));
+            queued += msg.data.length;
+            return true;
+        }
+
+        /**
+         * Put what the client missed from our session ahead of anything already queued and start sending
+         * @param lastseen the last sequence the client saw from our session or -1 if it doesn't know us
+         */
+        synchronized void sync(long lastseen)
+        {
+            if (synced)
+                return;
+            if (lastseen >= 0) {
+                List<ReplayLog.Entry> missed = replay.between(lastseen, firstqueued);
+                for (int ii = missed.size() - 1; ii >= 0; ii--) {
+                    outq.addFirst(ByteBuffer.wrap(missed.get(ii).data));
+                    queued += missed.get(ii).data.length;
+                }
+                if (!missed.isEmpty())
+                    log.log(Level.INFO, "Replaying {0} messages to {1}", new Object[] { missed.size(), remote });
+            }
+            synced = true;
+            lastprogress = System.currentTimeMillis();
+        }
+
+        /**
+         * Write as much as the socket will take
+         * @return true if the queue is now empty
+         */
+        synchronized boolean flush() throws IOException
+        {
+            if (!synced)
+                return true;
+            while (!outq.isEmpty())
+            {
+                ByteBuffer b = outq.peek();
+                int n = channel.write(b);
+                if (n > 0) {
+                    queued -= n;
+                    lastprogress = System.currentTimeMillis();
+                }
+                if (b.hasRemaining())
+                    return false;
+                outq.poll();
+            }
+            return true;
+        }
+
+        synchronized boolean isStalled(long now)
+        {
+            return closing || (synced && !outq.isEmpty() && (now - lastprogress > stallms));
+        }
+    }
+
 
     public TimerServer(String type) throws IOException
     {
+        serverchannel = ServerSocketChannel.open();
         try {
-            serversock = new ServerSocket(TIMER_DEFAULT_PORT);
+            serverchannel.bind(new InetSocketAddress(TIMER_DEFAULT_PORT));
         } catch (IOException ioe) {
-            serversock = new ServerSocket(0);
+            serverchannel.close();
+            serverchannel = ServerSocketChannel.open();
+            serverchannel.bind(new InetSocketAddress(0));
         }
+        serverchannel.configureBlocking(false);
+        selector = Selector.open();
+        serverchannel.register(selector, SelectionKey.OP_ACCEPT);
+
         servicetype = type;
-        log.log(Level.INFO, "Service {0} started on port {1}", new Object[]{type, serversock.getLocalPort()});
+        replay = new ReplayLog((type != null) ? Prefs.getSpoolDirectory().resolve("timerreplay-" + type + ".jsonl") : null);
+        log.log(Level.INFO, "Service {0} started on port {1}", new Object[]{type, getPort()});
 
-        clients = new Vector<TimerClient>();
+        clients  = ConcurrentHashMap.newKeySet();
+        pending  = new ConcurrentLinkedQueue<Connection>();
+        dropped  = new LongAdder();
+        maxqueue = MAX_QUEUE_BYTES;
+        stallms  = STALL_MS;
+        hellowait = HELLO_WAIT_MS;
         done = true;
     }
 
@@ -58,78 +206,165 @@ public class TimerServer implements RunServiceInterface
     {
         if (!done) return;
         done = false;
-        new Thread(new ServiceThread()).start();
+        receiver = Executors.newSingleThreadExecutor(r -> { Thread t = new Thread(r, "TimerServerReceive"); t.setDaemon(true); return t; });
+        new Thread(new ServiceThread(), "TimerServer").start();
     }
 
     public void stop()
     {
         done = true;
+        selector.wakeup();
+    }
+
+    public int getPort()
+    {
+        return serverchannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the number of currently connected clients
+     */
+    public int getClientCount()
+    {
+        return clients.size();
+    }
+
+    /**
+     * @return the number of clients disconnected for not keeping up
+     */
+    public long getDroppedCount()
+    {
+        return dropped.sum();
     }
 
     @Override
     public boolean sendTree()
     {
-        return forEachClient(tc -> tc.sendTree());
+        return broadcast(TimerCodec.TREE_MESSAGE, null);
     }
 
     @Override
     public boolean sendDial(LeftRightDialin d)
     {
-        return forEachClient(tc -> tc.sendDial(d));
+        return broadcast(TimerCodec.DIAL2_MESSAGE, d);
     }
 
     @Override
     public boolean sendLDial(double left)
     {
-        return forEachClient(tc -> tc.sendLDial(left));
+        return broadcast(TimerCodec.DIALL_MESSAGE, left);
     }
 
     @Override
     public boolean sendRDial(double right)
     {
-        return forEachClient(tc -> tc.sendRDial(right));
+        return broadcast(TimerCodec.DIALR_MESSAGE, right);
     }
 
     @Override
     public boolean sendRun(Run.WithRowId r)
     {
-        return forEachClient(tc -> tc.sendRun(r));
+        return broadcast(TimerCodec.RUN_MESSAGE, r);
     }
 
     @Override
     public boolean deleteRun(Run.WithRowId r)
     {
-        return forEachClient(tc -> tc.deleteRun(r));
+        return broadcast(TimerCodec.RUN_DELETE_MESSAGE, r);
     }
 
-    private boolean forEachClient(Function<TimerClient, Boolean> operation)
+    /**
+     * Queue the message for every client and let the selector thread do the writing
+     * @return false if any client had to be dropped
+     */
+    private boolean broadcast(String type, Object data)
     {
-        boolean ok = clients.stream().map(operation).reduce(true, (a,b) -> a&&b);
-        clients.removeIf(tc -> tc.done);
+        long start = System.nanoTime();
+        boolean ok = true;
+        synchronized (sendlock)
+        {
+            ReplayLog.Entry msg;
+            try {
+                msg = replay.stamp(type, data, TimerCodec.isReplayed(type));
+            } catch (IOException ioe) {
+                log.log(Level.WARNING, "Unable to encode timer message: " + ioe, ioe);
+                return false;
+            }
+
+            log.log(Level.FINE, "Sending {0} {1} to {2} clients", new Object[] { type, data, clients.size() });
+            for (Connection c : clients) {
+                if (!c.offer(msg))
+                    ok = false;
+                pending.add(c);
+            }
+        }
+        selector.wakeup();
+        TimingTrace.record(TimingTrace.Hop.FANOUT, start);
         return ok;
     }
 
 
     class ServiceThread implements Runnable
     {
+        ByteBuffer readbuf = ByteBuffer.allocate(8192);
+        TimerCodec decoder = new TimerCodec();
+        long nextcheck = 0;
+
         @Override
         public void run()
         {
             try
             {
-                ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
-                data.put("serviceport", serversock.getLocalPort());
-                Discovery.get().registerService(Prefs.getServerId(), servicetype, data);
-                Messenger.sendEvent(MT.TIMER_SERVICE_LISTENING, new Object[] { this, serversock.getLocalPort() } );
+                if (servicetype != null) {
+                    ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
+                    data.put("serviceport", getPort());
+                    Discovery.get().registerService(Prefs.getServerId(), servicetype, data);
+                }
+                Messenger.sendEvent(MT.TIMER_SERVICE_LISTENING, new Object[] { TimerServer.this, getPort() } );
 
                 while (!done)
                 {
                     try
                     {
-                        Socket s = serversock.accept();
-                        TimerClient c = new TimerClient(s);
-                        c.start();
-                        clients.add(c);
+                        selector.select(1000);
+                        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                        while (iter.hasNext())
+                        {
+                            SelectionKey key = iter.next();
+                            iter.remove();
+                            if (!key.isValid())
+                                continue;
+                            if (key.isAcceptable()) {
+                                accept();
+                                continue;
+                            }
+                            Connection c = (Connection)key.attachment();
+                            try {
+                                if (key.isReadable())
+                                    read(c);
+                                if (key.isValid() && key.isWritable())
+                                    write(c);
+                            } catch (IOException ioe) {
+                                log.log(Level.INFO, "Timer client {0} error: {1}", new Object[] { c.remote, ioe });
+                                close(c);
+                            }
+                        }
+
+                        Connection c;
+                        while ((c = pending.poll()) != null)
+                        {
+                            try {
+                                if (c.isStalled(0))
+                                    drop(c, "isn't keeping up");
+                                else if (c.key.isValid())
+                                    write(c);
+                            } catch (IOException ioe) {
+                                log.log(Level.INFO, "Timer client {0} error: {1}", new Object[] { c.remote, ioe });
+                                close(c);
+                            }
+                        }
+
+                        checkStalled();
                     }
                     catch (IOException ioe)
                     {
@@ -137,20 +372,142 @@ public class TimerServer implements RunServiceInterface
                     }
                 }
 
-                for (TimerClient tc : clients)
-                {
-                    tc.stop();
-                }
+                for (Connection c : clients)
+                    close(c);
 
-                Discovery.get().unregisterService(Prefs.getServerId(), servicetype);
-                try { serversock.close(); } catch (IOException ioe) {}
+                if (servicetype != null)
+                    Discovery.get().unregisterService(Prefs.getServerId(), servicetype);
+                try { serverchannel.close(); } catch (IOException ioe) {}
+                try { selector.close(); } catch (IOException ioe) {}
+                receiver.shutdown();
+                replay.close();
 
-                Messenger.sendEvent(MT.TIMER_SERVICE_NOTLISTENING, this);
+                Messenger.sendEvent(MT.TIMER_SERVICE_NOTLISTENING, TimerServer.this);
             }
             catch (JsonProcessingException je)
             {
                 log.log(Level.WARNING, "Failure in timer server setup/teardown: " + je, je);
             }
         }
+
+        private void accept() throws IOException
+        {
+            SocketChannel s = serverchannel.accept();
+            if (s == null)
+                return;
+            s.configureBlocking(false);
+            s.socket().setTcpNoDelay(true);
+            Connection c = new Connection(s);
+            c.key = s.register(selector, SelectionKey.OP_READ, c);
+            clients.add(c);
+            log.log(Level.INFO, "Timer client connected from {0}", c.remote);
+        }
+
+        /**
+         * Split incoming data into lines, they are decoded and dispatched on the receive thread so a slow
+         * listener doesn't hold up the sockets
+         */
+        private void read(Connection c) throws IOException
+        {
+            readbuf.clear();
+            int n = c.channel.read(readbuf);
+            if (n < 0) {
+                close(c);
+                return;
+            }
+            for (int ii = 0; ii < n; ii++)
+            {
+                byte b = readbuf.get(ii);
+                if (b == '\n') {
+                    byte[] line = c.line.toByteArray();
+                    c.line.reset();
+                    TimerCodec.Message msg;
+                    try {
+                        msg = decoder.decode(line, 0, line.length);
+                    } catch (IOException ioe) {
+                        log.warning(String.format("TimerServer processing error: %s (%s)", new String(line).trim(), ioe));
+                        continue;
+                    }
+                    if (msg == null)
+                        continue;
+                    if (msg.type.equals(TimerCodec.HELLO_MESSAGE)) {
+                        hello(c, msg);
+                        continue;
+                    }
+                    receiver.execute(() -> receive(msg));
+                } else {
+                    c.line.write(b);
+                    if (c.line.size() > MAX_LINE)
+                        throw new IOException("line too long");
+                }
+            }
+        }
+
+        private void hello(Connection c, TimerCodec.Message msg) throws IOException
+        {
+            Long last = (msg.seen != null) ? msg.seen.get(replay.session) : null;
+            c.sync((last != null) ? last : -1);
+            write(c);
+        }
+
+        private void write(Connection c) throws IOException
+        {
+            if (c.flush())
+                c.key.interestOps(SelectionKey.OP_READ);
+            else
+                c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void checkStalled()
+        {
+            long now = System.currentTimeMillis();
+            if (now < nextcheck)
+                return;
+            nextcheck = now + 1000;
+            for (Connection c : clients) {
+                if (!c.synced && (now - c.connected > hellowait)) {  // an older client that doesn't say hello
+                    c.sync(-1);
+                    try {
+                        write(c);
+                    } catch (IOException ioe) {
+                        close(c);
+                        continue;
+                    }
+                }
+                if (c.isStalled(now))
+                    drop(c, "stopped reading");
+            }
+        }
+
+        private void drop(Connection c, String why)
+        {
+            if (!clients.contains(c))
+                return;
+            log.log(Level.INFO, "Timer client {0} {1}, dropping it", new Object[] { c.remote, why });
+            dropped.increment();
+            close(c);
+        }
+
+        private void close(Connection c)
+        {
+            if (!clients.remove(c))
+                return;
+            synchronized (c) {
+                c.closing = true;
+            }
+            c.key.cancel();
+            try { c.channel.close(); } catch (IOException ioe) {}
+            log.log(Level.INFO, "Timer client {0} closed", c.remote);
+        }
+    }
+
+    private void receive(TimerCodec.Message msg)
+    {
+        try {
+            log.log(Level.INFO, "TimerServer reads: {0}", msg.line);
+            TimerClient.dispatch(msg);
+        } catch (Exception e) {
+            log.warning(String.format("TimerServer processing error: %s (%s)", msg.line, e));
+        }
     }
 }
@@ -129,6 +129,8 @@ public class AppSetup
         }
 
         applog.info("*** "+ name + " starting at " + new Date() + ", version=" + Prefs.getFullVersion());
+        // track how long the GUI thread is blocked so we can find anything slow that runs on it
+        EventThreadMonitor.start();
         // force the initialization of IdGenerator on another thread so app can start now without an odd delay later
         new Thread() {
             public void run() {
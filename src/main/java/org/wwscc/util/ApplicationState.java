@@ -20,6 +20,20 @@ public class ApplicationState {
        private int currentRunGroup;
        private UUID currentChallengeId;
 
+       public ApplicationState() {}
+
+       /**
+        * Copy the current values, i.e. to hand a fixed snapshot to a background thread
+        */
+       public ApplicationState(ApplicationState other)
+       {
+           currentSeries      = other.currentSeries;
+           currentEvent       = other.currentEvent;
+           currentCourse      = other.currentCourse;
+           currentRunGroup    = other.currentRunGroup;
+           currentChallengeId = other.currentChallengeId;
+       }
+
        public void setCurrentSeries(String s) { currentSeries = s; }
        public void setCurrentEvent(EventInfo e) { currentEvent = e; }
        public void setCurrentCourse(int course) { currentCourse = course; }
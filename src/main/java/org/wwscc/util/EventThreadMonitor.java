@@ -0,0 +1,136 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures how long the GUI event thread (Swing EDT or FX thread) is blocked.  A heartbeat is posted to the
+ * event thread at a fixed interval and the delay until it actually runs is recorded.  Long stalls are logged
+ * with the event thread stack so the culprit can be found, and a summary is logged periodically.
+ */
+public class EventThreadMonitor
+{
+    private static final Logger log = Logger.getLogger(EventThreadMonitor.class.getCanonicalName());
+
+    public static final long INTERVAL_MS  = 100;
+    public static final long STALL_MS     = 100;
+    public static final long LOG_STALL_MS = 500;
+    public static final long SUMMARY_MS   = 300000;
+
+    /**
+     * Snapshot of the counters for reporting
+     */
+    public static class Stats
+    {
+        public long beats, stalls, longstalls;
+        public double avglagms, maxlagms;
+
+        @Override
+        public String toString()
+        {
+            return String.format("event thread beats=%d avglag=%.2fms maxlag=%.2fms stalls(>%dms)=%d stalls(>%dms)=%d",
+                        beats, avglagms, maxlagms, STALL_MS, stalls, LOG_STALL_MS, longstalls);
+        }
+    }
+
+    private static EventThreadMonitor monitor = null;
+
+    private volatile Thread eventThread;
+    private volatile long posted;
+    private long beats, stalls, longstalls, totallagns, maxlagns;
+
+    /**
+     * Start monitoring the event thread for the current Messenger mode, only the first call does anything
+     */
+    public static synchronized void start()
+    {
+        if (monitor != null)
+            return;
+        monitor = new EventThreadMonitor();
+        Thread t = new Thread(monitor::loop, "EventThreadMonitor");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return the current counters or null if the monitor was never started
+     */
+    public static Stats getStats()
+    {
+        EventThreadMonitor m = monitor;
+        return (m != null) ? m.stats() : null;
+    }
+
+    private synchronized Stats stats()
+    {
+        Stats s = new Stats();
+        s.beats      = beats;
+        s.stalls     = stalls;
+        s.longstalls = longstalls;
+        s.avglagms   = (beats > 0) ? totallagns / (beats * 1e6) : 0;
+        s.maxlagms   = maxlagns / 1e6;
+        return s;
+    }
+
+    private void loop()
+    {
+        long lastsummary = System.currentTimeMillis();
+        long lastlogged = 0;
+        while (true)
+        {
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException ie) {
+                return;
+            }
+
+            // don't pile up heartbeats behind a stalled thread, just keep watching the current one
+            if (posted == 0) {
+                posted = System.nanoTime();
+                Messenger.runOnEventThread(this::beat);
+            } else {
+                long waiting = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - posted);
+                Thread et = eventThread;
+                if ((waiting > LOG_STALL_MS) && (lastlogged != posted) && (et != null)) {
+                    lastlogged = posted;
+                    StringBuilder trace = new StringBuilder();
+                    for (StackTraceElement e : et.getStackTrace())
+                        trace.append("\n\tat ").append(e);
+                    log.log(Level.INFO, "Event thread blocked for {0}ms{1}", new Object[] { waiting, trace });
+                }
+            }
+
+            if (System.currentTimeMillis() - lastsummary > SUMMARY_MS) {
+                lastsummary = System.currentTimeMillis();
+                Stats s = stats();
+                if (s.stalls > 0)
+                    log.info(s.toString());
+            }
+        }
+    }
+
+    private void beat()
+    {
+        long lag = System.nanoTime() - posted;
+        eventThread = Thread.currentThread();
+        synchronized (this) {
+            beats++;
+            totallagns += lag;
+            maxlagns = Math.max(maxlagns, lag);
+            if (lag > TimeUnit.MILLISECONDS.toNanos(STALL_MS))
+                stalls++;
+            if (lag > TimeUnit.MILLISECONDS.toNanos(LOG_STALL_MS))
+                longstalls++;
+        }
+        posted = 0;
+    }
+}
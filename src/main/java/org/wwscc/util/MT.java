@@ -90,6 +90,7 @@ public enum MT {
     // Serial Timer Input
     SERIAL_TIMER_DATA,
     SERIAL_GENERIC_DATA,
+    SERIAL_GENERIC_PARSED,
     SERIAL_PORT_OPEN,
     SERIAL_PORT_CLOSED,
     SERIAL_PORT_DEBUG_DATA,
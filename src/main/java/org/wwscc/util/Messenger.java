@@ -25,6 +25,7 @@ public class Messenger
     private static final Logger log = Logger.getLogger(Messenger.class.getCanonicalName());
     private static EnumMap<MT, Set<MessageListener>> listPtrs = new EnumMap<MT, Set<MessageListener>>(MT.class);
     private static Mode mode = Mode.SWING_THREAD;
+    private static final long SLOW_HANDLER_MS = 100;
 
     static public void setTestMode()
     {
@@ -36,6 +37,41 @@ public class Messenger
         mode = Mode.FX_THREAD;
     }
 
+    /**
+     * @return true if the calling thread is the thread that messages are delivered on (EDT or FX thread).
+     * Always false in test mode where messages are delivered on the sending thread.
+     */
+    public static boolean isEventThread()
+    {
+        switch (mode)
+        {
+            case SWING_THREAD: return SwingUtilities.isEventDispatchThread();
+            case FX_THREAD:    return Platform.isFxApplicationThread();
+            default:           return false;
+        }
+    }
+
+    /**
+     * Run something on the thread that messages are delivered on, i.e. to return database results to the GUI
+     * @param r the code to run
+     */
+    public static void runOnEventThread(Runnable r)
+    {
+        switch (mode)
+        {
+            case SWING_THREAD:
+                SwingUtilities.invokeLater(r);
+                break;
+            case FX_THREAD:
+                Platform.runLater(r);
+                break;
+            case SENDER_THREAD:
+            default:
+                r.run();
+                break;
+        }
+    }
+
     static public synchronized void unregisterAll(MessageListener listener)
     {
         for (Set<MessageListener> s : listPtrs.values())
@@ -64,29 +100,39 @@ public class Messenger
     {
         if (!listPtrs.containsKey(type))
             return;
+        final long origin = TimingTrace.origin();  // timer data carries its arrival time to the handlers
+        final long sent = (origin != 0) ? System.nanoTime() : 0;
         switch (mode)
         {
             case SWING_THREAD:
-                SwingUtilities.invokeLater(() -> sendEventNowWrapper(type, data));
+                SwingUtilities.invokeLater(() -> sendEventNowWrapper(type, data, origin, sent));
                 break;
 
             case FX_THREAD:
-                Platform.runLater(() -> sendEventNowWrapper(type, data));
+                Platform.runLater(() -> sendEventNowWrapper(type, data, origin, sent));
                 break;
 
             case SENDER_THREAD:
             default:
-                sendEventNowWrapper(type, data);
+                sendEventNowWrapper(type, data, origin, sent);
                 break;
         }
     }
 
-    private static void sendEventNowWrapper(MT type, Object data)
+    private static void sendEventNowWrapper(MT type, Object data, long origin, long sent)
     {
+        long prev = 0;
+        if (origin != 0) {
+            prev = TimingTrace.begin(origin);
+            TimingTrace.record(TimingTrace.Hop.DISPATCH, sent);
+        }
         try {
             sendEventNow(type, data);
         } catch (Exception e) {
             log.log(Level.WARNING, "Error sending " + type.toString() + ": " + e.getMessage(), e);
+        } finally {
+            if (origin != 0)
+                TimingTrace.end(prev);
         }
     }
 
@@ -95,7 +141,11 @@ public class Messenger
         Set<MessageListener> h = listPtrs.get(type);
         if (h == null) return;
         for (MessageListener ml : h) {
+            long start = System.nanoTime();
             ml.event(type, data);
+            long ms = (System.nanoTime() - start) / 1000000;
+            if (ms > SLOW_HANDLER_MS)
+                log.log(Level.FINE, "{0} handler {1} took {2}ms", new Object[] { type, ml.getClass().getName(), ms });
         }
     }
 }
@@ -0,0 +1,181 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a raw deflate stream with fixed size blocks compressed on a thread pool, in the manner of pigz.
+ * Each block is primed with the last 32K of the previous block and ends on a byte boundary (sync flush)
+ * so the compressed blocks can simply be concatenated in order.  The result is a single valid deflate
+ * stream only slightly larger than a serial one.  The CRC and sizes are tracked for the zip/gzip wrapper.
+ */
+public class ParallelDeflateOutputStream extends OutputStream
+{
+    public static final int BLOCK_SIZE = 128*1024;
+    public static final int DICT_SIZE  = 32*1024;
+
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS,
+            r -> { Thread t = new Thread(r, "ParallelDeflate"); t.setDaemon(true); return t; });
+
+    private final OutputStream out;
+    private final int level;
+    private final ArrayDeque<Future<byte[]>> inflight;
+    private final CRC32 crc;
+    private byte[] block;
+    private byte[] dict;
+    private int used;
+    private long bytesin, bytesout;
+    private boolean finished;
+
+    /**
+     * @param out where to write the compressed data, it is not closed by finish
+     * @param fast true for speed (level 1), false for size (level 9)
+     */
+    public ParallelDeflateOutputStream(OutputStream out, boolean fast)
+    {
+        this(out, fast ? Deflater.BEST_SPEED : Deflater.BEST_COMPRESSION);
+    }
+
+    public ParallelDeflateOutputStream(OutputStream out, int level)
+    {
+        this.out      = out;
+        this.level    = level;
+        this.inflight = new ArrayDeque<Future<byte[]>>();
+        this.crc      = new CRC32();
+        this.block    = new byte[BLOCK_SIZE];
+        this.dict     = null;
+        this.used     = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        write(new byte[] { (byte)b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (finished)
+            throw new IOException("write after finish");
+        crc.update(b, off, len);
+        bytesin += len;
+        while (len > 0)
+        {
+            int n = Math.min(len, block.length - used);
+            System.arraycopy(b, off, block, used, n);
+            used += n;
+            off  += n;
+            len  -= n;
+            if (used == block.length)
+                submit(false);
+        }
+    }
+
+    private void submit(boolean last) throws IOException
+    {
+        final byte[] data   = block;
+        final byte[] prime  = dict;
+        final int length    = used;
+        inflight.add(pool.submit(() -> compress(data, length, prime, level, last)));
+
+        dict  = Arrays.copyOfRange(data, Math.max(0, length - DICT_SIZE), length);
+        block = new byte[BLOCK_SIZE];
+        used  = 0;
+
+        // bound the memory in use, twice the thread count keeps everyone busy while we write
+        while (inflight.size() > THREADS * 2)
+            drain();
+    }
+
+    private void drain() throws IOException
+    {
+        try {
+            byte[] c = inflight.poll().get();
+            out.write(c);
+            bytesout += c.length;
+        } catch (InterruptedException ie) {
+            throw new InterruptedIOException("interrupted while compressing");
+        } catch (ExecutionException ee) {
+            throw new IOException("compression failed: " + ee.getCause(), ee.getCause());
+        }
+    }
+
+    static byte[] compress(byte[] data, int length, byte[] prime, int level, boolean last)
+    {
+        Deflater d = new Deflater(level, true);
+        try {
+            if (prime != null)
+                d.setDictionary(prime);
+            d.setInput(data, 0, length);
+            ByteArrayOutputStream ret = new ByteArrayOutputStream(length/2 + 64);
+            byte[] buf = new byte[16384];
+            if (last) {
+                d.finish();
+                while (!d.finished())
+                    ret.write(buf, 0, d.deflate(buf));
+            } else {
+                int n;
+                do { // a full buffer means there may be more output pending
+                    n = d.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+                    ret.write(buf, 0, n);
+                } while (n == buf.length);
+            }
+            return ret.toByteArray();
+        } finally {
+            d.end();
+        }
+    }
+
+    /**
+     * Compress the remaining data and write the end of the deflate stream, the underlying stream is left open
+     */
+    public void finish() throws IOException
+    {
+        if (finished)
+            return;
+        submit(true);
+        while (!inflight.isEmpty())
+            drain();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    public long getCrc()      { return crc.getValue(); }
+    public long getBytesIn()  { return bytesin; }
+    public long getBytesOut() { return bytesout; }
+}
@@ -0,0 +1,272 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A replacement for ZipOutputStream when writing larger files, entry data is compressed with
+ * ParallelDeflateOutputStream.  Sizes and CRC follow each entry in a data descriptor as they aren't known
+ * ahead of time.  Zip64 records are added only when an entry or the file goes over 4GB.  Readers decide on
+ * the data descriptor size from the local header, so entries that might get that large have to be marked
+ * as such when they are started.
+ */
+public class ParallelZipOutputStream extends OutputStream
+{
+    private static final long ZIP64 = 0xFFFFFFFFL;
+
+    static class Entry
+    {
+        byte[] name;
+        int dostime;
+        boolean zip64;
+        long crc, csize, usize, offset;
+    }
+
+    /** counts the bytes written to the file so we know the offsets */
+    static class Counter extends FilterOutputStream
+    {
+        long count;
+        Counter(OutputStream out) { super(out); }
+        @Override public void write(int b) throws IOException { out.write(b); count++; }
+        @Override public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+    }
+
+    private final Counter out;
+    private final boolean fast;
+    private final long zip64limit;
+    private final List<Entry> entries;
+    private Entry current;
+    private ParallelDeflateOutputStream deflate;
+    private boolean finished;
+
+    /**
+     * @param out where to write the zip file
+     * @param fast true to favor speed over size
+     */
+    public ParallelZipOutputStream(OutputStream out, boolean fast)
+    {
+        this(out, fast, ZIP64);
+    }
+
+    /**
+     * @param zip64limit sizes and offsets at or over this need zip64 records, lets tests fake a large file
+     */
+    ParallelZipOutputStream(OutputStream out, boolean fast, long zip64limit)
+    {
+        this.out        = new Counter(out);
+        this.fast       = fast;
+        this.zip64limit = zip64limit;
+        this.entries    = new ArrayList<Entry>();
+    }
+
+    public void putNextEntry(String name) throws IOException
+    {
+        putNextEntry(name, false);
+    }
+
+    /**
+     * @param name the entry name
+     * @param large true if the entry could reach 4GB, its local header then has a zip64 field and the data
+     * descriptor always has 8 byte sizes
+     */
+    public void putNextEntry(String name, boolean large) throws IOException
+    {
+        closeEntry();
+        current = new Entry();
+        current.name    = name.getBytes(StandardCharsets.UTF_8);
+        current.dostime = dosTime(LocalDateTime.now());
+        current.zip64   = large;
+        current.offset  = out.count;
+
+        writeInt(0x04034b50);
+        writeShort(large ? 45 : 20); // version needed
+        writeShort(0x0808);        // data descriptor follows, UTF-8 names
+        writeShort(8);             // deflate
+        writeInt(current.dostime);
+        writeInt(0);               // crc and sizes are in the data descriptor
+        writeInt(0);
+        writeInt(0);
+        writeShort(current.name.length);
+        writeShort(large ? 20 : 0);
+        out.write(current.name);
+        if (large) {
+            writeShort(0x0001);    // zip64 with sizes left as zero, like the header
+            writeShort(16);
+            writeLong(0);
+            writeLong(0);
+        }
+
+        deflate = new ParallelDeflateOutputStream(out, fast);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+        if (current == null)
+            throw new IOException("no current entry");
+        deflate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+        if (current == null)
+            throw new IOException("no current entry");
+        deflate.write(b, off, len);
+    }
+
+    public void closeEntry() throws IOException
+    {
+        if (current == null)
+            return;
+        deflate.finish();
+        current.crc   = deflate.getCrc();
+        current.csize = deflate.getBytesOut();
+        current.usize = deflate.getBytesIn();
+
+        writeInt(0x08074b50);
+        writeInt((int)current.crc);
+        if (current.zip64 || (current.csize >= zip64limit) || (current.usize >= zip64limit)) {
+            // an unmarked entry over 4GB is still readable from the central directory, not by streaming readers
+            writeLong(current.csize);
+            writeLong(current.usize);
+        } else {
+            writeInt((int)current.csize);
+            writeInt((int)current.usize);
+        }
+
+        entries.add(current);
+        current = null;
+        deflate = null;
+    }
+
+    /**
+     * Write the central directory, the underlying stream is left open
+     */
+    public void finish() throws IOException
+    {
+        if (finished)
+            return;
+        closeEntry();
+
+        long cdstart = out.count;
+        for (Entry e : entries)
+        {
+            boolean big = (e.csize >= zip64limit) || (e.usize >= zip64limit) || (e.offset >= zip64limit);
+            int extra = big ? 28 : 0;
+            int version = (big || e.zip64) ? 45 : 20;
+
+            writeInt(0x02014b50);
+            writeShort(version);       // version made by
+            writeShort(version);       // version needed
+            writeShort(0x0808);
+            writeShort(8);
+            writeInt(e.dostime);
+            writeInt((int)e.crc);
+            writeInt(big ? (int)ZIP64 : (int)e.csize);
+            writeInt(big ? (int)ZIP64 : (int)e.usize);
+            writeShort(e.name.length);
+            writeShort(extra);
+            writeShort(0);  // comment
+            writeShort(0);  // disk
+            writeShort(0);  // internal attr
+            writeInt(0);    // external attr
+            writeInt(big ? (int)ZIP64 : (int)e.offset);
+            out.write(e.name);
+            if (big) {
+                writeShort(0x0001);
+                writeShort(24);
+                writeLong(e.usize);
+                writeLong(e.csize);
+                writeLong(e.offset);
+            }
+        }
+        long cdsize = out.count - cdstart;
+
+        if ((cdstart >= zip64limit) || (entries.size() >= 0xFFFF))
+        {
+            long zip64end = out.count;
+            writeInt(0x06064b50);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(cdsize);
+            writeLong(cdstart);
+
+            writeInt(0x07064b50);
+            writeInt(0);
+            writeLong(zip64end);
+            writeInt(1);
+        }
+
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(entries.size(), 0xFFFF));
+        writeShort(Math.min(entries.size(), 0xFFFF));
+        writeInt((int)cdsize);
+        writeInt((int)Math.min(cdstart, ZIP64));
+        writeShort(0);
+        out.flush();
+        finished = true;
+    }
+
+    @Override
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    static int dosTime(LocalDateTime t)
+    {
+        if (t.getYear() < 1980)
+            return (1 << 21) | (1 << 16);
+        return ((t.getYear() - 1980) << 25) | (t.getMonthValue() << 21) | (t.getDayOfMonth() << 16) |
+                (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+    }
+
+    private void writeShort(int v) throws IOException
+    {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private void writeInt(int v) throws IOException
+    {
+        writeShort(v & 0xFFFF);
+        writeShort((v >>> 16) & 0xFFFF);
+    }
+
+    private void writeLong(long v) throws IOException
+    {
+        writeInt((int)v);
+        writeInt((int)(v >>> 32));
+    }
+}
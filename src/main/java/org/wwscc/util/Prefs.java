@@ -156,6 +156,11 @@ public class Prefs
         return ensureDirectory(getRootDir().resolve(Paths.get(getVersionBase(), "backup")));
     }
 
+    public static Path getSpoolDirectory()
+    {
+        return ensureDirectory(getRootDir().resolve(Paths.get(getVersionBase(), "spool")));
+    }
+
     public static UUID getServerId()
     {
         UUID ret;
@@ -200,6 +205,11 @@ public class Prefs
 
     public static String getScannerConfig(String type) { return prefs.get("scannerconfig-"+type, ""); }
     public static String getScannerInput() { return prefs.get("scannerinput", ""); }
+    public static boolean useEntityCache(String app) { return prefs.getBoolean("entitycache-"+app, true); }
+    public static boolean useFastCompression() { return prefs.getBoolean("fastcompression", true); }
+    public static boolean useIncrementalBackups() { return prefs.getBoolean("incrementalbackups", false); }
+    public static int getSlowQueryMs() { return prefs.getInt("slowqueryms", 250); }
+    public static boolean showStatementTimings() { return prefs.getBoolean("statementtimings", false); }
 
     public static Rectangle getWindowBounds(String p)
     {
@@ -228,6 +238,11 @@ public class Prefs
 
     public static void setScannerConfig(String type, String s) { prefs.put("scannerconfig-"+type, s); }
     public static void setScannerInput(String s) { prefs.put("scannerinput", s); }
+    public static void setEntityCache(String app, boolean b) { prefs.putBoolean("entitycache-"+app, b); }
+    public static void setFastCompression(boolean b) { prefs.putBoolean("fastcompression", b); }
+    public static void setIncrementalBackups(boolean b) { prefs.putBoolean("incrementalbackups", b); }
+    public static void setSlowQueryMs(int ms) { prefs.putInt("slowqueryms", ms); }
+    public static void setStatementTimings(boolean b) { prefs.putBoolean("statementtimings", b); }
 
     public static void setWindowBounds(String p, Rectangle r)
     {
@@ -9,6 +9,7 @@
 package org.wwscc.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -101,10 +102,16 @@ public class SerialPortUtil
         public void serialEvent(SerialPortEvent ev)
         {
             if (ev.getEventType() != SerialPort.LISTENING_EVENT_DATA_RECEIVED) return;
+            long arrived = System.nanoTime();
             try {
                 byte data[] = ev.getReceivedData();
                 Messenger.sendEvent(MT.SERIAL_PORT_DEBUG_DATA, data);
-                newData(data);
+                long prev = TimingTrace.begin(arrived);
+                try {
+                    newData(data);
+                } finally {
+                    TimingTrace.end(prev);
+                }
             } catch (Exception ioe) {
                 log.log(Level.WARNING, "serial port read error: " + ioe, ioe);
                 close();
@@ -159,88 +166,153 @@ public class SerialPortUtil
         public void processLine(byte[] data);
     }
 
+    /**
+     * Receives each line in place, the bytes are only valid until processLine returns
+     */
+    public interface SerialFrameListener
+    {
+        public void processLine(byte[] buf, int off, int len);
+    }
+
     public static class LineBasedSerialPort extends SerialBasic implements SerialPortDataListener
     {
         LineBasedSerialBuffer buffer;
-        SerialLineListener linelistener;
+        SerialFrameListener framelistener;
 
         public LineBasedSerialPort(String name, SerialLineListener lis) throws Exception
+        {
+            this(name, (buf, off, len) -> lis.processLine(Arrays.copyOfRange(buf, off, off+len)));
+        }
+
+        public LineBasedSerialPort(String name, SerialFrameListener lis) throws Exception
         {
             this(name, lis, 9600, 3000, 30);
         }
 
-        public LineBasedSerialPort(String name, SerialLineListener lis, int baud, int ctimeoutms, int rtimeoutsec) throws Exception
+        public LineBasedSerialPort(String name, SerialFrameListener lis, int baud, int ctimeoutms, int rtimeoutsec) throws Exception
         {
             buffer = new LineBasedSerialBuffer();
-            linelistener = lis;
+            framelistener = lis;
             openPort(name, this, baud, ctimeoutms, rtimeoutsec);
         }
 
         @Override
         public void newData(byte data[])
         {
-            byte line[];
             buffer.appendData(data);
-            while ((line = buffer.getNextLine()) != null)
-                linelistener.processLine(line);
+            while (buffer.nextLine(framelistener))
+                TimingTrace.record(TimingTrace.Hop.SERIAL, TimingTrace.origin());
         }
     }
 
 
+    /**
+     * A fixed size ring buffer that splits incoming data on CR or LF.  Lines are handed out in place
+     * unless they wrap around the end of the ring.  If the data never has a line ending the oldest
+     * bytes are dropped rather than growing the buffer.
+     */
     public static class LineBasedSerialBuffer
     {
-        byte[] buf;
-        int count;
-        int search;
+        public static final int CAPACITY = 4096;  // power of 2, far longer than any timer line
+        private static final int MASK = CAPACITY - 1;
+
+        final byte[] ring;
+        final byte[] wrapped;
+        int head;     // start of the unread data
+        int count;    // bytes of unread data
+        int search;   // bytes from head already checked for a line ending
+        long dropped;
 
         public LineBasedSerialBuffer()
         {
-            buf = new byte[128];
-            count = 0;
-            search = 0;
+            ring    = new byte[CAPACITY];
+            wrapped = new byte[CAPACITY];
         }
 
         public void appendData(byte inbuf[])
         {
-            int size = inbuf.length;
-            if (size + count > buf.length) // increase buffer size at runtime if needed
-            {
-                byte[] newbuffer = new byte[buf.length*2];
-                System.arraycopy(buf, 0, newbuffer, 0, count);
-                buf = newbuffer;
-                log.log(Level.INFO, "Increased byte buffer size to: {0}", buf.length);
+            appendData(inbuf, 0, inbuf.length);
+        }
+
+        public void appendData(byte inbuf[], int off, int len)
+        {
+            if (len > CAPACITY) {
+                off += len - CAPACITY;
+                discard(len - CAPACITY);
+                len = CAPACITY;
             }
-            for (int ii = 0; ii < inbuf.length; ii++, count++) {
-                buf[count] = inbuf[ii];
+            int over = count + len - CAPACITY;
+            if (over > 0) {
+                head   = (head + over) & MASK;
+                count -= over;
+                search = Math.max(0, search - over);
+                discard(over);
             }
+
+            int tail  = (head + count) & MASK;
+            int first = Math.min(len, CAPACITY - tail);
+            System.arraycopy(inbuf, off, ring, tail, first);
+            System.arraycopy(inbuf, off + first, ring, 0, len - first);
+            count += len;
         }
 
-        public byte[] getNextLine()
+        private void discard(int n)
+        {
+            if (dropped == 0)
+                log.log(Level.WARNING, "Serial data has no line endings, dropping old data");
+            dropped += n;
+        }
+
+        /**
+         * Pass the next non-empty line to the listener
+         * @return false if there is no complete line yet
+         */
+        public boolean nextLine(SerialFrameListener listener)
         {
             for ( ; search < count; search++)
             {
-                if ((buf[search] == '\r') || (buf[search] == '\n'))
-                {
-                    // copy out line from start of buffer
-                    byte[] ret = new byte[search];
-                    System.arraycopy(buf, 0, ret, 0, search);
-
-                    // skip any \r or \n
-                    while( ((buf[search] == '\r') || (buf[search] == '\n')) && (search < count))
-                        search += 1;
-
-                    // move from search back to start of buffer
-                    System.arraycopy(buf, search, buf, 0, count-search);
-                    count -= search;
-                    search = 0;
-
-                    if (ret.length > 0)
-                        return ret;
-                    return null;
+                byte b = ring[(head + search) & MASK];
+                if ((b != '\r') && (b != '\n'))
+                    continue;
+
+                int start = head;
+                int len   = search;
+                head   = (head + search + 1) & MASK;
+                count -= search + 1;
+                search = -1;  // loop increment takes it to 0
+                if (len == 0)
+                    continue;
+
+                if (start + len <= CAPACITY) {
+                    listener.processLine(ring, start, len);
+                } else {
+                    int first = CAPACITY - start;
+                    System.arraycopy(ring, start, wrapped, 0, first);
+                    System.arraycopy(ring, 0, wrapped, first, len - first);
+                    listener.processLine(wrapped, 0, len);
                 }
+                search = 0;
+                return true;
             }
+            return false;
+        }
 
-            return null;
+        /**
+         * @return a copy of the next non-empty line or null if there isn't a complete one yet
+         */
+        public byte[] getNextLine()
+        {
+            byte[][] ret = new byte[1][];
+            nextLine((buf, off, len) -> ret[0] = Arrays.copyOfRange(buf, off, off+len));
+            return ret[0];
+        }
+
+        /**
+         * @return the number of bytes dropped because the buffer filled without a line ending
+         */
+        public long getDropped()
+        {
+            return dropped;
         }
     }
 }
@@ -0,0 +1,290 @@
+/*
+ * This software is licensed under the GPLv3 license, included as
+ * ./GPLv3-LICENSE.txt in the source distribution.
+ *
+ * Portions created by Brett Wilson are Copyright 2020 Brett Wilson.
+ * All rights reserved.
+ */
+
+package org.wwscc.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Latency of timer data as it moves from the serial port (or timer socket) through the event thread,
+ * the results model, the timer server and into the database.  The nanoTime a line arrived is the origin
+ * of a trace.  It is kept in a thread local while the line is handled and Messenger carries it along
+ * with any events sent, so each hop can report both its own time and the time since the data arrived.
+ * Data that waits for an operator, i.e. a time in the data entry time list, carries the origin on the
+ * Run itself.  Each hop is committed as a JFR event (org.wwscc.TimingHop) and kept in a rolling window
+ * for the percentiles shown in the debug pane.
+ * <p>
+ * nanoTime can't be compared between processes so a trace starts again on each station when the data
+ * arrives there.  The table notifications don't say which write caused them, so the database sends its
+ * own notification tagged with the id from committed and it is matched by that id in notified.
+ */
+public class TimingTrace
+{
+    public static final int WINDOW      = 1024;
+    public static final int MAX_COMMITS = 64;
+
+    public enum Hop
+    {
+        SERIAL("serial"),      // bytes received to line parsed and sent on
+        DISPATCH("dispatch"),  // Messenger send to the handler starting
+        RESULTS("results"),    // ResultsModel handling a finish
+        FANOUT("fanout"),      // TimerServer encoding and queueing for each client
+        ENTRY("entry"),        // time list handling a run from the timer
+        COMMIT("commit"),      // setRun or setChallengeRun statement
+        NOTIFY("notify");      // setRun finished to our runs notification arriving
+
+        final String label;
+        Hop(String label) { this.label = label; }
+    }
+
+    @Name("org.wwscc.TimingHop")
+    @Label("Timing Hop")
+    @Category({ "Scorekeeper", "Timing" })
+    @Description("One step of timer data moving from the timer to the database")
+    static class HopEvent extends Event
+    {
+        @Label("Hop")
+        String hop;
+
+        @Label("Hop Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long hopTime;
+
+        @Label("Since Arrival")
+        @Description("Time since the data arrived at this station, 0 if not known")
+        @Timespan(Timespan.NANOSECONDS)
+        long sinceArrival;
+    }
+
+    /**
+     * The most recent samples for one hop
+     */
+    static class Window
+    {
+        final long[] hop   = new long[WINDOW];
+        final long[] total = new long[WINDOW];
+        int next, size, traced;
+        long count;
+
+        synchronized void add(long hopns, long totalns)
+        {
+            if (size == WINDOW && total[next] > 0)
+                traced--;
+            hop[next]   = hopns;
+            total[next] = totalns;
+            if (totalns > 0)
+                traced++;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+            count++;
+        }
+
+        synchronized void clear()
+        {
+            next = size = traced = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Point in time percentiles for one hop over the rolling window
+     */
+    public static class Summary
+    {
+        public final Hop hop;
+        public final long count;
+        public final int samples;
+        public final double p50ms, p90ms, p99ms, maxms, totalp50ms, totalp99ms;
+
+        Summary(Hop hop, Window w)
+        {
+            long[] h, t;
+            synchronized (w) {
+                h = Arrays.copyOf(w.hop, w.size);
+                t = new long[w.traced];
+                for (int ii = 0, jj = 0; ii < w.size; ii++)
+                    if (w.total[ii] > 0)
+                        t[jj++] = w.total[ii];
+                this.count = w.count;
+            }
+            Arrays.sort(h);
+            Arrays.sort(t);
+
+            this.hop        = hop;
+            this.samples    = h.length;
+            this.p50ms      = percentile(h, 0.50);
+            this.p90ms      = percentile(h, 0.90);
+            this.p99ms      = percentile(h, 0.99);
+            this.maxms      = percentile(h, 1.00);
+            this.totalp50ms = percentile(t, 0.50);
+            this.totalp99ms = percentile(t, 0.99);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-8s %8d %8.2f %8.2f %8.2f %8.2f %10.2f %10.2f", hop.label, count, p50ms, p90ms, p99ms, maxms, totalp50ms, totalp99ms);
+        }
+    }
+
+    private static final ThreadLocal<long[]> origin = ThreadLocal.withInitial(() -> new long[1]);
+    private static final Map<Hop, Window> windows = new EnumMap<Hop, Window>(Hop.class);
+    private static final Map<Long, long[]> commits = new LinkedHashMap<Long, long[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) { return size() > MAX_COMMITS; }
+    };
+    private static long commitseq;
+
+    static {
+        for (Hop h : Hop.values())
+            windows.put(h, new Window());
+    }
+
+    /**
+     * Nearest rank percentile of sorted values in ms
+     */
+    static double percentile(long[] sorted, double p)
+    {
+        if (sorted.length == 0)
+            return 0;
+        int idx = (int)Math.ceil(sorted.length * p) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))] / 1e6;
+    }
+
+    /**
+     * @return the nanoTime the data being handled on this thread arrived, 0 if none
+     */
+    public static long origin()
+    {
+        return origin.get()[0];
+    }
+
+    /**
+     * Start handling data that arrived at nanos on this thread
+     * @return the previous origin to pass to end
+     */
+    public static long begin(long nanos)
+    {
+        long[] o = origin.get();
+        long prev = o[0];
+        o[0] = nanos;
+        return prev;
+    }
+
+    public static void end(long prev)
+    {
+        origin.get()[0] = prev;
+    }
+
+    /**
+     * Record a hop that started at startns and is finishing now
+     */
+    public static void record(Hop hop, long startns)
+    {
+        record(hop, startns, origin(), System.nanoTime());
+    }
+
+    /**
+     * Record a hop that started at startns and is finishing now for data that arrived at originns
+     */
+    public static void record(Hop hop, long startns, long originns)
+    {
+        record(hop, startns, originns, System.nanoTime());
+    }
+
+    private static void record(Hop hop, long startns, long originns, long now)
+    {
+        long hopns   = now - startns;
+        long totalns = (originns != 0) ? now - originns : 0;
+        windows.get(hop).add(hopns, totalns);
+
+        HopEvent e = new HopEvent();
+        if (e.isEnabled()) {
+            e.hop          = hop.label;
+            e.hopTime      = hopns;
+            e.sinceArrival = totalns;
+            e.commit();
+        }
+    }
+
+    /**
+     * Note a commit so the notification for it can be matched by notified.  Only the most recent
+     * MAX_COMMITS are kept in case notifications stop arriving.
+     * @param originns when the data arrived, 0 if not known
+     * @return the id to send with the notification
+     */
+    public static long committed(long originns)
+    {
+        long[] mark = new long[] { System.nanoTime(), originns };
+        synchronized (commits) {
+            commits.put(++commitseq, mark);
+            return commitseq;
+        }
+    }
+
+    /**
+     * The notification tagged with one of our commits arrived, record the NOTIFY hop against it
+     * @param id the id returned by committed
+     */
+    public static void notified(long id)
+    {
+        long[] mark;
+        synchronized (commits) {
+            mark = commits.remove(id);
+        }
+        if (mark != null)
+            record(Hop.NOTIFY, mark[0], mark[1], System.nanoTime());
+    }
+
+    /**
+     * @return the rolling percentiles of each hop that has seen data
+     */
+    public static List<Summary> summary()
+    {
+        List<Summary> ret = new ArrayList<Summary>();
+        for (Map.Entry<Hop, Window> e : windows.entrySet()) {
+            Summary s = new Summary(e.getKey(), e.getValue());
+            if (s.samples > 0)
+                ret.add(s);
+        }
+        return ret;
+    }
+
+    /**
+     * @return a text table of the rolling percentiles, all in ms
+     */
+    public static String report()
+    {
+        StringBuilder ret = new StringBuilder();
+        ret.append(String.format("%-8s %8s %8s %8s %8s %8s %10s %10s\n", "hop", "count", "p50", "p90", "p99", "max", "arrival50", "arrival99"));
+        for (Summary s : summary())
+            ret.append(s).append("\n");
+        return ret.toString();
+    }
+
+    public static void reset()
+    {
+        for (Window w : windows.values())
+            w.clear();
+        synchronized (commits) {
+            commits.clear();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.wwscc.dataentry;
+
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wwscc.storage.Run;
+import org.wwscc.util.MT;
+import org.wwscc.util.Messenger;
+
+public class SimpleTimeListModelTest
+{
+    @BeforeClass
+    public static void setup()
+    {
+        Messenger.setTestMode();
+    }
+
+    private static Run.WithRowId run(UUID rowid, double raw)
+    {
+        Run.WithRowId r = new Run.WithRowId();
+        r.setRowId(rowid);
+        r.setRaw(raw);
+        return r;
+    }
+
+    @Test
+    public void correctedRunAfterDelete()
+    {
+        SimpleTimeListModel model = new SimpleTimeListModel(0);
+        UUID rowid = UUID.randomUUID();
+
+        // the timer operator deletes a finish and enters it again, the same rowid is used both times
+        model.event(MT.TIMER_SERVICE_RUN, run(rowid, 45.123));
+        Assert.assertEquals(1, model.getSize());
+        model.event(MT.TIMER_SERVICE_DELETE, run(rowid, 45.123));
+        Assert.assertEquals(0, model.getSize());
+        model.event(MT.TIMER_SERVICE_RUN, run(rowid, 46.456));
+        Assert.assertEquals(1, model.getSize());
+        Assert.assertEquals(46.456, model.getRun(0).getRaw(), 0.0001);
+    }
+}
@@ -0,0 +1,170 @@
+package org.wwscc.protimer;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wwscc.util.MT;
+
+public class ProTimerParserTest
+{
+    /**
+     * Run every line of a captured serial session through the table parser and the split/equalsIgnoreCase
+     * parser it replaced and check they send the same events
+     */
+    @Test
+    public void matchesLegacyParser() throws Exception
+    {
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(getClass().getResourceAsStream("serialcapture.txt")))) {
+            String line;
+            while ((line = in.readLine()) != null)
+                lines.add(line);
+        }
+        Assert.assertTrue(lines.size() > 50);
+
+        for (String line : lines)
+        {
+            List<String> expected = new ArrayList<String>();
+            List<String> actual   = new ArrayList<String>();
+            try {
+                legacy(line, (t, o) -> expected.add(render(t, o)));
+            } catch (ArrayIndexOutOfBoundsException e) {
+                // the old parser threw on short lines and sent nothing
+            }
+            new ProTimerParser((t, o) -> actual.add(render(t, o))).parse(line);
+            Assert.assertEquals(line, expected, actual);
+        }
+    }
+
+    @Test
+    public void parseInPlace()
+    {
+        List<String> events = new ArrayList<String>();
+        ProTimerParser parser = new ProTimerParser((t, o) -> events.add(render(t, o)));
+        byte[] buf = "xxFIN R 12.345 12.000\rxx".getBytes();
+        parser.parse(buf, 2, 19);
+        parser.parse(buf, 0, 0);
+        Assert.assertEquals(Arrays.asList("FINISH_RIGHT [ct(12.345,0,NaN), Double:12.0]"), events);
+        Assert.assertEquals(2, parser.getParsedCount());
+        Assert.assertEquals(1, parser.getUnknownCount());
+    }
+
+    private static String render(MT type, Object o)
+    {
+        return type + " " + render(o);
+    }
+
+    private static String render(Object o)
+    {
+        if (o instanceof ColorTime) {
+            ColorTime c = (ColorTime)o;
+            return "ct(" + c.time + "," + c.state + "," + c.dial + ")";
+        }
+        if (o instanceof Object[]) {
+            List<String> ret = new ArrayList<String>();
+            for (Object e : (Object[])o)
+                ret.add(render(e));
+            return ret.toString();
+        }
+        if (o instanceof int[])
+            return Arrays.toString((int[])o);
+        return (o == null) ? "null" : o.getClass().getSimpleName() + ":" + o;
+    }
+
+    /*
+     * The parser from TimingInterface before the table version, kept as the reference
+     */
+    private static void legacy(String input, org.wwscc.util.MessageListener sink)
+    {
+        String args[] = input.split("[ \r\n]+");
+        boolean left;
+        double time, dial;
+
+        if (args[0].equalsIgnoreCase("rt"))
+            sink.event(get_side(args, 1)?MT.REACTION_LEFT:MT.REACTION_RIGHT, new ColorTime(get_value(args, 2), get_color(args, 3)));
+        else if (args[0].equalsIgnoreCase("sixty"))
+            sink.event(get_side(args, 1)?MT.SIXTY_LEFT:MT.SIXTY_RIGHT, new ColorTime(get_value(args, 2), get_color(args, 3)));
+        else if (args[0].equalsIgnoreCase("fin"))
+        {
+            left = get_side(args, 1);
+            ColorTime c = new ColorTime(get_value(args, 2), get_color(args, 4));
+            Double d = get_value(args, 3);
+            sink.event(left?MT.FINISH_LEFT:MT.FINISH_RIGHT, new Object[] { c, d });
+        }
+        else if (args[0].equalsIgnoreCase("win"))
+            sink.event(get_side(args, 1)?MT.WIN_LEFT:MT.WIN_RIGHT, null);
+        else if (args[0].equalsIgnoreCase("lead"))
+            sink.event(get_side(args, 1)?MT.LEAD_LEFT:MT.LEAD_RIGHT, get_value(args, 2));
+        else if (args[0].equalsIgnoreCase("challenge"))
+        {
+            left = get_side(args, 2);
+            time = get_value(args, 3);
+            dial = get_value(args, 4);
+            if (args[1].equalsIgnoreCase("overdial"))
+                sink.event(left?MT.CHALDIAL_LEFT:MT.CHALDIAL_RIGHT, new Double[] { time, dial } );
+            else if (args[1].equalsIgnoreCase("breakout"))
+                sink.event(left?MT.CHALDIAL_LEFT:MT.CHALDIAL_RIGHT, new Double[] {-time, dial } );
+            else if (args[1].equalsIgnoreCase("win"))
+                sink.event(left?MT.CHALWIN_LEFT:MT.CHALWIN_RIGHT, time);
+        }
+        else if (args[0].equalsIgnoreCase("dial"))
+        {
+            sink.event(get_side(args, 1)?MT.DIALIN_LEFT:MT.DIALIN_RIGHT, get_value(args, 2));
+            if (args.length >= 5)
+                sink.event(get_side(args, 3)?MT.DIALIN_LEFT:MT.DIALIN_RIGHT, get_value(args, 4));
+        }
+        else if (args[0].equalsIgnoreCase("open"))
+            sink.event(MT.OPEN_SENSOR, new Object[] { get_side(args, 1), args[2] });
+        else if (args[0].equalsIgnoreCase("tree"))
+            sink.event(MT.TREE, null);
+        else if (args[0].equalsIgnoreCase("ds"))
+            sink.event(get_side(args, 1)?MT.DELETE_START_LEFT:MT.DELETE_START_RIGHT, null);
+        else if (args[0].equalsIgnoreCase("df"))
+            sink.event(get_side(args, 1)?MT.DELETE_FINISH_LEFT:MT.DELETE_FINISH_RIGHT, null);
+        else if (args[0].equalsIgnoreCase("run"))
+            sink.event(MT.RUN_MODE, null);
+        else if (args[0].equalsIgnoreCase("align"))
+            sink.event(MT.ALIGN_MODE, null);
+        else if (args[0].equalsIgnoreCase("nip") && args.length > 1)
+        {
+            try {
+                sink.event(MT.RUNS_IN_PROGRESS, new int[] { Integer.parseInt(args[1]), Integer.parseInt(args[2]) });
+            } catch (NumberFormatException|ArrayIndexOutOfBoundsException e) {
+            }
+        }
+        else if (input.toLowerCase().contains("reset"))
+            sink.event(MT.PRO_RESET, null);
+    }
+
+    private static boolean get_side(String s[], int n)
+    {
+        return (s.length > n) && (s[n].equalsIgnoreCase("L"));
+    }
+
+    private static double get_value(String s[], int n)
+    {
+        if (s.length > n)
+        {
+            try { return Double.parseDouble(s[n]); }
+            catch (NumberFormatException nfe) {}
+        }
+        return 0.0;
+    }
+
+    private static int get_color(String s[], int n)
+    {
+        if (s.length > n)
+        {
+            if (s[n].equalsIgnoreCase("redlight"))
+                return ColorTime.REDLIGHT;
+            else if (s[n].equalsIgnoreCase("not_staged"))
+                return ColorTime.NOTSTAGED;
+        }
+        return ColorTime.NORMAL;
+    }
+}
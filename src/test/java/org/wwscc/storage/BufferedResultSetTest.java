@@ -0,0 +1,106 @@
+package org.wwscc.storage;
+
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.TimeZone;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BufferedResultSetTest
+{
+    static final String[] LABELS = { "carid", "number", "cars", "modified" };
+    static final int[] TYPES = { Types.OTHER, Types.INTEGER, Types.ARRAY, Types.TIMESTAMP };
+    static final String[] TYPENAMES = { "uuid", "int4", "_uuid", "timestamp" };
+
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> cls, java.lang.reflect.InvocationHandler h)
+    {
+        return (T)Proxy.newProxyInstance(cls.getClassLoader(), new Class<?>[] { cls }, h);
+    }
+
+    /**
+     * A driver result set with rows of the columns above, counting how many times it is read after close
+     */
+    static ResultSet source(Object[][] rows, boolean[] closed)
+    {
+        ResultSetMetaData meta = proxy(ResultSetMetaData.class, (p, m, a) -> {
+            switch (m.getName()) {
+                case "getColumnCount":    return LABELS.length;
+                case "getColumnLabel":    return LABELS[(Integer)a[0]-1];
+                case "getColumnType":     return TYPES[(Integer)a[0]-1];
+                case "getColumnTypeName": return TYPENAMES[(Integer)a[0]-1];
+                default: throw new UnsupportedOperationException(m.getName());
+            }
+        });
+        int[] row = { -1 };
+        return proxy(ResultSet.class, (p, m, a) -> {
+            if (closed[0] && !m.getName().equals("close"))
+                throw new IllegalStateException("read after close");
+            switch (m.getName()) {
+                case "getMetaData": return meta;
+                case "next":        return ++row[0] < rows.length;
+                case "close":       closed[0] = true; return null;
+                case "getObject":   return rows[row[0]][(Integer)a[0]-1];
+                case "getString":   Object o = rows[row[0]][(Integer)a[0]-1]; return (o == null) ? null : String.valueOf(o);
+                case "getArray":
+                    UUID[] ids = (UUID[])rows[row[0]][(Integer)a[0]-1];
+                    if (ids == null)
+                        return null;
+                    return proxy(Array.class, (p2, m2, a2) -> {
+                        switch (m2.getName()) {
+                            case "getArray":        return ids;
+                            case "getBaseType":     return Types.OTHER;
+                            case "getBaseTypeName": return "uuid";
+                            default:                return null;
+                        }
+                    });
+                default: throw new UnsupportedOperationException(m.getName());
+            }
+        });
+    }
+
+    @Test
+    public void readAfterSourceClosed() throws Exception
+    {
+        UUID id = UUID.randomUUID();
+        Timestamp ts = Timestamp.valueOf(LocalDateTime.of(2020, 5, 1, 12, 30));
+        boolean[] closed = { false };
+        ResultSet src = source(new Object[][] {
+            { id, 12, new UUID[] { id }, ts },
+            { null, null, null, null }
+        }, closed);
+
+        ResultSet rs = new BufferedResultSet(src);
+        src.close();
+
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(id, rs.getObject("carid"));
+        Assert.assertEquals(12, rs.getInt("NUMBER"));
+        Assert.assertEquals("12", rs.getString(2));
+        Assert.assertArrayEquals(new UUID[] { id }, (UUID[])rs.getArray("cars").getArray());
+        Assert.assertEquals(ts, rs.getTimestamp("modified"));
+        Timestamp utc = rs.getTimestamp("modified", java.util.Calendar.getInstance(TimeZone.getTimeZone("UTC")));
+        Assert.assertEquals(LocalDateTime.of(2020, 5, 1, 12, 30).toInstant(java.time.ZoneOffset.UTC).toEpochMilli(), utc.getTime());
+
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals(0, rs.getInt("number"));
+        Assert.assertTrue(rs.wasNull());
+        Assert.assertNull(rs.getArray("cars"));
+        Assert.assertFalse(rs.next());
+        Assert.assertFalse(rs.next());
+    }
+
+    @Test(expected=java.sql.SQLException.class)
+    public void missingColumn() throws Exception
+    {
+        ResultSet rs = new BufferedResultSet(source(new Object[][] {}, new boolean[1]));
+        rs.findColumn("nothere");
+    }
+}
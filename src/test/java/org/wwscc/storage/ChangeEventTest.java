@@ -0,0 +1,39 @@
+package org.wwscc.storage;
+
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChangeEventTest
+{
+    @Test
+    public void tableOnly()
+    {
+        ChangeEvent ce = ChangeEvent.parse("runs", "");
+        Assert.assertEquals("runs", ce.getTable());
+        Assert.assertFalse(ce.isDetailed());
+        Assert.assertTrue(ce.mayAffectEvent(UUID.randomUUID()));
+
+        ce = ChangeEvent.parse("runs", "not json");
+        Assert.assertEquals("runs", ce.getTable());
+        Assert.assertFalse(ce.isDetailed());
+    }
+
+    @Test
+    public void detailed()
+    {
+        UUID eventid = UUID.randomUUID();
+        UUID carid = UUID.randomUUID();
+        ChangeEvent ce = ChangeEvent.parse("runs", "{\"op\":\"U\",\"keys\":{\"eventid\":\""+eventid+"\",\"carid\":\""+carid+"\",\"course\":2},\"rungroup\":1}");
+        Assert.assertTrue(ce.isDetailed());
+        Assert.assertEquals(ChangeEvent.Op.UPDATE, ce.getOp());
+        Assert.assertEquals(carid, ce.getCarId());
+        Assert.assertEquals(Integer.valueOf(2), ce.getInt("course"));
+        Assert.assertEquals(Integer.valueOf(1), ce.getInt("rungroup"));
+        Assert.assertNull(ce.getDriverId());
+        Assert.assertTrue(ce.mayAffectEvent(eventid));
+        Assert.assertFalse(ce.mayAffectEvent(UUID.randomUUID()));
+        Assert.assertTrue(ce.isTable("cars", "runs"));
+    }
+}
@@ -0,0 +1,60 @@
+package org.wwscc.storage;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClassDataTest
+{
+    private static ClassData.Class cls(String code, String indexcode, boolean carindexed, double mult, String restrict, boolean usecarflag)
+    {
+        ClassData.Class c = new ClassData.Class(code, false);
+        c.indexcode = indexcode;
+        c.carindexed = carindexed;
+        c.classmultiplier = mult;
+        c.caridxrestrict = restrict;
+        c.usecarflag = usecarflag;
+        return c;
+    }
+
+    private static ClassData.Index idx(String code, double value)
+    {
+        ClassData.Index i = new ClassData.Index();
+        i.indexcode = code;
+        i.value = value;
+        return i;
+    }
+
+    @Test
+    public void precomputedMatchesCalculated()
+    {
+        ClassData.Class sm = cls("SM", "", true, 0.9, "+[A*]", true);
+        ClassData.Class ss = cls("SS", "SS", false, 1.0, "", false);
+        ClassData.Index a1 = idx("A1", 0.8);
+        ClassData.Index b1 = idx("B1", 0.7);
+        ClassData.Index ssi = idx("SS", 0.85);
+
+        ClassData snapshot = new ClassData(Arrays.asList(sm, ss), Arrays.asList(a1, b1, ssi));
+        ClassData plain = new ClassData();
+        for (ClassData.Class c : Arrays.asList(sm, ss)) plain.add(c);
+        for (ClassData.Index i : Arrays.asList(a1, b1, ssi)) plain.add(i);
+
+        for (String cc : Arrays.asList("SM", "SS")) {
+            for (String ic : Arrays.asList("A1", "B1", "SS", "", "XX")) {
+                for (boolean flag : new boolean[] { false, true }) {
+                    ClassData.EffectiveIndex e1 = snapshot.getEffectiveIndex(cc, ic, flag);
+                    ClassData.EffectiveIndex e2 = plain.getEffectiveIndex(cc, ic, flag);
+                    Assert.assertEquals(e2.val, e1.val, 0.0000001);
+                    Assert.assertEquals(e2.str, e1.str);
+                }
+            }
+        }
+
+        Assert.assertEquals(0.8*0.9, snapshot.getEffectiveIndex("SM", "A1", true).val, 0.0000001);
+        Assert.assertEquals("(A1*)", snapshot.getEffectiveIndex("SM", "A1", true).str);
+        Assert.assertEquals("(A1)", snapshot.getEffectiveIndex("SM", "A1", false).str);
+        Assert.assertEquals("(B1)", snapshot.getEffectiveIndex("SM", "B1", true).str);
+        Assert.assertEquals("(SS)", snapshot.getEffectiveIndex("SS", "B1", true).str);
+    }
+}
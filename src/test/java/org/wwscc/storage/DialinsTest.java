@@ -0,0 +1,60 @@
+package org.wwscc.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DialinsTest
+{
+    private static UUID id(int ii) { return new UUID(0, ii); }
+
+    @Test
+    public void dialsAndDiffs()
+    {
+        Dialins d = new Dialins();
+        d.setEntrant(id(1), "A", 100.0, 90.0, 0.9);
+        d.setEntrant(id(2), "A", 100.0, 80.0, 0.8);
+        d.setEntrant(id(3), "B", 50.0, 50.0, 1.0);
+
+        Assert.assertEquals(Arrays.asList(id(3), id(2), id(1)), d.getNetOrder());
+        Assert.assertEquals(50.0, d.getDial(id(2), false), 0.0005);           // leader gets bonus dial
+        Assert.assertEquals(50.0*0.8/0.9, d.getDial(id(1), false), 0.0005);   // others based on leader
+        Assert.assertEquals(-10.0, d.getDiff(id(2)), 0.0005);
+        Assert.assertEquals(10.0, d.getDiff(id(1)), 0.0005);
+        Assert.assertEquals(0.0, d.getDiff(id(3)), 0.0005);                  // alone in class
+    }
+
+    @Test
+    public void updateMatchesRebuild()
+    {
+        Dialins inc = new Dialins();
+        inc.setEntrant(id(1), "A", 100.0, 90.0, 0.9);
+        inc.setEntrant(id(2), "A", 100.0, 80.0, 0.8);
+        inc.setEntrant(id(3), "A", 100.0, 85.0, 0.85);
+        inc.setEntrant(id(2), "A", 110.0, 88.0, 0.8);  // leader loses time
+        inc.setEntrant(id(4), "B", 60.0, 60.0, 1.0);
+        inc.removeEntrant(id(4));
+
+        Dialins full = new Dialins();
+        full.setEntrant(id(1), "A", 100.0, 90.0, 0.9);
+        full.setEntrant(id(2), "A", 110.0, 88.0, 0.8);
+        full.setEntrant(id(3), "A", 100.0, 85.0, 0.85);
+
+        Assert.assertFalse(inc.contains(id(4)));
+        Assert.assertEquals(full.getNetOrder(), inc.getNetOrder());
+        Assert.assertEquals(full.getDiffOrder(), inc.getDiffOrder());
+        HashMap<UUID, Double> dials = new HashMap<UUID, Double>();
+        for (UUID carid : full.getNetOrder())
+            dials.put(carid, full.getDial(carid, false));
+        for (UUID carid : inc.getNetOrder())
+            Assert.assertEquals(dials.get(carid), inc.getDial(carid, false), 0.0);
+
+        Dialins copy = new Dialins(inc);
+        inc.removeEntrant(id(3));
+        Assert.assertEquals(3, copy.getNetOrder().size());
+        Assert.assertEquals(id(3), copy.getNetOrder().get(0));
+    }
+}
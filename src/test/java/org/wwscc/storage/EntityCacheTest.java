@@ -0,0 +1,66 @@
+package org.wwscc.storage;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EntityCacheTest
+{
+    EntityCache cache = new EntityCache();
+    AtomicInteger loads = new AtomicInteger();
+
+    private Driver load(UUID driverid)
+    {
+        loads.incrementAndGet();
+        return new Driver("first", "last", driverid);
+    }
+
+    @Test
+    public void readThrough()
+    {
+        UUID id = UUID.randomUUID();
+        Driver d1 = cache.getDriver(id, this::load);
+        d1.setFirstName("changed");
+        Driver d2 = cache.getDriver(id, this::load);
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals("first", d2.getFirstName()); // callers get their own copy
+        Assert.assertEquals(1, cache.getStats().hits);
+        Assert.assertEquals(1, cache.getStats().misses);
+    }
+
+    @Test
+    public void invalidate()
+    {
+        UUID id = UUID.randomUUID();
+        UUID other = UUID.randomUUID();
+        cache.getDriver(id, this::load);
+        cache.getDriver(other, this::load);
+
+        cache.invalidate(ChangeEvent.parse("drivers", "{\"op\":\"UPDATE\",\"driverid\":\""+id+"\"}"));
+        cache.getDriver(id, this::load);
+        cache.getDriver(other, this::load);
+        Assert.assertEquals(3, loads.get());
+
+        cache.invalidateWrites("update drivers set firstname=? where driverid=?");
+        cache.getDriver(other, this::load);
+        Assert.assertEquals(4, loads.get());
+
+        cache.invalidate(new ChangeEvent("runorder"));
+        cache.getDriver(other, this::load);
+        Assert.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void staleLoadNotStored()
+    {
+        UUID id = UUID.randomUUID();
+        cache.getDriver(id, k -> {
+            cache.invalidate(new ChangeEvent("drivers")); // change arrives while we are reading
+            return load(k);
+        });
+        cache.getDriver(id, this::load);
+        Assert.assertEquals(2, loads.get());
+    }
+}
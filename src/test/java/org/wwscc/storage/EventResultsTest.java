@@ -0,0 +1,74 @@
+package org.wwscc.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventResultsTest
+{
+    private static EventResults.Entry entry(int id, String classcode, int number, double net)
+    {
+        EventResults.Entry e = new EventResults.Entry();
+        e.carid     = new UUID(0, id);
+        e.classcode = classcode;
+        e.number    = number;
+        e.firstname = "first" + id;
+        e.lastname  = "last";
+        e.net       = net;
+        e.index     = 1.0;
+        e.bestraw   = new double[] { net };
+        e.bestnet   = new double[] { net };
+        return e;
+    }
+
+    private static EventResults.GridEntry find(List<EventResults.GridEntry> grid, int id)
+    {
+        for (EventResults.GridEntry ge : grid)
+            if (ge.carid.equals(new UUID(0, id)))
+                return ge;
+        return null;
+    }
+
+    @Test
+    public void classOrder()
+    {
+        EventResults r = new EventResults(null, Arrays.asList(
+                entry(1, "A", 5, 60.0), entry(2, "A", 7, 55.0), entry(3, "B", 1, 50.0)), new HashMap<String, int[]>());
+
+        Assert.assertEquals(Arrays.asList(new UUID(0, 2), new UUID(0, 1)), r.getClassOrder().get("A"));
+        Assert.assertEquals(1, r.getPosition(new UUID(0, 2)));
+        Assert.assertEquals(2, r.getPosition(new UUID(0, 1)));
+        Assert.assertEquals(0, r.getPosition(new UUID(0, 9)));
+        Assert.assertEquals(new UUID(0, 3), r.getIndexOrder().get(0).getCarId());
+    }
+
+    @Test
+    public void grid()
+    {
+        Map<String, int[]> groups = new HashMap<String, int[]>();
+        groups.put("B", new int[] { 1, 0 });
+        groups.put("A", new int[] { 1, 1 });
+        groups.put("C", new int[] { 2, 0 });
+        EventResults r = new EventResults(null, Arrays.asList(
+                entry(1, "A", 5, 60.0), entry(2, "A", 7, 55.0), entry(3, "A", 105, 58.0),
+                entry(4, "B", 1, 50.0), entry(5, "C", 2, 70.0)), groups);
+
+        List<EventResults.GridEntry> bynumber = r.getGrid(false);
+        Assert.assertEquals(1, find(bynumber, 4).grid);   // B is first in group 1
+        Assert.assertEquals(3, find(bynumber, 1).grid);   // A starts on the next odd spot
+        Assert.assertEquals(4, find(bynumber, 2).grid);
+        Assert.assertEquals(101, find(bynumber, 3).group); // second driver of #5
+        Assert.assertEquals(1, find(bynumber, 3).grid);
+        Assert.assertEquals(2, find(bynumber, 5).group);
+        Assert.assertEquals(1, find(bynumber, 5).grid);
+
+        List<EventResults.GridEntry> byposition = r.getGrid(true);
+        Assert.assertEquals(3, find(byposition, 2).grid);
+        Assert.assertEquals(4, find(byposition, 1).grid);
+    }
+}
@@ -9,6 +9,7 @@
 package org.wwscc.storage;
 
 import java.sql.ResultSet;
+import org.junit.Assert;
 import org.junit.ClassRule;
 import org.junit.Test;
 
@@ -24,4 +25,27 @@ public class PostgresTests
         ResultSet rs = pdb.executeSelect("select pg_sleep(3);", null);  // should complete without exception
         assert(rs.next());
     }
+
+    @Test
+    public void ownRunWriteReloadsOneCar() throws Exception
+    {
+        PostgresqlDatabase pdb = (PostgresqlDatabase)Database.d;
+        ResultsEngine re = pdb.resultsEngine(TestDatabaseContainer.eventid);
+        re.getResults(pdb);
+        long full = re.getStats().fullloads;
+        long cars = re.getStats().carloads;
+
+        Run r = new Run(5.0);
+        r.eventid = TestDatabaseContainer.eventid;
+        r.setCarId(TestDatabaseContainer.carid1);
+        r.setCourse(1);
+        r.setRunGroup(1);
+        r.setRunNumber(5);
+        pdb.setRun(r, null);
+        Thread.sleep(500); // let our own runs notification arrive as well
+
+        re.getResults(pdb);
+        Assert.assertEquals(full, re.getStats().fullloads);
+        Assert.assertEquals(cars + 1, re.getStats().carloads);
+    }
 }
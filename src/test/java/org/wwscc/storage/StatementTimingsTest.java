@@ -0,0 +1,133 @@
+package org.wwscc.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StatementTimingsTest
+{
+    @Test
+    public void buckets()
+    {
+        Assert.assertEquals(0, StatementTimings.bucket(500));
+        Assert.assertEquals(1, StatementTimings.bucket(1000));
+        Assert.assertEquals(10, StatementTimings.bucket(1000000)); // 1ms = 1000us < 1024
+        Assert.assertEquals(StatementTimings.BUCKETS - 1, StatementTimings.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentiles()
+    {
+        StatementTimings t = new StatementTimings(0);
+        for (int ii = 0; ii < 98; ii++)
+            t.record("select 1", null, 1000000);   // 1ms
+        t.record("select 1", null, 100000000);     // 100ms
+        t.record("select 1", null, 200000000);     // 200ms
+        t.record("select 2", null, 1000);
+
+        List<StatementTimings.Snapshot> snap = t.snapshot();
+        Assert.assertEquals(2, snap.size());
+        StatementTimings.Snapshot s = snap.get(0);
+        Assert.assertEquals("select 1", s.sql);
+        Assert.assertEquals(100, s.count);
+        Assert.assertEquals(1.024, s.p50ms, 0.001);
+        Assert.assertEquals(1.024, s.p95ms, 0.001);
+        Assert.assertEquals(131.072, s.p99ms, 0.001);
+        Assert.assertEquals(200.0, s.maxms, 0.001);
+        Assert.assertEquals(3.98, s.meanms, 0.001);
+        Assert.assertEquals(0, t.getSlowCount());
+    }
+
+    @Test
+    public void slowQueries()
+    {
+        StatementTimings t = new StatementTimings(10);
+        t.record("fast", Arrays.asList(1), 9000000);
+        t.record("slow", Arrays.asList("x".repeat(500), 2), 10000000);
+
+        Assert.assertEquals(1, t.getSlowCount());
+        StatementTimings.SlowQuery q = t.getSlowQueries().get(0);
+        Assert.assertEquals("slow", q.sql);
+        Assert.assertEquals(10.0, q.ms, 0.001);
+        Assert.assertTrue(q.args.endsWith("..., 2]"));
+        Assert.assertFalse(q.caller.startsWith("org.wwscc.storage.")); // first frame outside of the storage layer
+
+        for (int ii = 0; ii < StatementTimings.MAX_SLOW + 5; ii++)
+            t.record("slow", null, 20000000);
+        Assert.assertEquals(StatementTimings.MAX_SLOW + 6, t.getSlowCount());
+        Assert.assertEquals(StatementTimings.MAX_SLOW, t.getSlowQueries().size());
+        Assert.assertTrue(t.report().contains("56 slow queries"));
+
+        t.reset();
+        Assert.assertEquals(0, t.getSlowCount());
+        Assert.assertTrue(t.snapshot().isEmpty());
+    }
+
+    @Test
+    public void statementCap()
+    {
+        StatementTimings t = new StatementTimings(0);
+        for (int ii = 0; ii < StatementTimings.MAX_STATEMENTS + 10; ii++)
+            t.record("select " + ii, null, 1000);
+        List<StatementTimings.Snapshot> snap = t.snapshot();
+        Assert.assertEquals(StatementTimings.MAX_STATEMENTS + 1, snap.size());
+        Assert.assertEquals(10, snap.stream().filter(s -> s.sql.equals(StatementTimings.OTHER)).findFirst().get().count);
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception
+    {
+        Path dir = Files.createTempDirectory("timings");
+        StatementTimings t = new StatementTimings(10);
+        t.record("select 1", null, 1000000);
+        t.record("select 2", Arrays.asList(1), 20000000);
+        t.save(dir, "DataEntry");
+
+        List<StatementTimings.Saved> saved = StatementTimings.loadAll(dir);
+        Assert.assertEquals(1, saved.size());
+        StatementTimings.Saved s = saved.get(0);
+        Assert.assertEquals("DataEntry", s.program);
+        Assert.assertEquals(2, s.statements.size());
+        Assert.assertEquals("select 2", s.statements.get(0).sql);
+        Assert.assertEquals(20.0, s.statements.get(0).maxms, 0.001);
+        Assert.assertEquals(1, s.slowcount);
+        Assert.assertEquals("[1]", s.slow.get(0).args);
+
+        // a reset request is picked up at the next save
+        StatementTimings.requestReset(dir);
+        Files.setLastModifiedTime(dir.resolve(StatementTimings.RESET_FILE), FileTime.fromMillis(System.currentTimeMillis() + 1000));
+        t.save(dir, "DataEntry");
+        Assert.assertTrue(StatementTimings.loadAll(dir).get(0).statements.isEmpty());
+        Assert.assertEquals(0, t.getSlowCount());
+
+        for (Path p : Files.newDirectoryStream(dir))
+            Files.delete(p);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void staleFilesSkipped() throws Exception
+    {
+        Path dir = Files.createTempDirectory("timings");
+        StatementTimings t = new StatementTimings(10);
+        t.record("select 1", null, 1000000);
+        t.save(dir, "DataEntry");
+        t.save(dir, "Registration");
+        Files.setLastModifiedTime(dir.resolve("Registration" + StatementTimings.FILE_SUFFIX), FileTime.fromMillis(System.currentTimeMillis() - StatementTimings.STALE_MS * 2));
+        Files.write(dir.resolve("ProTimer" + StatementTimings.FILE_SUFFIX), "{\"saved\":1000,\"statements\":[]}".getBytes());
+
+        List<StatementTimings.Saved> saved = StatementTimings.loadAll(dir, StatementTimings.STALE_MS);
+        Assert.assertEquals(1, saved.size());
+        Assert.assertEquals("DataEntry", saved.get(0).program);
+        Assert.assertEquals(3, StatementTimings.loadAll(dir).size());
+
+        for (Path p : Files.newDirectoryStream(dir))
+            Files.delete(p);
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,122 @@
+package org.wwscc.storage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.wwscc.util.AppSetup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class WriteBehindQueueTest
+{
+    class RecordingDatabase extends FakeDatabase
+    {
+        boolean down = false;
+        List<String> written = new ArrayList<String>();
+        @Override
+        public synchronized void executeGroupUpdate(String sql, List<List<Object>> args, int chunksize) throws SQLException {
+            if (down)
+                throw new SQLException("connection refused", "08001");
+            for (List<Object> row : args)
+                written.add((String)row.get(0));
+        }
+        synchronized List<String> written() { return new ArrayList<String>(written); }
+    }
+
+    RecordingDatabase db;
+    Path spool;
+    WriteBehindQueue queue;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        AppSetup.unitLogging();
+        db = new RecordingDatabase();
+        spool = Files.createTempFile("writebehind", ".jsonl");
+        Files.delete(spool);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (queue != null)
+            queue.close();
+        Files.deleteIfExists(spool);
+    }
+
+    private List<Object> event(String type)
+    {
+        ObjectNode attr = new ObjectMapper().createObjectNode();
+        attr.put("value", type);
+        return SQLDataInterface.newList(type, attr, new Timestamp(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void ordered()
+    {
+        queue = new WriteBehindQueue(db, () -> "series", spool);
+        for (int ii = 0; ii < 250; ii++)
+            queue.add(WriteBehindQueue.Kind.EVENT, event("e"+ii));
+        queue.flush();
+
+        List<String> w = db.written();
+        Assert.assertEquals(250, w.size());
+        for (int ii = 0; ii < 250; ii++)
+            Assert.assertEquals("e"+ii, w.get(ii));
+        Assert.assertEquals(0, queue.getStats().depth);
+    }
+
+    @Test
+    public void spoolAndReplay() throws Exception
+    {
+        db.down = true;
+        queue = new WriteBehindQueue(db, () -> "series", spool);
+        queue.add(WriteBehindQueue.Kind.EVENT, event("first"));
+        queue.flush();
+        queue.add(WriteBehindQueue.Kind.EVENT, event("second"));
+        queue.flush();
+
+        Assert.assertTrue(Files.exists(spool));
+        Assert.assertEquals(2, queue.getStats().spooled);
+        Assert.assertEquals(0, db.written().size());
+
+        // a new queue replays the spool file at the first flush
+        queue.close();
+        db.down = false;
+        queue = new WriteBehindQueue(db, () -> "series", spool);
+        queue.add(WriteBehindQueue.Kind.EVENT, event("third"));
+        queue.flush();
+
+        List<String> w = db.written();
+        Assert.assertEquals(3, w.size());
+        Assert.assertEquals("first", w.get(0));
+        Assert.assertEquals("second", w.get(1));
+        Assert.assertEquals("third", w.get(2));
+        Assert.assertFalse(Files.exists(spool));
+    }
+
+    @Test
+    public void seriesChanged()
+    {
+        AtomicReference<String> series = new AtomicReference<String>("one");
+        queue = new WriteBehindQueue(db, series::get, spool);
+        queue.add(WriteBehindQueue.Kind.EVENT, event("old"));
+        series.set("two");
+        queue.add(WriteBehindQueue.Kind.EVENT, event("new"));
+        queue.flush();
+
+        Assert.assertEquals(1, db.written().size());
+        Assert.assertEquals(1, queue.getStats().written);
+        Assert.assertEquals(1, queue.getStats().dropped);
+    }
+}
@@ -0,0 +1,124 @@
+package org.wwscc.system;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ImportExportFunctionsTest
+{
+    Path dir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("backuptest");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    @Test
+    public void streamToZip() throws Exception
+    {
+        byte[] chunk = new byte[1024*1024];
+        Arrays.fill(chunk, (byte)'x');
+        long[] reported = new long[1];
+
+        Path dest = dir.resolve("backup.sql");
+        long size = ImportExportFunctions.streamBackup(out -> { for (int ii = 0; ii < 10; ii++) out.write(chunk); }, dest, true, b -> reported[0] = b);
+
+        Assert.assertFalse(Files.exists(dest));
+        Assert.assertFalse(Files.exists(dir.resolve("backup.sql.zip.partial")));
+        Assert.assertTrue(reported[0] >= 8*1024*1024);
+        try (ZipFile zip = new ZipFile(dir.resolve("backup.sql.zip").toFile())) {
+            ZipEntry entry = zip.getEntry("backup.sql");
+            Assert.assertEquals(size, entry.getSize());
+            String head = new String(zip.getInputStream(entry).readNBytes(80), StandardCharsets.UTF_8);
+            Assert.assertTrue(head.startsWith("UPDATE pg_database SET datallowconn = 'false'"));
+        }
+    }
+
+    @Test
+    public void failureLeavesNothing() throws Exception
+    {
+        Path dest = dir.resolve("backup.sql");
+        try {
+            ImportExportFunctions.streamBackup(out -> { out.write(1); throw new IOException("pg_dump failed"); }, dest, false, null);
+            Assert.fail("exception not passed on");
+        } catch (IOException ioe) {
+            Assert.assertEquals("pg_dump failed", ioe.getMessage());
+        }
+        Assert.assertEquals(0, Files.list(dir).count());
+    }
+
+    private static String dump(int schema)
+    {
+        return "COPY public.runs (eventid, carid) FROM stdin;\n1\t2\n\\.\n\n" +
+               "COPY public.version (id, version, modified) FROM stdin;\n1\t" + schema + "\t2019-11-17 05:32:37.805896\n\\.\n" +
+               "SELECT 1;\n";
+    }
+
+    @Test
+    public void importFromZip() throws Exception
+    {
+        byte[] sql = dump(20200101).getBytes(StandardCharsets.UTF_8);
+        Path zipfile = dir.resolve("backup.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(zipfile))) {
+            zip.putNextEntry(new ZipEntry("README.txt"));
+            zip.putNextEntry(new ZipEntry("dir/backup.sql"));
+            zip.write(sql);
+        }
+
+        try (ImportExportFunctions.SqlSource src = ImportExportFunctions.openImport(zipfile)) {
+            Assert.assertEquals("backup.sql", src.name);
+            Assert.assertEquals(sql.length, src.size);
+            Assert.assertArrayEquals(sql, src.in.readAllBytes());
+        }
+        Assert.assertEquals(1, Files.list(dir).count()); // nothing extracted
+    }
+
+    @Test
+    public void oldSchemaStopsEarly() throws Exception
+    {
+        byte[] sql = (dump(20180106) + "x".repeat(1024*1024)).getBytes(StandardCharsets.UTF_8);
+        InputStream in = new ImportExportFunctions.SchemaCheckInputStream(new ByteArrayInputStream(sql));
+        byte[] buf = new byte[16];
+        int read = 0;
+        try {
+            while (in.read(buf) >= 0)
+                read += 16;
+            Assert.fail("old schema not detected");
+        } catch (IOException ioe) {
+            Assert.assertTrue(ioe.getMessage().contains("20180106"));
+        }
+        Assert.assertTrue(read < 200);
+    }
+
+    @Test
+    public void missingSchemaFailsAtEnd() throws Exception
+    {
+        InputStream in = new ImportExportFunctions.SchemaCheckInputStream(new ByteArrayInputStream("SELECT 1;\n".getBytes()));
+        Assert.assertEquals(10, in.read(new byte[100]));
+        try {
+            in.read();
+            Assert.fail("missing schema not detected");
+        } catch (IOException ioe) {
+            Assert.assertEquals("No schema version found in file.", ioe.getMessage());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.wwscc.system;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalBackupTest
+{
+    Path dir;
+    List<String> statements;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("incbackup");
+        statements = new ArrayList<String>();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        Files.walk(dir).sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+    }
+
+    /** pretends to be psql for a series with a runs table and a drivers table without changes */
+    private void fakePsql(String sql, OutputStream out) throws IOException
+    {
+        statements.add(sql);
+        String ret = "";
+        if (sql.contains("localtimestamp"))
+            ret = "2020-05-02 10:00:00\n";
+        else if (sql.contains("serieslog','publiclog'"))
+            ret = "series1\n";
+        else if (sql.contains("column_name='modified'"))
+            ret = "public\tdrivers\tdriverid\nseries1\truns\teventid,carid,course,rungroup,run\nseries1\tnokey\t\\N\n";
+        else if (sql.contains("FROM series1.runs WHERE"))
+            ret = "e1\tc1\t1\t1\t1\t45.1\n";
+        else if (sql.contains("FROM series1.serieslog"))
+            ret = "e1\tc2\t1\t1\t1\t50.0\n";
+        out.write(ret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void incrementAndRestore() throws Exception
+    {
+        IncrementalBackup ib = new IncrementalBackup(this::fakePsql);
+        Path base = dir.resolve("2020-05-02-09h00m_20191023.sql");
+        Files.write(base, "-- full dump\n".getBytes());
+
+        try {
+            ib.takeIncrement(dir);
+            Assert.fail("increment without a base");
+        } catch (IOException ioe) {}
+
+        IncrementalBackup.fullBackupTaken(dir, base, "2020-05-02 09:00:00");
+        Path inc1 = ib.takeIncrement(dir);
+        Path inc2 = ib.takeIncrement(dir);
+        Assert.assertEquals("2020-05-02-09h00m_20191023.inc001.zip", inc1.getFileName().toString());
+        Assert.assertEquals(2, IncrementalBackup.readState(dir).sequence);
+        Assert.assertEquals("2020-05-02 10:00:00", IncrementalBackup.readState(dir).mark);
+        Assert.assertTrue(statements.stream().anyMatch(s -> s.contains("modified >= '2020-05-02 09:00:00'::timestamp - interval '60 seconds'")));
+
+        IncrementalBackup.Manifest m = IncrementalBackup.readManifest(inc2);
+        Assert.assertEquals(2, m.sequence);
+        Assert.assertEquals(1, m.tables.size()); // drivers had no changes and nokey has no primary key
+        Assert.assertEquals(1, m.tables.get(0).rows);
+        Assert.assertEquals(1, m.tables.get(0).deleted);
+
+        Path sql = dir.resolve("restore.sql");
+        IncrementalBackup.restore(inc2, sql);
+        String script = new String(Files.readAllBytes(sql), StandardCharsets.UTF_8);
+        Assert.assertTrue(script.startsWith("-- full dump\n"));
+        Assert.assertEquals(2, script.split("SET session_replication_role = replica").length - 1);
+        Assert.assertTrue(script.contains("e1\tc1\t1\t1\t1\t45.1\n\\.\n"));
+        Assert.assertTrue(script.contains("t.eventid=i.eventid AND t.carid=i.carid AND t.course=i.course AND t.rungroup=i.rungroup AND t.run=i.run"));
+        Assert.assertTrue(script.indexOf("45.1") > script.indexOf("50.0")); // deletes before changes
+
+        Files.delete(inc1);
+        try {
+            IncrementalBackup.restore(inc2, sql);
+            Assert.fail("restored past a missing increment");
+        } catch (IOException ioe) {}
+    }
+}
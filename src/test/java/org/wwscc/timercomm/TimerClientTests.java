@@ -1,5 +1,6 @@
 package org.wwscc.timercomm;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
@@ -108,4 +109,74 @@ public class TimerClientTests
         Assert.assertEquals(lr, lastDial);
     }
 
+    @Test
+    public void codecMatchesTree() throws IOException
+    {
+        // what the codec writes is what the tree based messages wrote
+        TimerCodec codec = new TimerCodec();
+        codec.encode(TimerCodec.RUN_MESSAGE, run, "abc", 12);
+        ObjectNode expected = objectMapper.createObjectNode();
+        expected.put("type", "RUN");
+        expected.put("session", "abc");
+        expected.put("seq", 12);
+        expected.set("data", objectMapper.valueToTree(run));
+        Assert.assertEquals(expected, objectMapper.readTree(codec.toByteArray()));
+
+        // and it reads them, whatever order the fields are in
+        ObjectNode reordered = objectMapper.createObjectNode();
+        reordered.set("data", objectMapper.valueToTree(new LeftRightDialin(1.5, 2.5)));
+        reordered.put("extra", true);
+        reordered.put("type", "DIAL");
+        byte[] line = objectMapper.writeValueAsBytes(reordered);
+        TimerCodec.Message msg = codec.decode(line, 0, line.length);
+        Assert.assertEquals(new LeftRightDialin(1.5, 2.5), msg.dial);
+        Assert.assertFalse(msg.isStamped());
+
+        line = objectMapper.writeValueAsBytes(expected);
+        msg = codec.decode(line, 0, line.length);
+        Assert.assertEquals(run, msg.run);
+        Assert.assertEquals(run.getRowId(), msg.run.getRowId());
+        Assert.assertEquals(12, msg.seq);
+
+        // a broken line doesn't affect the next one
+        byte[] bad = "{\"type\":\"RUN\",\"data\":{".getBytes();
+        try {
+            codec.decode(bad, 0, bad.length);
+            Assert.fail("decoded a partial line");
+        } catch (IOException ioe) {}
+        Assert.assertEquals(run, codec.decode(line, 0, line.length).run);
+    }
+
+    @Test
+    public void lineReader() throws IOException
+    {
+        byte[] data = "one\n\ntwo\nthree".getBytes();
+        TimerCodec.LineReader in = new TimerCodec.LineReader(new ByteArrayInputStream(data));
+        String found = "";
+        int len;
+        while ((len = in.next()) >= 0)
+            found += "[" + new String(in.buffer(), in.offset(), len) + "]";
+        Assert.assertEquals("[one][][two][three]", found);
+    }
+
+    @Test
+    public void lineReaderSkipsLongLine() throws IOException
+    {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write("one\n".getBytes());
+        for (int ii = 0; ii < TimerCodec.MAX_LINE * 2 + 10; ii++)
+            data.write('x');
+        data.write("\ntwo\n".getBytes());
+
+        TimerCodec.LineReader in = new TimerCodec.LineReader(new ByteArrayInputStream(data.toByteArray()));
+        int len = in.next();
+        Assert.assertEquals("one", new String(in.buffer(), in.offset(), len));
+        try {
+            in.next();
+            Assert.fail("read a line over MAX_LINE");
+        } catch (IOException ioe) {}
+        len = in.next();
+        Assert.assertEquals("two", new String(in.buffer(), in.offset(), len));
+        Assert.assertEquals(-1, in.next());
+    }
 }
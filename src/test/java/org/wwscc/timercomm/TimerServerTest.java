@@ -0,0 +1,279 @@
+package org.wwscc.timercomm;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wwscc.storage.Run;
+import org.wwscc.util.MT;
+import org.wwscc.util.Messenger;
+
+public class TimerServerTest
+{
+    private static volatile Object lastRun;
+    private static List<Double> runs = Collections.synchronizedList(new ArrayList<Double>());
+    TimerServer server;
+
+    @BeforeClass
+    public static void init()
+    {
+        Messenger.setTestMode();
+        Messenger.register(MT.TIMER_SERVICE_RUN, (t,d) -> { lastRun = d; runs.add(((Run)d).getRaw()); });
+    }
+
+    @Before
+    public void setup() throws Exception
+    {
+        server = new TimerServer(null);  // no discovery advertisement or replay file
+        server.hellowait = 0;
+        server.start();
+        runs.clear();
+    }
+
+    @After
+    public void teardown()
+    {
+        server.stop();
+    }
+
+    private Socket connect(int rcvbuf) throws Exception
+    {
+        Socket s = new Socket();
+        if (rcvbuf > 0)
+            s.setReceiveBufferSize(rcvbuf);
+        s.connect(new InetSocketAddress("127.0.0.1", server.getPort()));
+        return s;
+    }
+
+    private void waitFor(java.util.function.BooleanSupplier test) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while (!test.getAsBoolean() && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Assert.assertTrue(test.getAsBoolean());
+    }
+
+    private static Run.WithRowId run(double raw)
+    {
+        Run.WithRowId r = new Run.WithRowId();
+        r.setRaw(raw);
+        r.setSegment(1, 12.345);
+        return r;
+    }
+
+    @Test
+    public void slowClientDoesNotBlockOthers() throws Exception
+    {
+        server.maxqueue = 64*1024;
+        Socket stalled = connect(1024);
+        Socket reader  = connect(0);
+        waitFor(() -> server.getClientCount() == 2);
+
+        AtomicInteger lines = new AtomicInteger();
+        Thread t = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(reader.getInputStream()))) {
+                while (in.readLine() != null)
+                    lines.incrementAndGet();
+            } catch (Exception e) {}
+        });
+        t.start();
+
+        int sent = 0;
+        boolean allok = true;
+        while (allok && sent < 200000) {
+            allok = server.sendRun(run(sent));
+            sent++;
+            if (sent % 100 == 0) { // a working client keeps up, give it a chance
+                final int target = sent;
+                waitFor(() -> lines.get() >= target);
+            }
+        }
+        Assert.assertFalse("stalled client never dropped", allok);
+        final int total = sent;
+        waitFor(() -> server.getClientCount() == 1);
+        Assert.assertEquals(1, server.getDroppedCount());
+
+        for (int ii = 0; ii < 10; ii++)
+            Assert.assertTrue(server.sendRun(run(ii)));
+        waitFor(() -> lines.get() == total + 10);
+
+        stalled.close();
+        reader.close();
+    }
+
+    @Test
+    public void stallTimeout() throws Exception
+    {
+        server.stallms = 200;
+        server.maxqueue = Integer.MAX_VALUE / 2;
+        Socket stalled = connect(1024);
+        waitFor(() -> server.getClientCount() == 1);
+        for (int ii = 0; ii < 50000; ii++) // more than the socket buffers will hold
+            server.sendRun(run(ii));
+        waitFor(() -> server.getClientCount() == 0);
+        Assert.assertEquals(1, server.getDroppedCount());
+        stalled.close();
+    }
+
+    @Test
+    public void receive() throws Exception
+    {
+        try (Socket s = connect(0)) {
+            waitFor(() -> server.getClientCount() == 1);
+            OutputStream out = s.getOutputStream();
+            TimerCodec codec = new TimerCodec();
+            codec.encode(TimerCodec.RUN_MESSAGE, run(45.678), null, -1);
+            byte[] msg = codec.toByteArray();
+            out.write(msg, 0, 10);  // arrives in pieces
+            out.flush();
+            Thread.sleep(50);
+            out.write(msg, 10, msg.length - 10);
+            out.flush();
+            waitFor(() -> (lastRun != null) && (((Run)lastRun).getRaw() == 45.678));
+            s.close();
+            waitFor(() -> server.getClientCount() == 0);
+            Assert.assertEquals(0, server.getDroppedCount());
+        }
+    }
+
+    @Test
+    public void reconnectReplaysGap() throws Exception
+    {
+        server.hellowait = 60000;
+        InetSocketAddress addr = new InetSocketAddress("127.0.0.1", server.getPort());
+
+        TimerClient first = new TimerClient(addr);
+        first.start();
+        waitFor(() -> server.getClientCount() == 1);
+        for (int ii = 1; ii <= 3; ii++)
+            server.sendRun(run(ii));
+        waitFor(() -> runs.size() == 3);
+        first.stop();
+        waitFor(() -> server.getClientCount() == 0);
+
+        server.sendRun(run(4));  // missed while disconnected
+        server.sendRun(run(5));
+        server.sendLDial(1.0);   // not replayed
+
+        TimerClient second = new TimerClient(addr);
+        second.start();
+        waitFor(() -> server.getClientCount() == 1);
+        server.sendRun(run(6));  // live, may be queued before the hello arrives
+        waitFor(() -> runs.size() == 6);
+        Assert.assertEquals(Arrays.asList(1.0, 2.0, 3.0, 4.0, 5.0, 6.0), runs);
+
+        // something already seen is ignored
+        TimerCodec codec = new TimerCodec();
+        codec.encode(TimerCodec.RUN_MESSAGE, run(5), server.replay.session, 5);
+        byte[] again = codec.toByteArray();
+        TimerClient.dispatch(codec.decode(again, 0, again.length));
+        Assert.assertEquals(6, runs.size());
+        second.stop();
+    }
+
+    @Test
+    public void concurrentSendsInOrder() throws Exception
+    {
+        try (Socket s = connect(0)) {
+            waitFor(() -> server.getClientCount() == 1);
+            List<Thread> senders = new ArrayList<Thread>();
+            for (int ii = 0; ii < 4; ii++) {
+                Thread t = new Thread(() -> { for (int jj = 0; jj < 500; jj++) server.sendRun(run(jj)); });
+                senders.add(t);
+                t.start();
+            }
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            TimerCodec codec = new TimerCodec();
+            long last = 0;
+            for (int ii = 0; ii < 2000; ii++) {
+                byte[] line = (in.readLine() + "\n").getBytes();
+                TimerCodec.Message msg = codec.decode(line, 0, line.length);
+                Assert.assertEquals(last + 1, msg.seq); // every client sees each sequence in order, no gaps
+                last = msg.seq;
+            }
+            for (Thread t : senders)
+                t.join();
+        }
+    }
+
+    @Test
+    public void clientWithoutHello() throws Exception
+    {
+        server.hellowait = 100;
+        try (Socket s = connect(0)) {
+            waitFor(() -> server.getClientCount() == 1);
+            server.sendRun(run(7));
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            Assert.assertTrue(in.readLine().contains("\"RUN\""));
+        }
+    }
+
+    @Test
+    public void replayLogFile() throws Exception
+    {
+        Path file = Files.createTempFile("timerreplay", ".jsonl");
+        try {
+            ReplayLog log = new ReplayLog(file);
+            for (int ii = 1; ii <= 5; ii++)
+                if (ii % 2 == 0)
+                    log.stamp(TimerCodec.DIALL_MESSAGE, (double)ii, false);
+                else
+                    log.stamp(TimerCodec.RUN_MESSAGE, run(ii), true);
+            log.close();
+
+            ReplayLog reopened = new ReplayLog(file);
+            Assert.assertEquals(log.session, reopened.session);
+            Assert.assertEquals(5, reopened.getLastSeq());
+            Assert.assertEquals(3, reopened.between(0, Long.MAX_VALUE).size());
+            Assert.assertEquals(1, reopened.between(3, Long.MAX_VALUE).size());
+            Assert.assertEquals(6, reopened.stamp(TimerCodec.TREE_MESSAGE, null, false).seq);
+            reopened.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void replayLogRestartAfterDial() throws Exception
+    {
+        Path file = Files.createTempFile("timerreplay", ".jsonl");
+        try {
+            ReplayLog log = new ReplayLog(file);
+            log.stamp(TimerCodec.RUN_MESSAGE, run(1), true);
+            log.stamp(TimerCodec.RUN_MESSAGE, run(2), true);
+            log.stamp(TimerCodec.DIALL_MESSAGE, 1.5, false);
+            log.close();
+
+            // clients have seen the dial, the sequence can't go back to the last run
+            ReplayLog reopened = new ReplayLog(file);
+            Assert.assertEquals(log.session, reopened.session);
+            Assert.assertEquals(3, reopened.getLastSeq());
+            Assert.assertEquals(2, reopened.between(0, Long.MAX_VALUE).size());
+            reopened.stamp(TimerCodec.DIALR_MESSAGE, 2.5, false);
+            reopened.close();
+
+            ReplayLog again = new ReplayLog(file);
+            Assert.assertEquals(4, again.getLastSeq());
+            Assert.assertEquals(5, again.stamp(TimerCodec.RUN_MESSAGE, run(3), true).seq);
+            Assert.assertEquals(3, again.between(0, Long.MAX_VALUE).size());
+            again.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.wwscc.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelZipOutputStreamTest
+{
+    private static byte[] data(int size)
+    {
+        // mix of repeats and noise so blocks reference the previous block's dictionary
+        Random r = new Random(42);
+        byte[] ret = new byte[size];
+        for (int ii = 0; ii < size; ii++)
+            ret[ii] = (r.nextInt(10) == 0) ? (byte)r.nextInt() : (byte)("COPY public.runs (eventid, carid) FROM stdin;\n".charAt(ii % 45));
+        return ret;
+    }
+
+    @Test
+    public void deflateRoundTrip() throws Exception
+    {
+        byte[] input = data(ParallelDeflateOutputStream.BLOCK_SIZE * 5 + 1234);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ParallelDeflateOutputStream out = new ParallelDeflateOutputStream(bytes, true);
+        out.write(input, 0, 1000);
+        out.write(input, 1000, input.length - 1000);
+        out.finish();
+
+        Inflater inf = new Inflater(true);
+        inf.setInput(bytes.toByteArray());
+        byte[] result = new byte[input.length + 10];
+        int len = inf.inflate(result);
+        Assert.assertTrue(inf.finished());
+        Assert.assertEquals(input.length, len);
+        Assert.assertArrayEquals(input, Arrays.copyOf(result, len));
+        Assert.assertEquals(input.length, out.getBytesIn());
+        Assert.assertEquals(bytes.size(), out.getBytesOut());
+    }
+
+    @Test
+    public void zipFileReads() throws Exception
+    {
+        byte[] big = data(ParallelDeflateOutputStream.BLOCK_SIZE * 3);
+        File f = File.createTempFile("parallelzip", ".zip");
+        try {
+            try (ParallelZipOutputStream zip = new ParallelZipOutputStream(new BufferedOutputStream(new FileOutputStream(f)), false)) {
+                zip.putNextEntry("big.sql");
+                zip.write(big);
+                zip.putNextEntry("empty.txt");
+                zip.putNextEntry("dir/small.txt");
+                zip.write("hello".getBytes());
+            }
+
+            try (ZipFile zf = new ZipFile(f)) {
+                Assert.assertEquals(3, zf.size());
+                ZipEntry e = zf.getEntry("big.sql");
+                Assert.assertEquals(big.length, e.getSize());
+                Assert.assertArrayEquals(big, zf.getInputStream(e).readAllBytes());
+                Assert.assertEquals(0, zf.getInputStream(zf.getEntry("empty.txt")).readAllBytes().length);
+                Assert.assertEquals("hello", new String(zf.getInputStream(zf.getEntry("dir/small.txt")).readAllBytes()));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void zip64LocalHeader() throws Exception
+    {
+        // fake a 4GB limit of 1000 bytes so the zip64 records get written
+        byte[] big = data(5000);
+        File f = File.createTempFile("parallelzip", ".zip");
+        try {
+            try (ParallelZipOutputStream zip = new ParallelZipOutputStream(new BufferedOutputStream(new FileOutputStream(f)), false, 1000)) {
+                zip.putNextEntry("big.sql", true);
+                zip.write(big);
+                zip.putNextEntry("small.txt");
+                zip.write("hello".getBytes());
+            }
+
+            long csize;
+            try (ZipFile zf = new ZipFile(f)) {
+                ZipEntry e = zf.getEntry("big.sql");
+                csize = e.getCompressedSize();
+                Assert.assertEquals(big.length, e.getSize());
+                Assert.assertArrayEquals(big, zf.getInputStream(e).readAllBytes());
+                Assert.assertEquals("hello", new String(zf.getInputStream(zf.getEntry("small.txt")).readAllBytes()));
+            }
+
+            ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(f.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            Assert.assertEquals(0x04034b50, b.getInt(0));
+            Assert.assertEquals(45, b.getShort(4));
+            Assert.assertEquals(0, b.getInt(18)); // sizes are in the data descriptor
+            Assert.assertEquals(0, b.getInt(22));
+            Assert.assertEquals(7, b.getShort(26));
+            Assert.assertEquals(20, b.getShort(28));
+            Assert.assertEquals(0x0001, b.getShort(37));
+            Assert.assertEquals(16, b.getShort(39));
+            Assert.assertEquals(0, b.getLong(41));
+            Assert.assertEquals(0, b.getLong(49));
+
+            int descriptor = (int)(57 + csize);
+            Assert.assertEquals(0x08074b50, b.getInt(descriptor));
+            Assert.assertEquals(csize, b.getLong(descriptor + 8));
+            Assert.assertEquals(big.length, b.getLong(descriptor + 16));
+
+            int small = descriptor + 24;
+            Assert.assertEquals(0x04034b50, b.getInt(small));
+            Assert.assertEquals(20, b.getShort(small + 4));
+            Assert.assertEquals(0, b.getShort(small + 28));
+        } finally {
+            f.delete();
+        }
+    }
+}
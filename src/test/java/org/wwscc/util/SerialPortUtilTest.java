@@ -1,5 +1,7 @@
 package org.wwscc.util;
 
+import java.util.Arrays;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.wwscc.util.SerialPortUtil.LineBasedSerialBuffer;
@@ -42,4 +44,37 @@ public class SerialPortUtilTest
         buffer.appendData(new byte[] { 10 });
         Assert.assertArrayEquals(new byte[] { 53, 54 }, buffer.getNextLine());
     }
+
+    @Test
+    public void wrapAroundTest() throws Exception
+    {
+        LineBasedSerialBuffer buffer = new LineBasedSerialBuffer();
+        byte[] line = "rt L 0.512\r".getBytes();
+        for (int ii = 0; ii < LineBasedSerialBuffer.CAPACITY; ii++) {  // lines will straddle the end of the ring
+            buffer.appendData(line);
+            Assert.assertArrayEquals("rt L 0.512".getBytes(), buffer.getNextLine());
+        }
+
+        buffer.appendData("fin R ".getBytes());
+        int[] seen = new int[1];
+        Assert.assertFalse(buffer.nextLine((buf, off, len) -> seen[0]++));
+        buffer.appendData("12.345\n".getBytes());
+        Assert.assertTrue(buffer.nextLine((buf, off, len) -> Assert.assertEquals("fin R 12.345", new String(buf, off, len))));
+        Assert.assertEquals(0, seen[0]);
+        Assert.assertEquals(0, buffer.getDropped());
+    }
+
+    @Test
+    public void overflowTest() throws Exception
+    {
+        LineBasedSerialBuffer buffer = new LineBasedSerialBuffer();
+        byte[] junk = new byte[LineBasedSerialBuffer.CAPACITY + 10];
+        Arrays.fill(junk, (byte)'x');
+        buffer.appendData(junk);
+        buffer.appendData(new byte[] { 13, 51, 52, 13 });
+        Assert.assertEquals(14, buffer.getDropped());
+        Assert.assertEquals(LineBasedSerialBuffer.CAPACITY - 4, buffer.getNextLine().length);
+        Assert.assertArrayEquals(new byte[] { 51, 52 }, buffer.getNextLine());
+        Assert.assertArrayEquals(null, buffer.getNextLine());
+    }
 }
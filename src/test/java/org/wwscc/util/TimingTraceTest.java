@@ -0,0 +1,114 @@
+package org.wwscc.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class TimingTraceTest
+{
+    long seen;
+    MessageListener listener = (type, o) -> seen = TimingTrace.origin();
+
+    @Before
+    public void setup()
+    {
+        Messenger.setTestMode();
+        Messenger.register(MT.TREE, listener);
+        TimingTrace.reset();
+    }
+
+    @After
+    public void cleanup()
+    {
+        Messenger.unregisterAll(listener);
+    }
+
+    private TimingTrace.Summary get(TimingTrace.Hop hop)
+    {
+        for (TimingTrace.Summary s : TimingTrace.summary())
+            if (s.hop == hop)
+                return s;
+        return null;
+    }
+
+    @Test
+    public void originFollowsEvents()
+    {
+        long arrived = System.nanoTime() - 5000000;
+        long prev = TimingTrace.begin(arrived);
+        Messenger.sendEvent(MT.TREE, null);
+        TimingTrace.end(prev);
+        Assert.assertEquals(arrived, seen);
+        Assert.assertEquals(0, TimingTrace.origin());
+
+        TimingTrace.Summary s = get(TimingTrace.Hop.DISPATCH);
+        Assert.assertEquals(1, s.count);
+        Assert.assertTrue(s.totalp50ms >= 5.0);
+
+        Messenger.sendEvent(MT.TREE, null);  // untraced events don't record anything
+        Assert.assertEquals(0, seen);
+        Assert.assertEquals(1, get(TimingTrace.Hop.DISPATCH).count);
+    }
+
+    @Test
+    public void rollingPercentiles()
+    {
+        for (int ii = 1; ii <= TimingTrace.WINDOW + 100; ii++)
+            TimingTrace.record(TimingTrace.Hop.COMMIT, System.nanoTime() - ((ii <= 100) ? 1000000000L : ii * 1000L));
+
+        TimingTrace.Summary s = get(TimingTrace.Hop.COMMIT);
+        Assert.assertEquals(TimingTrace.WINDOW + 100, s.count);
+        Assert.assertEquals(TimingTrace.WINDOW, s.samples);
+        Assert.assertTrue(s.maxms < 1000);  // the slow ones have rolled out
+        Assert.assertEquals(0.0, s.totalp99ms, 0);
+        Assert.assertTrue(s.p50ms <= s.p90ms && s.p90ms <= s.p99ms && s.p99ms <= s.maxms);
+        Assert.assertTrue(TimingTrace.report().contains("commit"));
+    }
+
+    @Test
+    public void notifyMatchesCommit()
+    {
+        TimingTrace.notified(12345);
+        Assert.assertNull(get(TimingTrace.Hop.NOTIFY));
+        long arrived = System.nanoTime() - 5000000;
+        long first  = TimingTrace.committed(arrived);
+        long second = TimingTrace.committed(0);
+        Assert.assertNotEquals(first, second);
+        TimingTrace.notified(second + 1);
+        Assert.assertNull(get(TimingTrace.Hop.NOTIFY));
+        TimingTrace.notified(first);  // matched by id, it has the arrival time
+        Assert.assertTrue(get(TimingTrace.Hop.NOTIFY).totalp50ms >= 5.0);
+        TimingTrace.notified(first);
+        TimingTrace.notified(second);
+        Assert.assertEquals(2, get(TimingTrace.Hop.NOTIFY).count);
+    }
+
+    @Test
+    public void jfrEvents() throws Exception
+    {
+        Path file = Files.createTempFile("timing", ".jfr");
+        try (Recording r = new Recording()) {
+            r.enable("org.wwscc.TimingHop");
+            r.start();
+            TimingTrace.record(TimingTrace.Hop.FANOUT, System.nanoTime() - 2000);
+            r.stop();
+            r.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals("fanout", events.get(0).getString("hop"));
+            Assert.assertTrue(events.get(0).getDuration("hopTime").toNanos() >= 2000);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}